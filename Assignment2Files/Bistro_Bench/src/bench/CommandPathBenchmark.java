@@ -0,0 +1,152 @@
+package bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+
+import ocsf.client.AbstractClient;
+import server.ReservationProtocol;
+
+/**
+ * Micro-benchmarks of the request path, to check whether a change to
+ * AbstractServer, ConnectionToClient or the EchoServer command handling helps
+ * or hurts:
+ * - loopback round trip AbstractClient -> AbstractServer, latency and pipelined throughput
+ * - object stream serialization of a reply
+ * - command parsing and reservation formatting
+ * - the whole command path against the in-memory stand-in (no network)
+ *
+ * MySQL is replaced by {@link StubReservationServer}.
+ *
+ * Usage: CommandPathBenchmark [-wi n] [-i n] [-r ms] [-rff results.json]
+ * Defaults: 3 warm-up and 5 measurement iterations of 1000 ms, JSON written
+ * to bench-results.json.
+ */
+public class CommandPathBenchmark {
+
+    private static final int PORT = 5611;
+    private static final int RESERVATIONS = 10_000;
+    private static final int PIPELINE_DEPTH = 64;
+
+    private static final String GET = "#GET_RESERVATION 4242";
+    private static final String UPDATE = "#UPDATE_RESERVATION 4242 4 2025-01-20";
+
+    /**
+     * Client handing each reply to the benchmark thread.
+     */
+    private static class BenchClient extends AbstractClient {
+
+        final SynchronousQueue<Object> replies = new SynchronousQueue<>();
+        final Semaphore window = new Semaphore(PIPELINE_DEPTH);
+        volatile boolean pipelined;
+
+        BenchClient(String host, int port) {
+            super(host, port);
+        }
+
+        @Override
+        protected void handleMessageFromServer(Object msg) {
+            if (pipelined) {
+                window.release();
+                return;
+            }
+            try {
+                replies.put(msg);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        Object request(Object msg) throws IOException, InterruptedException {
+            sendToServer(msg);
+            Object reply = replies.poll(5, TimeUnit.SECONDS);
+            if (reply == null) {
+                throw new IOException("no reply to " + msg);
+            }
+            return reply;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int warmup = 3;
+        int iterations = 5;
+        long iterationMs = 1000;
+        String resultFile = "bench-results.json";
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "-wi": warmup = Integer.parseInt(args[i + 1]); break;
+                case "-i": iterations = Integer.parseInt(args[i + 1]); break;
+                case "-r": iterationMs = Long.parseLong(args[i + 1]); break;
+                case "-rff": resultFile = args[i + 1]; break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        Harness harness = new Harness(warmup, iterations, iterationMs);
+        StubReservationServer server = new StubReservationServer(PORT, RESERVATIONS);
+
+        // Parsing and formatting
+        String reply = server.handle(GET);
+        harness.run("protocol.parseCommand", Harness.AVGT, () -> ReservationProtocol.words(UPDATE));
+        harness.run("protocol.parseReply", Harness.AVGT, () -> ReservationProtocol.fields(reply));
+        harness.run("protocol.formatReservation", Harness.AVGT, () -> ReservationProtocol.formatReservation(
+                "4242", "4", "2025-01-20", "C104242", "42", "2024-12-01"));
+
+        // Serialization of a reply as ConnectionToClient writes it
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        int header = bytes.size();
+        harness.run("serialization.writeReply", Harness.AVGT, () -> {
+            bytes.reset();
+            out.reset();
+            out.writeObject(reply);
+            out.flush();
+            return bytes;
+        });
+        bytes.reset();
+        ObjectOutputStream full = new ObjectOutputStream(bytes);
+        full.writeObject(reply);
+        full.flush();
+        byte[] serialized = bytes.toByteArray();
+        harness.run("serialization.readReply", Harness.AVGT, () -> {
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+                return in.readObject();
+            }
+        });
+        System.out.println("(reply is " + (serialized.length - header) + " bytes on the wire)");
+
+        // Command path without the network
+        harness.run("server.handleGet", Harness.AVGT, () -> server.handle(GET));
+        harness.run("server.handleUpdate", Harness.AVGT, () -> server.handle(UPDATE));
+
+        // Loopback round trip through the framework
+        server.listen();
+        BenchClient client = new BenchClient("127.0.0.1", PORT);
+        client.openConnection();
+        try {
+            harness.run("loopback.roundTripEcho", Harness.AVGT, () -> client.request("ping"));
+            harness.run("loopback.roundTripGet", Harness.AVGT, () -> client.request(GET));
+
+            client.pipelined = true;
+            harness.run("loopback.pipelinedGet", Harness.THRPT, () -> {
+                client.window.acquire();
+                client.sendToServer(GET);
+                return client;
+            });
+            // Let the last replies arrive before closing
+            client.window.acquire(PIPELINE_DEPTH);
+        } finally {
+            client.closeConnection();
+            server.close();
+        }
+
+        harness.writeJson(resultFile);
+        System.out.println("Results written to " + resultFile);
+        System.exit(0);
+    }
+}
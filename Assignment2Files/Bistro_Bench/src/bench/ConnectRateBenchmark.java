@@ -0,0 +1,166 @@
+package bench;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ocsf.server.AbstractServer;
+import ocsf.server.ConnectionToClient;
+
+/**
+ * Measures how many connections per second an OCSF server can set up,
+ * for an increasing number of acceptor threads.
+ *
+ * Simulates a reconnect storm: many client threads each open a connection,
+ * do the object stream handshake, send one message, wait for the reply and
+ * close, as fast as they can. Clients use plain sockets rather than
+ * AbstractClient so that the client side does not start a thread per
+ * connection and the server is what gets measured.
+ *
+ * Usage: ConnectRateBenchmark [maxAcceptors] [clientThreads] [seconds] [csvFile]
+ * Defaults: number of cores, 2 x cores, 5 s, no CSV.
+ */
+public class ConnectRateBenchmark {
+
+    private static final String HOST = "127.0.0.1";
+    private static final int BASE_PORT = 5601;
+
+    /**
+     * Minimal server: replies to each message.
+     */
+    private static class BenchServer extends AbstractServer {
+
+        BenchServer(int port) {
+            super(port);
+        }
+
+        @Override
+        protected void handleMessageFromClient(Object msg, ConnectionToClient client) {
+            try {
+                client.sendToClient(msg);
+            } catch (IOException e) {
+                // Client already gone
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int maxAcceptors = args.length > 0 ? Integer.parseInt(args[0]) : cores;
+        int clientThreads = args.length > 1 ? Integer.parseInt(args[1]) : 2 * cores;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        String csvFile = args.length > 3 ? args[3] : null;
+
+        System.out.println("cores=" + cores + " clients=" + clientThreads + " duration=" + seconds + "s");
+        System.out.printf("%-10s %12s %12s %10s%n", "acceptors", "conn/s", "avg ms", "errors");
+
+        List<String> csv = new ArrayList<>();
+        csv.add("acceptors,connPerSec,avgMs,errors");
+
+        // Warm up the JIT on both sides before the first measurement
+        run(1, clientThreads, 1, BASE_PORT);
+
+        // 1, 2, 4, ... and maxAcceptors itself
+        List<Integer> counts = new ArrayList<>();
+        for (int acceptors = 1; acceptors < maxAcceptors; acceptors *= 2) {
+            counts.add(acceptors);
+        }
+        counts.add(maxAcceptors);
+
+        int port = BASE_PORT + 1;
+        for (int acceptors : counts) {
+            Result r = run(acceptors, clientThreads, seconds, port++);
+            System.out.printf("%-10d %12.0f %12.3f %10d%n", acceptors, r.perSecond, r.avgMs, r.errors);
+            csv.add(acceptors + "," + Math.round(r.perSecond) + "," + r.avgMs + "," + r.errors);
+        }
+
+        if (csvFile != null) {
+            try (PrintWriter out = new PrintWriter(new FileWriter(csvFile))) {
+                for (String line : csv) {
+                    out.println(line);
+                }
+            }
+            System.out.println("Results written to " + csvFile);
+        }
+        System.exit(0);
+    }
+
+    private static class Result {
+        double perSecond;
+        double avgMs;
+        long errors;
+    }
+
+    private static Result run(int acceptors, int clientThreads, int seconds, int port) throws Exception {
+        BenchServer server = new BenchServer(port);
+        server.setAcceptorCount(acceptors);
+        server.setBacklog(1024);
+        server.listen();
+
+        AtomicLong completed = new AtomicLong();
+        AtomicLong totalNanos = new AtomicLong();
+        AtomicLong errors = new AtomicLong();
+        AtomicInteger ids = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(clientThreads);
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < clientThreads; i++) {
+            Thread t = new Thread(() -> {
+                while (System.nanoTime() < end) {
+                    long t0 = System.nanoTime();
+                    try {
+                        connectOnce(port, "#PING " + ids.incrementAndGet());
+                        totalNanos.addAndGet(System.nanoTime() - t0);
+                        completed.incrementAndGet();
+                    } catch (IOException | ClassNotFoundException e) {
+                        errors.incrementAndGet();
+                    }
+                }
+                done.countDown();
+            }, "bench client " + i);
+            t.setDaemon(true);
+            t.start();
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+
+        server.close();
+
+        Result r = new Result();
+        long n = completed.get();
+        r.perSecond = n * 1e9 / elapsed;
+        r.avgMs = n == 0 ? 0 : totalNanos.get() / 1e6 / n;
+        r.errors = errors.get();
+        return r;
+    }
+
+    /**
+     * One full connection: connect, stream handshake, one round trip, close.
+     */
+    private static void connectOnce(int port, String msg) throws IOException, ClassNotFoundException {
+        try (Socket socket = new Socket()) {
+            // Reset on close so that thousands of sockets in TIME_WAIT do not
+            // exhaust the local ports during the run
+            socket.setSoLinger(true, 0);
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(HOST, port));
+
+            ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+            out.flush();
+            ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
+            out.writeObject(msg);
+            out.flush();
+            in.readObject();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package bench;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Small micro-benchmark runner following the JMH model: each benchmark is
+ * run for a number of timed warm-up iterations (results discarded), then for
+ * a number of timed measurement iterations. Results are printed as a table
+ * and can be written as JSON in the same layout as JMH's "-rf json", so the
+ * same scripts can compare runs.
+ *
+ * Return values of the operations go to {@link #consume(Object)} so that the
+ * JIT cannot drop the measured code as dead.
+ */
+public class Harness {
+
+    /** Throughput: operations per second. */
+    public static final String THRPT = "thrpt";
+    /** Average time: microseconds per operation. */
+    public static final String AVGT = "avgt";
+
+    /**
+     * One benchmarked operation.
+     */
+    @FunctionalInterface
+    public interface Operation {
+        Object run() throws Exception;
+    }
+
+    /**
+     * Result of one benchmark.
+     */
+    public static class Result {
+        final String benchmark;
+        final String mode;
+        final String unit;
+        final double[] samples;
+        final double score;
+        final double error;
+
+        Result(String benchmark, String mode, String unit, double[] samples) {
+            this.benchmark = benchmark;
+            this.mode = mode;
+            this.unit = unit;
+            this.samples = samples;
+
+            double sum = 0;
+            for (double s : samples) sum += s;
+            this.score = sum / samples.length;
+
+            double var = 0;
+            for (double s : samples) var += (s - score) * (s - score);
+            double stddev = samples.length > 1 ? Math.sqrt(var / (samples.length - 1)) : 0;
+            // 99.9% confidence interval, normal approximation
+            this.error = 3.29 * stddev / Math.sqrt(samples.length);
+        }
+    }
+
+    private final int warmupIterations;
+    private final int measurementIterations;
+    private final long iterationMillis;
+    private final List<Result> results = new ArrayList<>();
+
+    // Written on every operation, never read: enough to keep results alive
+    private int sink;
+
+    public Harness(int warmupIterations, int measurementIterations, long iterationMillis) {
+        this.warmupIterations = warmupIterations;
+        this.measurementIterations = measurementIterations;
+        this.iterationMillis = iterationMillis;
+    }
+
+    /**
+     * Runs one benchmark and records its result.
+     *
+     * @param name name of the benchmark in the report
+     * @param mode {@link #THRPT} or {@link #AVGT}
+     * @param op   the operation to measure
+     */
+    public Result run(String name, String mode, Operation op) throws Exception {
+        for (int i = 0; i < warmupIterations; i++) {
+            iteration(op);
+        }
+
+        double[] samples = new double[measurementIterations];
+        for (int i = 0; i < measurementIterations; i++) {
+            long[] opsAndNanos = iteration(op);
+            double seconds = opsAndNanos[1] / 1e9;
+            samples[i] = THRPT.equals(mode)
+                    ? opsAndNanos[0] / seconds
+                    : opsAndNanos[1] / 1e3 / opsAndNanos[0];
+        }
+
+        Result result = new Result(name, mode, THRPT.equals(mode) ? "ops/s" : "us/op", samples);
+        results.add(result);
+        System.out.println(String.format(Locale.ROOT, "%-40s %6s %14.3f ± %10.3f %s",
+                name, mode, result.score, result.error, result.unit));
+        return result;
+    }
+
+    /**
+     * Runs the operation for one iteration's time.
+     *
+     * @return {operations, elapsed nanoseconds}
+     */
+    private long[] iteration(Operation op) throws Exception {
+        long deadline = System.nanoTime() + iterationMillis * 1_000_000L;
+        long ops = 0;
+        long start = System.nanoTime();
+        long now;
+        do {
+            // Check the clock every few operations only: nanoTime itself
+            // costs about as much as the cheapest benchmarks
+            for (int i = 0; i < 16; i++) {
+                consume(op.run());
+            }
+            ops += 16;
+            now = System.nanoTime();
+        } while (now < deadline);
+        return new long[] { ops, now - start };
+    }
+
+    /**
+     * Keeps a value alive so the computation producing it is not optimized away.
+     */
+    public void consume(Object value) {
+        sink += System.identityHashCode(value);
+    }
+
+    /**
+     * Writes all results recorded so far as JSON.
+     */
+    public void writeJson(String file) throws IOException {
+        try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+            out.println("[");
+            for (int r = 0; r < results.size(); r++) {
+                Result result = results.get(r);
+                out.println("  {");
+                out.println("    \"benchmark\" : \"" + result.benchmark + "\",");
+                out.println("    \"mode\" : \"" + result.mode + "\",");
+                out.println("    \"warmupIterations\" : " + warmupIterations + ",");
+                out.println("    \"measurementIterations\" : " + measurementIterations + ",");
+                out.println("    \"measurementTime\" : \"" + iterationMillis + " ms\",");
+                out.println("    \"primaryMetric\" : {");
+                out.println("      \"score\" : " + number(result.score) + ",");
+                out.println("      \"scoreError\" : " + number(result.error) + ",");
+                out.println("      \"scoreUnit\" : \"" + result.unit + "\",");
+                StringBuilder raw = new StringBuilder();
+                for (int i = 0; i < result.samples.length; i++) {
+                    if (i > 0) raw.append(", ");
+                    raw.append(number(result.samples[i]));
+                }
+                out.println("      \"rawData\" : [ [ " + raw + " ] ]");
+                out.println("    }");
+                out.println(r < results.size() - 1 ? "  }," : "  }");
+            }
+            out.println("]");
+        }
+    }
+
+    private static String number(double value) {
+        return String.format(Locale.ROOT, "%.6f", value);
+    }
+}
@@ -0,0 +1,153 @@
+package bench;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.Collections;
+
+import DBController.MySqlReservationStore;
+import DBController.ReplicatedReservationStore;
+import DBController.Reservation;
+import DBController.mysqlConnection1;
+
+/**
+ * Checks how a {@link ReplicatedReservationStore} routes reads, against two
+ * schemas of one MySQL server: the primary, and a second schema standing in
+ * for a read replica. There is no replication between them: the check
+ * copies rows and the heartbeat to the "replica" itself, so it decides
+ * exactly how far behind the replica is.
+ *
+ * Checks, on a reservation created for the run and deleted at the end:
+ * - no heartbeat on the replica: reads() goes to the primary
+ * - heartbeat copied: reads() goes to the replica, which still has the
+ *   reservation as it was before an update, while the store itself (the
+ *   path of the update's reply) reads the updated one from the primary
+ * - heartbeat no longer copied: once the replica is more than the maximum
+ *   lag behind, reads() falls back to the primary and sees the update
+ *
+ * The replica schema gets the reservation and heartbeat tables of the
+ * primary (CREATE TABLE ... LIKE) if it has none.
+ *
+ * Usage: ReplicaRoutingCheck [primary] [replica]
+ * Defaults: localhost:3306/bistro, localhost:3306/bistro_replica.
+ * Exits with 1 if a check fails.
+ */
+public class ReplicaRoutingCheck {
+
+    private static final long MAX_LAG_MS = 500;
+    private static final long CHECK_MS = 100;
+
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        String primary = args.length > 0 ? args[0] : "localhost:3306/bistro";
+        String replica = args.length > 1 ? args[1] : "localhost:3306/bistro_replica";
+        String primarySchema = primary.substring(primary.lastIndexOf('/') + 1);
+        String replicaSchema = replica.substring(replica.lastIndexOf('/') + 1);
+
+        Connection admin = mysqlConnection1.getDBConnection(primary);
+        if (admin == null) {
+            System.err.println("Cannot reach " + primary);
+            System.exit(2);
+        }
+        try (Statement st = admin.createStatement()) {
+            st.execute("CREATE TABLE IF NOT EXISTS " + replicaSchema + ".reservation LIKE "
+                    + primarySchema + ".reservation");
+            st.execute("DELETE FROM " + replicaSchema + ".reservation_heartbeat WHERE id = 1");
+        } catch (SQLException e) {
+            // No heartbeat table on the replica yet: as good as no heartbeat
+        }
+
+        MySqlReservationStore database = new MySqlReservationStore(primary);
+        ReplicatedReservationStore store = new ReplicatedReservationStore(database,
+                Collections.singletonList(new MySqlReservationStore(replica)), MAX_LAG_MS, CHECK_MS);
+        int orderNumber = database.insert(new Reservation(0, 2, LocalDate.now().plusDays(30), 0,
+                Reservation.NO_SUBSCRIBER, LocalDate.now()));
+        System.out.println("primary=" + primary + " replica=" + replica + " reservation=" + orderNumber);
+        try {
+            copyRow(admin, primarySchema, replicaSchema, orderNumber);
+
+            // 1. No heartbeat on the replica
+            Thread.sleep(3 * CHECK_MS);
+            long before = primaryReads(store);
+            store.reads().find(orderNumber);
+            check("no heartbeat: read from the primary", primaryReads(store) == before + 1);
+
+            // 2. Heartbeat copied, replica in time but without the update
+            Thread copier = new Thread(() -> {
+                while (!Thread.currentThread().isInterrupted()) {
+                    try {
+                        copyHeartbeat(admin, primarySchema, replicaSchema);
+                        Thread.sleep(CHECK_MS / 2);
+                    } catch (InterruptedException e) {
+                        return;
+                    } catch (SQLException e) {
+                        // Not beaten yet: try again
+                    }
+                }
+            }, "heartbeat-copier");
+            copier.start();
+            Thread.sleep(5 * CHECK_MS);
+            store.update(orderNumber, 5, LocalDate.now().plusDays(30));
+            before = primaryReads(store);
+            Reservation onReplica = store.reads().find(orderNumber);
+            check("heartbeat copied: read from the replica", primaryReads(store) == before);
+            check("replica has the reservation before the update",
+                    onReplica != null && onReplica.getNumberOfGuests() == 2);
+            Reservation afterUpdate = store.find(orderNumber);
+            check("read after the update on the primary sees it",
+                    afterUpdate != null && afterUpdate.getNumberOfGuests() == 5);
+
+            // 3. Heartbeat no longer copied: the replica falls behind
+            copier.interrupt();
+            copier.join();
+            Thread.sleep(MAX_LAG_MS + 3 * CHECK_MS);
+            before = primaryReads(store);
+            Reservation fallback = store.reads().find(orderNumber);
+            check("replica behind: read from the primary", primaryReads(store) == before + 1);
+            check("fallback read sees the update", fallback != null && fallback.getNumberOfGuests() == 5);
+            System.out.println(store.toStatsReply());
+        } finally {
+            try (Statement st = admin.createStatement()) {
+                st.executeUpdate("DELETE FROM " + primarySchema + ".reservation WHERE order_number = " + orderNumber);
+                st.executeUpdate("DELETE FROM " + replicaSchema + ".reservation WHERE order_number = " + orderNumber);
+            }
+            store.close();
+            store.threadFinished();
+            admin.close();
+        }
+        System.out.println(failures == 0 ? "All checks passed" : failures + " check(s) failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static void check(String what, boolean passed) {
+        System.out.println((passed ? "PASS " : "FAIL ") + what);
+        if (!passed) {
+            failures++;
+        }
+    }
+
+    // STORE_STATS|replicated|primaryReads|...
+    private static long primaryReads(ReplicatedReservationStore store) {
+        return Long.parseLong(store.toStatsReply().split("\\|")[2]);
+    }
+
+    private static void copyRow(Connection admin, String from, String to, int orderNumber) throws SQLException {
+        try (PreparedStatement ps = admin.prepareStatement("INSERT INTO " + to + ".reservation SELECT * FROM "
+                + from + ".reservation WHERE order_number = ?")) {
+            ps.setInt(1, orderNumber);
+            ps.executeUpdate();
+        }
+    }
+
+    private static void copyHeartbeat(Connection admin, String from, String to) throws SQLException {
+        try (Statement st = admin.createStatement()) {
+            st.execute("CREATE TABLE IF NOT EXISTS " + to + ".reservation_heartbeat LIKE "
+                    + from + ".reservation_heartbeat");
+            st.executeUpdate("REPLACE INTO " + to + ".reservation_heartbeat SELECT * FROM "
+                    + from + ".reservation_heartbeat");
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package bench;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Random;
+
+import server.SeatingPlan;
+
+/**
+ * Measures table assignment with {@link SeatingPlan} on a booked-up year.
+ *
+ * Seats the given number of reservations (1-8 guests, random day of the year,
+ * random quarter hour between 11:00 and 21:30) on a floor of the given number
+ * of tables, then times best-fit lookups and moves of seated reservations
+ * (what an #UPDATE_RESERVATION does) against that full plan.
+ *
+ * Usage: SeatingBenchmark [bookings] [tables]
+ * Defaults: 100000, 100.
+ */
+public class SeatingBenchmark {
+
+    private static final LocalDate FIRST_DAY = LocalDate.of(2025, 1, 1);
+    private static final int[] TABLE_SIZES = { 2, 2, 2, 4, 4, 4, 4, 6, 8, 10 };
+
+    public static void main(String[] args) {
+        int bookings = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int tables = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+        StringBuilder layout = new StringBuilder();
+        for (int i = 0; i < tables; i++) {
+            layout.append(i == 0 ? "" : ",").append(i + 1).append(':').append(TABLE_SIZES[i % TABLE_SIZES.length]);
+        }
+        SeatingPlan plan = new SeatingPlan(layout.toString(), 120);
+        System.out.println("bookings=" + bookings + " tables=" + tables);
+        System.out.printf("%-10s %12s %12s %12s%n", "operation", "ops", "ops/s", "ns/op");
+
+        Random random = new Random(42);
+        long start = System.nanoTime();
+        int seated = 0;
+        for (int i = 1; i <= bookings; i++) {
+            if (plan.assign(i, guests(random), time(random)) != null) {
+                seated++;
+            }
+        }
+        report("assign", bookings, System.nanoTime() - start);
+        System.out.println("  seated " + seated + ", no table for " + (bookings - seated));
+
+        // Warm-up pass, then the measured one
+        for (int pass = 0; pass < 2; pass++) {
+            random = new Random(7);
+            int found = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < bookings; i++) {
+                if (plan.find(guests(random), time(random)) != null) {
+                    found++;
+                }
+            }
+            if (pass == 1) {
+                report("find", bookings, System.nanoTime() - start);
+                System.out.println("  free table for " + found + " of " + bookings);
+            }
+        }
+
+        random = new Random(11);
+        int moved = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < bookings; i++) {
+            if (plan.assign(1 + random.nextInt(bookings), guests(random), time(random)) != null) {
+                moved++;
+            }
+        }
+        report("move", bookings, System.nanoTime() - start);
+        System.out.println("  moved " + moved + ", kept at their table " + (bookings - moved));
+    }
+
+    private static int guests(Random random) {
+        return 1 + random.nextInt(8);
+    }
+
+    private static LocalDateTime time(Random random) {
+        return FIRST_DAY.plusDays(random.nextInt(365)).atTime(11, 0).plusMinutes(15 * random.nextInt(43));
+    }
+
+    private static void report(String operation, int ops, long nanos) {
+        System.out.printf("%-10s %12d %12.0f %12.0f%n", operation, ops, ops / (nanos / 1e9), (double) nanos / ops);
+    }
+}
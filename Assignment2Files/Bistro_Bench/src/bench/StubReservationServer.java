@@ -0,0 +1,70 @@
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ocsf.server.AbstractServer;
+import ocsf.server.ConnectionToClient;
+import server.ReservationProtocol;
+
+/**
+ * In-process stand-in for EchoServer backed by a map instead of MySQL, so the
+ * command path can be benchmarked anywhere. It answers #GET_RESERVATION and
+ * #UPDATE_RESERVATION with the same parsing and reply format as EchoServer,
+ * and echoes everything else.
+ */
+public class StubReservationServer extends AbstractServer {
+
+    /** Reservation rows by order number: numGuests, orderDate, confCode, subscriberId, placingDate. */
+    private final ConcurrentHashMap<String, String[]> reservations = new ConcurrentHashMap<>();
+
+    public StubReservationServer(int port, int reservationCount) {
+        super(port);
+        for (int i = 1; i <= reservationCount; i++) {
+            reservations.put(String.valueOf(i), new String[] {
+                    String.valueOf(1 + i % 8), "2025-01-" + (10 + i % 20), "C" + (100000 + i),
+                    String.valueOf(i % 50), "2024-12-01" });
+        }
+    }
+
+    @Override
+    protected void handleMessageFromClient(Object msg, ConnectionToClient client) {
+        try {
+            client.sendToClient(handle(String.valueOf(msg)));
+        } catch (IOException e) {
+            // Client already gone
+        }
+    }
+
+    /**
+     * The command path without the network: parse, look up, format.
+     */
+    public String handle(String messageStr) {
+        if (messageStr.startsWith("#GET_RESERVATION")) {
+            String[] parts = ReservationProtocol.words(messageStr);
+            return parts.length < 2 ? ReservationProtocol.NOT_FOUND : get(parts[1]);
+        } else if (messageStr.startsWith("#UPDATE_RESERVATION")) {
+            String[] parts = ReservationProtocol.words(messageStr);
+            if (parts.length < 4) {
+                return "ERROR|BAD_UPDATE_FORMAT_OR_NO_DB";
+            }
+            String[] row = reservations.get(parts[1]);
+            if (row != null) {
+                String[] updated = row.clone();
+                updated[0] = String.valueOf(Integer.parseInt(parts[2]));
+                updated[1] = parts[3];
+                reservations.put(parts[1], updated);
+            }
+            return get(parts[1]);
+        }
+        return "Message received: " + messageStr;
+    }
+
+    private String get(String orderNum) {
+        String[] row = reservations.get(orderNum);
+        if (row == null) {
+            return ReservationProtocol.NOT_FOUND;
+        }
+        return ReservationProtocol.formatReservation(orderNum, row[0], row[1], row[2], row[3], row[4]);
+    }
+}
@@ -0,0 +1,44 @@
+package loadgen;
+
+import java.io.IOException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+
+import ocsf.client.AbstractClient;
+
+/**
+ * One simulated terminal: an OCSF client that sends a request and waits for
+ * its reply. Pushed events (RESERVATION_CHANGED) are not replies and are
+ * ignored; heartbeats are answered by AbstractClient itself.
+ */
+public class LoadClient extends AbstractClient {
+
+    private final SynchronousQueue<String> replies = new SynchronousQueue<>();
+
+    public LoadClient(String host, int port) {
+        super(host, port);
+    }
+
+    @Override
+    protected void handleMessageFromServer(Object msg) {
+        String reply = String.valueOf(msg);
+        if (reply.startsWith("RESERVATION_CHANGED")) {
+            return;
+        }
+        try {
+            // Dropped if nobody waits any more (request timed out)
+            replies.offer(reply, 1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Send a request and wait for the reply.
+     * @return the reply, or null if none came within the timeout
+     */
+    public String request(Object msg, long timeoutMs) throws IOException, InterruptedException {
+        sendToServer(msg);
+        return replies.poll(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+}
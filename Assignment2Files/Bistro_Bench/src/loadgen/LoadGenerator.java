@@ -0,0 +1,291 @@
+package loadgen;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import DBController.LatencyHistogram;
+
+/**
+ * Headless load driver: simulates many terminals issuing a mix of
+ * #GET_RESERVATION, #UPDATE_RESERVATION and #CREATE_RESERVATION against a
+ * running EchoServer, and reports throughput and latency percentiles.
+ *
+ * Two modes:
+ * - closed loop: each terminal sends, waits for the reply, thinks, repeats.
+ *   Load adapts to the server speed, like real staff at a terminal.
+ * - open loop: requests are due at a fixed total rate whatever the server
+ *   does. Latency is measured from when a request was due, not from when it
+ *   could actually be sent, so a stalled server is not hidden by the
+ *   generator slowing down (coordinated omission).
+ *
+ * Latencies are only recorded after the ramp-up.
+ *
+ * Usage: LoadGenerator [-host h] [-port p] [-clients n] [-rampup s] [-duration s]
+ *        [-think ms] [-mix get=90,update=10,create=0] [-orders first-last]
+ *        [-mode closed|open] [-rate requests/s] [-timeout ms]
+ *
+ * All the load comes from one machine: if the server was started with per-IP
+ * limits (-Dbistro.connectRate, -Dbistro.messageRate; off by default), expect
+ * ERROR|RATE_LIMITED replies, and for many terminals raise
+ * -Dbistro.maxConnections (default 1000). Creations are
+ * spread over the next year; a day that is full answers ERROR|FULLY_BOOKED,
+ * so for a creation-heavy run raise -Dbistro.seatsPerDay too.
+ */
+public class LoadGenerator {
+
+    private static final String GET = "get";
+    private static final String UPDATE = "update";
+    private static final String CREATE = "create";
+
+    // Configuration
+    private String host = "localhost";
+    private int port = 5555;
+    private int clients = 100;
+    private long rampUpMs = 10_000;
+    private long durationMs = 60_000;
+    private long thinkMs = 100;
+    private int getPercent = 90;
+    private int updatePercent = 10;
+    private int firstOrder = 1;
+    private int lastOrder = 1000;
+    private boolean openLoop = false;
+    private double rate = 1000;
+    private long timeoutMs = 5000;
+
+    // Results
+    private final Map<String, LatencyHistogram> histograms = new LinkedHashMap<>();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder busy = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder connectFailures = new LongAdder();
+
+    private long measureStart;
+    private long end;
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        generator.parse(args);
+        generator.run();
+        System.exit(0);
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "-host": host = value; break;
+                case "-port": port = Integer.parseInt(value); break;
+                case "-clients": clients = Integer.parseInt(value); break;
+                case "-rampup": rampUpMs = (long) (Double.parseDouble(value) * 1000); break;
+                case "-duration": durationMs = (long) (Double.parseDouble(value) * 1000); break;
+                case "-think": thinkMs = Long.parseLong(value); break;
+                case "-mode": openLoop = "open".equals(value); break;
+                case "-rate": rate = Double.parseDouble(value); break;
+                case "-timeout": timeoutMs = Long.parseLong(value); break;
+                case "-orders": {
+                    String[] range = value.split("-");
+                    firstOrder = Integer.parseInt(range[0]);
+                    lastOrder = Integer.parseInt(range[1]);
+                    break;
+                }
+                case "-mix": {
+                    int get = 0;
+                    int update = 0;
+                    int create = 0;
+                    for (String part : value.split(",")) {
+                        String[] kv = part.split("=");
+                        if (GET.equals(kv[0])) get = Integer.parseInt(kv[1]);
+                        else if (UPDATE.equals(kv[0])) update = Integer.parseInt(kv[1]);
+                        else if (CREATE.equals(kv[0])) create = Integer.parseInt(kv[1]);
+                        else throw new IllegalArgumentException("Unknown command in mix: " + kv[0]);
+                    }
+                    getPercent = 100 * get / (get + update + create);
+                    updatePercent = 100 * update / (get + update + create);
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        histograms.put(GET, new LatencyHistogram());
+        histograms.put(UPDATE, new LatencyHistogram());
+        histograms.put(CREATE, new LatencyHistogram());
+    }
+
+    private void run() throws InterruptedException {
+        System.out.println(String.format(Locale.ROOT,
+                "%s:%d clients=%d rampup=%ds duration=%ds mode=%s %s mix=get %d%%/update %d%%/create %d%% orders=%d-%d",
+                host, port, clients, rampUpMs / 1000, durationMs / 1000, openLoop ? "open" : "closed",
+                openLoop ? "rate=" + rate + "/s" : "think=" + thinkMs + "ms",
+                getPercent, updatePercent, 100 - getPercent - updatePercent, firstOrder, lastOrder));
+
+        long start = System.nanoTime();
+        measureStart = start + TimeUnit.MILLISECONDS.toNanos(rampUpMs);
+        end = measureStart + TimeUnit.MILLISECONDS.toNanos(durationMs);
+
+        Thread[] terminals = new Thread[clients];
+        for (int i = 0; i < clients; i++) {
+            // Terminals come up evenly over the ramp-up
+            long startAt = start + TimeUnit.MILLISECONDS.toNanos(rampUpMs) * i / clients;
+            terminals[i] = new Thread(() -> runTerminal(startAt), "terminal " + i);
+            terminals[i].setDaemon(true);
+            terminals[i].start();
+        }
+
+        long lastCount = 0;
+        long lastTime = System.nanoTime();
+        while (System.nanoTime() < end) {
+            Thread.sleep(Math.max(1, Math.min(5000, TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime()))));
+            long now = System.nanoTime();
+            long count = completed.sum();
+            System.out.println(String.format(Locale.ROOT, "[%5.0fs] %8.0f req/s  (busy %d, rate-limited %d, errors %d, timeouts %d)",
+                    (now - start) / 1e9, (count - lastCount) * 1e9 / (now - lastTime),
+                    busy.sum(), rateLimited.sum(), errors.sum(), timeouts.sum()));
+            lastCount = count;
+            lastTime = now;
+        }
+        for (Thread terminal : terminals) {
+            terminal.join(timeoutMs + 1000);
+        }
+
+        report();
+    }
+
+    /**
+     * Body of one simulated terminal.
+     */
+    private void runTerminal(long startAt) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        sleepUntil(startAt);
+
+        LoadClient client = connect();
+        if (client == null) return;
+
+        // Open loop: this terminal's share of the total rate
+        long intervalNanos = (long) (1e9 * clients / rate);
+        long due = System.nanoTime();
+
+        try {
+            while (System.nanoTime() < end) {
+                if (openLoop) {
+                    sleepUntil(due);
+                }
+                int roll = random.nextInt(100);
+                String kind = roll < getPercent ? GET : roll < getPercent + updatePercent ? UPDATE : CREATE;
+                String msg = kind == GET ? getCommand(random) : kind == UPDATE ? updateCommand(random) : createCommand(random);
+
+                long sent = openLoop ? due : System.nanoTime();
+                String reply = client.request(msg, timeoutMs);
+                long now = System.nanoTime();
+
+                if (reply == null) {
+                    // A late reply would be taken for the next one: start over
+                    timeouts.increment();
+                    client.closeConnection();
+                    client = connect();
+                    if (client == null) return;
+                } else if (reply.startsWith("BUSY|")) {
+                    busy.increment();
+                } else if (reply.startsWith("ERROR|RATE_LIMITED")) {
+                    rateLimited.increment();
+                } else if (reply.startsWith("ERROR|")) {
+                    errors.increment();
+                } else if (now >= measureStart && now < end) {
+                    histograms.get(kind).record((now - sent) / 1000);
+                    completed.increment();
+                }
+
+                if (openLoop) {
+                    due += intervalNanos;
+                } else if (thinkMs > 0) {
+                    // Exponentially distributed think time around the mean
+                    long think = (long) (-Math.log(1 - random.nextDouble()) * thinkMs);
+                    Thread.sleep(think);
+                }
+            }
+        } catch (IOException e) {
+            errors.increment();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                if (client != null) client.closeConnection();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private LoadClient connect() {
+        LoadClient client = new LoadClient(host, port);
+        try {
+            client.openConnection();
+            return client;
+        } catch (IOException e) {
+            connectFailures.increment();
+            return null;
+        }
+    }
+
+    private String getCommand(ThreadLocalRandom random) {
+        return "#GET_RESERVATION " + random.nextInt(firstOrder, lastOrder + 1);
+    }
+
+    private String updateCommand(ThreadLocalRandom random) {
+        int guests = random.nextInt(1, 9);
+        LocalDate date = LocalDate.now().plusDays(random.nextInt(1, 31));
+        return "#UPDATE_RESERVATION " + random.nextInt(firstOrder, lastOrder + 1) + " " + guests + " " + date;
+    }
+
+    private String createCommand(ThreadLocalRandom random) {
+        int guests = random.nextInt(1, 9);
+        LocalDate date = LocalDate.now().plusDays(random.nextInt(1, 366));
+        return "#CREATE_RESERVATION " + guests + " " + date;
+    }
+
+    private static void sleepUntil(long nanoTime) {
+        long wait;
+        while ((wait = nanoTime - System.nanoTime()) > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void report() {
+        LatencyHistogram all = new LatencyHistogram();
+        for (LatencyHistogram h : histograms.values()) {
+            all.add(h);
+        }
+
+        System.out.println();
+        System.out.println(String.format(Locale.ROOT, "Throughput: %.1f req/s over %d s (%d requests)",
+                completed.sum() * 1000.0 / durationMs, durationMs / 1000, completed.sum()));
+        System.out.println(String.format(Locale.ROOT,
+                "Not served: busy %d, rate-limited %d, errors %d, timeouts %d, failed connects %d",
+                busy.sum(), rateLimited.sum(), errors.sum(), timeouts.sum(), connectFailures.sum()));
+        System.out.println();
+        System.out.println(String.format(Locale.ROOT, "%-8s %10s %10s %10s %10s %10s %10s",
+                "command", "count", "mean ms", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+        for (Map.Entry<String, LatencyHistogram> e : histograms.entrySet()) {
+            printRow(e.getKey(), e.getValue());
+        }
+        printRow("all", all);
+    }
+
+    private static void printRow(String name, LatencyHistogram h) {
+        System.out.println(String.format(Locale.ROOT, "%-8s %10d %10.2f %10.2f %10.2f %10.2f %10.2f",
+                name, h.getCount(), h.getMean() / 1000,
+                h.getValueAtPercentile(50) / 1000.0, h.getValueAtPercentile(99) / 1000.0,
+                h.getValueAtPercentile(99.9) / 1000.0, h.getMax() / 1000.0));
+    }
+}
@@ -0,0 +1,279 @@
+package replay;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import DBController.LatencyHistogram;
+import loadgen.LoadClient;
+import ocsf.server.TrafficReader;
+
+/**
+ * Re-drives a traffic capture (recorded by the server with
+ * -Dbistro.captureFile) against a test server, and reports the latency per
+ * command. With -compare, the capture is replayed against a second server
+ * afterwards and the two are shown side by side, e.g. to compare two builds.
+ *
+ * Every captured connection gets its own client, which sends that
+ * connection's messages in their original order, each after the reply to the
+ * previous one, as the terminals did. Messages are sent at their original
+ * time divided by the speed factor; a connection that falls behind sends as
+ * soon as it can and its latency is measured from the scheduled time.
+ *
+ * Usage: TrafficReplay -file capture.bin -target host:port [-compare host:port]
+ *        [-speed 1|10|...|max] [-timeout ms]
+ */
+public class TrafficReplay {
+
+    private static final Object END = new Object();
+
+    /** Messages read ahead per connection; bounds memory whatever the capture size. */
+    private static final int READ_AHEAD = 1024;
+
+    /**
+     * A message of a connection and when to send it.
+     */
+    private static class Scheduled {
+        final Object message;
+        final long dueNanos;
+
+        Scheduled(Object message, long dueNanos) {
+            this.message = message;
+            this.dueNanos = dueNanos;
+        }
+    }
+
+    /**
+     * Outcome of replaying the capture against one server.
+     */
+    private static class Run {
+        final String target;
+        final Map<String, LatencyHistogram> byCommand = new TreeMap<>();
+        final LongAdder sent = new LongAdder();
+        final LongAdder timeouts = new LongAdder();
+        final LongAdder failedConnects = new LongAdder();
+        long elapsedNanos;
+
+        Run(String target) {
+            this.target = target;
+        }
+
+        synchronized LatencyHistogram histogram(String command) {
+            return byCommand.computeIfAbsent(command, c -> new LatencyHistogram());
+        }
+    }
+
+    private String file;
+    private String target;
+    private String compare;
+    private double speed = 1;
+    private long timeoutMs = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        TrafficReplay replay = new TrafficReplay();
+        replay.parse(args);
+
+        Run first = replay.replay(replay.target);
+        replay.print(first);
+        if (replay.compare != null) {
+            Run second = replay.replay(replay.compare);
+            replay.print(second);
+            replay.printComparison(first, second);
+        }
+        System.exit(0);
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "-file": file = value; break;
+                case "-target": target = value; break;
+                case "-compare": compare = value; break;
+                case "-speed": speed = "max".equals(value) ? 0 : Double.parseDouble(value); break;
+                case "-timeout": timeoutMs = Long.parseLong(value); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if (file == null || target == null) {
+            throw new IllegalArgumentException("-file and -target are required");
+        }
+    }
+
+    /**
+     * Replays the whole capture against one server.
+     */
+    private Run replay(String server) throws IOException, InterruptedException {
+        String host = server.substring(0, server.lastIndexOf(':'));
+        int port = Integer.parseInt(server.substring(server.lastIndexOf(':') + 1));
+        Run run = new Run(server);
+        System.out.println("Replaying " + file + " against " + server
+                + (speed == 0 ? " as fast as possible" : " at " + speed + "x"));
+
+        Map<String, LinkedBlockingQueue<Object>> connections = new HashMap<>();
+        List<Thread> threads = new ArrayList<>();
+        long start = System.nanoTime();
+        long firstMicros = -1;
+
+        try (TrafficReader reader = new TrafficReader(new File(file))) {
+            TrafficReader.Record record;
+            while ((record = reader.next()) != null) {
+                if (firstMicros < 0) {
+                    firstMicros = record.getTimeMicros();
+                }
+                long due = speed == 0 ? start
+                        : start + (long) ((record.getTimeMicros() - firstMicros) * 1000 / speed);
+                String key = record.getSegment() + "/" + record.getConnectionId();
+
+                if (record.isMessage()) {
+                    // Connections opened before the capture started have no connect record
+                    LinkedBlockingQueue<Object> queue = connections.get(key);
+                    if (queue == null) {
+                        queue = startConnection(host, port, run, threads);
+                        connections.put(key, queue);
+                    }
+                    queue.put(new Scheduled(record.getMessage(), due));
+                } else if (record.isConnect()) {
+                    sleepUntil(due);
+                    connections.put(key, startConnection(host, port, run, threads));
+                } else {
+                    LinkedBlockingQueue<Object> queue = connections.remove(key);
+                    if (queue != null) queue.put(END);
+                }
+            }
+        }
+        for (LinkedBlockingQueue<Object> queue : connections.values()) {
+            queue.put(END);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        run.elapsedNanos = System.nanoTime() - start;
+        return run;
+    }
+
+    private LinkedBlockingQueue<Object> startConnection(String host, int port, Run run, List<Thread> threads) {
+        LinkedBlockingQueue<Object> queue = new LinkedBlockingQueue<>(READ_AHEAD);
+        Thread thread = new Thread(() -> replayConnection(host, port, queue, run), "replay " + threads.size());
+        thread.setDaemon(true);
+        thread.start();
+        threads.add(thread);
+        return queue;
+    }
+
+    /**
+     * Sends one connection's messages in order, each after the previous reply.
+     */
+    private void replayConnection(String host, int port, LinkedBlockingQueue<Object> queue, Run run) {
+        LoadClient client = new LoadClient(host, port);
+        try {
+            client.openConnection();
+        } catch (IOException e) {
+            run.failedConnects.increment();
+            drain(queue);
+            return;
+        }
+
+        try {
+            Object item;
+            while ((item = queue.take()) != END) {
+                Scheduled next = (Scheduled) item;
+                sleepUntil(next.dueNanos);
+                long sent = speed == 0 ? System.nanoTime() : next.dueNanos;
+
+                String reply = client.request(next.message, timeoutMs);
+                run.sent.increment();
+                if (reply == null) {
+                    run.timeouts.increment();
+                    continue;
+                }
+                run.histogram(commandOf(next.message)).record((System.nanoTime() - sent) / 1000);
+            }
+        } catch (IOException e) {
+            run.failedConnects.increment();
+            drain(queue);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                client.closeConnection();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    /**
+     * Waits for the end of a connection whose messages cannot be sent.
+     */
+    private static void drain(LinkedBlockingQueue<Object> queue) {
+        try {
+            while (queue.take() != END) {
+                // discard
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String commandOf(Object message) {
+        String text = String.valueOf(message);
+        if (!text.startsWith("#")) return "(other)";
+        int space = text.indexOf(' ');
+        return space < 0 ? text : text.substring(0, space);
+    }
+
+    private static void sleepUntil(long nanoTime) {
+        long wait;
+        while ((wait = nanoTime - System.nanoTime()) > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void print(Run run) {
+        System.out.println(String.format(Locale.ROOT,
+                "%s: %d messages in %.1f s (%.0f/s), timeouts %d, failed connections %d",
+                run.target, run.sent.sum(), run.elapsedNanos / 1e9, run.sent.sum() * 1e9 / run.elapsedNanos,
+                run.timeouts.sum(), run.failedConnects.sum()));
+        System.out.println(String.format(Locale.ROOT, "  %-22s %9s %9s %9s %9s %9s",
+                "command", "count", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+        for (Map.Entry<String, LatencyHistogram> e : run.byCommand.entrySet()) {
+            LatencyHistogram h = e.getValue();
+            System.out.println(String.format(Locale.ROOT, "  %-22s %9d %9.2f %9.2f %9.2f %9.2f",
+                    e.getKey(), h.getCount(), h.getValueAtPercentile(50) / 1000.0,
+                    h.getValueAtPercentile(99) / 1000.0, h.getValueAtPercentile(99.9) / 1000.0,
+                    h.getMax() / 1000.0));
+        }
+        System.out.println();
+    }
+
+    private void printComparison(Run a, Run b) {
+        System.out.println("Difference " + b.target + " vs " + a.target + " (negative is faster):");
+        System.out.println(String.format(Locale.ROOT, "  %-22s %9s %9s %9s", "command", "p50", "p99", "p99.9"));
+        for (String command : a.byCommand.keySet()) {
+            LatencyHistogram ha = a.byCommand.get(command);
+            LatencyHistogram hb = b.byCommand.get(command);
+            if (hb == null) continue;
+            System.out.println(String.format(Locale.ROOT, "  %-22s %9s %9s %9s", command,
+                    change(ha, hb, 50), change(ha, hb, 99), change(ha, hb, 99.9)));
+        }
+    }
+
+    private static String change(LatencyHistogram a, LatencyHistogram b, double percentile) {
+        long before = a.getValueAtPercentile(percentile);
+        long after = b.getValueAtPercentile(percentile);
+        if (before == 0) return "n/a";
+        return String.format(Locale.ROOT, "%+.1f%%", 100.0 * (after - before) / before);
+    }
+}
@@ -0,0 +1,292 @@
+package trace;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import DBController.LatencyHistogram;
+
+/**
+ * Turns trace files (written by clients and server with -Dbistro.traceSample /
+ * -Dbistro.traceFile, see ocsf.trace.Tracer) into per-request timelines.
+ *
+ * Spans of all files are merged by trace id. The tool prints the latency of
+ * every span name over all traces, then the timeline of the slowest requests
+ * (or of the one given with -id), showing where the time went: client send,
+ * network, dispatch wait on the server, DB queries, response write and
+ * client render.
+ *
+ * Client and server clocks only agree if they run on the same machine. When
+ * the server spans do not fit between the client's send and receive, or with
+ * -align, the server spans are shifted so that the network time is split
+ * evenly between the two directions.
+ *
+ * Usage: TraceViewer [-id traceId] [-slowest n] [-align] file|dir ...
+ */
+public class TraceViewer {
+
+    private static final int BAR_WIDTH = 40;
+
+    /**
+     * One line of a trace file.
+     */
+    private static class Span {
+        final String traceId;
+        long startMicros;
+        final long durationMicros;
+        final String process;
+        final String name;
+        final String detail;
+
+        Span(String[] fields) {
+            traceId = fields[0];
+            startMicros = Long.parseLong(fields[1]);
+            durationMicros = Long.parseLong(fields[2]);
+            process = fields[3];
+            name = fields[4];
+            detail = fields.length > 5 ? fields[5] : "";
+        }
+
+        long end() {
+            return startMicros + durationMicros;
+        }
+
+        boolean isClient() {
+            return process.startsWith("client");
+        }
+    }
+
+    /**
+     * All spans of one request.
+     */
+    private static class Trace {
+        final String id;
+        final List<Span> spans = new ArrayList<>();
+        long shiftMicros;
+
+        Trace(String id) {
+            this.id = id;
+        }
+
+        long start() {
+            long start = Long.MAX_VALUE;
+            for (Span s : spans) start = Math.min(start, s.startMicros);
+            return start;
+        }
+
+        long end() {
+            long end = Long.MIN_VALUE;
+            for (Span s : spans) end = Math.max(end, s.end());
+            return end;
+        }
+
+        long total() {
+            return end() - start();
+        }
+
+        Span find(String name) {
+            for (Span s : spans) {
+                if (s.name.equals(name)) return s;
+            }
+            return null;
+        }
+    }
+
+    private final Map<String, Trace> traces = new HashMap<>();
+    private final List<String> files = new ArrayList<>();
+    private String id;
+    private int slowest = 10;
+    private boolean align;
+    private long badLines;
+
+    public static void main(String[] args) throws IOException {
+        TraceViewer viewer = new TraceViewer();
+        viewer.parse(args);
+        for (String file : viewer.files) {
+            viewer.load(new File(file));
+        }
+        if (viewer.traces.isEmpty()) {
+            System.out.println("No spans found in " + viewer.files);
+            return;
+        }
+        viewer.alignClocks();
+        viewer.printSummary();
+        viewer.printTimelines();
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-id": id = args[++i]; break;
+                case "-slowest": slowest = Integer.parseInt(args[++i]); break;
+                case "-align": align = true; break;
+                default:
+                    if (args[i].startsWith("-")) {
+                        throw new IllegalArgumentException("Unknown option " + args[i]);
+                    }
+                    files.add(args[i]);
+            }
+        }
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("Usage: TraceViewer [-id traceId] [-slowest n] [-align] file|dir ...");
+        }
+    }
+
+    private void load(File file) throws IOException {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles((dir, name) -> name.endsWith(".log"));
+            if (children != null) {
+                for (File child : children) load(child);
+            }
+            return;
+        }
+        try (BufferedReader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split("\t", 6);
+                if (fields.length < 5) {
+                    badLines++;
+                    continue;
+                }
+                try {
+                    Span span = new Span(fields);
+                    traces.computeIfAbsent(span.traceId, Trace::new).spans.add(span);
+                } catch (NumberFormatException e) {
+                    // Last line of a file still being written
+                    badLines++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Shift server spans that do not fit inside the client's round trip.
+     */
+    private void alignClocks() {
+        for (Trace trace : traces.values()) {
+            Span send = trace.find("client.send");
+            Span render = trace.find("client.render");
+            if (send == null || render == null) continue;
+
+            long serverStart = Long.MAX_VALUE;
+            long serverLastStart = Long.MIN_VALUE;
+            for (Span s : trace.spans) {
+                if (s.isClient()) continue;
+                serverStart = Math.min(serverStart, s.startMicros);
+                serverLastStart = Math.max(serverLastStart, s.startMicros);
+            }
+            if (serverStart == Long.MAX_VALUE) continue;
+
+            // Spans overlap at the edges: the server may read the request before
+            // the client's send call returns, and the client the reply before the
+            // server's write returns. So only the span starts must be in order.
+            boolean fits = serverStart >= send.startMicros && serverLastStart <= render.startMicros;
+            if (fits && !align) continue;
+
+            // Same gap before the server receives and after it writes the reply
+            trace.shiftMicros = ((send.startMicros + render.startMicros) - (serverStart + serverLastStart)) / 2;
+            for (Span s : trace.spans) {
+                if (!s.isClient()) s.startMicros += trace.shiftMicros;
+            }
+        }
+    }
+
+    private void printSummary() {
+        Map<String, LatencyHistogram> byName = new TreeMap<>();
+        LatencyHistogram totals = new LatencyHistogram();
+        LatencyHistogram network = new LatencyHistogram();
+        for (Trace trace : traces.values()) {
+            totals.record(trace.total());
+            for (Span s : trace.spans) {
+                byName.computeIfAbsent(s.name, n -> new LatencyHistogram()).record(s.durationMicros);
+            }
+            long net = networkMicros(trace);
+            if (net >= 0) network.record(net);
+        }
+
+        System.out.println(traces.size() + " traces" + (badLines > 0 ? " (" + badLines + " unreadable lines)" : ""));
+        System.out.println(String.format(Locale.ROOT, "%-18s %8s %10s %10s %10s %10s",
+                "span", "count", "p50 ms", "p90 ms", "p99 ms", "max ms"));
+        for (Map.Entry<String, LatencyHistogram> e : byName.entrySet()) {
+            printRow(e.getKey(), e.getValue());
+        }
+        if (network.getCount() > 0) {
+            printRow("(network)", network);
+        }
+        printRow("(request total)", totals);
+        System.out.println();
+    }
+
+    private static void printRow(String name, LatencyHistogram h) {
+        System.out.println(String.format(Locale.ROOT, "%-18s %8d %10.2f %10.2f %10.2f %10.2f",
+                name, h.getCount(), h.getValueAtPercentile(50) / 1000.0, h.getValueAtPercentile(90) / 1000.0,
+                h.getValueAtPercentile(99) / 1000.0, h.getMax() / 1000.0));
+    }
+
+    /**
+     * Time on the wire in both directions, or -1 if the trace lacks the spans.
+     */
+    private static long networkMicros(Trace trace) {
+        Span send = trace.find("client.send");
+        Span render = trace.find("client.render");
+        Span receive = trace.find("server.receive");
+        Span write = trace.find("server.write");
+        if (send == null || render == null || receive == null || write == null) return -1;
+        return Math.max(0, receive.startMicros - send.end()) + Math.max(0, render.startMicros - write.end());
+    }
+
+    private void printTimelines() {
+        List<Trace> shown = new ArrayList<>();
+        if (id != null) {
+            Trace trace = traces.get(id);
+            if (trace == null) {
+                System.out.println("No trace " + id);
+                return;
+            }
+            shown.add(trace);
+        } else {
+            shown.addAll(traces.values());
+            shown.sort(Comparator.comparingLong(Trace::total).reversed());
+            if (shown.size() > slowest) shown = shown.subList(0, slowest);
+            System.out.println("Slowest " + shown.size() + " requests:");
+        }
+        for (Trace trace : shown) {
+            printTimeline(trace);
+        }
+    }
+
+    private static void printTimeline(Trace trace) {
+        trace.spans.sort(Comparator.comparingLong((Span s) -> s.startMicros).thenComparingLong(Span::end));
+        long start = trace.start();
+        long total = Math.max(1, trace.total());
+
+        System.out.println();
+        System.out.print(String.format(Locale.ROOT, "Trace %s  %.2f ms", trace.id, total / 1000.0));
+        long net = networkMicros(trace);
+        if (net >= 0) System.out.print(String.format(Locale.ROOT, "  (network %.2f ms)", net / 1000.0));
+        if (trace.shiftMicros != 0) {
+            System.out.print(String.format(Locale.ROOT, "  [server clock shifted %+.2f ms]", trace.shiftMicros / 1000.0));
+        }
+        System.out.println();
+
+        for (Span s : trace.spans) {
+            int from = (int) ((s.startMicros - start) * BAR_WIDTH / total);
+            int to = (int) Math.max(from + 1, (s.end() - start) * BAR_WIDTH / total);
+            StringBuilder bar = new StringBuilder(BAR_WIDTH);
+            for (int i = 0; i < BAR_WIDTH; i++) {
+                bar.append(i >= from && i < Math.min(to, BAR_WIDTH) ? '#' : '.');
+            }
+            System.out.println(String.format(Locale.ROOT, "  +%8.2f %8.2f ms  %s  %-15s %-16s %s",
+                    (s.startMicros - start) / 1000.0, s.durationMicros / 1000.0, bar, s.process, s.name, s.detail));
+        }
+    }
+}
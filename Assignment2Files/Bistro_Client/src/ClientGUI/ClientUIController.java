@@ -1,6 +1,8 @@
 package ClientGUI;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import client.ChatClient;
 import common.ChatIF;
@@ -14,6 +16,7 @@ import javafx.fxml.FXML;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableRow;
 import javafx.scene.control.TableView;
 import javafx.scene.control.TextArea;
 import javafx.scene.control.TextField;
@@ -55,14 +58,61 @@ public class ClientUIController implements ChatIF {
     @FXML
     private TableColumn<ReservationRow, String> valueColumn;
 
+    // Reservation listing: filters and the lazily paged table
+    @FXML
+    private TextField listFromField;
+
+    @FXML
+    private TextField listToField;
+
+    @FXML
+    private TextField listSubscriberField;
+
+    @FXML
+    private Button listReservations;
+
+    @FXML
+    private TableView<ListedReservation> listTable;
+
+    @FXML
+    private TableColumn<ListedReservation, String> listOrderColumn;
+
+    @FXML
+    private TableColumn<ListedReservation, String> listDateColumn;
+
+    @FXML
+    private TableColumn<ListedReservation, String> listGuestsColumn;
+
+    @FXML
+    private TableColumn<ListedReservation, String> listSubscriberColumn;
+
     // Keep this as a log/status area
     @FXML
     private TextArea reservationDetailsTextArea;
 
     private String orderNum;
 
+    // Order number we asked the server to push change events for
+    private String subscribedOrderNum;
+
     @FXML
     private AnchorPane blurOverlay;
+
+    // Rows fetched per #LIST_RESERVATIONS request
+    private static final int LIST_PAGE_SIZE = 100;
+
+    // Fetch the next page when a row this close to the end is shown
+    private static final int LIST_PREFETCH_ROWS = 20;
+
+    // Listing state, touched on the FX thread only
+    private final ObservableList<ListedReservation> listedReservations = FXCollections.observableArrayList();
+    private String listFilters = "";
+    private int listAfter;
+    private boolean listHasMore;
+    private boolean listLoading;
+    // Replies of a listing the user replaced while a page was on its way,
+    // whether a page or a refusal
+    private int listStaleReplies;
     
     // Client
     private ChatClient chatClient;
@@ -79,6 +129,37 @@ public class ClientUIController implements ChatIF {
         if (blurOverlay != null) {
             blurOverlay.setEffect(new GaussianBlur(20));
         }
+        if (listTable != null) {
+            initListTable();
+        }
+    }
+
+    // TableView only creates rows for what is on screen, so a row showing an
+    // index near the end means the user scrolled there: fetch the next page
+    private void initListTable() {
+        listOrderColumn.setCellValueFactory(data -> new SimpleStringProperty(data.getValue().orderNumber));
+        listDateColumn.setCellValueFactory(data -> new SimpleStringProperty(data.getValue().orderDate));
+        listGuestsColumn.setCellValueFactory(data -> new SimpleStringProperty(data.getValue().guests));
+        listSubscriberColumn.setCellValueFactory(data -> new SimpleStringProperty(data.getValue().subscriberId));
+        listTable.setItems(listedReservations);
+        listTable.setRowFactory(table -> {
+            TableRow<ListedReservation> row = new TableRow<ListedReservation>() {
+                @Override
+                protected void updateItem(ListedReservation item, boolean empty) {
+                    super.updateItem(item, empty);
+                    if (!empty && getIndex() >= listedReservations.size() - LIST_PREFETCH_ROWS) {
+                        requestNextPage();
+                    }
+                }
+            };
+            // Double click shows the reservation above, ready to update
+            row.setOnMouseClicked(event -> {
+                if (event.getClickCount() == 2 && !row.isEmpty()) {
+                    SearchOrderNum(row.getItem().orderNumber);
+                }
+            });
+            return row;
+        });
     }
 
     public void initClient(String host, int port) {
@@ -152,6 +233,98 @@ public class ClientUIController implements ChatIF {
         SearchOrderNum(orderNumToSearch.trim());
     }
 
+    // Start a new listing with the filters of the fields
+    @FXML
+    private void onListReservationsClicked(ActionEvent event) {
+        if (chatClient == null) {
+            display("Client not initialized.");
+            return;
+        }
+
+        StringBuilder filters = new StringBuilder();
+        String from = listFromField.getText();
+        String to = listToField.getText();
+        String subscriber = listSubscriberField.getText();
+        if (from != null && !from.isBlank()) {
+            filters.append(" from=").append(from.trim());
+        }
+        if (to != null && !to.isBlank()) {
+            filters.append(" to=").append(to.trim());
+        }
+        if (subscriber != null && !subscriber.isBlank()) {
+            filters.append(" subscriber=").append(subscriber.trim());
+        }
+
+        if (listLoading) {
+            listStaleReplies++;
+        }
+        listFilters = filters.toString();
+        listedReservations.clear();
+        listAfter = 0;
+        listHasMore = true;
+        listLoading = false;
+        requestNextPage();
+    }
+
+    private void requestNextPage() {
+        if (listLoading || !listHasMore || chatClient == null) {
+            return;
+        }
+        listLoading = true;
+        chatClient.handleMessageFromClientUI(
+                "#LIST_RESERVATIONS " + listAfter + " " + LIST_PAGE_SIZE + listFilters);
+    }
+
+    // RESERVATIONS|more|orderNum,numGuests,orderDate,confCode,subscriberId,placingDate|...
+    private void onReservationsPage(String message) {
+        if (listStaleReplies > 0) {
+            listStaleReplies--;
+            return;
+        }
+        String[] parts = message.split("\\|");
+        List<ListedReservation> page = new ArrayList<>(parts.length);
+        for (int i = 2; i < parts.length; i++) {
+            String[] fields = parts[i].split(",");
+            if (fields.length >= 6) {
+                page.add(new ListedReservation(fields[0], fields[1], fields[2], fields[4]));
+            }
+        }
+        // Rows come after the requested order number: a page starting at or
+        // before the last shown row answers a request already served
+        if (!page.isEmpty() && !listedReservations.isEmpty()
+                && Integer.parseInt(page.get(0).orderNumber) <= listAfter) {
+            return;
+        }
+        listLoading = false;
+        listHasMore = parts.length > 1 && parts[1].equals("1");
+        if (!page.isEmpty()) {
+            listAfter = Integer.parseInt(page.get(page.size() - 1).orderNumber);
+            listedReservations.addAll(page);
+        }
+        if (listedReservations.isEmpty()) {
+            reservationDetailsTextArea.appendText("No reservations match the filters.\n");
+        }
+    }
+
+    /**
+     * A refusal (BUSY, an error) may be the answer to the page on its way:
+     * stop waiting for it, so the next scroll asks again.
+     *
+     * @return false if it answered a replaced listing and must not be shown
+     */
+    private boolean onListRefused(String message) {
+        if (!listLoading || !(message.startsWith("BUSY|") || message.startsWith("ERROR|")
+                || message.startsWith("DB error"))) {
+            return true;
+        }
+        if (listStaleReplies > 0) {
+            listStaleReplies--;
+            return !message.equals("ERROR|BAD_LIST_FORMAT");
+        }
+        listLoading = false;
+        return true;
+    }
+
     // Send message to server through ChatClient
     public void SearchOrderNum(String orderNum) {
         this.orderNum = orderNum;
@@ -190,11 +363,29 @@ public class ClientUIController implements ChatIF {
         Platform.runLater(() -> handleServerMessage(message));
     }
 
+    /**
+     * Called by ChatClient for the reply of a traced request: onDisplayed
+     * runs on the FX thread once the reply has been applied to the UI.
+     */
+    @Override
+    public void display(String message, Runnable onDisplayed) {
+        System.out.println("UI display(): " + message);
+
+        Platform.runLater(() -> {
+            handleServerMessage(message);
+            onDisplayed.run();
+        });
+    }
+
     // Parse server message and update fields + table + log
     private void handleServerMessage(String message) {
         if (message == null) return;
+        if (!onListRefused(message)) return;
 
-        if (message.startsWith("RESERVATION|")) {
+        if (message.startsWith("RESERVATIONS|")) {
+            onReservationsPage(message);
+
+        } else if (message.startsWith("RESERVATION|")) {
             // Format from server:
             // RESERVATION|orderNum|numGuests|orderDate|confCode|subscriberId|placingDate
             String[] parts = message.split("\\|");
@@ -228,6 +419,7 @@ public class ClientUIController implements ChatIF {
                 }
 
                 reservationDetailsTextArea.setText("Reservation loaded successfully.\n");
+                subscribeToOrder(ordNum);
 
             } else {
                 orderNumber.setText("Error");
@@ -239,6 +431,37 @@ public class ClientUIController implements ChatIF {
                 reservationDetailsTextArea.setText("Invalid reservation data from server: " + message + "\n");
             }
 
+        } else if (message.startsWith("RESERVATION_CHANGED|")) {
+            // Pushed by the server when another terminal updated a reservation:
+            // RESERVATION_CHANGED|orderNum|numGuests|orderDate
+            String[] parts = message.split("\\|");
+            if (parts.length >= 4 && parts[1].equals(orderNumber.getText())) {
+                numberOfGuestsField.setText(parts[2]);
+                orderDateField.setText(parts[3]);
+                if (reservationTable != null) {
+                    for (ReservationRow row : reservationTable.getItems()) {
+                        if (row.getField().equals("Guests")) row.setValue(parts[2]);
+                        if (row.getField().equals("Order Date")) row.setValue(parts[3]);
+                    }
+                }
+                reservationDetailsTextArea.appendText(
+                        "Reservation " + parts[1] + " was updated by another terminal.\n");
+            }
+
+        } else if (message.equals("ERROR|BAD_LIST_FORMAT")) {
+            listHasMore = false;
+            reservationDetailsTextArea.appendText(
+                    "Listing filters: dates as yyyy-MM-dd, subscriber as a number.\n");
+
+        } else if (message.startsWith("BUSY|")) {
+            // Server shed the request under load: BUSY|retryAfterMs
+            String retryAfter = message.substring("BUSY|".length());
+            reservationDetailsTextArea.appendText(
+                    "Server is busy, please try again in " + retryAfter + " ms.\n");
+
+        } else if (message.startsWith("SUBSCRIBED|") || message.startsWith("UNSUBSCRIBED|")) {
+            // acknowledgement only, nothing to show
+
         } else if (message.startsWith("RESERVATION_NOT_FOUND")) {
             orderNumber.setText("Not found");
             numberOfGuestsField.setText("-");
@@ -258,11 +481,24 @@ public class ClientUIController implements ChatIF {
         }
     }
 
+    // Ask the server to push changes of the shown order instead of polling it
+    private void subscribeToOrder(String ordNum) {
+        if (chatClient == null || ordNum.equals(subscribedOrderNum)) {
+            return;
+        }
+        if (subscribedOrderNum != null) {
+            chatClient.handleMessageFromClientUI("#UNSUBSCRIBE ORDER " + subscribedOrderNum);
+        }
+        chatClient.handleMessageFromClientUI("#SUBSCRIBE ORDER " + ordNum);
+        subscribedOrderNum = ordNum;
+    }
+
     @FXML
     private void onExitClicked(ActionEvent event) {
         try {
             if (chatClient != null) {
                 chatClient.closeConnection();
+                chatClient.flushTrace();
             }
         } catch (Exception e) {
             // ignore errors on exit
@@ -272,6 +508,21 @@ public class ClientUIController implements ChatIF {
         System.exit(0);    // kills the process completely
     }
 
+    // Row of the listing table; read-only, so plain fields
+    public static class ListedReservation {
+        final String orderNumber;
+        final String guests;
+        final String orderDate;
+        final String subscriberId;
+
+        ListedReservation(String orderNumber, String guests, String orderDate, String subscriberId) {
+            this.orderNumber = orderNumber;
+            this.guests = guests;
+            this.orderDate = orderDate;
+            this.subscriberId = subscriberId;
+        }
+    }
+
     // --- NEW helper model class for table rows ---
     public static class ReservationRow {
         private final StringProperty field  = new SimpleStringProperty();
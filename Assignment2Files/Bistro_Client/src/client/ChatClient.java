@@ -5,6 +5,7 @@
 package client;
 
 import ocsf.client.*;
+import ocsf.trace.Tracer;
 import common.*;
 import java.io.*;
 
@@ -27,6 +28,19 @@ public class ChatClient extends AbstractClient
    */
   ChatIF clientUI; 
 
+  /**
+   * Records spans of the sampled requests, null if tracing is off
+   * (-Dbistro.traceSample / -Dbistro.traceFile).
+   */
+  private final Tracer tracer = Tracer.fromSystemProperties(
+    "client:" + ProcessHandle.current().pid(),
+    "client-" + ProcessHandle.current().pid() + "-trace.log");
+
+  /**
+   * Reservation exports being received (#EXPORT).
+   */
+  private final ExportDownloads exports = new ExportDownloads();
+
   
   //Constructors ****************************************************
   
@@ -63,6 +77,7 @@ public class ChatClient extends AbstractClient
   @Override
   protected void connectionClosed() {
     System.out.println("DEBUG: ChatClient.connectionClosed() called");
+    exports.closeAll();
     clientUI.display("Disconnected from server");
   }
   
@@ -73,8 +88,53 @@ public class ChatClient extends AbstractClient
    */
   public void handleMessageFromServer(Object msg) 
   {
+    if (msg instanceof Object[])
+    {
+      // Export chunk: {"EXPORT_CHUNK|id|offset|total", byte[]}
+      Object[] chunk = (Object[]) msg;
+      try
+      {
+        exports.onChunk((String) chunk[0], (byte[]) chunk[1]);
+      }
+      catch (IOException e)
+      {
+        clientUI.display("Could not save export chunk: " + e.getMessage());
+      }
+      return;
+    }
+
     System.out.println("DEBUG: Received message from server: " + msg);
-    clientUI.display((String) msg);
+    String reply = (String) msg;
+    if (reply.startsWith("EXPORT_READY|"))
+    {
+      // Fetch it at once, from what an earlier attempt already has
+      String id = reply.split("\\|")[1];
+      handleMessageFromClientUI("#EXPORT_FETCH " + id);
+    }
+    else if (reply.startsWith("EXPORT_END|"))
+    {
+      try
+      {
+        reply = "Export saved to " + exports.onEnd(reply).getPath();
+      }
+      catch (IOException e)
+      {
+        reply = "Export incomplete, fetch it again to resume: "
+          + e.getMessage();
+      }
+    }
+    String traceId = Tracer.traceIdOf(reply);
+    if (traceId == null || tracer == null)
+    {
+      clientUI.display(Tracer.stripTraceId(reply));
+      return;
+    }
+
+    // Rendering ends when the UI has shown the reply
+    long received = System.nanoTime();
+    String shown = Tracer.stripTraceId(reply);
+    clientUI.display(shown, () -> tracer.span(traceId, "client.render",
+      received, System.nanoTime(), commandOf(shown)));
   }
 
   /**
@@ -86,8 +146,26 @@ public class ChatClient extends AbstractClient
   {
     try
     {
+      // Resume an export from the bytes already downloaded
+      if (message.startsWith("#EXPORT_FETCH ")
+        && message.trim().split("\\s+").length == 2)
+      {
+        message = message.trim() + " "
+          + exports.downloaded(message.trim().split("\\s+")[1]);
+      }
       System.out.println("DEBUG: Sending message to server: " + message);
-      sendToServer(message);
+      String traceId = tracer == null ? null : tracer.newTraceId();
+      if (traceId == null)
+      {
+        sendToServer(message);
+      }
+      else
+      {
+        long start = System.nanoTime();
+        sendToServer(Tracer.tag(traceId, message));
+        tracer.span(traceId, "client.send", start, System.nanoTime(),
+          commandOf(message));
+      }
     }
     catch(IOException e)
     {
@@ -97,6 +175,20 @@ public class ChatClient extends AbstractClient
     }
   }
   
+  /**
+   * Command or reply type of a message ("#GET_RESERVATION",
+   * "RESERVATION"), used as span detail so that no reservation data ends
+   * up in trace files.
+   */
+  private static String commandOf(String message)
+  {
+    int end = 0;
+    while (end < message.length() && message.charAt(end) != ' '
+      && message.charAt(end) != '|')
+      end++;
+    return message.substring(0, end);
+  }
+
   /**
    * This method terminates the client.
    */
@@ -107,7 +199,29 @@ public class ChatClient extends AbstractClient
       closeConnection();
     }
     catch(IOException e) {}
+    if (tracer != null)
+    {
+      try
+      {
+        tracer.close();
+      }
+      catch(IOException e) {}
+    }
     System.exit(0);
   }
+
+  /**
+   * Writes out the spans not yet in the trace file, e.g. before exiting.
+   */
+  public void flushTrace()
+  {
+    if (tracer == null)
+      return;
+    try
+    {
+      tracer.flush();
+    }
+    catch(IOException e) {}
+  }
 }
 //End of ChatClient class
@@ -0,0 +1,112 @@
+package client;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reservation exports being downloaded from the server.
+ *
+ * An export arrives as chunks written straight to
+ * reservations-&lt;id&gt;.csv.gz.part at their offset, so nothing but the
+ * chunk in hand is kept in memory. The part file is renamed once the server
+ * reports the end and its size matches. If the connection drops, the part
+ * file stays, and #EXPORT_FETCH &lt;id&gt; asks for the rest only.
+ *
+ * Files go to the directory set with -Dbistro.downloadDir (default: the
+ * working directory).
+ */
+public class ExportDownloads
+{
+  private final File dir =
+    new File(System.getProperty("bistro.downloadDir", "."));
+
+  private final Map<String, FileChannel> open = new HashMap<>();
+
+  /**
+   * @return the bytes already downloaded of an export
+   */
+  public synchronized long downloaded(String id)
+  {
+    return partFile(id).length();
+  }
+
+  /**
+   * Write a chunk at its offset.
+   *
+   * @param header EXPORT_CHUNK|id|offset|total
+   */
+  public synchronized void onChunk(String header, byte[] data)
+    throws IOException
+  {
+    String[] parts = header.split("\\|");
+    String id = parts[1];
+    long offset = Long.parseLong(parts[2]);
+    FileChannel channel = open.get(id);
+    if (channel == null)
+    {
+      channel = FileChannel.open(partFile(id).toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+      open.put(id, channel);
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(data);
+    while (buffer.hasRemaining())
+      channel.write(buffer, offset + buffer.position());
+  }
+
+  /**
+   * The server sent the last chunk.
+   *
+   * @param message EXPORT_END|id|total
+   * @return the complete file
+   * @exception IOException if the size does not match (the part file is
+   *    kept, to resume from)
+   */
+  public synchronized File onEnd(String message) throws IOException
+  {
+    String[] parts = message.split("\\|");
+    String id = parts[1];
+    long total = Long.parseLong(parts[2]);
+    FileChannel channel = open.remove(id);
+    if (channel != null)
+    {
+      channel.force(false);
+      channel.close();
+    }
+    File part = partFile(id);
+    if (part.length() != total)
+      throw new IOException("Export " + id + " has " + part.length()
+        + " of " + total + " bytes");
+    File done = new File(dir, "reservations-" + id + ".csv.gz");
+    Files.move(part.toPath(), done.toPath(),
+      StandardCopyOption.REPLACE_EXISTING);
+    return done;
+  }
+
+  /**
+   * Close what is open, e.g. when the connection is lost.
+   */
+  public synchronized void closeAll()
+  {
+    for (FileChannel channel : open.values())
+    {
+      try
+      {
+        channel.close();
+      }
+      catch (IOException e) {}
+    }
+    open.clear();
+  }
+
+  private File partFile(String id)
+  {
+    return new File(dir, "reservations-" + id + ".csv.gz.part");
+  }
+}
@@ -19,4 +19,18 @@ public interface ChatIF
    * a UI.
    */
   public abstract void display(String message);
+
+  /**
+   * Displays a message and reports when it is on screen, so that the
+   * time spent rendering a traced reply can be measured. UIs that display
+   * asynchronously should override it to run onDisplayed afterwards.
+   *
+   * @param message the message to display.
+   * @param onDisplayed called once the message has been displayed.
+   */
+  default void display(String message, Runnable onDisplayed)
+  {
+    display(message);
+    onDisplayed.run();
+  }
 }
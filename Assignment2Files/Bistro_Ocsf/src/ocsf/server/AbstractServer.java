@@ -1 +1 @@
-// This file contains material supporting section 3.8 of the textbook:// "Object Oriented Software Engineering" and is issued under the open-source// license found at www.lloseng.com package ocsf.server;import java.net.*;import java.util.*;import java.io.*;/*** The <code> AbstractServer </code> class maintains a thread that waits* for connection attempts from clients. When a connection attempt occurs* it creates a new <code> ConnectionToClient </code> instance which* runs as a thread. When a client is thus connected to the* server, the two programs can then exchange <code> Object </code>* instances.<p>** Method <code> handleMessageFromClient </code> must be defined by* a concrete subclass. Several other hook methods may also be* overriden.<p>** Several public service methods are provided to applications that use* this framework, and several hook methods are also available<p>** Project Name: OCSF (Object Client-Server Framework)<p>** @author Dr Robert Lagani&egrave;re* @author Dr Timothy C. Lethbridge* @author Fran&ccedil;ois B&eacute;langer* @author Paul Holden* @version February 2001 (2.12)* @see ocsf.server.ConnectionToClient*/public abstract class AbstractServer implements Runnable{  // INSTANCE VARIABLES *********************************************  /**   * The server socket: listens for clients who want to connect.   */  private ServerSocket serverSocket = null;  /**   * The connection listener thread.   */  private Thread connectionListener;  /**   * The port number   */  private int port;  /**   * The server timeout while for accepting connections.   * After timing out, the server will check to see if a command to   * stop the server has been issued; it not it will resume accepting   * connections.   * Set to half a second by default.   */  private int timeout = 500;  /**   * The maximum queue length; i.e. the maximum number of clients that   * can be waiting to connect.   * Set to 10 by default.   */  private int backlog = 10;  /**   * The thread group associated with client threads. Each member of the   * thread group is a <code> ConnectionToClient </code>.   */  private ThreadGroup clientThreadGroup;  /**   * Indicates if the listening thread is ready to stop.  Set to   * false by default.   */  private boolean readyToStop = false;// CONSTRUCTOR ******************************************************  /**   * Constructs a new server.   *   * @param port the port number on which to listen.   */  public AbstractServer(int port)  {    this.port = port;    this.clientThreadGroup =      new ThreadGroup("ConnectionToClient threads")      {        // All uncaught exceptions in connection threads will        // be sent to the clientException callback method.        public void uncaughtException(          Thread thread, Throwable exception)        {          clientException((ConnectionToClient)thread, exception);        }      };  }// INSTANCE METHODS *************************************************  /**   * Begins the thread that waits for new clients.   * If the server is already in listening mode, this   * call has no effect.   *   * @exception IOException if an I/O error occurs   * when creating the server socket.   */  final public void listen() throws IOException  {    if (!isListening())    {      if (serverSocket == null)      {        serverSocket = new ServerSocket(getPort(), backlog);      }      serverSocket.setSoTimeout(timeout);      readyToStop = false;      connectionListener = new Thread(this);      connectionListener.start();    }  }  /**   * Causes the server to stop accepting new connections.   */  final public void stopListening()  {    readyToStop = true;  }  /**   * Closes the server socket and the connections with all clients.   * Any exception thrown while closing a client is ignored.   * If one wishes to catch these exceptions, then clients   * should be individually closed before calling this method.   * The method also stops listening if this thread is running.   * If the server is already closed, this   * call has no effect.   *   * @exception IOException if an I/O error occurs while   * closing the server socket.   */  final synchronized public void close() throws IOException  {    if (serverSocket == null)      return;      stopListening();    try    {      serverSocket.close();    }    finally    {      // Close the client sockets of the already connected clients      Thread[] clientThreadList = getClientConnections();      for (int i=0; i<clientThreadList.length; i++)      {         try         {           ((ConnectionToClient)clientThreadList[i]).close();         }         // Ignore all exceptions when closing clients.         catch(Exception ex) {}      }      serverSocket = null;      serverClosed();    }  }  /**   * Sends a message to every client connected to the server.   * This is merely a utility; a subclass may want to do some checks   * before actually sending messages to all clients.  This method   * can be overriden, but if so it should still perform the general   * function of sending to all clients, perhaps after some kind   * of filtering is done. Any exception thrown while   * sending the message to a particular client is ignored.   *   * @param msg   Object The message to be sent   */  public void sendToAllClients(Object msg)  {    Thread[] clientThreadList = getClientConnections();    for (int i=0; i<clientThreadList.length; i++)    {      try      {        ((ConnectionToClient)clientThreadList[i]).sendToClient(msg);      }      catch (Exception ex) {}    }  }// ACCESSING METHODS ------------------------------------------------  /**   * Returns true if the server is ready to accept new clients.   *   * @return true if the server is listening.   */  final public boolean isListening()  {    return (connectionListener != null);  }  /**   * Returns an array containing the existing   * client connections. This can be used by   * concrete subclasses to implement messages that do something with   * each connection (e.g. kill it, send a message to it etc.).   * Remember that after this array is obtained, some clients   * in this migth disconnect. New clients can also connect,   * these later will not appear in the array.   *   * @return an array of <code>Thread</code> containing   * <code>ConnectionToClient</code> instances.   */  synchronized final public Thread[] getClientConnections()  {    Thread[] clientThreadList = new      Thread[clientThreadGroup.activeCount()];    clientThreadGroup.enumerate(clientThreadList);    return clientThreadList;  }  /**   * Counts the number of clients currently connected.   *   * @return the number of clients currently connected.   */  final public int getNumberOfClients()  {    return clientThreadGroup.activeCount();  }  /**   * Returns the port number.   *   * @return the port number.   */  final public int getPort()  {    return port;  }  /**   * Sets the port number for the next connection.   * The server must be closed and restarted for the port   * change to be in effect.   *   * @param port the port number.   */  final public void setPort(int port)  {    this.port = port;  }  /**   * Sets the timeout time when accepting connections.   * The default is half a second. This means that stopping the   * server may take up to timeout duration to actually stop.   * The server must be stopped and restarted for the timeout   * change to be effective.   *   * @param timeout the timeout time in ms.   */  final public void setTimeout(int timeout)  {    this.timeout = timeout;  }  /**   * Sets the maximum number of waiting connections accepted by the   * operating system. The default is 20.   * The server must be closed and restarted for the backlog   * change to be in effect.   *   * @param backlog the maximum number of connections.   */  final public void setBacklog(int backlog)  {    this.backlog = backlog;  }// RUN METHOD -------------------------------------------------------  /**   * Runs the listening thread that allows clients to connect.   * Not to be called.   */  final public void run()  {    // call the hook method to notify that the server is starting    serverStarted();    try    {      // Repeatedly waits for a new client connection, accepts it, and      // starts a new thread to handle data exchange.      while(!readyToStop)      {        try        {          // Wait here for new connection attempts, or a timeout          Socket clientSocket = serverSocket.accept();          // When a client is accepted, create a thread to handle          // the data exchange, then add it to thread group          synchronized(this)          {            ConnectionToClient c = new ConnectionToClient(              this.clientThreadGroup, clientSocket, this);          }        }        catch (InterruptedIOException exception)        {          // This will be thrown when a timeout occurs.          // The server will continue to listen if not ready to stop.        }      }      // call the hook method to notify that the server has stopped      serverStopped();    }    catch (IOException exception)    {      if (!readyToStop)      {        // Closing the socket must have thrown a SocketException        listeningException(exception);      }      else      {        serverStopped();      }    }    finally    {      readyToStop = true;      connectionListener = null;    }  }// METHODS DESIGNED TO BE OVERRIDDEN BY CONCRETE SUBCLASSES ---------  /**   * Hook method called each time a new client connection is   * accepted. The default implementation does nothing.   * @param client the connection connected to the client.   */  protected void clientConnected(ConnectionToClient client) {}  /**   * Hook method called each time a client disconnects.   * The default implementation does nothing. The method   * may be overridden by subclasses but should remains synchronized.   *   * @param client the connection with the client.   */  synchronized protected void clientDisconnected(    ConnectionToClient client) {}  /**   * Hook method called each time an exception is thrown in a   * ConnectionToClient thread.   * The method may be overridden by subclasses but should remains   * synchronized.   *   * @param client the client that raised the exception.   * @param Throwable the exception thrown.   */  synchronized protected void clientException(    ConnectionToClient client, Throwable exception) {}  /**   * Hook method called when the server stops accepting   * connections because an exception has been raised.   * The default implementation does nothing.   * This method may be overriden by subclasses.   *   * @param exception the exception raised.   */  protected void listeningException(Throwable exception) {}  /**   * Hook method called when the server starts listening for   * connections.  The default implementation does nothing.   * The method may be overridden by subclasses.   */  protected void serverStarted() {}  /**   * Hook method called when the server stops accepting   * connections.  The default implementation   * does nothing. This method may be overriden by subclasses.   */  protected void serverStopped() {}  /**   * Hook method called when the server is clased.   * The default implementation does nothing. This method may be   * overriden by subclasses. When the server is closed while still   * listening, serverStopped() will also be called.   */  protected void serverClosed() {}  /**   * Handles a command sent from one client to the server.   * This MUST be implemented by subclasses, who should respond to   * messages.   * This method is called by a synchronized method so it is also   * implcitly synchronized.   *   * @param msg   the message sent.   * @param client the connection connected to the client that   *  sent the message.   */  protected abstract void handleMessageFromClient(    Object msg, ConnectionToClient client);// METHODS TO BE USED FROM WITHIN THE FRAMEWORK ONLY ----------------  /**   * Receives a command sent from the client to the server.   * Called by the run method of <code>ConnectionToClient</code>   * instances that are watching for messages coming from the server   * This method is synchronized to ensure that whatever effects it has   * do not conflict with work being done by other threads. The method   * simply calls the <code>handleMessageFromClient</code> slot method.   *   * @param msg   the message sent.   * @param client the connection connected to the client that   *  sent the message.   */  final synchronized void receiveMessageFromClient(    Object msg, ConnectionToClient client)  {    this.handleMessageFromClient(msg, client);  }}// End of AbstractServer Class
\ No newline at end of file
+// This file contains material supporting section 3.8 of the textbook:// "Object Oriented Software Engineering" and is issued under the open-source// license found at www.lloseng.com package ocsf.server;import java.net.*;import java.util.*;import java.util.concurrent.atomic.*;import java.io.*;/*** The <code> AbstractServer </code> class maintains a thread that waits* for connection attempts from clients. When a connection attempt occurs* it creates a new <code> ConnectionToClient </code> instance which* runs as a thread. When a client is thus connected to the* server, the two programs can then exchange <code> Object </code>* instances.<p>** Method <code> handleMessageFromClient </code> must be defined by* a concrete subclass. Several other hook methods may also be* overriden.<p>** Several public service methods are provided to applications that use* this framework, and several hook methods are also available<p>** Project Name: OCSF (Object Client-Server Framework)<p>** @author Dr Robert Lagani&egrave;re* @author Dr Timothy C. Lethbridge* @author Fran&ccedil;ois B&eacute;langer* @author Paul Holden* @version February 2001 (2.12)* @see ocsf.server.ConnectionToClient*/public abstract class AbstractServer implements Runnable{  // CLASS VARIABLES ************************************************  /**   * Heartbeat sent by the server to a client that has been silent for   * a heartbeat interval. The client framework answers it with   * <code>HEARTBEAT_PONG</code>; neither reaches the application.   */  public static final String HEARTBEAT_PING = "#OCSF:Heartbeat ping.";  /**   * Answer of a client to <code>HEARTBEAT_PING</code>.   */  public static final String HEARTBEAT_PONG = "#OCSF:Heartbeat pong.";  // INSTANCE VARIABLES *********************************************  /**   * The server sockets: listen for clients who want to connect.   * One per acceptor thread when SO_REUSEPORT is available, otherwise   * the acceptor threads share a single socket.   */  private ServerSocket[] serverSockets = null;  /**   * Number of threads accepting connections. Set to 1 by default.   */  private int acceptorCount = 1;  /**   * The connection listener thread.   */  private Thread connectionListener;  /**   * The port number   */  private int port;  /**   * The server timeout while for accepting connections.   * After timing out, the server will check to see if a command to   * stop the server has been issued; it not it will resume accepting   * connections.   * Set to 0 (accept blocks until a client connects) by default:   * stopListening() closes the server socket to wake it up.   */  private int timeout = 0;  /**   * The maximum queue length; i.e. the maximum number of clients that   * can be waiting to connect.   * Set to 10 by default.   */  private int backlog = 10;  /**   * The thread group associated with client threads. Each member of the   * thread group is a <code> ConnectionToClient </code>.   */  private ThreadGroup clientThreadGroup;  /**   * Indicates if the listening thread is ready to stop.  Set to   * false by default.   */  private boolean readyToStop = false;  /**   * Time in ms a connection may stay silent before the server sends it   * a heartbeat. Set to 0 (heartbeats and idle reaping disabled) by   * default.   */  private long heartbeatInterval = 0;  /**   * Time in ms after which a connection that sent nothing, not even a   * heartbeat answer, is considered dead and closed.   * Set to three heartbeat intervals when left at 0.   */  private long idleTimeout = 0;  /**   * Time in ms a new connection has to send its stream header. Until   * then it holds a thread and a connection slot without being watched   * for idleness. Set to 10 seconds by default.   */  private int handshakeTimeout = 10000;  /**   * The single timer driving the idle checks of all connections.   * Only exists while heartbeats are enabled and the server is open.   */  private TimingWheel idleReaper;  /**   * Number of connections closed because they were idle for too long.   */  private final AtomicLong reapedConnections = new AtomicLong();  /**   * True between listen() and close(); guards against closing twice.   */  private boolean open = false;  /**   * Maximum number of simultaneous connections. Set to 0 (no limit)   * by default.   */  private int maxConnections = 0;  /**   * Number of connections admitted and not yet terminated.   */  private final AtomicInteger connectionCount = new AtomicInteger();  /**   * Limits the rate of new connections per remote address, or null   * if unlimited.   */  private AddressRateLimiter connectRateLimiter;  /**   * Limits the rate of messages per remote address, or null if   * unlimited.   */  private AddressRateLimiter messageRateLimiter;  /**   * Number of connections refused by admission control.   */  private final AtomicLong rejectedConnections = new AtomicLong();  /**   * Source of the connection ids.   */  private final AtomicLong connectionIds = new AtomicLong();  /**   * Records the incoming traffic, or null if not recording.   */  private volatile TrafficRecorder trafficRecorder;// CONSTRUCTOR ******************************************************  /**   * Constructs a new server.   *   * @param port the port number on which to listen.   */  public AbstractServer(int port)  {    this.port = port;    this.clientThreadGroup =      new ThreadGroup("ConnectionToClient threads")      {        // All uncaught exceptions in connection threads will        // be sent to the clientException callback method.        public void uncaughtException(          Thread thread, Throwable exception)        {          clientException((ConnectionToClient)thread, exception);        }      };  }// INSTANCE METHODS *************************************************  /**   * Begins the thread that waits for new clients.   * If the server is already in listening mode, this   * call has no effect.   *   * @exception IOException if an I/O error occurs   * when creating the server socket.   */  final public void listen() throws IOException  {    if (!isListening())    {      if (serverSockets == null)      {        serverSockets = openServerSockets();      }      for (ServerSocket serverSocket : serverSockets)        serverSocket.setSoTimeout(timeout);      readyToStop = false;      open = true;      if (heartbeatInterval > 0 && idleReaper == null)      {        // 100 ms ticks are plenty for timeouts counted in seconds        idleReaper = new TimingWheel("OCSF idle reaper", 100, 512);        idleReaper.start();      }      connectionListener = new Thread(this);      connectionListener.start();    }  }  /**   * Causes the server to stop accepting new connections.   */  final public void stopListening()  {    readyToStop = true;    // The acceptor threads are blocked in accept(); closing the    // sockets is what wakes them up. listen() creates new ones.    ServerSocket[] listeners = serverSockets;    serverSockets = null;    if (listeners != null)    {      for (ServerSocket listener : listeners)      {        try        {          listener.close();        }        catch (IOException ex) {}      }    }  }  /**   * Closes the server socket and the connections with all clients.   * Any exception thrown while closing a client is ignored.   * If one wishes to catch these exceptions, then clients   * should be individually closed before calling this method.   * The method also stops listening if this thread is running.   * If the server is already closed, this   * call has no effect.   *   * @exception IOException if an I/O error occurs while   * closing the server socket.   */  final synchronized public void close() throws IOException  {    if (!open)      return;    open = false;    try    {      stopListening();    }    finally    {      // Close the client sockets of the already connected clients      Thread[] clientThreadList = getClientConnections();      for (int i=0; i<clientThreadList.length; i++)      {         try         {           ((ConnectionToClient)clientThreadList[i]).close();         }         // Ignore all exceptions when closing clients.         catch(Exception ex) {}      }      if (idleReaper != null)      {        idleReaper.stop();        idleReaper = null;      }      serverClosed();    }  }  /**   * Sends a message to every client connected to the server.   * This is merely a utility; a subclass may want to do some checks   * before actually sending messages to all clients.  This method   * can be overriden, but if so it should still perform the general   * function of sending to all clients, perhaps after some kind   * of filtering is done. Any exception thrown while   * sending the message to a particular client is ignored.   *   * @param msg   Object The message to be sent   */  public void sendToAllClients(Object msg)  {    Thread[] clientThreadList = getClientConnections();    for (int i=0; i<clientThreadList.length; i++)    {      try      {        ((ConnectionToClient)clientThreadList[i]).sendToClient(msg);      }      catch (Exception ex) {}    }  }// ACCESSING METHODS ------------------------------------------------  /**   * Returns true if the server is ready to accept new clients.   *   * @return true if the server is listening.   */  final public boolean isListening()  {    return (connectionListener != null);  }  /**   * Returns an array containing the existing   * client connections. This can be used by   * concrete subclasses to implement messages that do something with   * each connection (e.g. kill it, send a message to it etc.).   * Remember that after this array is obtained, some clients   * in this migth disconnect. New clients can also connect,   * these later will not appear in the array.   *   * @return an array of <code>Thread</code> containing   * <code>ConnectionToClient</code> instances.   */  synchronized final public Thread[] getClientConnections()  {    Thread[] clientThreadList = new      Thread[clientThreadGroup.activeCount()];    clientThreadGroup.enumerate(clientThreadList);    return clientThreadList;  }  /**   * Counts the number of clients currently connected.   *   * @return the number of clients currently connected.   */  final public int getNumberOfClients()  {    return clientThreadGroup.activeCount();  }  /**   * Returns the number of connections refused by admission control   * since the server was created.   *   * @return the number of rejected connections.   */  final public long getRejectedConnectionCount()  {    return rejectedConnections.get();  }  /**   * Returns the recorder capturing the incoming traffic.   *   * @return the recorder, or null if the traffic is not recorded.   */  final public TrafficRecorder getTrafficRecorder()  {    return trafficRecorder;  }  /**   * Starts or stops recording the incoming traffic. Every message is   * recorded when it is received, before handleMessageFromClient() is   * called, together with connections opening and closing. The caller   * remains responsible for closing the recorder.   *   * @param trafficRecorder the recorder, or null to stop recording.   */  final public void setTrafficRecorder(TrafficRecorder trafficRecorder)  {    this.trafficRecorder = trafficRecorder;  }  /**   * Returns the port number.   *   * @return the port number.   */  final public int getPort()  {    return port;  }  /**   * Sets the port number for the next connection.   * The server must be closed and restarted for the port   * change to be in effect.   *   * @param port the port number.   */  final public void setPort(int port)  {    this.port = port;  }  /**   * Sets the timeout time when accepting connections.   * The default is 0, i.e. accept() blocks until a client connects or   * the server stops listening; a positive timeout only makes the   * listening thread wake up periodically.   * The server must be stopped and restarted for the timeout   * change to be effective.   *   * @param timeout the timeout time in ms.   */  final public void setTimeout(int timeout)  {    this.timeout = timeout;  }  /**   * Sets the maximum number of waiting connections accepted by the   * operating system. The default is 20.   * The server must be closed and restarted for the backlog   * change to be in effect.   *   * @param backlog the maximum number of connections.   */  final public void setBacklog(int backlog)  {    this.backlog = backlog;  }  /**   * Sets the number of threads accepting connections. On platforms   * supporting SO_REUSEPORT (e.g. Linux) each thread gets its own   * listening socket on the same port and the kernel spreads incoming   * connections among them; elsewhere the threads share one socket.   * More acceptors help when many clients connect at once, e.g. all   * terminals reconnecting after a network outage. The default is 1.   * The server must be closed and restarted for the change to be in   * effect.   *   * @param acceptorCount the number of acceptor threads.   */  final public void setAcceptorCount(int acceptorCount)  {    this.acceptorCount = acceptorCount;  }  /**   * Sets the time a connection may stay silent before it is sent a   * heartbeat. A value of 0 (the default) disables heartbeats and the   * reaping of idle connections.   * The server must be closed and restarted for the change to be   * effective.   *   * @param heartbeatInterval the interval in ms.   */  final public void setHeartbeatInterval(long heartbeatInterval)  {    this.heartbeatInterval = heartbeatInterval;  }  /**   * Sets the time after which a silent connection is closed. Clients   * answer heartbeats, so only connections whose peer is gone (or   * hung) stay silent that long. The default is three heartbeat   * intervals. A connection is closed at most one heartbeat interval   * after this time is exceeded.   *   * @param idleTimeout the timeout in ms.   */  final public void setIdleTimeout(long idleTimeout)  {    this.idleTimeout = idleTimeout;  }  /**   * Sets the time a new connection has to send its stream header   * before it is closed. A value of 0 waits forever.   *   * @param handshakeTimeout the timeout in ms.   */  final public void setHandshakeTimeout(int handshakeTimeout)  {    this.handshakeTimeout = handshakeTimeout;  }  /**   * Gives the time a new connection has to send its stream header.   *   * @return the timeout in ms, 0 for none.   */  final int getHandshakeTimeout()  {    return handshakeTimeout;  }  /**   * Returns the number of connections closed because they were idle   * since the server was created.   *   * @return the number of reaped connections.   */  final public long getReapedConnectionCount()  {    return reapedConnections.get();  }  /**   * Sets the maximum number of simultaneous connections. Connection   * attempts beyond it are closed right after accept(), before any   * stream is set up. A value of 0 (the default) means no limit.   *   * @param maxConnections the maximum number of connections.   */  final public void setMaxConnections(int maxConnections)  {    this.maxConnections = maxConnections;  }  /**   * Limits how fast a single remote address may open connections,   * e.g. a kiosk stuck in a reconnect loop. Attempts beyond the limit   * are closed right after accept(). A rate of 0 removes the limit.   *   * @param perSecond the sustained number of connections per second.   * @param burst the number of connections allowed in a burst.   */  final public void setConnectionRateLimit(double perSecond, int burst)  {    connectRateLimiter =      perSecond > 0 ? new AddressRateLimiter(perSecond, burst) : null;  }  /**   * Limits how many messages per second all the connections of a   * single remote address may send. Messages beyond the limit are not   * passed to handleMessageFromClient(); messageRateLimited() is called   * instead. A rate of 0 removes the limit.   *   * @param perSecond the sustained number of messages per second.   * @param burst the number of messages allowed in a burst.   */  final public void setMessageRateLimit(double perSecond, int burst)  {    messageRateLimiter =      perSecond > 0 ? new AddressRateLimiter(perSecond, burst) : null;  }// RUN METHOD -------------------------------------------------------  /**   * Runs the listening thread that allows clients to connect.   * Not to be called.   */  final public void run()  {    // call the hook method to notify that the server is starting    serverStarted();    // stopListening() clears the field, keep our own reference    ServerSocket[] listeners = serverSockets;    // This thread is the first acceptor; start the others    for (int i = 1; i < listeners.length; i++)    {      ServerSocket listener = listeners[i];      Thread acceptor = new Thread(() -> runAcceptor(listener),        "OCSF acceptor " + i);      acceptor.setDaemon(true);      acceptor.start();    }    try    {      acceptConnections(listeners[0]);      // call the hook method to notify that the server has stopped      serverStopped();    }    catch (IOException exception)    {      if (!readyToStop)      {        // Closing the socket must have thrown a SocketException        listeningException(exception);      }      else      {        serverStopped();      }    }    finally    {      readyToStop = true;      connectionListener = null;    }  }// METHODS DESIGNED TO BE OVERRIDDEN BY CONCRETE SUBCLASSES ---------  /**   * Hook method called each time a new client connection is   * accepted. The default implementation does nothing.   * @param client the connection connected to the client.   */  protected void clientConnected(ConnectionToClient client) {}  /**   * Hook method called each time a client disconnects.   * The default implementation does nothing. The method   * may be overridden by subclasses but should remains synchronized.   *   * @param client the connection with the client.   */  synchronized protected void clientDisconnected(    ConnectionToClient client) {}  /**   * Hook method called each time an exception is thrown in a   * ConnectionToClient thread.   * The method may be overridden by subclasses but should remains   * synchronized.   *   * @param client the client that raised the exception.   * @param Throwable the exception thrown.   */  synchronized protected void clientException(    ConnectionToClient client, Throwable exception) {}  /**   * Hook method called when the server stops accepting   * connections because an exception has been raised.   * The default implementation does nothing.   * This method may be overriden by subclasses.   *   * @param exception the exception raised.   */  protected void listeningException(Throwable exception) {}  /**   * Hook method called when the server starts listening for   * connections.  The default implementation does nothing.   * The method may be overridden by subclasses.   */  protected void serverStarted() {}  /**   * Hook method called when the server stops accepting   * connections.  The default implementation   * does nothing. This method may be overriden by subclasses.   */  protected void serverStopped() {}  /**   * Hook method called when the server is clased.   * The default implementation does nothing. This method may be   * overriden by subclasses. When the server is closed while still   * listening, serverStopped() will also be called.   */  protected void serverClosed() {}  /**   * Hook method called when a connection is about to be closed because   * it stayed silent longer than the idle timeout. It is called from   * the reaper thread and must not block. The default implementation   * does nothing; clientDisconnected() is called as usual afterwards.   *   * @param client the connection being reaped.   * @param idleTime the time in ms since the last message received.   */  protected void clientReaped(ConnectionToClient client, long idleTime) {}  /**   * Hook method called when a connection attempt is refused by   * admission control. It is called from the listening thread and   * should be cheap. The default implementation does nothing.   *   * @param address the address of the refused client.   * @param reason why it was refused.   */  protected void connectionRejected(InetAddress address, String reason) {}  /**   * Hook method called instead of handleMessageFromClient() when a   * message exceeds the message rate of its remote address. It is   * called from the connection thread. The default implementation   * does nothing, i.e. the message is dropped.   *   * @param client the connection that sent the message.   * @param msg the dropped message.   */  protected void messageRateLimited(ConnectionToClient client, Object msg) {}  /**   * Handles a command sent from one client to the server.   * This MUST be implemented by subclasses, who should respond to   * messages.   * This method is called by a synchronized method so it is also   * implcitly synchronized.   *   * @param msg   the message sent.   * @param client the connection connected to the client that   *  sent the message.   */  protected abstract void handleMessageFromClient(    Object msg, ConnectionToClient client);// METHODS TO BE USED FROM WITHIN THE FRAMEWORK ONLY ----------------  /**   * Receives a command sent from the client to the server.   * Called by the run method of <code>ConnectionToClient</code>   * instances that are watching for messages coming from the server   * This method is synchronized to ensure that whatever effects it has   * do not conflict with work being done by other threads. The method   * simply calls the <code>handleMessageFromClient</code> slot method.   *   * @param msg   the message sent.   * @param client the connection connected to the client that   *  sent the message.   */  final void receiveMessageFromClient(    Object msg, ConnectionToClient client)  {    // Record the arrival time, not the time the lock was obtained    TrafficRecorder recorder = trafficRecorder;    if (recorder != null)      recorder.recordMessage(client.getConnectionId(), msg);    FrameworkEvents.MessageDispatch event =      new FrameworkEvents.MessageDispatch();    boolean recording = event.isEnabled();    long waitStart = recording ? System.nanoTime() : 0;    long lockedAt = 0;    RuntimeException failure = null;    event.begin();    try    {      synchronized(this)      {        if (recording)          lockedAt = System.nanoTime();        this.handleMessageFromClient(msg, client);      }    }    catch (RuntimeException ex)    {      failure = ex;      throw ex;    }    finally    {      if (recording && event.shouldCommit())      {        event.connectionId = client.getConnectionId();        event.command = FrameworkEvents.commandOf(msg);        event.lockWait = lockedAt == 0 ? 0 : lockedAt - waitStart;        event.outcome = FrameworkEvents.outcomeOf(failure);        event.commit();      }    }  }  /**   * Gives the id of a new connection.   *   * @return an id unique within this server.   */  final long nextConnectionId()  {    return connectionIds.incrementAndGet();  }  /**   * Creates the listening sockets, one per acceptor if the platform   * supports SO_REUSEPORT.   *   * @return the sockets, one entry per acceptor thread.   * @exception IOException if a socket cannot be created or bound.   */  private ServerSocket[] openServerSockets() throws IOException  {    int count = Math.max(1, acceptorCount);    ServerSocket[] listeners = new ServerSocket[count];    InetSocketAddress address = new InetSocketAddress(getPort());    ServerSocket first = new ServerSocket();    boolean reusePort = count > 1      && first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);    try    {      for (int i = 0; i < count; i++)      {        if (i > 0 && !reusePort)        {          // No SO_REUSEPORT: the acceptors share the first socket          listeners[i] = listeners[0];          continue;        }        ServerSocket listener = (i == 0) ? first : new ServerSocket();        listeners[i] = listener;        if (reusePort)          listener.setOption(StandardSocketOptions.SO_REUSEPORT, true);        listener.bind(address, backlog);      }    }    catch (IOException ex)    {      for (ServerSocket listener : listeners)      {        try        {          if (listener != null)            listener.close();        }        catch (IOException exc) {}      }      first.close();      throw ex;    }    return listeners;  }  /**   * Body of the additional acceptor threads. Only the first acceptor   * calls serverStopped(); the others just end, unless they fail while   * the server is still listening.   *   * @param listener the socket this thread accepts on.   */  private void runAcceptor(ServerSocket listener)  {    try    {      acceptConnections(listener);    }    catch (IOException exception)    {      if (!readyToStop)        listeningException(exception);    }  }  /**   * Repeatedly waits for a new client connection, accepts it, and   * starts a new thread to handle data exchange. Returns when the   * server stops listening.   *   * @param listener the socket to accept connections on.   * @exception IOException if accept() fails, including when the socket   *   is closed by stopListening().   */  private void acceptConnections(ServerSocket listener) throws IOException  {    while(!readyToStop)    {      try      {        // Wait here for new connection attempts        Socket clientSocket = listener.accept();        // Refuse the connection before spending a thread and        // object streams on it        String refusal = admitConnection(clientSocket.getInetAddress());        if (refusal != null)        {          rejectConnection(clientSocket, refusal);          continue;        }        // When a client is accepted, create a thread to handle the        // data exchange, then add it to thread group. The stream        // handshake happens in that thread, not here, so a slow client        // does not hold up the next accept().        try        {          new ConnectionToClient(this.clientThreadGroup, clientSocket, this);        }        catch (IOException exception)        {          // The socket was already dead; this must not stop the          // server from listening          connectionCount.decrementAndGet();          try          {            clientSocket.close();          }          catch (IOException ex) {}        }      }      catch (InterruptedIOException exception)      {        // This will be thrown when a timeout occurs.        // The server will continue to listen if not ready to stop.      }    }  }  /**   * Decides whether a new connection may be set up. On success a   * connection slot is taken, to be given back by connectionEnded().   *   * @param address the address of the client.   * @return null if the connection is admitted, or the reason why it   *         is refused.   */  private String admitConnection(InetAddress address)  {    AddressRateLimiter limiter = connectRateLimiter;    if (limiter != null && !limiter.tryAcquire(address))      return "connection rate exceeded";    while (true)    {      int count = connectionCount.get();      if (maxConnections > 0 && count >= maxConnections)        return "too many connections";      if (connectionCount.compareAndSet(count, count + 1))        return null;    }  }  /**   * Closes a refused connection as cheaply as possible: the socket is   * reset rather than going through the normal TCP close.   *   * @param clientSocket the refused socket.   * @param reason why it was refused.   */  private void rejectConnection(Socket clientSocket, String reason)  {    rejectedConnections.incrementAndGet();    InetAddress address = clientSocket.getInetAddress();    FrameworkEvents.ConnectionAccept event =      new FrameworkEvents.ConnectionAccept();    event.begin();    try    {      clientSocket.setSoLinger(true, 0);      clientSocket.close();    }    catch (IOException ex) {}    if (event.shouldCommit())    {      event.remoteAddress = address.getHostAddress();      event.outcome = "refused: " + reason;      event.commit();    }    connectionRejected(address, reason);  }  /**   * Checks a message against the message rate of its remote address.   * Called by the connection thread before the message is handled.   *   * @param client the connection that sent the message.   * @param msg the message.   * @return true if the message may be handled.   */  final boolean admitMessage(ConnectionToClient client, Object msg)  {    AddressRateLimiter limiter = messageRateLimiter;    if (limiter == null || limiter.tryAcquire(client.getRemoteAddress()))      return true;    messageRateLimited(client, msg);    return false;  }  /**   * Gives back the slot of a terminated connection. Called once by   * each connection thread when it ends.   */  final void connectionEnded()  {    connectionCount.decrementAndGet();  }  /**   * Starts watching a new connection for idleness, if heartbeats are   * enabled. Called by the connection thread once it is running.   *   * @param client the new connection.   */  final void watchConnection(ConnectionToClient client)  {    TimingWheel reaper = idleReaper;    if (reaper != null)      client.setIdleCheck(        reaper.schedule(() -> checkIdle(client), heartbeatInterval));  }  /**   * Idle check of one connection, run by the reaper thread. Sends a   * heartbeat to a connection silent for a heartbeat interval, closes   * one silent for the idle timeout, and otherwise schedules the next   * check.   *   * @param client the connection to check.   */  private void checkIdle(ConnectionToClient client)  {    TimingWheel reaper = idleReaper;    if (reaper == null || client.isClosed())      return;    long timeoutMs = idleTimeout > 0 ? idleTimeout : 3 * heartbeatInterval;    long idle = System.currentTimeMillis() - client.getLastActivity();    if (idle >= timeoutMs)    {      reapedConnections.incrementAndGet();      clientReaped(client, idle);      try      {        client.close();      }      catch (IOException ex) {}      return;    }    if (idle >= heartbeatInterval)      client.sendHeartbeat();    client.setIdleCheck(reaper.schedule(() -> checkIdle(client),      Math.min(heartbeatInterval, timeoutMs - idle)));  }}// End of AbstractServer Class
\ No newline at end of file
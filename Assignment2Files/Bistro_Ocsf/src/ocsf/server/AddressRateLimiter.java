@@ -0,0 +1 @@
+package ocsf.server;import java.net.*;import java.util.*;import java.util.concurrent.*;/*** An <code> AddressRateLimiter </code> applies a separate token bucket* to each remote address, so that one misbehaving host cannot use up* the capacity of the server. Buckets are created on first use and* forgotten again once they are full, which keeps the map small when* many different hosts connect over time.<p>** Project Name: OCSF (Object Client-Server Framework)<p>** @see ocsf.server.TokenBucket*/public class AddressRateLimiter{// CLASS VARIABLES **************************************************  /**   * Number of addresses above which full buckets are discarded.   */  private static final int PRUNE_THRESHOLD = 1024;// INSTANCE VARIABLES ***********************************************  /**   * Events allowed per second and per address.   */  private final double rate;  /**   * Largest burst allowed per address.   */  private final int burst;  /**   * The bucket of each address seen recently.   */  private final ConcurrentHashMap<InetAddress, TokenBucket> buckets =    new ConcurrentHashMap<InetAddress, TokenBucket>();  /**   * Earliest time (ms) of the next pruning, so that a flood of new   * addresses does not scan the map on every event.   */  private volatile long nextPrune = 0;// CONSTRUCTORS *****************************************************  /**   * Constructs a limiter.   *   * @param rate the number of events allowed per second and address.   * @param burst the largest burst allowed per address.   */  public AddressRateLimiter(double rate, int burst)  {    this.rate = rate;    this.burst = burst;  }// INSTANCE METHODS *************************************************  /**   * Records an event from an address if its rate allows it.   *   * @param address the remote address.   * @return true if the event is allowed.   */  public boolean tryAcquire(InetAddress address)  {    if (address == null)      return true;    TokenBucket bucket = buckets.get(address);    if (bucket == null)    {      if (buckets.size() >= PRUNE_THRESHOLD        && System.currentTimeMillis() >= nextPrune)        prune();      bucket = buckets.computeIfAbsent(address, a -> new TokenBucket(rate, burst));    }    return bucket.tryAcquire();  }  /**   * Forgets the addresses whose bucket is full again.   */  private void prune()  {    nextPrune = System.currentTimeMillis() + 1000;    Iterator<TokenBucket> it = buckets.values().iterator();    while (it.hasNext())    {      if (it.next().isFull())        it.remove();    }  }}// End of AddressRateLimiter class
\ No newline at end of file
@@ -1 +1 @@
-// This file contains material supporting section 3.8 of the textbook:// "Object Oriented Software Engineering" and is issued under the open-source// license found at www.lloseng.compackage ocsf.server;import java.io.*;import java.net.*;import java.util.*;/*** An instance of this class is created by the server when a client* connects. It accepts messages coming from the client and is* responsible for sending data to the client since the socket is* private to this class. The AbstractServer contains a set of* instances of this class and is responsible for adding and deleting* them.<p>** Project Name: OCSF (Object Client-Server Framework)<p>** @author Dr Robert Lagani&egrave;re* @author Dr Timothy C. Lethbridge* @author Fran&ccedil;ois B&eacute;langer* @author Paul Holden* @version February 2001 (2.12)*/public class ConnectionToClient extends Thread{// INSTANCE VARIABLES ***********************************************  /**  * A reference to the Server that created this instance.  */  private AbstractServer server;  /**  * Sockets are used in the operating system as channels  * of communication between two processes.  * @see java.net.Socket  */  private Socket clientSocket;  /**  * Stream used to read from the client.  */  private ObjectInputStream input;  /**  * Stream used to write to the client.  */  private ObjectOutputStream output;  /**  * Indicates if the thread is ready to stop. Set to true when closing  * of the connection is initiated.  */  private boolean readyToStop;  /**   * Map to save information about the client such as its login ID.   * The initial size of the map is small since it is not expected   * that concrete servers will want to store many different types of   * information about each client. Used by the setInfo and getInfo   * methods.   */  private HashMap savedInfo = new HashMap(10);// CONSTRUCTORS *****************************************************  /**   * Constructs a new connection to a client.   *   * @param group the thread group that contains the connections.   * @param clientSocket contains the client's socket.   * @param server a reference to the server that created   *        this instance   * @exception IOException if an I/O error occur when creating   *        the connection.   */  ConnectionToClient(ThreadGroup group, Socket clientSocket,    AbstractServer server) throws IOException  {    super(group,(Runnable)null);    // Initialize variables    this.clientSocket = clientSocket;    this.server = server;    clientSocket.setSoTimeout(0); // make sure timeout is infinite    //Initialize the objects streams    try    {      input = new ObjectInputStream(clientSocket.getInputStream());      output = new ObjectOutputStream(clientSocket.getOutputStream());    }    catch (IOException ex)    {      try      {        closeAll();      }      catch (Exception exc) { }      throw ex;  // Rethrow the exception.    }    readyToStop = false;    start(); // Start the thread waits for data from the socket  }// INSTANCE METHODS *************************************************  /**   * Sends an object to the client.   *   * @param msg the message to be sent.   * @exception IOException if an I/O error occur when sending the   *    message.   */  final public void sendToClient(Object msg) throws IOException  {    if (clientSocket == null || output == null)      throw new SocketException("socket does not exist");    output.writeObject(msg);  }  /**   * Closes the client.   * If the connection is already closed, this   * call has no effect.   *   * @exception IOException if an error occurs when closing the socket.   */  final public void close() throws IOException  {    readyToStop = true; // Set the flag that tells the thread to stop    try    {      closeAll();    }    finally    {      server.clientDisconnected(this);    }  }// ACCESSING METHODS ------------------------------------------------  /**   * Returns the address of the client.   *   * @return the client's Internet address.   */  final public InetAddress getInetAddress()  {    return clientSocket == null ? null : clientSocket.getInetAddress();  }  /**   * Returns a string representation of the client.   *   * @return the client's description.   */  public String toString()  {    return clientSocket == null ? null :      clientSocket.getInetAddress().getHostName()        +" (" + clientSocket.getInetAddress().getHostAddress() + ")";  }  /**   * Saves arbitrary information about this client. Designed to be   * used by concrete subclasses of AbstractServer. Based on a hash map.   *   * @param infoType   identifies the type of information   * @param info       the information itself.   */  public void setInfo(String infoType, Object info)  {    savedInfo.put(infoType, info);  }  /**   * Returns information about the client saved using setInfo.   * Based on a hash map.   *   * @param infoType   identifies the type of information   */  public Object getInfo(String infoType)  {    return savedInfo.get(infoType);  }// RUN METHOD -------------------------------------------------------  /**   * Constantly reads the client's input stream.   * Sends all objects that are read to the server.   * Not to be called.   */  final public void run()  {    server.clientConnected(this);    // This loop reads the input stream and responds to messages    // from clients    try    {      // The message from the client      Object msg;      while (!readyToStop)      {        // This block waits until it reads a message from the client        // and then sends it for handling by the server        msg = input.readObject();        server.receiveMessageFromClient(msg, this);      }    }    catch (Exception exception)    {      if (!readyToStop)      {        try        {          closeAll();        }        catch (Exception ex) { }        server.clientException(this, exception);      }    }  }// METHODS TO BE USED FROM WITHIN THE FRAMEWORK ONLY ----------------  /**   * Closes all connection to the server.   *   * @exception IOException if an I/O error occur when closing the   *     connection.   */  private void closeAll() throws IOException  {    try    {      // Close the socket      if (clientSocket != null)        clientSocket.close();      // Close the output stream      if (output != null)        output.close();      // Close the input stream      if (input != null)        input.close();    }    finally    {      // Set the streams and the sockets to NULL no matter what      // Doing so allows, but does not require, any finalizers      // of these objects to reclaim system resources if and      // when they are garbage collected.      output = null;      input = null;      clientSocket = null;    }  }  /**   * This method is called by garbage collection.   */  protected void finalize()  {    try    {      closeAll();    }    catch(IOException e) {}  }}// End of ConnectionToClient class
\ No newline at end of file
+// This file contains material supporting section 3.8 of the textbook:// "Object Oriented Software Engineering" and is issued under the open-source// license found at www.lloseng.compackage ocsf.server;import java.io.*;import java.net.*;import java.util.*;import java.util.concurrent.atomic.*;import java.util.concurrent.locks.*;/*** An instance of this class is created by the server when a client* connects. It accepts messages coming from the client and is* responsible for sending data to the client since the socket is* private to this class. The AbstractServer contains a set of* instances of this class and is responsible for adding and deleting* them.<p>** Project Name: OCSF (Object Client-Server Framework)<p>** @author Dr Robert Lagani&egrave;re* @author Dr Timothy C. Lethbridge* @author Fran&ccedil;ois B&eacute;langer* @author Paul Holden* @version February 2001 (2.12)*/public class ConnectionToClient extends Thread{// INSTANCE VARIABLES ***********************************************  /**  * A reference to the Server that created this instance.  */  private AbstractServer server;  /**  * Sockets are used in the operating system as channels  * of communication between two processes.  * @see java.net.Socket  */  private Socket clientSocket;  /**   * Address of the client, kept after the socket is closed.   */  private final InetAddress remoteAddress;  /**   * Id of the connection, unique within the server.   */  private final long connectionId;  /**  * Stream used to read from the client.  */  private ObjectInputStream input;  /**  * Stream used to write to the client. Created by the connection's own  * thread, read by the threads sending to the client.  */  private volatile ObjectOutputStream output;  /**  * Indicates if the thread is ready to stop. Set to true when closing  * of the connection is initiated.  */  private boolean readyToStop;  /**   * Map to save information about the client such as its login ID.   * The initial size of the map is small since it is not expected   * that concrete servers will want to store many different types of   * information about each client. Used by the setInfo and getInfo   * methods.   */  private HashMap savedInfo = new HashMap(10);  /**   * Serializes writes to the output stream. Replies, heartbeats and   * messages pushed by other threads may be sent concurrently.   */  private final ReentrantLock writeLock = new ReentrantLock();  /**   * Time (as given by System.currentTimeMillis()) at which the last   * message was received from the client, or the connection was made.   */  private volatile long lastActivity = System.currentTimeMillis();  /**   * Time (as given by System.nanoTime()) at which the message being   * handled was read from the socket. Only written and read by the   * connection's own thread.   */  private long messageReceivedAt;  /**   * Traffic counters. LongAdders: replies and pushed messages are   * counted from several threads without contending with each other.   */  private final LongAdder messagesReceived = new LongAdder();  private final LongAdder messagesSent = new LongAdder();  private final LongAdder bytesReceived = new LongAdder();  private final LongAdder bytesSent = new LongAdder();  /**  * The counting streams under the object streams; their positions  * give the bytes of one message for the flight recorder events.  */  private CountingInputStream countingInput;  private CountingOutputStream countingOutput;  /**   * The pending idle check of this connection, if heartbeats are   * enabled on the server.   */  private volatile TimingWheel.Timeout idleCheck;// CONSTRUCTORS *****************************************************  /**   * Constructs a new connection to a client.   *   * @param group the thread group that contains the connections.   * @param clientSocket contains the client's socket.   * @param server a reference to the server that created   *        this instance   * @exception IOException if an I/O error occur when creating   *        the connection.   */  ConnectionToClient(ThreadGroup group, Socket clientSocket,    AbstractServer server) throws IOException  {    super(group,(Runnable)null);    // Initialize variables    this.clientSocket = clientSocket;    this.remoteAddress = clientSocket.getInetAddress();    this.server = server;    this.connectionId = server.nextConnectionId();    // Bounded until the client's stream header is read (see run()),    // infinite afterwards    clientSocket.setSoTimeout(server.getHandshakeTimeout());    // Each message is a few small writes; without this, Nagle's algorithm    // and delayed ACKs add tens of ms to every request/reply exchange    clientSocket.setTcpNoDelay(true);    // The object streams are created by the thread itself (see run()):    // reading the client's stream header may take a network round    // trip, which must not be spent in the server's accept loop.    readyToStop = false;    start(); // Start the thread waits for data from the socket  }// INSTANCE METHODS *************************************************  /**   * Sends an object to the client.   *   * @param msg the message to be sent.   * @exception IOException if an I/O error occur when sending the   *    message.   */  final public void sendToClient(Object msg) throws IOException  {    if (clientSocket == null || output == null)      throw new SocketException("socket does not exist");    // Flight recorder event: only timed and filled in when enabled    FrameworkEvents.MessageSend event = new FrameworkEvents.MessageSend();    boolean recording = event.isEnabled();    long waitStart = recording ? System.nanoTime() : 0;    long lockedAt = 0;    long bytes = 0;    IOException failure = null;    event.begin();    writeLock.lock();    try    {      if (recording)      {        lockedAt = System.nanoTime();        bytes = countingOutput.position;      }      output.writeObject(msg);      // Forget the objects written so far, as the client does: the stream      // would otherwise keep every message alive, and a reused array      // (a file chunk buffer) would go out as a back-reference to its      // first contents      output.reset();    }    catch (IOException ex)    {      failure = ex;      throw ex;    }    finally    {      if (recording)        bytes = countingOutput.position - bytes;      writeLock.unlock();      if (recording && event.shouldCommit())      {        event.connectionId = connectionId;        event.command = FrameworkEvents.commandOf(msg);        event.bytes = bytes;        event.lockWait = lockedAt - waitStart;        event.outcome = FrameworkEvents.outcomeOf(failure);        event.commit();      }    }    messagesSent.increment();  }  /**   * Closes the client.   * If the connection is already closed, this   * call has no effect.   *   * @exception IOException if an error occurs when closing the socket.   */  final public void close() throws IOException  {    readyToStop = true; // Set the flag that tells the thread to stop    try    {      closeAll();    }    finally    {      server.clientDisconnected(this);    }  }// ACCESSING METHODS ------------------------------------------------  /**   * Returns the address of the client.   *   * @return the client's Internet address.   */  final public InetAddress getInetAddress()  {    return clientSocket == null ? null : clientSocket.getInetAddress();  }  /**   * Returns a string representation of the client.   *   * @return the client's description.   */  public String toString()  {    return clientSocket == null ? null :      clientSocket.getInetAddress().getHostName()        +" (" + clientSocket.getInetAddress().getHostAddress() + ")";  }  /**   * Saves arbitrary information about this client. Designed to be   * used by concrete subclasses of AbstractServer. Based on a hash map.   *   * @param infoType   identifies the type of information   * @param info       the information itself.   */  public void setInfo(String infoType, Object info)  {    savedInfo.put(infoType, info);  }  /**   * Returns information about the client saved using setInfo.   * Based on a hash map.   *   * @param infoType   identifies the type of information   */  public Object getInfo(String infoType)  {    return savedInfo.get(infoType);  }  /**   * Returns the address of the client. Unlike getInetAddress(), it   * remains available after the connection is closed.   *   * @return the client's Internet address.   */  final public InetAddress getRemoteAddress()  {    return remoteAddress;  }  /**   * Returns the id of the connection. Ids are given in connection order   * and are unique within a server; they identify a client in logs and   * traffic captures more reliably than its address.   *   * @return the connection id.   */  final public long getConnectionId()  {    return connectionId;  }  /**   * Returns the time the last message was received from the client,   * heartbeat answers included.   *   * @return the time in ms, as given by System.currentTimeMillis().   */  final public long getLastActivity()  {    return lastActivity;  }  /**   * Returns the number of messages received from the client, heartbeat   * answers excluded.   *   * @return the number of messages received.   */  final public long getMessagesReceived()  {    return messagesReceived.sum();  }  /**   * Returns the number of messages sent to the client with   * sendToClient().   *   * @return the number of messages sent.   */  final public long getMessagesSent()  {    return messagesSent.sum();  }  /**   * Returns the number of bytes read from the client's socket,   * stream headers and heartbeats included.   *   * @return the number of bytes received.   */  final public long getBytesReceived()  {    return bytesReceived.sum();  }  /**   * Returns the number of bytes written to the client's socket,   * stream headers and heartbeats included.   *   * @return the number of bytes sent.   */  final public long getBytesSent()  {    return bytesSent.sum();  }  /**   * Returns when the message being handled was read from the socket,   * to measure how long it waited before being handled. Only   * meaningful when called from handleMessageFromClient(), in the   * connection's thread.   *   * @return the time in ns, as given by System.nanoTime().   */  final public long getMessageReceivedAt()  {    return messageReceivedAt;  }// RUN METHOD -------------------------------------------------------  /**   * Constantly reads the client's input stream.   * Sends all objects that are read to the server.   * Not to be called.   */  final public void run()  {    long connectedAt = System.currentTimeMillis();    FrameworkEvents.ConnectionAccept accept =      new FrameworkEvents.ConnectionAccept();    accept.begin();    //Initialize the objects streams. The output stream goes first:    //its header is sent right away, so both sides read each other's    //header in parallel instead of one after the other.    try    {      countingOutput = new CountingOutputStream(        clientSocket.getOutputStream(), bytesSent);      output = new ObjectOutputStream(countingOutput);      countingInput = new CountingInputStream(        clientSocket.getInputStream(), bytesReceived);      input = new ObjectInputStream(countingInput);      clientSocket.setSoTimeout(0); // idleness is up to the reaper now    }    catch (IOException ex)    {      // The client never completed the handshake, or not in time: it      // was never connected as far as the application is concerned      try      {        closeAll();      }      catch (Exception exc) { }      commitAccept(accept, "handshake failed: " + ex.getClass().getName());      server.connectionEnded();      return;    }    commitAccept(accept, "connected");    TrafficRecorder recorder = server.getTrafficRecorder();    if (recorder != null)      recorder.recordConnect(connectionId, remoteAddress);    server.clientConnected(this);    server.watchConnection(this);    // This loop reads the input stream and responds to messages    // from clients    Exception failure = null;    try    {      // The message from the client      Object msg;      while (!readyToStop)      {        // This block waits until it reads a message from the client        // and then sends it for handling by the server        long position = countingInput.position;        msg = input.readObject();        messageReceivedAt = System.nanoTime();        lastActivity = System.currentTimeMillis();        FrameworkEvents.MessageReceive receive =          new FrameworkEvents.MessageReceive();        if (receive.shouldCommit())        {          receive.connectionId = connectionId;          receive.command = FrameworkEvents.commandOf(msg);          receive.bytes = countingInput.position - position;          receive.commit();        }        // Heartbeat answers only prove the client is alive        if (AbstractServer.HEARTBEAT_PONG.equals(msg))          continue;        messagesReceived.increment();        if (server.admitMessage(this, msg))          server.receiveMessageFromClient(msg, this);      }    }    catch (Exception exception)    {      if (!readyToStop)      {        failure = exception;        try        {          closeAll();        }        catch (Exception ex) { }        server.clientException(this, exception);      }    }    finally    {      recorder = server.getTrafficRecorder();      if (recorder != null)        recorder.recordDisconnect(connectionId);      FrameworkEvents.ConnectionClose close =        new FrameworkEvents.ConnectionClose();      if (close.shouldCommit())      {        close.connectionId = connectionId;        close.remoteAddress = remoteAddress.getHostAddress();        close.lifetime = System.currentTimeMillis() - connectedAt;        close.messagesReceived = getMessagesReceived();        close.messagesSent = getMessagesSent();        close.bytesReceived = getBytesReceived();        close.bytesSent = getBytesSent();        close.outcome = failure == null ? "closed"          : failure.getClass().getName();        close.commit();      }      server.connectionEnded();    }  }  /**   * Ends the flight recorder event of the connection set up.   */  private void commitAccept(FrameworkEvents.ConnectionAccept accept,    String outcome)  {    if (accept.shouldCommit())    {      accept.connectionId = connectionId;      accept.remoteAddress = remoteAddress.getHostAddress();      accept.outcome = outcome;      accept.commit();    }  }// METHODS TO BE USED FROM WITHIN THE FRAMEWORK ONLY ----------------  /**   * Closes all connection to the server.   *   * @exception IOException if an I/O error occur when closing the   *     connection.   */  private void closeAll() throws IOException  {    TimingWheel.Timeout check = idleCheck;    if (check != null)      check.cancel();    try    {      // Close the socket      if (clientSocket != null)        clientSocket.close();      // Close the output stream      if (output != null)        output.close();      // Close the input stream      if (input != null)        input.close();    }    finally    {      // Set the streams and the sockets to NULL no matter what      // Doing so allows, but does not require, any finalizers      // of these objects to reclaim system resources if and      // when they are garbage collected.      output = null;      input = null;      clientSocket = null;    }  }  /**   * Replaces the pending idle check of this connection.   *   * @param check the newly scheduled check.   */  void setIdleCheck(TimingWheel.Timeout check)  {    idleCheck = check;  }  /**   * @return true once the connection has been closed.   */  boolean isClosed()  {    return clientSocket == null;  }  /**   * Sends a heartbeat to the client. Called by the reaper thread, so   * it gives up rather than wait if another write is in progress: a   * write that is stuck means the client is not reading, and the idle   * timeout will take care of it.   */  void sendHeartbeat()  {    if (!writeLock.tryLock())      return;    try    {      ObjectOutputStream out = output;      if (out != null)        out.writeObject(AbstractServer.HEARTBEAT_PING);    }    catch (IOException ex) {}    finally    {      writeLock.unlock();    }  }  /**   * This method is called by garbage collection.   */  protected void finalize()  {    try    {      closeAll();    }    catch(IOException e) {}  }// INNER CLASSES ----------------------------------------------------  /**   * Counts the bytes read from the socket.   */  private static class CountingInputStream extends FilterInputStream  {    private final LongAdder count;    /**     * Bytes read so far; only read by the connection's own thread.     */    long position;    CountingInputStream(InputStream in, LongAdder count)    {      super(in);      this.count = count;    }    public int read() throws IOException    {      int b = in.read();      if (b >= 0)      {        count.increment();        position++;      }      return b;    }    public int read(byte[] b, int off, int len) throws IOException    {      int n = in.read(b, off, len);      if (n > 0)      {        count.add(n);        position += n;      }      return n;    }    public long skip(long n) throws IOException    {      long skipped = in.skip(n);      count.add(skipped);      position += skipped;      return skipped;    }  }  /**   * Counts the bytes written to the socket.   */  private static class CountingOutputStream extends FilterOutputStream  {    private final LongAdder count;    /**     * Bytes written so far; only read under the connection's write lock.     */    long position;    CountingOutputStream(OutputStream out, LongAdder count)    {      super(out);      this.count = count;    }    public void write(int b) throws IOException    {      out.write(b);      count.increment();      position++;    }    // FilterOutputStream would write the array one byte at a time    public void write(byte[] b, int off, int len) throws IOException    {      out.write(b, off, len);      count.add(len);      position += len;    }  }}// End of ConnectionToClient class
\ No newline at end of file
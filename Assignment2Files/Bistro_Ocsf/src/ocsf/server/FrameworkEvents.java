@@ -0,0 +1 @@
+package ocsf.server;import jdk.jfr.*;import ocsf.trace.Tracer;/*** Java Flight Recorder events of the server side of the framework:* connections being accepted and closed, messages received and* dispatched to <code>handleMessageFromClient</code>, and messages* written by <code>sendToClient</code>.<p>** All events are disabled by default. A disabled event costs a check* of a flag that the JIT compiler folds away, so they can stay in the* production code; enable them with a JFC profile (see bistro.jfc in* the server project) for a profiling session.<p>** Byte counts are those read from or written to the socket while the* message was handled. Object streams buffer their input, so a received* message may be counted partly with the message before it.<p>** Project Name: OCSF (Object Client-Server Framework)<p>*/final class FrameworkEvents{// CONSTANTS *******************************************************  /**   * Longest command name put in an event.   */  private static final int MAX_COMMAND_LENGTH = 40;// CONSTRUCTORS *****************************************************  private FrameworkEvents() {}// EVENTS -----------------------------------------------------------  @Name("ocsf.ConnectionAccept")  @Label("Connection Accept")  @Description("A connection accepted, with its object stream handshake,"    + " or refused by the admission limits")  @Category({"OCSF", "Connections"})  @Enabled(false)  @StackTrace(false)  static class ConnectionAccept extends Event  {    @Label("Connection Id")    long connectionId;    @Label("Remote Address")    String remoteAddress;    @Label("Outcome")    String outcome;  }  @Name("ocsf.ConnectionClose")  @Label("Connection Close")  @Description("A connection that ended, with its traffic totals")  @Category({"OCSF", "Connections"})  @Enabled(false)  @StackTrace(false)  static class ConnectionClose extends Event  {    @Label("Connection Id")    long connectionId;    @Label("Remote Address")    String remoteAddress;    @Label("Lifetime")    @Timespan(Timespan.MILLISECONDS)    long lifetime;    @Label("Messages Received")    long messagesReceived;    @Label("Messages Sent")    long messagesSent;    @Label("Bytes Received")    @DataAmount    long bytesReceived;    @Label("Bytes Sent")    @DataAmount    long bytesSent;    @Label("Outcome")    String outcome;  }  @Name("ocsf.MessageReceive")  @Label("Message Receive")  @Description("A message read from a client")  @Category({"OCSF", "Messages"})  @Enabled(false)  @StackTrace(false)  static class MessageReceive extends Event  {    @Label("Connection Id")    long connectionId;    @Label("Command")    String command;    @Label("Bytes")    @DataAmount    long bytes;  }  @Name("ocsf.MessageDispatch")  @Label("Message Dispatch")  @Description("handleMessageFromClient(), including the wait for the"    + " server lock")  @Category({"OCSF", "Messages"})  @Enabled(false)  @StackTrace(false)  static class MessageDispatch extends Event  {    @Label("Connection Id")    long connectionId;    @Label("Command")    String command;    @Label("Lock Wait")    @Timespan(Timespan.NANOSECONDS)    long lockWait;    @Label("Outcome")    String outcome;  }  @Name("ocsf.MessageSend")  @Label("Message Send")  @Description("A message written to a client by sendToClient(),"    + " including the wait for the connection's write lock")  @Category({"OCSF", "Messages"})  @Enabled(false)  @StackTrace(false)  static class MessageSend extends Event  {    @Label("Connection Id")    long connectionId;    @Label("Command")    String command;    @Label("Bytes")    @DataAmount    long bytes;    @Label("Lock Wait")    @Timespan(Timespan.NANOSECONDS)    long lockWait;    @Label("Outcome")    String outcome;  }// UTILITY METHODS --------------------------------------------------  /**   * Describes a message for an event: the first word of a string   * message (e.g. "#GET_RESERVATION", "RESERVATION|..." is cut at the   * first '|') after its trace id if any, or the class name of other   * messages. Message data is never put in events.   *   * @param msg the message.   * @return the command name.   */  static String commandOf(Object msg)  {    if (!(msg instanceof String))      return msg == null ? "null" : msg.getClass().getName();    String s = Tracer.stripTraceId((String)msg);    int end = 0;    int max = Math.min(s.length(), MAX_COMMAND_LENGTH);    while (end < max && s.charAt(end) != ' ' && s.charAt(end) != '|')      end++;    return s.substring(0, end);  }  /**   * @param ex an exception, or null.   * @return "ok" if there is no exception, else its class name.   */  static String outcomeOf(Throwable ex)  {    return ex == null ? "ok" : ex.getClass().getName();  }}// End of FrameworkEvents class
\ No newline at end of file
@@ -0,0 +1 @@
+package ocsf.server;import java.util.*;import java.util.concurrent.*;/*** A <code> TimingWheel </code> is a hashed timing wheel: a single thread* that runs many short tasks at approximately the requested time.* Time is divided into ticks and each pending task is put in the wheel* slot of the tick at which it expires, so scheduling and cancelling are* O(1) whatever the number of pending tasks. Tasks further away than one* turn of the wheel simply wait for the required number of rounds.<p>** The server uses one wheel for the idle checks of all its connections* instead of one timer per connection. Tasks run in the wheel thread* and must therefore be short and must not block.<p>** Project Name: OCSF (Object Client-Server Framework)<p>** @see ocsf.server.AbstractServer#setHeartbeatInterval(long)*/public class TimingWheel implements Runnable{// INSTANCE VARIABLES ***********************************************  /**   * Duration of one tick in milliseconds; the precision of the wheel.   */  private final long tickDuration;  /**   * The slots of the wheel. Only accessed by the wheel thread.   */  private final ArrayList<Timeout>[] wheel;  /**   * Mask used to map a tick number to its slot (wheel size is a   * power of two).   */  private final int mask;  /**   * Timeouts scheduled from other threads and not yet put in a slot.   */  private final Queue<Timeout> pendingTimeouts =    new ConcurrentLinkedQueue<Timeout>();  /**   * Name given to the wheel thread.   */  private final String name;  /**   * The thread that advances the wheel.   */  private Thread worker;  /**   * Time at which the wheel was started, in nanoseconds.   */  private volatile long startTime;  /**   * Set to false to make the wheel thread stop.   */  private volatile boolean running = false;  /**   * Number of ticks elapsed since the wheel started.   */  private long tick = 0;// CONSTRUCTORS *****************************************************  /**   * Constructs a wheel. It must be started before use.   *   * @param name the name of the wheel thread.   * @param tickDuration the duration of a tick in milliseconds.   * @param ticksPerWheel the number of slots, rounded up to a power of   *        two.   */  @SuppressWarnings({"unchecked", "rawtypes"})  public TimingWheel(String name, long tickDuration, int ticksPerWheel)  {    if (tickDuration <= 0 || ticksPerWheel <= 0)      throw new IllegalArgumentException("tick duration and wheel size must be positive");    int size = Integer.highestOneBit(ticksPerWheel);    if (size < ticksPerWheel)      size <<= 1;    this.name = name;    this.tickDuration = tickDuration;    this.mask = size - 1;    this.wheel = new ArrayList[size];    for (int i = 0; i < size; i++)      wheel[i] = new ArrayList<Timeout>();  }// INSTANCE METHODS *************************************************  /**   * Starts the wheel thread. If the wheel is already running, this   * call has no effect.   */  final public synchronized void start()  {    if (running)      return;    startTime = System.nanoTime();    running = true;    worker = new Thread(this, name);    worker.setDaemon(true);    worker.start();  }  /**   * Stops the wheel thread. Pending tasks are discarded.   */  final public synchronized void stop()  {    running = false;    if (worker != null)    {      worker.interrupt();      worker = null;    }  }  /**   * Schedules a task to run once after the given delay. The task runs   * in the wheel thread, on the first tick after the delay elapsed.   *   * @param task the task to run.   * @param delay the delay in milliseconds.   * @return a handle that can be used to cancel the task.   */  final public Timeout schedule(Runnable task, long delay)  {    if (!running)      throw new IllegalStateException("timing wheel is not running");    long now = (System.nanoTime() - startTime) / 1000000L;    Timeout timeout = new Timeout(task, now + Math.max(0, delay));    pendingTimeouts.add(timeout);    return timeout;  }// RUN METHOD -------------------------------------------------------  /**   * Advances the wheel one tick at a time and runs the expired tasks.   * Not to be called.   */  final public void run()  {    while (running)    {      long deadline = tickDuration * (tick + 1);      long sleep = deadline - (System.nanoTime() - startTime) / 1000000L;      if (sleep > 0)      {        try        {          Thread.sleep(sleep);        }        catch (InterruptedException ex)        {          // stop() interrupts the thread; the loop condition decides        }        continue;      }      transferPendingTimeouts();      expireTimeouts(wheel[(int)(tick & mask)]);      tick++;    }  }// METHODS TO BE USED FROM WITHIN THE FRAMEWORK ONLY ----------------  /**   * Moves newly scheduled timeouts into their slot.   */  private void transferPendingTimeouts()  {    Timeout timeout;    while ((timeout = pendingTimeouts.poll()) != null)    {      if (timeout.isCancelled())        continue;      long expiryTick = timeout.deadline / tickDuration;      timeout.remainingRounds = (expiryTick - tick) / wheel.length;      // A timeout already in the past goes in the current slot      long slotTick = Math.max(expiryTick, tick);      wheel[(int)(slotTick & mask)].add(timeout);    }  }  /**   * Runs the timeouts of a slot whose last round has come, and keeps   * the others for a later turn of the wheel.   */  private void expireTimeouts(ArrayList<Timeout> slot)  {    if (slot.isEmpty())      return;    ArrayList<Timeout> expired = new ArrayList<Timeout>();    Iterator<Timeout> it = slot.iterator();    while (it.hasNext())    {      Timeout timeout = it.next();      if (timeout.isCancelled())      {        it.remove();      }      else if (timeout.remainingRounds <= 0)      {        it.remove();        expired.add(timeout);      }      else      {        timeout.remainingRounds--;      }    }    // Run after the slot is updated: a task may schedule a new timeout    for (Timeout timeout : expired)    {      try      {        timeout.task.run();      }      // One failing task must not stop the wheel      catch (Throwable t) {}    }  }// INNER CLASSES ----------------------------------------------------  /**   * Handle to a scheduled task.   */  public static final class Timeout  {    private final Runnable task;    private final long deadline;    private long remainingRounds;    private volatile boolean cancelled = false;    private Timeout(Runnable task, long deadline)    {      this.task = task;      this.deadline = deadline;    }    /**     * Prevents the task from running if it has not run yet.     */    public void cancel()    {      cancelled = true;    }    /**     * @return true if the task was cancelled.     */    public boolean isCancelled()    {      return cancelled;    }  }}// End of TimingWheel class
\ No newline at end of file
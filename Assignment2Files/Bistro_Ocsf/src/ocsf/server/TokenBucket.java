@@ -0,0 +1 @@
+package ocsf.server;/*** A <code> TokenBucket </code> allows a sustained rate of events with* bursts up to a given size. Tokens are added continuously at* <code>rate</code> per second up to <code>capacity</code>; each event* takes one token, and an event for which no token is left is refused.* The bucket is refilled lazily when it is used, so an idle bucket* costs nothing.<p>** Project Name: OCSF (Object Client-Server Framework)<p>** @see ocsf.server.AddressRateLimiter*/public class TokenBucket{// INSTANCE VARIABLES ***********************************************  /**   * Tokens added per nanosecond.   */  private final double tokensPerNano;  /**   * Maximum number of tokens, i.e. the largest burst allowed.   */  private final double capacity;  /**   * Tokens currently available.   */  private double tokens;  /**   * Time of the last refill, in nanoseconds.   */  private long lastRefill;// CONSTRUCTORS *****************************************************  /**   * Constructs a full bucket.   *   * @param rate the number of tokens added per second.   * @param capacity the maximum number of tokens.   */  public TokenBucket(double rate, int capacity)  {    if (rate <= 0 || capacity <= 0)      throw new IllegalArgumentException("rate and capacity must be positive");    this.tokensPerNano = rate / 1e9;    this.capacity = capacity;    this.tokens = capacity;    this.lastRefill = System.nanoTime();  }// INSTANCE METHODS *************************************************  /**   * Takes a token if one is available.   *   * @return true if the event is allowed.   */  public synchronized boolean tryAcquire()  {    refill();    if (tokens < 1)      return false;    tokens -= 1;    return true;  }  /**   * @return true if the bucket is full, i.e. it has not been used   *         recently and forgetting it would change nothing.   */  public synchronized boolean isFull()  {    refill();    return tokens >= capacity;  }  /**   * Adds the tokens earned since the last refill.   */  private void refill()  {    long now = System.nanoTime();    tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);    lastRefill = now;  }}// End of TokenBucket class
\ No newline at end of file
@@ -0,0 +1 @@
+package ocsf.server;import java.io.*;import java.net.*;import java.nio.charset.StandardCharsets;/*** A <code> TrafficReader </code> reads back, in order, the records of a* capture file written by a <code>TrafficRecorder</code>.<p>** Project Name: OCSF (Object Client-Server Framework)<p>** @see ocsf.server.TrafficRecorder*/public class TrafficReader implements Closeable{// INSTANCE VARIABLES ***********************************************  /**   * Buffered stream from the capture file.   */  private final DataInputStream in;  /**   * Time of the previous record, in microseconds since the epoch.   */  private long micros;  /**   * Number of the current recording session in the file.   */  private int segment = 0;// CONSTRUCTORS *****************************************************  /**   * Opens a capture file.   *   * @param file the capture file.   * @exception IOException if the file cannot be read or is not a   *  capture file.   */  public TrafficReader(File file) throws IOException  {    in = new DataInputStream(new BufferedInputStream(      new FileInputStream(file), 64 * 1024));    try    {      if (in.readInt() != TrafficRecorder.MAGIC)        throw new IOException(file + " is not a capture file");      int version = in.readShort();      if (version != TrafficRecorder.VERSION)        throw new IOException("Unsupported capture version " + version);    }    catch (IOException ex)    {      in.close();      throw ex;    }  }// INSTANCE METHODS *************************************************  /**   * Reads the next connect, message or disconnect record.   *   * @return the record, or null at the end of the file.   * @exception IOException if the file cannot be read or is corrupt.   */  final public Record next() throws IOException  {    while (true)    {      int type = in.read();      if (type < 0)        return null;      try      {        if (type == TrafficRecorder.SEGMENT)        {          micros = in.readLong();          segment++;          continue;        }        micros += readVarLong();        long connectionId = readVarLong();        switch (type)        {          case TrafficRecorder.CONNECT:            byte[] raw = new byte[in.readUnsignedByte()];            in.readFully(raw);            InetAddress address =              raw.length == 0 ? null : InetAddress.getByAddress(raw);            return new Record(type, segment, micros, connectionId, address, null);          case TrafficRecorder.MESSAGE:            return new Record(type, segment, micros, connectionId, null,              readMessage());          case TrafficRecorder.DISCONNECT:            return new Record(type, segment, micros, connectionId, null, null);          default:            throw new IOException("Corrupt capture: record type " + type);        }      }      catch (EOFException ex)      {        // The last record was cut short (e.g. the server was killed)        return null;      }    }  }  /**   * Closes the capture file.   */  final public void close() throws IOException  {    in.close();  }// METHODS TO BE USED FROM WITHIN THE FRAMEWORK ONLY ----------------  private Object readMessage() throws IOException  {    int encoding = in.readUnsignedByte();    byte[] payload = new byte[(int)readVarLong()];    in.readFully(payload);    if (encoding == TrafficRecorder.STRING)      return new String(payload, StandardCharsets.UTF_8);    try (ObjectInputStream objects =      new ObjectInputStream(new ByteArrayInputStream(payload)))    {      return objects.readObject();    }    catch (ClassNotFoundException ex)    {      throw new IOException("Cannot read captured message", ex);    }  }  private long readVarLong() throws IOException  {    long value = 0;    int shift = 0;    int b;    do    {      b = in.readUnsignedByte();      value |= (long)(b & 0x7F) << shift;      shift += 7;    }    while ((b & 0x80) != 0);    return value;  }// INNER CLASSES ----------------------------------------------------  /**   * One record of a capture.   */  public static final class Record  {    private final int type;    private final int segment;    private final long micros;    private final long connectionId;    private final InetAddress address;    private final Object message;    private Record(int type, int segment, long micros, long connectionId,      InetAddress address, Object message)    {      this.type = type;      this.segment = segment;      this.micros = micros;      this.connectionId = connectionId;      this.address = address;      this.message = message;    }    /**     * @return true if this records a client connecting.     */    public boolean isConnect()    {      return type == TrafficRecorder.CONNECT;    }    /**     * @return true if this records a message from a client.     */    public boolean isMessage()    {      return type == TrafficRecorder.MESSAGE;    }    /**     * @return true if this records a connection ending.     */    public boolean isDisconnect()    {      return type == TrafficRecorder.DISCONNECT;    }    /**     * @return the time of the event, in microseconds since the epoch.     */    public long getTimeMicros()    {      return micros;    }    /**     * @return the recording session this record belongs to, starting     *  at 1. Connection ids are only unique within a session.     */    public int getSegment()    {      return segment;    }    /**     * @return the id of the connection, unique within a server run.     */    public long getConnectionId()    {      return connectionId;    }    /**     * @return the address of the client, for connect records.     */    public InetAddress getAddress()    {      return address;    }    /**     * @return the message, for message records.     */    public Object getMessage()    {      return message;    }  }}// End of TrafficReader class
\ No newline at end of file
@@ -0,0 +1 @@
+package ocsf.server;import java.io.*;import java.net.*;import java.nio.charset.StandardCharsets;/*** A <code> TrafficRecorder </code> writes every message received by a* server, with its arrival time and the id of its connection, to an* append-only capture file. Connections opening and closing are* recorded too, so that the traffic can later be replayed with the same* connections and the same ordering (see <code>TrafficReader</code>).<p>** The file starts with a header, followed by one segment per recording* session. Records are kept compact: the time is stored as the number* of microseconds since the previous record, and numbers as variable* length integers. Strings are stored as UTF-8; other messages with* Java serialization.<p>** Recording is done in the connection threads before the message is* handled. A failure to write disables the recorder rather than* disturbing the server.<p>** Project Name: OCSF (Object Client-Server Framework)<p>** @see ocsf.server.AbstractServer#setTrafficRecorder(TrafficRecorder)*/public class TrafficRecorder implements Closeable{// CONSTANTS *******************************************************  /**   * First bytes of a capture file ("OCSF").   */  static final int MAGIC = 0x4F435346;  /**   * Version of the file format.   */  static final int VERSION = 1;  /**   * Record types.   */  static final int SEGMENT = 0;  static final int CONNECT = 1;  static final int MESSAGE = 2;  static final int DISCONNECT = 3;  /**   * Message encodings.   */  static final int STRING = 0;  static final int OBJECT = 1;// INSTANCE VARIABLES ***********************************************  /**   * The capture file.   */  private final File file;  /**   * Buffered stream to the capture file.   */  private DataOutputStream out;  /**   * Time of the previous record, in microseconds.   */  private long lastMicros;  /**   * The exception that disabled the recorder, if any.   */  private volatile IOException failure;// CONSTRUCTORS *****************************************************  /**   * Opens a capture file for appending, and starts a new segment.   *   * @param file the capture file, created if needed.   * @exception IOException if the file cannot be opened.   */  public TrafficRecorder(File file) throws IOException  {    this.file = file;    boolean empty = !file.exists() || file.length() == 0;    out = new DataOutputStream(new BufferedOutputStream(      new FileOutputStream(file, true), 64 * 1024));    if (empty)    {      out.writeInt(MAGIC);      out.writeShort(VERSION);    }    lastMicros = nowMicros();    out.writeByte(SEGMENT);    out.writeLong(System.currentTimeMillis() * 1000L);  }// ACCESSING METHODS ------------------------------------------------  /**   * @return the capture file.   */  final public File getFile()  {    return file;  }  /**   * @return the exception that stopped the recording, or null if it is   *  still going on.   */  final public IOException getFailure()  {    return failure;  }// RECORDING METHODS ------------------------------------------------  /**   * Records that a client connected.   *   * @param connectionId the id of the connection.   * @param address the address of the client.   */  final public synchronized void recordConnect(long connectionId,    InetAddress address)  {    if (out == null)      return;    try    {      writeHeader(CONNECT, connectionId);      byte[] raw = address == null ? new byte[0] : address.getAddress();      out.writeByte(raw.length);      out.write(raw);    }    catch (IOException ex)    {      fail(ex);    }  }  /**   * Records a message received from a client.   *   * @param connectionId the id of the connection.   * @param msg the message.   */  final public void recordMessage(long connectionId, Object msg)  {    // Encode outside the lock: serialization may be slow    int encoding;    byte[] payload;    try    {      if (msg instanceof String)      {        encoding = STRING;        payload = ((String)msg).getBytes(StandardCharsets.UTF_8);      }      else      {        encoding = OBJECT;        ByteArrayOutputStream bytes = new ByteArrayOutputStream();        ObjectOutputStream objects = new ObjectOutputStream(bytes);        objects.writeObject(msg);        objects.close();        payload = bytes.toByteArray();      }    }    catch (IOException ex)    {      // Not serializable: cannot have been received either      return;    }    synchronized (this)    {      if (out == null)        return;      try      {        writeHeader(MESSAGE, connectionId);        out.writeByte(encoding);        writeVarLong(payload.length);        out.write(payload);      }      catch (IOException ex)      {        fail(ex);      }    }  }  /**   * Records that a connection ended.   *   * @param connectionId the id of the connection.   */  final public synchronized void recordDisconnect(long connectionId)  {    if (out == null)      return;    try    {      writeHeader(DISCONNECT, connectionId);    }    catch (IOException ex)    {      fail(ex);    }  }  /**   * Writes buffered records to the file.   *   * @exception IOException if the file cannot be written.   */  final public synchronized void flush() throws IOException  {    if (out != null)      out.flush();  }  /**   * Flushes and closes the capture file. Later records are ignored.   *   * @exception IOException if the file cannot be written.   */  final public synchronized void close() throws IOException  {    if (out == null)      return;    try    {      out.close();    }    finally    {      out = null;    }  }// METHODS TO BE USED FROM WITHIN THE FRAMEWORK ONLY ----------------  /**   * Writes the part common to all records: type, time since the   * previous record and connection id.   */  private void writeHeader(int type, long connectionId) throws IOException  {    long now = nowMicros();    // Records are written in lock order, which may differ slightly from    // the order of the clock readings: never go back in time    long delta = Math.max(0, now - lastMicros);    lastMicros += delta;    out.writeByte(type);    writeVarLong(delta);    writeVarLong(connectionId);  }  /**   * Writes a non-negative number on 1 to 10 bytes, 7 bits at a time.   */  private void writeVarLong(long value) throws IOException  {    while ((value & ~0x7FL) != 0)    {      out.writeByte((int)((value & 0x7F) | 0x80));      value >>>= 7;    }    out.writeByte((int)value);  }  /**   * Stops recording after a write error.   */  private void fail(IOException ex)  {    failure = ex;    try    {      out.close();    }    catch (IOException exc) {}    out = null;  }  private static long nowMicros()  {    return System.nanoTime() / 1000L;  }}// End of TrafficRecorder class
\ No newline at end of file
@@ -0,0 +1 @@
+package ocsf.trace;import java.io.*;import java.time.Instant;import java.util.concurrent.ThreadLocalRandom;/*** A <code> Tracer </code> writes timed spans of requests to a local* trace file, so that the time of one request can be followed from the* client, over the network and through the server.<p>** A traced request carries its trace id as a prefix of the message:* <code>@T&lt;id&gt; #COMMAND ...</code>. The server strips the prefix,* and puts it back in front of its reply, so that the client can match* the reply with its request. Untagged messages are not affected.<p>** Each span is one line of the trace file, with tab-separated fields:* trace id, start (microseconds since the epoch), duration* (microseconds), process, span name and detail. Files of several* processes can be merged by trace id to give the timeline of a request.<p>** Only a fraction of the requests are traced (see* <code>newTraceId()</code>), so that tracing can stay on in production.* Lines are buffered and written at most once a second.<p>** Tracers are configured with system properties:* <code>bistro.traceSample</code> (fraction of requests traced, default 0)* and <code>bistro.traceFile</code>.<p>** Project Name: OCSF (Object Client-Server Framework)<p>*/public class Tracer implements Closeable{// CONSTANTS *******************************************************  /**   * Prefix of a traced message.   */  public static final String PREFIX = "@T";  /**   * Longest trace id accepted in a message.   */  private static final int MAX_ID_LENGTH = 32;  /**   * Interval between two writes of the buffered spans.   */  private static final long FLUSH_INTERVAL_NANOS = 1000000000L;// INSTANCE VARIABLES ***********************************************  /**   * Name of this process in the trace file.   */  private final String process;  /**   * Fraction of the requests for which a trace id is created.   */  private final double sampleRate;  /**   * Wall clock and monotonic clock read at the same time, used to turn   * System.nanoTime() values into times comparable between processes.   */  private final long originMicros;  private final long originNanos;  /**   * Buffered writer to the trace file, null once closed.   */  private Writer out;  /**   * Time of the last write to the file.   */  private long lastFlushNanos;// CONSTRUCTORS *****************************************************  /**   * Opens a trace file for appending.   *   * @param file the trace file, created if needed.   * @param process the name of this process in the file.   * @param sampleRate the fraction (0 to 1) of the requests to trace.   * @exception IOException if the file cannot be opened.   */  public Tracer(File file, String process, double sampleRate)    throws IOException  {    this.process = process;    this.sampleRate = sampleRate;    out = new BufferedWriter(new OutputStreamWriter(      new FileOutputStream(file, true), "UTF-8"), 64 * 1024);    Instant now = Instant.now();    originNanos = System.nanoTime();    originMicros = now.getEpochSecond() * 1000000L + now.getNano() / 1000;    lastFlushNanos = originNanos;  }  /**   * Creates a tracer from the <code>bistro.traceSample</code> and   * <code>bistro.traceFile</code> system properties.   *   * @param process the name of this process in the file.   * @param defaultFile the file used if no trace file is given.   * @return the tracer, or null if tracing is not enabled or the file   *  cannot be opened.   */  public static Tracer fromSystemProperties(String process,    String defaultFile)  {    String fileName = System.getProperty("bistro.traceFile");    double sampleRate = 0;    try    {      sampleRate = Double.parseDouble(        System.getProperty("bistro.traceSample", "0"));    }    catch (NumberFormatException ex) {}    if (fileName == null && sampleRate <= 0)      return null;    File file = new File(fileName == null ? defaultFile : fileName);    try    {      return new Tracer(file, process, sampleRate);    }    catch (IOException ex)    {      System.err.println("Could not open trace file " + file + ": "        + ex.getMessage());      return null;    }  }// MESSAGE METHODS ---------------------------------------------------  /**   * Decides whether a new request is traced.   *   * @return a new trace id, or null if the request is not sampled.   */  public String newTraceId()  {    ThreadLocalRandom random = ThreadLocalRandom.current();    if (sampleRate <= 0 || random.nextDouble() >= sampleRate)      return null;    return String.format("%016x", random.nextLong());  }  /**   * @param traceId the trace id.   * @param msg the message.   * @return the message with the trace id in front of it.   */  public static String tag(String traceId, String msg)  {    return PREFIX + traceId + " " + msg;  }  /**   * @param msg a message.   * @return the trace id the message carries, or null if it has none.   */  public static String traceIdOf(String msg)  {    if (msg == null || !msg.startsWith(PREFIX))      return null;    int end = msg.indexOf(' ');    if (end <= PREFIX.length() || end > PREFIX.length() + MAX_ID_LENGTH)      return null;    for (int i = PREFIX.length(); i < end; i++)    {      if (Character.digit(msg.charAt(i), 16) < 0)        return null;    }    return msg.substring(PREFIX.length(), end);  }  /**   * @param msg a message.   * @return the message without its trace id, if it has one.   */  public static String stripTraceId(String msg)  {    return traceIdOf(msg) == null ? msg      : msg.substring(msg.indexOf(' ') + 1);  }// RECORDING METHODS ------------------------------------------------  /**   * Records a span of a traced request.   *   * @param traceId the trace id, nothing is recorded if null.   * @param name the name of the span, e.g. "server.dispatch".   * @param startNanos the start of the span, from System.nanoTime().   * @param endNanos the end of the span, from System.nanoTime().   * @param detail free text about the span, or null.   */  public void span(String traceId, String name, long startNanos,    long endNanos, String detail)  {    if (traceId == null)      return;    StringBuilder line = new StringBuilder(96);    line.append(traceId).append('\t')      .append(originMicros + (startNanos - originNanos) / 1000L)      .append('\t').append(Math.max(0, (endNanos - startNanos) / 1000L))      .append('\t').append(process)      .append('\t').append(name)      .append('\t');    if (detail != null)      line.append(detail.replace('\t', ' ').replace('\n', ' ')        .replace('\r', ' '));    line.append('\n');    synchronized (this)    {      if (out == null)        return;      try      {        out.write(line.toString());        long now = System.nanoTime();        if (now - lastFlushNanos >= FLUSH_INTERVAL_NANOS)        {          lastFlushNanos = now;          out.flush();        }      }      catch (IOException ex)      {        // Tracing must not disturb the requests: stop it        System.err.println("Tracing stopped: " + ex.getMessage());        closeQuietly();      }    }  }  /**   * Writes the buffered spans to the file.   *   * @exception IOException if the file cannot be written.   */  final public synchronized void flush() throws IOException  {    if (out != null)      out.flush();  }  /**   * Flushes and closes the trace file. Later spans are ignored.   *   * @exception IOException if the file cannot be written.   */  final public synchronized void close() throws IOException  {    if (out == null)      return;    try    {      out.close();    }    finally    {      out = null;    }  }  private void closeQuietly()  {    try    {      out.close();    }    catch (IOException ex) {}    out = null;  }}// End of Tracer class
\ No newline at end of file
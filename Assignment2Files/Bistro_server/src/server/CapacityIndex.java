@@ -0,0 +1,170 @@
+package server;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Guests booked per day, for availability queries without aggregating the
+ * reservation table.
+ *
+ * Days are slots of two int arrays over a fixed range of dates: the booked
+ * guests of each day (O(1) per-day lookups), and a Fenwick tree of the same
+ * counts (O(log n) range sums and updates). Reservations on days outside the
+ * range are not counted.
+ *
+ * Kept up to date incrementally: {@link #add} or {@link #tryAdd} on
+ * inserts, {@link #move} on updates, {@link #load} once at start-up from the
+ * store's per-day totals.
+ */
+public class CapacityIndex {
+
+    public static final LocalDate FIRST_DAY = LocalDate.of(2000, 1, 1);
+    public static final LocalDate END_DAY = LocalDate.of(2100, 1, 1);
+
+    private final long firstEpochDay = FIRST_DAY.toEpochDay();
+    private final int days = (int) (END_DAY.toEpochDay() - firstEpochDay);
+
+    private final int seatsPerDay;
+    private final int[] booked = new int[days];
+    // 1-based Fenwick tree over the days
+    private final int[] tree = new int[days + 1];
+
+    /**
+     * @param seatsPerDay covers the restaurant can take on one day
+     */
+    public CapacityIndex(int seatsPerDay) {
+        this.seatsPerDay = seatsPerDay;
+    }
+
+    public int getSeatsPerDay() {
+        return seatsPerDay;
+    }
+
+    /**
+     * Replace the content with per-day totals (e.g. from a GROUP BY).
+     */
+    public synchronized void load(Map<LocalDate, Integer> guestsPerDay) {
+        Arrays.fill(booked, 0);
+        for (Map.Entry<LocalDate, Integer> e : guestsPerDay.entrySet()) {
+            int slot = slotOf(e.getKey());
+            if (slot >= 0) {
+                booked[slot] += e.getValue();
+            }
+        }
+        // O(n) Fenwick build: each node passes its sum on to its parent
+        for (int i = 1; i <= days; i++) {
+            tree[i] = booked[i - 1];
+        }
+        for (int i = 1; i <= days; i++) {
+            int parent = i + (i & -i);
+            if (parent <= days) {
+                tree[parent] += tree[i];
+            }
+        }
+    }
+
+    /**
+     * Add (or with a negative count, remove) guests on a day.
+     */
+    public synchronized void add(LocalDate day, int guests) {
+        int slot = slotOf(day);
+        if (slot < 0 || guests == 0) {
+            return;
+        }
+        booked[slot] += guests;
+        for (int i = slot + 1; i <= days; i += i & -i) {
+            tree[i] += guests;
+        }
+    }
+
+    /**
+     * Add guests on a day only if the day still has room for them. Days
+     * outside the range are not counted, so they always have room.
+     *
+     * @return false if the day would go over the seats per day
+     */
+    public synchronized boolean tryAdd(LocalDate day, int guests) {
+        int slot = slotOf(day);
+        if (slot >= 0 && booked[slot] + guests > seatsPerDay) {
+            return false;
+        }
+        add(day, guests);
+        return true;
+    }
+
+    /**
+     * A reservation changed day and/or size.
+     */
+    public synchronized void move(LocalDate oldDay, int oldGuests, LocalDate newDay, int newGuests) {
+        add(oldDay, -oldGuests);
+        add(newDay, newGuests);
+    }
+
+    /**
+     * A reservation changes day and/or size, only if the new day has room
+     * for it once the old guests are taken off. Nothing changes otherwise.
+     *
+     * @return false if the new day would go over the seats per day
+     */
+    public synchronized boolean tryMove(LocalDate oldDay, int oldGuests, LocalDate newDay, int newGuests) {
+        add(oldDay, -oldGuests);
+        if (tryAdd(newDay, newGuests)) {
+            return true;
+        }
+        add(oldDay, oldGuests);
+        return false;
+    }
+
+    /**
+     * @return guests booked on a day
+     */
+    public synchronized int booked(LocalDate day) {
+        int slot = slotOf(day);
+        return slot < 0 ? 0 : booked[slot];
+    }
+
+    /**
+     * @return guests booked from one day to another, both included
+     */
+    public synchronized long booked(LocalDate from, LocalDate to) {
+        int lo = Math.max(0, (int) (from.toEpochDay() - firstEpochDay));
+        int hi = Math.min(days - 1, (int) (to.toEpochDay() - firstEpochDay));
+        if (hi < lo) {
+            return 0;
+        }
+        return prefix(hi + 1) - prefix(lo);
+    }
+
+    /**
+     * @return guests booked on each of {@code count} days from {@code from}
+     */
+    public synchronized int[] bookedPerDay(LocalDate from, int count) {
+        int[] result = new int[count];
+        long start = from.toEpochDay() - firstEpochDay;
+        for (int i = 0; i < count; i++) {
+            long slot = start + i;
+            if (slot >= 0 && slot < days) {
+                result[i] = booked[(int) slot];
+            }
+        }
+        return result;
+    }
+
+    // Sum of the first n days
+    private long prefix(int n) {
+        long sum = 0;
+        for (int i = n; i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    private int slotOf(LocalDate day) {
+        if (day == null) {
+            return -1;
+        }
+        long slot = day.toEpochDay() - firstEpochDay;
+        return slot >= 0 && slot < days ? (int) slot : -1;
+    }
+}
@@ -0,0 +1,155 @@
+package server;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import DBController.LatencyHistogram;
+
+/**
+ * Request counters and latency histograms per command type.
+ *
+ * For each request three durations are recorded:
+ * - dispatch wait: from the message being read off the socket to its handler
+ *   starting (server lock, worker queue)
+ * - handler: the handler itself, DB calls included
+ * - DB: time spent in database calls only
+ *
+ * Everything is lock-free (LongAdder, {@link LatencyHistogram}) so it can stay
+ * on in production.
+ */
+public class CommandMetrics {
+
+    /**
+     * Counters and histograms of one command type.
+     */
+    private static class CommandStats {
+        final LongAdder requests = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder shed = new LongAdder();
+        final LatencyHistogram dispatchWait = new LatencyHistogram(LatencyHistogram.CORE_STRIPES);
+        final LatencyHistogram handler = new LatencyHistogram(LatencyHistogram.CORE_STRIPES);
+        final LatencyHistogram db = new LatencyHistogram(LatencyHistogram.CORE_STRIPES);
+    }
+
+    /**
+     * Values of one command type at one point in time.
+     */
+    public static class Snapshot {
+        public final long requests;
+        public final long errors;
+        public final long shed;
+        public final LatencyHistogram dispatchWait;
+        public final LatencyHistogram handler;
+        public final LatencyHistogram db;
+
+        Snapshot(long requests, long errors, long shed, LatencyHistogram dispatchWait,
+                 LatencyHistogram handler, LatencyHistogram db) {
+            this.requests = requests;
+            this.errors = errors;
+            this.shed = shed;
+            this.dispatchWait = dispatchWait;
+            this.handler = handler;
+            this.db = db;
+        }
+
+        /**
+         * Activity since an older snapshot of the same command.
+         */
+        public Snapshot minus(Snapshot older) {
+            if (older == null) return this;
+            return new Snapshot(requests - older.requests, errors - older.errors, shed - older.shed,
+                    dispatchWait.minus(older.dispatchWait), handler.minus(older.handler), db.minus(older.db));
+        }
+    }
+
+    private final Map<String, CommandStats> byCommand = new ConcurrentHashMap<>();
+    private final long startTime = System.currentTimeMillis();
+
+    /**
+     * Command type of a message: the first word of "#COMMAND ..." messages,
+     * without the '#'. Other messages, and names that are not plain
+     * A-Z/_ words, are grouped as OTHER.
+     */
+    public static String commandOf(String messageStr) {
+        if (!messageStr.startsWith("#")) {
+            return "add to db".equals(messageStr) ? "ADD_TO_DB" : "OTHER";
+        }
+        int end = 1;
+        while (end < messageStr.length() && !Character.isWhitespace(messageStr.charAt(end))) {
+            char c = messageStr.charAt(end);
+            if ((c < 'A' || c > 'Z') && c != '_') return "OTHER";
+            end++;
+        }
+        return end == 1 ? "OTHER" : messageStr.substring(1, end);
+    }
+
+    private CommandStats stats(String command) {
+        CommandStats stats = byCommand.get(command);
+        if (stats == null) {
+            // Clients choose the command names: do not let them grow the map forever
+            if (byCommand.size() >= 64) command = "OTHER";
+            stats = byCommand.computeIfAbsent(command, c -> new CommandStats());
+        }
+        return stats;
+    }
+
+    /**
+     * Record a completed request.
+     *
+     * @param waitNanos    time between receiving the message and starting the handler
+     * @param handlerNanos time in the handler
+     * @param dbNanos      part of the handler time spent in database calls
+     * @param error        true if the request failed
+     */
+    public void record(String command, long waitNanos, long handlerNanos, long dbNanos, boolean error) {
+        CommandStats stats = stats(command);
+        stats.requests.increment();
+        if (error) stats.errors.increment();
+        stats.dispatchWait.record(waitNanos / 1000);
+        stats.handler.record(handlerNanos / 1000);
+        if (dbNanos > 0) stats.db.record(dbNanos / 1000);
+    }
+
+    /**
+     * Record a request refused by the overload guard.
+     */
+    public void recordShed(String command) {
+        stats(command).shed.increment();
+    }
+
+    public Map<String, Snapshot> snapshot() {
+        Map<String, Snapshot> result = new TreeMap<>();
+        for (Map.Entry<String, CommandStats> e : byCommand.entrySet()) {
+            CommandStats s = e.getValue();
+            result.put(e.getKey(), new Snapshot(s.requests.sum(), s.errors.sum(), s.shed.sum(),
+                    s.dispatchWait.snapshot(), s.handler.snapshot(), s.db.snapshot()));
+        }
+        return result;
+    }
+
+    /**
+     * Reply to #STATS:
+     * STATS|uptimeSec|COMMAND:requests:errors:shed:waitP50:waitP99:handlerP50:handlerP99:dbP50:dbP99|...
+     * with latencies in microseconds since the server started.
+     */
+    public String toStatsReply() {
+        StringBuilder sb = new StringBuilder("STATS|");
+        sb.append((System.currentTimeMillis() - startTime) / 1000);
+        for (Map.Entry<String, Snapshot> e : snapshot().entrySet()) {
+            Snapshot s = e.getValue();
+            sb.append('|').append(e.getKey())
+              .append(':').append(s.requests)
+              .append(':').append(s.errors)
+              .append(':').append(s.shed)
+              .append(':').append(s.dispatchWait.getValueAtPercentile(50))
+              .append(':').append(s.dispatchWait.getValueAtPercentile(99))
+              .append(':').append(s.handler.getValueAtPercentile(50))
+              .append(':').append(s.handler.getValueAtPercentile(99))
+              .append(':').append(s.db.getValueAtPercentile(50))
+              .append(':').append(s.db.getValueAtPercentile(99));
+        }
+        return sb.toString();
+    }
+}
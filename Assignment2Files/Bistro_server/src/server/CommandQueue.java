@@ -0,0 +1,91 @@
+package server;
+
+import java.util.ArrayDeque;
+
+/**
+ * Commands of one connection still to run, so they run one at a time and
+ * in the order they arrived, whether they run on a DB worker or inline.
+ *
+ * The first DB command of an idle connection starts a drain task on the
+ * worker pool; commands arriving while it runs are appended and run by the
+ * same task, after the ones before them. Once the queue is empty the
+ * connection is idle again, and its next command may run inline.
+ */
+public class CommandQueue {
+
+    private final ArrayDeque<Runnable> commands = new ArrayDeque<>();
+    // True from the moment a drain task is due until it finds the queue empty
+    private boolean draining;
+
+    /**
+     * Queue a command that needs a drain task.
+     *
+     * @return true if the queue was idle: the caller must start {@link #drain}
+     *         (or {@link #cancel} if it cannot)
+     */
+    public synchronized boolean offer(Runnable command) {
+        commands.add(command);
+        if (draining) {
+            return false;
+        }
+        draining = true;
+        return true;
+    }
+
+    /**
+     * Queue a command behind the running ones, if there are any.
+     *
+     * @return false if the queue is idle: the caller runs the command itself
+     */
+    public synchronized boolean offerIfBusy(Runnable command) {
+        if (!draining) {
+            return false;
+        }
+        commands.add(command);
+        return true;
+    }
+
+    /**
+     * @return commands waiting, not counting the one running
+     */
+    public synchronized int size() {
+        return commands.size();
+    }
+
+    /**
+     * The drain task could not be started (the server is overloaded): drop
+     * the command {@link #offer} queued, the only one, as the queue was idle.
+     */
+    public synchronized void cancel() {
+        commands.clear();
+        draining = false;
+    }
+
+    /**
+     * Run the queued commands in order until the queue is empty.
+     */
+    public void drain() {
+        boolean emptied = false;
+        try {
+            while (true) {
+                Runnable command;
+                synchronized (this) {
+                    command = commands.poll();
+                    if (command == null) {
+                        draining = false;
+                        emptied = true;
+                        return;
+                    }
+                }
+                command.run();
+            }
+        } finally {
+            if (!emptied) {
+                // A command threw: the next offer starts a new drain for the rest
+                synchronized (this) {
+                    draining = false;
+                }
+            }
+        }
+    }
+}
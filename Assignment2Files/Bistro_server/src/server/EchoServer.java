@@ -4,16 +4,24 @@
 package server;
 
 import java.io.*;
-import java.sql.Connection;
-import java.sql.ResultSet;
+import java.net.InetAddress;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.YearMonth;
 import java.time.format.DateTimeFormatter;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.sql.PreparedStatement;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
 import java.sql.SQLException;
 
 import ocsf.server.*;
+import ocsf.trace.Tracer;
 import DBController.*;
 
 /**
@@ -33,7 +41,153 @@ public class EchoServer extends AbstractServer {
 	 * The default port to listen on.
 	 */
 	final public static int DEFAULT_PORT = 5555;
-	Connection conn;
+	
+	/**
+	 * Silence (ms) after which a client is sent a heartbeat, and after which
+	 * it is considered gone and disconnected. Override with
+	 * -Dbistro.heartbeatMs / -Dbistro.idleTimeoutMs.
+	 */
+	final public static long HEARTBEAT_INTERVAL_MS = Long.getLong("bistro.heartbeatMs", 15000);
+	final public static long IDLE_TIMEOUT_MS = Long.getLong("bistro.idleTimeoutMs", 45000);
+	
+	/**
+	 * Admission limits: total connections, and per client IP the sustained
+	 * connections/s and messages/s (bursts of 4x are allowed).
+	 * Override with -Dbistro.maxConnections, -Dbistro.connectRate, -Dbistro.messageRate.
+	 * The per-IP limits are off (0) unless set: terminals behind one NAT, or
+	 * a host running many of them, share an address.
+	 */
+	final public static int MAX_CONNECTIONS = Integer.getInteger("bistro.maxConnections", 1000);
+	final public static int CONNECT_RATE_PER_IP = Integer.getInteger("bistro.connectRate", 0);
+	final public static int MESSAGE_RATE_PER_IP = Integer.getInteger("bistro.messageRate", 0);
+	
+	/**
+	 * Overload protection for database-bound commands: bounds of the adaptive
+	 * number of concurrent DB requests, latency target driving it, and how much
+	 * waiting work is allowed before requests are answered BUSY.
+	 */
+	final public static int MIN_DB_CONCURRENCY = Integer.getInteger("bistro.minDbConcurrency", 2);
+	final public static int MAX_DB_CONCURRENCY = Integer.getInteger("bistro.maxDbConcurrency", 32);
+	final public static long TARGET_DB_LATENCY_MS = Long.getLong("bistro.targetDbLatencyMs", 50);
+	final public static int MAX_QUEUED_REQUESTS = Integer.getInteger("bistro.maxQueuedRequests", 200);
+	final public static long MAX_QUEUE_DELAY_MS = Long.getLong("bistro.maxQueueDelayMs", 500);
+	
+	/**
+	 * If set, every message received is appended to this capture file so the
+	 * traffic can be replayed later (see the replay tool in Bistro_Bench).
+	 * Set with -Dbistro.captureFile=path.
+	 */
+	final public static String CAPTURE_FILE = System.getProperty("bistro.captureFile");
+	
+	/**
+	 * Client addresses allowed to use admin commands such as #STATS.
+	 * Override with -Dbistro.adminHosts=ip1,ip2 (default: this machine only).
+	 */
+	final public static String ADMIN_HOSTS = System.getProperty("bistro.adminHosts", "127.0.0.1,0:0:0:0:0:0:0:1");
+	
+	/**
+	 * Where reservations are kept: "mysql" (default), "memory" (no database,
+	 * e.g. for benchmarks) or "journal" (memory kept across restarts on local
+	 * disk, see JournaledReservationStore). Set with -Dbistro.store.
+	 */
+	final public static String STORE = System.getProperty("bistro.store", "mysql");
+	
+	/**
+	 * Covers the restaurant can seat per day, for #AVAILABILITY.
+	 * Set with -Dbistro.seatsPerDay.
+	 */
+	final public static int SEATS_PER_DAY = Integer.getInteger("bistro.seatsPerDay", 120);
+	
+	/**
+	 * Tables of the restaurant for #FIND_TABLE / #ASSIGN_TABLE, as
+	 * "id:seats,id:seats,...". Set with -Dbistro.tables.
+	 */
+	final public static String TABLE_LAYOUT = System.getProperty("bistro.tables",
+			"1:2,2:2,3:2,4:2,5:4,6:4,7:4,8:4,9:4,10:6,11:6,12:8,13:10");
+	
+	/**
+	 * How long a reservation keeps its table, in minutes.
+	 * Set with -Dbistro.seatingMinutes.
+	 */
+	final public static long SEATING_MINUTES = Long.getLong("bistro.seatingMinutes", 120);
+	
+	/**
+	 * Where #EXPORT writes its files. Set with -Dbistro.exportDir.
+	 */
+	final public static String EXPORT_DIR = System.getProperty("bistro.exportDir", "exports");
+	
+	/**
+	 * Order numbers and confirmation codes #CREATE_RESERVATION reserves in the
+	 * store at a time. Set with -Dbistro.idBlockSize.
+	 */
+	final public static int ID_BLOCK_SIZE = Integer.getInteger("bistro.idBlockSize", 1000);
+	
+	/**
+	 * Most new reservations inserted together. Set with -Dbistro.insertBatch.
+	 */
+	final public static int INSERT_BATCH = Integer.getInteger("bistro.insertBatch", 500);
+	
+	// Commands one connection may have waiting behind its running one
+	private static final int MAX_QUEUED_PER_CLIENT = 100;
+	
+	// Connection info key of the connection's CommandQueue
+	private static final String COMMAND_QUEUE = "commandQueue";
+	
+	// Most reservations one #LIST_RESERVATIONS page may hold
+	private static final int MAX_LIST_PAGE = 500;
+	
+	// Most days one #AVAILABILITY request may cover
+	private static final int MAX_AVAILABILITY_DAYS = 366;
+	
+	// How long close() waits for the DB workers to finish their requests
+	private static final long SHUTDOWN_TIMEOUT_MS = 10_000;
+	
+	// Reservation storage; MySQL keeps one connection per DB worker thread
+	private final ReservationStore store;
+	
+	// Guests booked per day and monthly report figures; writes take the read
+	// lock (they only add deltas), loads take the write lock so no delta is
+	// lost or counted twice, and rebuilds take it to apply the changes made
+	// during their copy
+	private final CapacityIndex capacity = new CapacityIndex(SEATS_PER_DAY);
+	private final ReportAggregates reports = new ReportAggregates();
+	private final ReentrantReadWriteLock aggregatesLock = new ReentrantReadWriteLock();
+	// One report rebuild at a time: they share the change tracking of reports
+	private final Object reportRebuildLock = new Object();
+	private volatile boolean capacityLoaded;
+	private volatile boolean reportsLoaded;
+	
+	// Table of each seated reservation (in memory only)
+	private final SeatingPlan seating = new SeatingPlan(TABLE_LAYOUT, SEATING_MINUTES);
+	
+	// Ids of new reservations, handed out from reserved blocks, and the
+	// inserter that writes reservations created together in one batch
+	private final IdBlock orderNumbers;
+	private final IdBlock confirmationCodes;
+	private final GroupInserter inserter;
+	
+	// Updates of the same order run one at a time, so the capacity delta
+	// is taken against the right old values
+	private final Object[] orderLocks = new Object[64];
+	
+	// Export ids: time of the request plus a counter
+	private static final DateTimeFormatter EXPORT_ID_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+	private final AtomicInteger exportCounter = new AtomicInteger();
+	
+	// Set while an #IMPORT_CSV runs; one import at a time
+	private final AtomicBoolean importing = new AtomicBoolean();
+	
+	// Set by shutdown(); the workers and the store are gone after it
+	private final AtomicBoolean shutDown = new AtomicBoolean();
+	
+	// Admission layer in front of the DB-bound commands
+	private final OverloadGuard overloadGuard;
+	
+	// Request counts and latencies per command
+	private final CommandMetrics metrics = new CommandMetrics();
+	
+	// Spans of traced requests, null if tracing is off (-Dbistro.traceFile / -Dbistro.traceSample)
+	private final Tracer tracer = Tracer.fromSystemProperties("server", "server-trace.log");
 	
 	// UI Controller reference
 	private ServerUIController uiController;
@@ -42,6 +196,9 @@ public class EchoServer extends AbstractServer {
 	private Map<ConnectionToClient, GetClientInfo> connectedClients;
 	private DateTimeFormatter dateTimeFormatter;
 	
+	// Clients waiting for change notifications, by order number / day
+	private final SubscriptionIndex subscriptions = new SubscriptionIndex();
+	
 	// Constructors ****************************************************
 
 	/**
@@ -50,11 +207,48 @@ public class EchoServer extends AbstractServer {
 	 * @param port The port number to connect on.
 	 */
 	public EchoServer(int port) {
+		this(port, ReservationStore.create(STORE));
+	}
+
+	/**
+	 * Constructs an instance of the echo server on a given reservation store.
+	 *
+	 * @param port  The port number to connect on.
+	 * @param store Where the reservations are kept.
+	 */
+	public EchoServer(int port, ReservationStore store) {
 
 		super(port);
-		conn = null; // Defer database connection until needed
+		this.store = store;
+		this.orderNumbers = new IdBlock(store, ReservationStore.ORDER_NUMBERS, ID_BLOCK_SIZE);
+		this.confirmationCodes = new IdBlock(store, ReservationStore.CONFIRMATION_CODES, ID_BLOCK_SIZE);
+		this.inserter = new GroupInserter(store, INSERT_BATCH);
+		for (int i = 0; i < orderLocks.length; i++) {
+			orderLocks[i] = new Object();
+		}
+		// Database connections are deferred until a worker needs one
+		this.overloadGuard = new OverloadGuard(MIN_DB_CONCURRENCY, MAX_DB_CONCURRENCY, TARGET_DB_LATENCY_MS,
+				MAX_QUEUED_REQUESTS, MAX_QUEUE_DELAY_MS, dbWorkerThreadFactory());
 		this.connectedClients = new HashMap<>();
 		this.dateTimeFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+		
+		// Drop terminals that vanished without closing their socket
+		setHeartbeatInterval(HEARTBEAT_INTERVAL_MS);
+		setIdleTimeout(IDLE_TIMEOUT_MS);
+		
+		// Keep a reconnecting or flooding terminal from exhausting threads
+		setMaxConnections(MAX_CONNECTIONS);
+		setConnectionRateLimit(CONNECT_RATE_PER_IP, 4 * CONNECT_RATE_PER_IP);
+		setMessageRateLimit(MESSAGE_RATE_PER_IP, 4 * MESSAGE_RATE_PER_IP);
+		
+		if (CAPTURE_FILE != null) {
+			try {
+				setTrafficRecorder(new TrafficRecorder(new File(CAPTURE_FILE)));
+				System.out.println("Recording traffic to " + CAPTURE_FILE);
+			} catch (IOException e) {
+				System.err.println("ERROR - Could not open capture file " + CAPTURE_FILE + ": " + e.getMessage());
+			}
+		}
 	}
 
 	// Instance methods ************************************************
@@ -217,87 +411,876 @@ public class EchoServer extends AbstractServer {
 	        uiController.addLog("Message from " + client.getInetAddress().getHostAddress() + ": " + messageStr);
 	    }
 
-	    try {
-	        // Make sure we have a DB connection when we need one
-	        if ((messageStr.startsWith("#GET_RESERVATION") || messageStr.startsWith("#UPDATE_RESERVATION"))
-	                && conn == null) {
-	            conn = mysqlConnection1.getDBConnection();
+	    long receivedAt = client.getMessageReceivedAt();
+
+	    // A traced request starts with "@T<id> "; its reply gets the same prefix.
+	    // Untraced requests may still be sampled here, for server-side spans only.
+	    String replyTraceId = Tracer.traceIdOf(messageStr);
+	    String command = Tracer.stripTraceId(messageStr);
+	    String traceId = tracer == null ? null : replyTraceId != null ? replyTraceId : tracer.newTraceId();
+	    if (traceId != null) {
+	        tracer.span(traceId, "server.receive", receivedAt, receivedAt,
+	                CommandMetrics.commandOf(command) + " from " + client.getRemoteAddress().getHostAddress());
+	    }
+
+	    // DB-bound commands go through the admission layer and run on a worker,
+	    // so a slow database no longer holds the server lock for everyone.
+	    // A non-blocking store (in memory) answers at once, so its commands run inline.
+	    // Either way a connection's commands run in order, one at a time: a
+	    // command arriving while earlier ones are queued runs after them.
+	    Runnable task = () -> handleCommand(command, client, receivedAt, traceId, replyTraceId);
+	    CommandQueue queue = commandQueueOf(client);
+	    if (isDatabaseCommand(command) && store.isBlocking()) {
+	        long retryAfterMs;
+	        if (queue.size() >= MAX_QUEUED_PER_CLIENT) {
+	            retryAfterMs = MAX_QUEUE_DELAY_MS;
+	        } else if (queue.offer(task)) {
+	            retryAfterMs = overloadGuard.submit(queue::drain);
+	            if (retryAfterMs > 0) {
+	                queue.cancel();
+	            }
+	        } else {
+	            retryAfterMs = 0;  // runs after the earlier commands, on their worker
 	        }
+	        if (retryAfterMs > 0) {
+	            shed(command, client, receivedAt, traceId, replyTraceId, retryAfterMs);
+	        }
+	        return;
+	    }
 
+	    if (!queue.offerIfBusy(task)) {
+	        task.run();
+	    }
+	}
+	
+	// Per connection; only the connection's own thread creates it
+	private static CommandQueue commandQueueOf(ConnectionToClient client) {
+	    CommandQueue queue = (CommandQueue) client.getInfo(COMMAND_QUEUE);
+	    if (queue == null) {
+	        queue = new CommandQueue();
+	        client.setInfo(COMMAND_QUEUE, queue);
+	    }
+	    return queue;
+	}
+	
+	// Answer BUSY to a command the server cannot take now
+	private void shed(String command, ConnectionToClient client, long receivedAt, String traceId,
+	        String replyTraceId, long retryAfterMs) {
+	    metrics.recordShed(CommandMetrics.commandOf(command));
+	    if (traceId != null) {
+	        tracer.span(traceId, "server.shed", receivedAt, System.nanoTime(), "retry after " + retryAfterMs + " ms");
+	    }
+	    try {
+	        client.sendToClient(tagReply(replyTraceId, "BUSY|" + retryAfterMs));
+	    } catch (IOException ignored) {}
+	}
+	
+	private static String tagReply(String replyTraceId, String reply) {
+	    return replyTraceId == null ? reply : Tracer.tag(replyTraceId, reply);
+	}
+
+	private static boolean isDatabaseCommand(String messageStr) {
+	    return messageStr.startsWith("#GET_RESERVATION")
+	            || messageStr.startsWith("#CREATE_RESERVATION")
+	            || messageStr.startsWith("#UPDATE_RESERVATION")
+	            || messageStr.startsWith("#ASSIGN_TABLE")
+	            || messageStr.startsWith("#LIST_RESERVATIONS")
+	            || messageStr.startsWith("#REPORT_REBUILD")
+	            || "add to db".equals(messageStr);
+	}
+
+	/**
+	 * Execute one command and send the answer. Commands on a blocking store
+	 * run on a DB worker thread (see handleMessageFromClient), the others inline.
+	 *
+	 * @param receivedAt   System.nanoTime() when the message was read off the socket
+	 * @param traceId      id to record the request's spans under, null if not traced
+	 * @param replyTraceId trace id the client sent, put back in front of the reply
+	 */
+	private void handleCommand(String messageStr, ConnectionToClient client, long receivedAt,
+	        String traceId, String replyTraceId) {
+	    long start = System.nanoTime();
+	    long dbNanos = 0;
+	    boolean error = false;
+	    ServerEvents.Command event = new ServerEvents.Command();
+	    event.begin();
+	    if (traceId != null) {
+	        tracer.span(traceId, "server.dispatch", receivedAt, start, Thread.currentThread().getName());
+	        JdbcStats.setExecutionListener((shape, executeNanos, fetchNanos, rows) -> {
+	            long end = System.nanoTime();
+	            tracer.span(traceId, "db.query", end - executeNanos - fetchNanos, end, rows + " rows: " + shape);
+	        });
+	    }
+	    try {
 	        String ans;  // will hold the string we send back to the client
+	        Runnable afterReply = null;  // work that must not start before the reply is out
 
 	        //  GET RESERVATION 
 	        if (messageStr.startsWith("#GET_RESERVATION")) {
 	            // format: #GET_RESERVATION <orderNum>
-	            String[] parts = messageStr.split("\\s+");
-	            if (parts.length < 2 || conn == null) {
-	                ans = "RESERVATION_NOT_FOUND";
+	            String[] parts = ReservationProtocol.words(messageStr);
+	            Integer orderNum = parts.length < 2 ? null : ReservationProtocol.parseOrderNumber(parts[1]);
+	            if (orderNum == null) {
+	                ans = ReservationProtocol.NOT_FOUND;
 	            } else {
-	                String orderNum = parts[1];
-	                ans = getReservationStringFromDB(orderNum);   // defined below
+	                long dbStart = System.nanoTime();
+	                ans = findReservation(store.reads(), orderNum);   // defined below; may be a replica
+	                dbNanos += System.nanoTime() - dbStart;
 	            }
 
 	        //  UPDATE RESERVATION 
 	        } else if (messageStr.startsWith("#UPDATE_RESERVATION")) {
 	            // format: #UPDATE_RESERVATION <orderNum> <numGuests> <orderDate>
-	            String[] parts = messageStr.split("\\s+");
-	            if (parts.length < 4 || conn == null) {
+	            String[] parts = ReservationProtocol.words(messageStr);
+	            Integer orderNum = parts.length < 4 ? null : ReservationProtocol.parseOrderNumber(parts[1]);
+	            if (parts.length < 4) {
 	                ans = "ERROR|BAD_UPDATE_FORMAT_OR_NO_DB";
+	            } else if (orderNum == null) {
+	                ans = ReservationProtocol.NOT_FOUND;
 	            } else {
-	                String orderNum  = parts[1];
-	                int numGuests    = Integer.parseInt(parts[2]);
-	                String orderDate = parts[3]; // yyyy-MM-dd
+	                int numGuests       = Integer.parseInt(parts[2]);
+	                LocalDate orderDate = LocalDate.parse(parts[3]); // yyyy-MM-dd
 
-	                updateReservationInDB(orderNum, numGuests, orderDate);  // defined below
-	                // After updating, send fresh data back in the same RESERVATION|... format
-	                ans = getReservationStringFromDB(orderNum);
+	                long dbStart = System.nanoTime();
+	                String before = null;
+	                String refused = null;
+	                // Same checks as a creation: a party outside 1..MAX_GUESTS, or one the day has no room for,
+	                // never reaches the store
+	                if (numGuests < 1 || numGuests > ReservationImporter.MAX_GUESTS) {
+	                    refused = "ERROR|BAD_UPDATE_FORMAT_OR_NO_DB";
+	                } else if (!capacityLoaded) {
+	                    refused = "ERROR|AVAILABILITY_NOT_READY";
+	                } else {
+	                    synchronized (orderLocks[orderNum & (orderLocks.length - 1)]) {
+	                        aggregatesLock.readLock().lock();
+	                        try {
+	                            // Remember the old day so its subscribers also hear about the move
+	                            Reservation old = lookupReservation(store, orderNum);
+	                            before = old == null ? ReservationProtocol.NOT_FOUND : ReservationProtocol.formatReservation(old);
+	                            if (old != null) {
+	                                refused = updateWithinCapacity(old, numGuests, orderDate);  // defined below
+	                            }
+	                        } finally {
+	                            aggregatesLock.readLock().unlock();
+	                        }
+	                    }
+	                }
+	                if (refused != null) {
+	                    ans = refused;
+	                } else {
+	                    // After updating, send fresh data back in the same RESERVATION|... format
+	                    ans = findReservation(store, orderNum);
+	                    notifySubscribers(before, ans, client);
+	                }
+	                dbNanos += System.nanoTime() - dbStart;
+	            }
+
+	        //  CREATE RESERVATION: ids from the reserved blocks, inserted with the others created meanwhile
+	        } else if (messageStr.startsWith("#CREATE_RESERVATION")) {
+	            // format: #CREATE_RESERVATION <numGuests> <yyyy-MM-dd> [subscriberId] [HH:mm]
+	            String[] parts = ReservationProtocol.words(messageStr);
+	            long dbStart = System.nanoTime();
+	            ans = createReservation(parts);
+	            dbNanos += System.nanoTime() - dbStart;
+	            notifySubscribers(ReservationProtocol.NOT_FOUND, ans, client);
+
+	        //  LIST RESERVATIONS: one page, keyset paginated on the order number
+	        } else if (messageStr.startsWith("#LIST_RESERVATIONS")) {
+	            // format: #LIST_RESERVATIONS <afterOrderNum> <pageSize> [from=yyyy-MM-dd] [to=yyyy-MM-dd] [subscriber=id]
+	            long dbStart = System.nanoTime();
+	            ans = listReservations(ReservationProtocol.words(messageStr));
+	            dbNanos += System.nanoTime() - dbStart;
+
+	        //  FIND TABLE: best fitting free table, nothing booked
+	        } else if (messageStr.startsWith("#FIND_TABLE")) {
+	            // format: #FIND_TABLE <numGuests> <yyyy-MM-ddTHH:mm>
+	            String[] parts = ReservationProtocol.words(messageStr);
+	            if (parts.length < 3) {
+	                ans = "ERROR|BAD_TABLE_FORMAT";
+	            } else {
+	                SeatingPlan.Assignment table = seating.find(Integer.parseInt(parts[1]), LocalDateTime.parse(parts[2]));
+	                ans = table == null ? "TABLE_NOT_AVAILABLE" : "TABLE|" + table.tableId + "|" + table.seats;
+	            }
+
+	        //  ASSIGN TABLE: seat a reservation at a time of its day
+	        } else if (messageStr.startsWith("#ASSIGN_TABLE")) {
+	            // format: #ASSIGN_TABLE <orderNum> <HH:mm>
+	            String[] parts = ReservationProtocol.words(messageStr);
+	            Integer orderNum = parts.length < 3 ? null : ReservationProtocol.parseOrderNumber(parts[1]);
+	            if (parts.length < 3) {
+	                ans = "ERROR|BAD_TABLE_FORMAT";
+	            } else if (orderNum == null) {
+	                ans = ReservationProtocol.NOT_FOUND;
+	            } else {
+	                LocalTime time = LocalTime.parse(parts[2]);
+	                long dbStart = System.nanoTime();
+	                synchronized (orderLocks[orderNum & (orderLocks.length - 1)]) {
+	                    Reservation r = lookupReservation(store, orderNum);
+	                    dbNanos += System.nanoTime() - dbStart;
+	                    if (r == null || r.getOrderDate() == null) {
+	                        ans = ReservationProtocol.NOT_FOUND;
+	                    } else {
+	                        SeatingPlan.Assignment table = seating.assign(orderNum, r.getNumberOfGuests(),
+	                                r.getOrderDate().atTime(time));
+	                        ans = table == null ? "TABLE_NOT_AVAILABLE" : formatAssignment(table);
+	                    }
+	                }
+	            }
+
+	        //  SUBSCRIBE / UNSUBSCRIBE 
+	        } else if (messageStr.startsWith("#SUBSCRIBE") || messageStr.startsWith("#UNSUBSCRIBE")) {
+	            // format: #SUBSCRIBE <ORDER|DATE> <orderNum|yyyy-MM-dd>
+	            String[] parts = ReservationProtocol.words(messageStr);
+	            if (parts.length < 3 || !SubscriptionIndex.isValidType(parts[1])) {
+	                ans = "ERROR|BAD_SUBSCRIBE_FORMAT";
+	            } else if (parts[0].equals("#SUBSCRIBE")) {
+	                subscriptions.subscribe(client, parts[1], parts[2]);
+	                ans = "SUBSCRIBED|" + parts[1] + "|" + parts[2];
+	            } else {
+	                subscriptions.unsubscribe(client, parts[1], parts[2]);
+	                ans = "UNSUBSCRIBED|" + parts[1] + "|" + parts[2];
 	            }
 
 	        // OTHER COMMANDS 
-	        } else if ("add to db".equals(messageStr)) {
-	            if (conn == null) {
-	                conn = mysqlConnection1.getDBConnection();
+	        //  STATS (admin) 
+	        } else if (messageStr.startsWith("#STATS")) {
+	            ans = isAdmin(client) ? metrics.toStatsReply() : "ERROR|NOT_ALLOWED";
+
+	        //  DB STATS (admin): timings per SQL statement
+	        } else if (messageStr.startsWith("#DB_STATS")) {
+	            ans = isAdmin(client) ? JdbcStats.getInstance().toStatsReply() : "ERROR|NOT_ALLOWED";
+
+	        //  AVAILABILITY: guests booked per day over a range of days
+	        } else if (messageStr.startsWith("#AVAILABILITY")) {
+	            // format: #AVAILABILITY <fromDate> [days]
+	            ans = availability(ReservationProtocol.words(messageStr));
+
+	        //  REPORT REBUILD (admin): recompute the report figures from all reservations
+	        } else if (messageStr.startsWith("#REPORT_REBUILD")) {
+	            // format: #REPORT_REBUILD [VERIFY]
+	            if (!isAdmin(client)) {
+	                ans = "ERROR|NOT_ALLOWED";
+	            } else {
+	                long dbStart = System.nanoTime();
+	                ans = rebuildReports(messageStr.endsWith(" VERIFY"));
+	                dbNanos += System.nanoTime() - dbStart;
+	            }
+
+	        //  REPORT (admin): monthly figures from the aggregates, no database access
+	        } else if (messageStr.startsWith("#REPORT")) {
+	            // format: #REPORT <yyyy-MM>
+	            String[] parts = ReservationProtocol.words(messageStr);
+	            if (!isAdmin(client)) {
+	                ans = "ERROR|NOT_ALLOWED";
+	            } else if (!reportsLoaded) {
+	                ans = "ERROR|REPORT_NOT_READY";
+	            } else if (parts.length < 2) {
+	                ans = "ERROR|BAD_REPORT_FORMAT";
+	            } else {
+	                ans = reports.report(YearMonth.parse(parts[1]));
+	            }
+
+	        //  IMPORT CSV (admin): bulk load a file on the server host into MySQL
+	        } else if (messageStr.startsWith("#IMPORT_CSV")) {
+	            // format: #IMPORT_CSV <path>
+	            String path = messageStr.substring("#IMPORT_CSV".length()).trim();
+	            if (!isAdmin(client)) {
+	                ans = "ERROR|NOT_ALLOWED";
+	            } else if (!"mysql".equals(STORE)) {
+	                ans = "ERROR|IMPORT_NEEDS_MYSQL";
+	            } else if (path.isEmpty() || !new File(path).isFile()) {
+	                ans = "ERROR|IMPORT_FILE_NOT_FOUND";
+	            } else if (!importing.compareAndSet(false, true)) {
+	                ans = "ERROR|IMPORT_RUNNING";
+	            } else {
+	                startImport(new File(path), client);
+	                ans = "IMPORT_STARTED|" + path;
 	            }
-	            if (conn != null) {
-	                ans = mysqlConnection1.testSetInfo(conn);
+
+	        //  EXPORT (admin): write all reservations to a gzipped CSV on the server
+	        } else if (messageStr.startsWith("#EXPORT_FETCH")) {
+	            // format: #EXPORT_FETCH <exportId> <offset>
+	            String[] parts = ReservationProtocol.words(messageStr);
+	            File file = parts.length < 3 ? null : ReservationExport.fileOf(new File(EXPORT_DIR), parts[1]);
+	            long offset = parts.length < 3 ? -1 : Long.parseLong(parts[2]);
+	            if (!isAdmin(client)) {
+	                ans = "ERROR|NOT_ALLOWED";
+	            } else if (file == null || offset < 0) {
+	                ans = "ERROR|BAD_EXPORT_FORMAT";
+	            } else if (!file.isFile()) {
+	                ans = "ERROR|EXPORT_NOT_FOUND";
+	            } else {
+	                ans = "EXPORT_SENDING|" + parts[1] + "|" + offset + "|" + file.length();
+	                afterReply = () -> startExportTransfer(file, parts[1], offset, client);
+	            }
+
+	        } else if (messageStr.startsWith("#EXPORT")) {
+	            if (!isAdmin(client)) {
+	                ans = "ERROR|NOT_ALLOWED";
+	            } else {
+	                String id = LocalDateTime.now().format(EXPORT_ID_FORMAT) + "-" + exportCounter.incrementAndGet();
+	                ans = "EXPORT_STARTED|" + id;
+	                afterReply = () -> startExport(id, client);
+	            }
+
+	        //  STORE STATS (admin): write-behind or replica lag
+	        } else if (messageStr.startsWith("#STORE_STATS")) {
+	            if (!isAdmin(client)) {
+	                ans = "ERROR|NOT_ALLOWED";
+	            } else if (store instanceof WriteBehindReservationStore) {
+	                ans = ((WriteBehindReservationStore) store).toStatsReply();
+	            } else if (store instanceof ReplicatedReservationStore) {
+	                ans = ((ReplicatedReservationStore) store).toStatsReply();
 	            } else {
-	                ans = "Database connection failed - MySQL server may not be running";
+	                ans = "STORE_STATS|" + store.getClass().getSimpleName();
 	            }
 
+	        } else if ("add to db".equals(messageStr)) {
+	            long dbStart = System.nanoTime();
+	            ans = insertTestReservation();
+	            dbNanos += System.nanoTime() - dbStart;
+
 	        } else {
 	            // default echo behaviour
 	            ans = "Message received: " + messageStr;
 	        }
 
 	        // ALWAYS send some answer
-	        client.sendToClient(ans);
+	        error = ans.startsWith("ERROR|");
+	        long writeStart = System.nanoTime();
+	        client.sendToClient(tagReply(replyTraceId, ans));
+	        if (traceId != null) {
+	            tracer.span(traceId, "server.write", writeStart, System.nanoTime(), null);
+	        }
+	        if (afterReply != null) {
+	            afterReply.run();
+	        }
 
 	    } catch (Exception e) {
+	        error = true;
 	        e.printStackTrace();
 	        try {
-	            client.sendToClient("ERROR|" + e.getMessage());
+	            client.sendToClient(tagReply(replyTraceId, "ERROR|" + e.getMessage()));
 	        } catch (IOException ignored) {}
 
 	        if (uiController != null) {
 	            uiController.addLog("ERROR handling message: " + e.getMessage());
 	        }
+	    } finally {
+	        long end = System.nanoTime();
+	        metrics.record(CommandMetrics.commandOf(messageStr), start - receivedAt,
+	                end - start, dbNanos, error);
+	        if (traceId != null) {
+	            JdbcStats.setExecutionListener(null);
+	            tracer.span(traceId, "server.handle", start, end,
+	                    CommandMetrics.commandOf(messageStr) + (error ? " FAILED" : ""));
+	        }
+	        if (event.shouldCommit()) {
+	            event.connectionId = client.getConnectionId();
+	            event.command = CommandMetrics.commandOf(messageStr);
+	            event.dispatchWait = start - receivedAt;
+	            event.dbTime = dbNanos;
+	            event.outcome = error ? "error" : "ok";
+	            event.commit();
+	        }
 	    }
 	}
 	
-	// UPDATE number_of_guests + order_date by order_number
-	private void updateReservationInDB(String orderNum, int numGuests, String orderDate) throws SQLException {
-	    String sql = "UPDATE reservation " +
-	                 "SET number_of_guests = ?, order_date = ? " +
-	                 "WHERE order_number = ?";
+	/**
+	 * Admin commands are only accepted from the addresses in ADMIN_HOSTS.
+	 */
+	private static boolean isAdmin(ConnectionToClient client) {
+	    String address = client.getRemoteAddress().getHostAddress();
+	    for (String host : ADMIN_HOSTS.split(",")) {
+	        if (host.trim().equals(address)) {
+	            return true;
+	        }
+	    }
+	    return false;
+	}
+	
+	/**
+	 * Request counts and latencies per command, for the dashboard.
+	 */
+	public CommandMetrics getMetrics() {
+	    return metrics;
+	}
+	
+	/**
+	 * Where the reservations are kept, for the dashboard.
+	 */
+	public ReservationStore getReservationStore() {
+	    return store;
+	}
+	
+	/**
+	 * Admission layer of the DB-bound commands, for the dashboard.
+	 */
+	public OverloadGuard getOverloadGuard() {
+	    return overloadGuard;
+	}
+	
+	// UPDATE number_of_guests + order_date by order_number; false if there is no such order
+	private boolean updateReservation(int orderNum, int numGuests, LocalDate orderDate) throws SQLException {
+	    ServerEvents.DbCall event = new ServerEvents.DbCall();
+	    event.begin();
+	    boolean updated = false;
+	    SQLException failure = null;
+	    try {
+	        updated = store.update(orderNum, numGuests, orderDate);
+	        return updated;
+	    } catch (SQLException e) {
+	        failure = e;
+	        throw e;
+	    } finally {
+	        ServerEvents.commitDbCall(event, "update reservation", updated ? 1 : 0, failure);
+	    }
+	}
+	
+	/**
+	 * Apply an #UPDATE_RESERVATION to an existing reservation if the new day
+	 * has room for the new party size. The old guests are taken off and the
+	 * new ones added in one step of the capacity index, before the store is
+	 * written, and put back if the store refuses or fails.
+	 *
+	 * @return the error reply, or null to answer with the reservation as
+	 *         the store now has it
+	 */
+	private String updateWithinCapacity(Reservation old, int numGuests, LocalDate orderDate) throws SQLException {
+	    if (!capacity.tryMove(old.getOrderDate(), old.getNumberOfGuests(), orderDate, numGuests)) {
+	        return "ERROR|FULLY_BOOKED";
+	    }
+	    boolean updated = false;
+	    try {
+	        updated = updateReservation(old.getOrderNumber(), numGuests, orderDate);
+	    } finally {
+	        if (!updated) {
+	            capacity.move(orderDate, numGuests, old.getOrderDate(), old.getNumberOfGuests());
+	        }
+	    }
+	    if (updated) {
+	        reports.change(old, old.withGuestsAndDate(numGuests, orderDate));
+	        reseat(old.getOrderNumber(), numGuests, orderDate);
+	    }
+	    return null;
+	}
+	
+	// Row inserted by the "add to db" test command
+	private String insertTestReservation() {
+	    ServerEvents.DbCall event = new ServerEvents.DbCall();
+	    event.begin();
+	    LocalDate day = LocalDate.of(2025, 1, 1);
+	    aggregatesLock.readLock().lock();
+	    try {
+	        Reservation added = new Reservation(0, 1, day, 555, 14, day);
+	        added = added.withOrderNumber(store.insert(added));
+	        capacity.add(day, 1);
+	        reports.add(added);
+	        ServerEvents.commitDbCall(event, "insert reservation", 1, null);
+	        return "Successfully entered to db";
+	    } catch (SQLException e) {
+	        ServerEvents.commitDbCall(event, "insert reservation", 0, e);
+	        e.printStackTrace();
+	        return "DB error: " + e.getMessage();
+	    } finally {
+	        aggregatesLock.readLock().unlock();
+	    }
+	}
+	
+	/**
+	 * Book a new reservation for #CREATE_RESERVATION, if its day has room.
+	 * The order number and confirmation code come from memory (IdBlock), and
+	 * the row goes in with the others created at the same time
+	 * (GroupInserter), so a creation costs a share of one multi-row INSERT.
+	 * With a time of day (HH:mm, after the subscriber id if any), the party is
+	 * also seated at a table from then on, as #ASSIGN_TABLE would, and the
+	 * reservation is only made if a table is free (else TABLE_NOT_AVAILABLE).
+	 * Reply: the new reservation, as #GET_RESERVATION gives it.
+	 */
+	private String createReservation(String[] parts) throws SQLException {
+	    int numGuests;
+	    LocalDate orderDate;
+	    int subscriberId = Reservation.NO_SUBSCRIBER;
+	    boolean hasSubscriber = false;
+	    LocalTime time = null;
+	    try {
+	        numGuests = Integer.parseInt(parts[1]);
+	        orderDate = LocalDate.parse(parts[2]);
+	        for (int i = 3; i < parts.length; i++) {
+	            if (parts[i].indexOf(':') >= 0 && time == null) {
+	                time = LocalTime.parse(parts[i]);
+	            } else if (i == 3) {
+	                subscriberId = Integer.parseInt(parts[i]);
+	                hasSubscriber = true;
+	            } else {
+	                return "ERROR|BAD_CREATE_FORMAT";
+	            }
+	        }
+	    } catch (RuntimeException e) {
+	        return "ERROR|BAD_CREATE_FORMAT";
+	    }
+	    LocalDate today = LocalDate.now();
+	    // Checked before queuing: a bad row would otherwise fail a whole insert batch
+	    if (numGuests < 1 || numGuests > ReservationImporter.MAX_GUESTS || hasSubscriber && subscriberId <= 0) {
+	        return "ERROR|BAD_CREATE_FORMAT";
+	    }
+	    if (orderDate.isBefore(today)) {
+	        return "ERROR|DATE_IN_PAST";
+	    }
+	    if (!capacityLoaded) {
+	        return "ERROR|AVAILABILITY_NOT_READY";
+	    }
+
+	    ServerEvents.DbCall event = new ServerEvents.DbCall();
+	    event.begin();
+	    SQLException failure = null;
+	    boolean inserted = false;
+	    aggregatesLock.readLock().lock();
+	    try {
+	        if (!capacity.tryAdd(orderDate, numGuests)) {
+	            return "ERROR|FULLY_BOOKED";
+	        }
+	        int orderNumber = 0;
+	        try {
+	            orderNumber = orderNumbers.next();
+	            // Seated before the insert, so a party with no table free is not booked at all
+	            if (time != null && seating.assign(orderNumber, numGuests, orderDate.atTime(time)) == null) {
+	                return "TABLE_NOT_AVAILABLE";
+	            }
+	            Reservation added = new Reservation(orderNumber, numGuests, orderDate,
+	                    confirmationCodes.next(), subscriberId, today);
+	            inserter.insert(added);
+	            inserted = true;
+	            reports.add(added);
+	            return ReservationProtocol.formatReservation(added);
+	        } finally {
+	            if (!inserted) {
+	                capacity.add(orderDate, -numGuests);
+	                if (time != null && orderNumber != 0) {
+	                    seating.release(orderNumber);
+	                }
+	            }
+	        }
+	    } catch (SQLException e) {
+	        failure = e;
+	        throw e;
+	    } finally {
+	        aggregatesLock.readLock().unlock();
+	        ServerEvents.commitDbCall(event, "create reservation", inserted ? 1 : 0, failure);
+	    }
+	}
+	
+	/**
+	 * One page of #LIST_RESERVATIONS. Asks the store for one reservation more
+	 * than the page holds, to tell the client whether another page follows.
+	 */
+	private String listReservations(String[] parts) throws SQLException {
+	    int after;
+	    int pageSize;
+	    LocalDate from = null;
+	    LocalDate to = null;
+	    Integer subscriberId = null;
+	    try {
+	        after = Integer.parseInt(parts[1]);
+	        pageSize = Integer.parseInt(parts[2]);
+	        for (int i = 3; i < parts.length; i++) {
+	            if (parts[i].startsWith("from=")) {
+	                from = LocalDate.parse(parts[i].substring(5));
+	            } else if (parts[i].startsWith("to=")) {
+	                to = LocalDate.parse(parts[i].substring(3));
+	            } else if (parts[i].startsWith("subscriber=")) {
+	                subscriberId = Integer.valueOf(parts[i].substring(11));
+	            } else {
+	                return "ERROR|BAD_LIST_FORMAT";
+	            }
+	        }
+	    } catch (RuntimeException e) {
+	        return "ERROR|BAD_LIST_FORMAT";
+	    }
+	    if (pageSize < 1 || pageSize > MAX_LIST_PAGE) {
+	        return "ERROR|BAD_LIST_FORMAT";
+	    }
+
+	    ServerEvents.DbCall event = new ServerEvents.DbCall();
+	    event.begin();
+	    List<Reservation> page = null;
+	    SQLException failure = null;
+	    try {
+	        page = store.reads().list(after, from, to, subscriberId, pageSize + 1);
+	    } catch (SQLException e) {
+	        failure = e;
+	        throw e;
+	    } finally {
+	        ServerEvents.commitDbCall(event, "list reservations", page == null ? 0 : page.size(), failure);
+	    }
+	    boolean more = page.size() > pageSize;
+	    return ReservationProtocol.formatPage(more ? page.subList(0, pageSize) : page, more);
+	}
+	
+	/**
+	 * A seated reservation was moved: keep its time of day on the new date,
+	 * at a table for the new party size. It loses its table if none is free.
+	 */
+	private void reseat(int orderNum, int numGuests, LocalDate orderDate) {
+	    SeatingPlan.Assignment seated = seating.assignmentOf(orderNum);
+	    if (seated == null) {
+	        return;
+	    }
+	    if (seating.assign(orderNum, numGuests, orderDate.atTime(seated.start.toLocalTime())) == null) {
+	        seating.release(orderNum);
+	        if (uiController != null) {
+	            uiController.addLog("Order " + orderNum + " lost table " + seated.tableId + ": no table free after update");
+	        }
+	    }
+	}
+	
+	private static String formatAssignment(SeatingPlan.Assignment a) {
+	    return "TABLE_ASSIGNED|" + a.orderNumber + "|" + a.tableId + "|" + a.seats + "|" + a.start + "|" + a.end;
+	}
+	
+	/**
+	 * Answer #AVAILABILITY from the capacity index, without touching the store.
+	 * Reply: AVAILABILITY|fromDate|seatsPerDay|totalBooked|booked day 1|booked day 2|...
+	 */
+	private String availability(String[] parts) {
+	    if (!capacityLoaded) {
+	        return "ERROR|AVAILABILITY_NOT_READY";
+	    }
+	    LocalDate from;
+	    int days;
+	    try {
+	        from = parts.length > 1 ? LocalDate.parse(parts[1]) : LocalDate.now();
+	        days = parts.length > 2 ? Integer.parseInt(parts[2]) : 60;
+	    } catch (RuntimeException e) {
+	        return "ERROR|BAD_AVAILABILITY_FORMAT";
+	    }
+	    if (days < 1 || days > MAX_AVAILABILITY_DAYS) {
+	        return "ERROR|BAD_AVAILABILITY_FORMAT";
+	    }
+	
+	    StringBuilder sb = new StringBuilder(32 + 5 * days).append("AVAILABILITY|").append(from)
+	            .append('|').append(capacity.getSeatsPerDay())
+	            .append('|').append(capacity.booked(from, from.plusDays(days - 1)));
+	    for (int booked : capacity.bookedPerDay(from, days)) {
+	        sb.append('|').append(booked);
+	    }
+	    return sb.toString();
+	}
+	
+	/**
+	 * Recompute the report figures from a copy of all reservations. The copy
+	 * and the count run while writes go on; writes only wait at the end,
+	 * while the changes made since the copy are applied to the new figures.
+	 *
+	 * @param verifyOnly compare with the incremental figures instead of replacing them
+	 * @return REPORT_REBUILT|reservations|months|ms, or
+	 *         REPORT_VERIFIED|reservations|months|ms|differing month,...
+	 */
+	private String rebuildReports(boolean verifyOnly) throws SQLException {
+	    long start = System.nanoTime();
+	    synchronized (reportRebuildLock) {
+	        ReportAggregates.Recount recount;
+	        reports.trackChanges();
+	        try {
+	            recount = reports.recount(store.allReservations());
+	        } catch (SQLException | RuntimeException e) {
+	            reports.stopTracking();
+	            throw e;
+	        }
+	        aggregatesLock.writeLock().lock();
+	        try {
+	            if (verifyOnly) {
+	                List<YearMonth> differing = reports.verify(recount);
+	                return "REPORT_VERIFIED|" + recount.size() + "|" + reports.size() + "|"
+	                        + (System.nanoTime() - start) / 1_000_000 + "|"
+	                        + differing.stream().map(YearMonth::toString).collect(Collectors.joining(","));
+	            }
+	            reports.rebuild(recount);
+	            reportsLoaded = true;
+	            return "REPORT_REBUILT|" + recount.size() + "|" + reports.size() + "|"
+	                    + (System.nanoTime() - start) / 1_000_000;
+	        } finally {
+	            aggregatesLock.writeLock().unlock();
+	        }
+	    }
+	}
+	
+	/**
+	 * Run an #IMPORT_CSV in the background. The client that asked gets
+	 * IMPORT_PROGRESS|read|imported|rejected|rowsPerSec after every chunk and
+	 * IMPORT_DONE|read|imported|rejected|ms|rowsPerSec|errorFile (or
+	 * IMPORT_FAILED|reason) at the end. The imported rows bypass the
+	 * capacity index and report figures, so both are reloaded afterwards.
+	 */
+	private void startImport(File csv, ConnectionToClient client) {
+	    Thread importer = new Thread(() -> {
+	        String done;
+	        try {
+	            ReservationImporter.Result result = new ReservationImporter().importFile(csv, soFar -> {
+	                String progress = "IMPORT_PROGRESS|" + soFar.getRowsRead() + "|" + soFar.getRowsImported()
+	                        + "|" + soFar.getRowsRejected() + "|" + soFar.getRowsPerSecond();
+	                logStatus("Import of " + csv.getName() + ": " + progress);
+	                sendQuietly(client, progress);
+	            });
+	            done = "IMPORT_DONE|" + result.getRowsRead() + "|" + result.getRowsImported() + "|"
+	                    + result.getRowsRejected() + "|" + result.getMillis() + "|" + result.getRowsPerSecond() + "|"
+	                    + (result.getErrorFile() == null ? "" : result.getErrorFile().getPath());
+	            logStatus("Import of " + csv.getName() + " done: " + result);
+	        } catch (IOException | SQLException e) {
+	            done = "IMPORT_FAILED|" + e.getMessage();
+	            logStatus("Import of " + csv.getName() + " failed: " + e.getMessage());
+	        } finally {
+	            importing.set(false);
+	        }
+	        sendQuietly(client, done);
+	        loadAggregates();
+	    }, "csv-import");
+	    importer.setDaemon(true);
+	    importer.start();
+	}
+	
+	// The client may have left meanwhile
+	private static void sendQuietly(ConnectionToClient client, String message) {
+	    try {
+	        client.sendToClient(message);
+	    } catch (IOException ignored) {
+	    }
+	}
+	
+	/**
+	 * Write the file of an #EXPORT in the background, then tell the client
+	 * EXPORT_READY|id|rows|bytes (or EXPORT_FAILED|id|reason); it fetches the
+	 * file with #EXPORT_FETCH.
+	 */
+	private void startExport(String id, ConnectionToClient client) {
+	    Thread exporter = new Thread(() -> {
+	        File dir = new File(EXPORT_DIR);
+	        long start = System.nanoTime();
+	        try {
+	            long rows = ReservationExport.write(store.reads(), dir, id);
+	            long bytes = ReservationExport.fileOf(dir, id).length();
+	            logStatus("Export " + id + ": " + rows + " reservations, " + bytes + " bytes in "
+	                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+	            sendQuietly(client, "EXPORT_READY|" + id + "|" + rows + "|" + bytes);
+	        } catch (IOException | SQLException e) {
+	            logStatus("Export " + id + " failed: " + e.getMessage());
+	            sendQuietly(client, "EXPORT_FAILED|" + id + "|" + e.getMessage());
+	        } finally {
+	            store.threadFinished();
+	        }
+	    }, "reservation-export");
+	    exporter.setDaemon(true);
+	    exporter.start();
+	}
+	
+	/**
+	 * Send an export file to the client from a byte offset, on a thread of
+	 * its own: a slow client only holds up its own transfer.
+	 */
+	private void startExportTransfer(File file, String id, long offset, ConnectionToClient client) {
+	    Thread sender = new Thread(() -> {
+	        try {
+	            ReservationExport.send(file, id, offset, client);
+	        } catch (IOException e) {
+	            // Client gone; it can resume from what it has with #EXPORT_FETCH
+	            logStatus("Transfer of export " + id + " stopped: " + e.getMessage());
+	        }
+	    }, "export-transfer");
+	    sender.setDaemon(true);
+	    sender.start();
+	}
+	
+	/**
+	 * Fill the capacity index from the store's per-day totals, then the report
+	 * figures from all reservations. Runs once after start-up; writes wait
+	 * meanwhile so their deltas apply to the loaded totals.
+	 */
+	private void loadAggregates() {
+	    Thread loader = new Thread(() -> {
+	        long start = System.nanoTime();
+	        String result;
+	        aggregatesLock.writeLock().lock();
+	        try {
+	            capacity.load(store.bookedGuestsPerDay());
+	            capacityLoaded = true;
+	            result = "Capacity index loaded in " + (System.nanoTime() - start) / 1_000_000 + " ms";
+	        } catch (SQLException e) {
+	            result = "Capacity index not loaded, #AVAILABILITY unavailable: " + e.getMessage();
+	        } finally {
+	            aggregatesLock.writeLock().unlock();
+	        }
+	        logStatus(result);
 
-	    try (PreparedStatement ps = conn.prepareStatement(sql)) {
-	        ps.setInt(1, numGuests);
-	        ps.setString(2, orderDate);  // yyyy-MM-dd
-	        ps.setString(3, orderNum);
-	        ps.executeUpdate();
+	        try {
+	            result = "Report figures loaded: " + rebuildReports(false);
+	        } catch (SQLException e) {
+	            result = "Report figures not loaded, #REPORT unavailable until #REPORT_REBUILD: " + e.getMessage();
+	        } finally {
+	            store.threadFinished();
+	        }
+	        logStatus(result);
+	    }, "aggregates-loader");
+	    loader.setDaemon(true);
+	    loader.start();
+	}
+	
+	// Start-up messages go to the console and, once it is set, the server window
+	private void logStatus(String message) {
+	    System.out.println(message);
+	    if (uiController != null) {
+	        uiController.addLog(message);
 	    }
 	}
 	
+	/**
+	 * Push a compact change event to every client subscribed to the order or to
+	 * the old/new day of the reservation. The client that made the change already
+	 * gets the full reservation as its reply, so it is skipped.
+	 * Event format: RESERVATION_CHANGED|orderNum|numGuests|orderDate
+	 *
+	 * @param before the RESERVATION|... string read before the update
+	 * @param after  the RESERVATION|... string read after the update
+	 * @param origin the client that made the change
+	 */
+	private void notifySubscribers(String before, String after, ConnectionToClient origin) {
+		String[] now = ReservationProtocol.fields(after);
+		if (now.length < 4) {
+			return; // update did not produce a reservation (e.g. not found)
+		}
+		String[] old = ReservationProtocol.fields(before);
+		String oldDate = old.length >= 4 ? old[3] : null;
+
+		String event = "RESERVATION_CHANGED|" + now[1] + "|" + now[2] + "|" + now[3];
+		for (ConnectionToClient subscriber : subscriptions.subscribersFor(now[1], oldDate, now[3])) {
+			if (subscriber == origin) continue;
+			try {
+				subscriber.sendToClient(event);
+			} catch (IOException e) {
+				// Connection is going away; its disconnect hook may not have run yet
+				subscriptions.removeClient(subscriber);
+			}
+		}
+	}
+	
+	/**
+	 * Threads of the DB worker pool. A worker releases its store connection
+	 * when the pool shrinks it away, so connections do not outlive their thread.
+	 */
+	private ThreadFactory dbWorkerThreadFactory() {
+		AtomicInteger counter = new AtomicInteger();
+		return task -> {
+			Thread worker = new Thread(() -> {
+				try {
+					task.run();
+				} finally {
+					store.threadFinished();
+				}
+			}, "DB worker " + counter.incrementAndGet());
+			worker.setDaemon(true);
+			return worker;
+		};
+	}
+	
 	private void callUIMethod(String methodName, Class<?>[] parameterTypes, Object[] parameters) {
 		if (uiController == null) {
 			return;
@@ -312,29 +1295,26 @@ public class EchoServer extends AbstractServer {
 	}
 	
 	// SELECT reservation and format as: RESERVATION|orderNum|numGuests|orderDate|confCode|subscriberId|placingDate
-	private String getReservationStringFromDB(String orderNum) throws SQLException {
-	    String sql = "SELECT order_number, number_of_guests, order_date, " +
-	                 "       confirmation_code, subscriber_id, date_of_placing_order " +
-	                 "FROM reservation " +
-	                 "WHERE order_number = ?";
-
-	    try (PreparedStatement ps = conn.prepareStatement(sql)) {
-	        ps.setString(1, orderNum);
-
-	        try (ResultSet rs = ps.executeQuery()) {
-	            if (rs.next()) {
-	                String numGuests    = rs.getString("number_of_guests");
-	                String orderDate    = rs.getString("order_date");
-	                String confCode     = rs.getString("confirmation_code");
-	                String subscriberId = rs.getString("subscriber_id");
-	                String placingDate  = rs.getString("date_of_placing_order");
-
-	                return "RESERVATION|" + orderNum + "|" + numGuests + "|" + orderDate + "|" +
-	                        confCode + "|" + subscriberId + "|" + placingDate;
-	            } else {
-	                return "RESERVATION_NOT_FOUND";
-	            }
-	        }
+	private String findReservation(ReservationReads source, int orderNum) throws SQLException {
+	    Reservation reservation = lookupReservation(source, orderNum);
+	    return reservation == null ? ReservationProtocol.NOT_FOUND
+	            : ReservationProtocol.formatReservation(reservation);
+	}
+	
+	// SELECT reservation from the store or its reads() view, null if there is none
+	private Reservation lookupReservation(ReservationReads source, int orderNum) throws SQLException {
+	    ServerEvents.DbCall event = new ServerEvents.DbCall();
+	    event.begin();
+	    Reservation reservation = null;
+	    SQLException failure = null;
+	    try {
+	        reservation = source.find(orderNum);
+	        return reservation;
+	    } catch (SQLException e) {
+	        failure = e;
+	        throw e;
+	    } finally {
+	        ServerEvents.commitDbCall(event, "select reservation", reservation == null ? 0 : 1, failure);
 	    }
 	}
 
@@ -357,6 +1337,32 @@ public class EchoServer extends AbstractServer {
 		} else {
 			System.err.println("WARNING: uiController not set in serverStarted()");
 		}
+		
+		loadAggregates();
+		if (store instanceof CachingReservationStore && CachingReservationStore.WARMUP_DAYS > 0) {
+			startWarmUp((CachingReservationStore) store);
+		}
+	}
+	
+	/**
+	 * Load the coming days' reservations into the cache in the background;
+	 * requests are served meanwhile. The dashboard samples the progress.
+	 */
+	private void startWarmUp(CachingReservationStore cache) {
+		Thread warmUp = new Thread(() -> {
+			long start = System.nanoTime();
+			String result;
+			try {
+				long loaded = cache.warmUp();
+				result = "Cache warm-up done: " + loaded + " reservations in "
+						+ (System.nanoTime() - start) / 1_000_000 + " ms";
+			} catch (SQLException e) {
+				result = "Cache warm-up incomplete: " + e.getMessage();
+			}
+			logStatus(result);
+		}, "cache-warmup-main");
+		warmUp.setDaemon(true);
+		warmUp.start();
 	}
 
 	/**
@@ -370,6 +1376,54 @@ public class EchoServer extends AbstractServer {
 		}
 	}
 	
+	/**
+	 * This method overrides the one in the superclass. Called when the server
+	 * is closed: lets the DB workers finish their requests, checkpoints the
+	 * reservation store (so write-behind updates reach MySQL), writes out
+	 * buffered trace spans and finishes the traffic capture, if any. The
+	 * workers and the store stay up: the server may be started again (see
+	 * {@link #shutdown} for the final exit).
+	 */
+	@Override
+	protected void serverClosed() {
+		if (!overloadGuard.awaitIdle(SHUTDOWN_TIMEOUT_MS)) {
+			System.err.println("DB requests still running after " + SHUTDOWN_TIMEOUT_MS + " ms");
+		}
+		store.checkpoint();
+		if (tracer != null) {
+			try {
+				tracer.flush();
+			} catch (IOException e) {
+				System.err.println("ERROR writing trace file: " + e.getMessage());
+			}
+		}
+		TrafficRecorder recorder = getTrafficRecorder();
+		if (recorder != null) {
+			setTrafficRecorder(null);
+			try {
+				recorder.close();
+			} catch (IOException e) {
+				System.err.println("ERROR closing capture file: " + e.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Final exit: closes the server if it is open, then stops the DB workers
+	 * and closes the reservation store. The server cannot be started again.
+	 */
+	public void shutdown() throws IOException {
+		if (!shutDown.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			close();
+		} finally {
+			overloadGuard.shutdown(SHUTDOWN_TIMEOUT_MS);
+			store.close();
+		}
+	}
+	
 	/**
 	 * Hook method called when a client connects to the server.
 	 * Tracks the connected client and updates the UI.
@@ -383,7 +1437,7 @@ public class EchoServer extends AbstractServer {
 		String clientName = "Client-" + clientIP.replace(".", "-");
 		String connectionTime = LocalDateTime.now().format(dateTimeFormatter);
 		
-		GetClientInfo clientInfo = new GetClientInfo(clientIP, clientName, connectionTime);
+		GetClientInfo clientInfo = new GetClientInfo(clientIP, clientName, connectionTime, client);
 		connectedClients.put(client, clientInfo);
 		
 		// Update UI
@@ -403,6 +1457,7 @@ public class EchoServer extends AbstractServer {
 	@Override
 	protected void clientDisconnected(ConnectionToClient client) {
 	    System.out.println("Client disconnected: " + client);
+	    subscriptions.removeClient(client);
 	    // Use the centralized removal method so UI + map are always in sync
 	    removeConnectedClient(client, "Client disconnected");
 	
@@ -446,6 +1501,7 @@ public class EchoServer extends AbstractServer {
 			// Remove client from the map - this is the key action
 			// We can still remove it even if socket is closed
 			removeConnectedClientByReference(client, "Client disconnected");
+			subscriptions.removeClient(client);
 			
 			System.out.println("[DEBUG] Current connected clients AFTER removal: " + connectedClients.size());
 		} catch (Exception e) {
@@ -455,6 +1511,41 @@ public class EchoServer extends AbstractServer {
 		System.out.println("=== EXCEPTION HOOK END ===\n");
 	}
 	
+	/**
+	 * Hook method called by the idle reaper before it closes a client that
+	 * stopped answering heartbeats. The usual disconnect hook runs afterwards.
+	 */
+	@Override
+	protected void clientReaped(ConnectionToClient client, long idleTime) {
+		String clientIP = client.getInetAddress().getHostAddress();
+		System.out.println("[REAPER] Closing idle client " + clientIP + " after " + idleTime + " ms");
+		if (uiController != null) {
+			uiController.addLog("Idle client reaped: " + clientIP + " (silent " + (idleTime / 1000)
+					+ " s, total reaped: " + getReapedConnectionCount() + ")");
+		}
+	}
+	
+	/**
+	 * Hook method called when admission control refuses a connection.
+	 * Only logged to the console: during a flood the UI log would drown.
+	 */
+	@Override
+	protected void connectionRejected(InetAddress address, String reason) {
+		System.out.println("[ADMISSION] Rejected " + address.getHostAddress() + ": " + reason
+				+ " (total rejected: " + getRejectedConnectionCount() + ")");
+	}
+	
+	/**
+	 * Hook method called instead of handleMessageFromClient() when a client IP
+	 * sends faster than its message rate. The client is told so it can back off.
+	 */
+	@Override
+	protected void messageRateLimited(ConnectionToClient client, Object msg) {
+		try {
+			client.sendToClient("ERROR|RATE_LIMITED");
+		} catch (IOException ignored) {}
+	}
+	
 	/**
 	 * Set the UI controller reference
 	 */
@@ -1,19 +1,76 @@
 package server;
 
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+import ocsf.server.ConnectionToClient;
+
 /**
  * Model class to represent connected client information
  */
 public class GetClientInfo {
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss");
+
     private String clientIP;
     private String clientName;
     private String connectionTime;
-    private int messageCount;
+
+    // Connection whose counters are sampled, null if not known
+    private final ConnectionToClient connection;
+
+    // Values of the last sample; rates are per second since the previous one
+    private long messagesIn;
+    private long messagesOut;
+    private long bytesIn;
+    private long bytesOut;
+    private long lastSampleNanos;
+    private double messagesInRate;
+    private double messagesOutRate;
+    private double bytesInRate;
+    private double bytesOutRate;
+    private String lastActivity = "";
 
     public GetClientInfo(String clientIP, String clientName, String connectionTime) {
+        this(clientIP, clientName, connectionTime, null);
+    }
+
+    public GetClientInfo(String clientIP, String clientName, String connectionTime, ConnectionToClient connection) {
         this.clientIP = clientIP;
         this.clientName = clientName;
         this.connectionTime = connectionTime;
-        this.messageCount = 0;
+        this.connection = connection;
+        this.lastSampleNanos = System.nanoTime();
+    }
+
+    /**
+     * Read the connection's counters and update the rates. Called on a timer
+     * (see ServerUIController), not per message, so the table costs nothing on
+     * the request path.
+     */
+    public void sample() {
+        if (connection == null) return;
+
+        long now = System.nanoTime();
+        double seconds = Math.max(1e-3, (now - lastSampleNanos) / 1e9);
+        long in = connection.getMessagesReceived();
+        long out = connection.getMessagesSent();
+        long bIn = connection.getBytesReceived();
+        long bOut = connection.getBytesSent();
+
+        messagesInRate = (in - messagesIn) / seconds;
+        messagesOutRate = (out - messagesOut) / seconds;
+        bytesInRate = (bIn - bytesIn) / seconds;
+        bytesOutRate = (bOut - bytesOut) / seconds;
+
+        messagesIn = in;
+        messagesOut = out;
+        bytesIn = bIn;
+        bytesOut = bOut;
+        lastSampleNanos = now;
+        lastActivity = LocalDateTime.ofInstant(Instant.ofEpochMilli(connection.getLastActivity()),
+                ZoneId.systemDefault()).format(TIME_FORMAT);
     }
 
     // Getters
@@ -29,8 +86,45 @@ public class GetClientInfo {
         return connectionTime;
     }
 
-    public int getMessageCount() {
-        return messageCount;
+    public ConnectionToClient getConnection() {
+        return connection;
+    }
+
+    public long getMessageCount() {
+        return messagesIn;
+    }
+
+    public long getMessagesOut() {
+        return messagesOut;
+    }
+
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    // Rates are rounded to one decimal for display; they stay numbers so the table sorts them
+    public double getMessagesInRate() {
+        return round(messagesInRate);
+    }
+
+    public double getMessagesOutRate() {
+        return round(messagesOutRate);
+    }
+
+    public double getKbInRate() {
+        return round(bytesInRate / 1024);
+    }
+
+    public double getKbOutRate() {
+        return round(bytesOutRate / 1024);
+    }
+
+    public String getLastActivity() {
+        return lastActivity;
     }
 
     // Setters
@@ -46,8 +140,8 @@ public class GetClientInfo {
         this.connectionTime = connectionTime;
     }
 
-    public void incrementMessageCount() {
-        this.messageCount++;
+    private static double round(double value) {
+        return Math.round(value * 10) / 10.0;
     }
 
     @Override
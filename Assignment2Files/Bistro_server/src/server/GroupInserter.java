@@ -0,0 +1,155 @@
+package server;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import DBController.Reservation;
+import DBController.ReservationStore;
+
+/**
+ * Inserts reservations created at the same time together, in one
+ * {@link ReservationStore#insertAll} call (one multi-row INSERT and one
+ * commit on MySQL) instead of one round trip each.
+ *
+ * Callers queue their reservation. If no insert is running, the caller
+ * becomes the leader: it takes the queue (up to {@code maxBatch} rows),
+ * inserts it, and wakes the callers whose rows went in. Callers that
+ * arrived meanwhile wait and form the next batch, so the batches grow with
+ * the load, and a lone creation is inserted at once, without waiting for
+ * company.
+ *
+ * Rows are checked before they are queued, so a malformed one is refused to
+ * its own caller instead of reaching the batch. If a batch still fails (a
+ * constraint only the database knows, a lost connection), its rows are
+ * retried one by one: only the rows that fail alone are reported failed.
+ */
+public class GroupInserter {
+
+    /**
+     * One queued reservation and what became of it.
+     */
+    private static final class Pending {
+        final Reservation reservation;
+        boolean done;
+        SQLException failure;
+
+        Pending(Reservation reservation) {
+            this.reservation = reservation;
+        }
+    }
+
+    private final ReservationStore store;
+    private final int maxBatch;
+
+    private final Object lock = new Object();
+    private final List<Pending> queue = new ArrayList<>();
+    private boolean inserting;
+
+    /**
+     * @param maxBatch most reservations per insertAll call
+     */
+    public GroupInserter(ReservationStore store, int maxBatch) {
+        if (maxBatch < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + maxBatch);
+        }
+        this.store = store;
+        this.maxBatch = maxBatch;
+    }
+
+    /**
+     * Insert a reservation (with its order number already set), together
+     * with the others queued at the same time. Returns once it is stored.
+     *
+     * @throws IllegalArgumentException if the reservation is not valid; it
+     *         is not queued
+     * @throws SQLException if the reservation could not be stored
+     */
+    public void insert(Reservation reservation) throws SQLException {
+        validate(reservation);
+        Pending mine = new Pending(reservation);
+        boolean interrupted = false;
+        synchronized (lock) {
+            queue.add(mine);
+            while (inserting && !mine.done) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    // The row is queued and will be inserted: wait for the outcome
+                    interrupted = true;
+                }
+            }
+            if (!mine.done) {
+                inserting = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Leader: insert batches, oldest rows first, until our own is in
+        while (!mine.done) {
+            List<Pending> batch;
+            synchronized (lock) {
+                List<Pending> head = queue.subList(0, Math.min(queue.size(), maxBatch));
+                batch = new ArrayList<>(head);
+                head.clear();
+            }
+            List<Reservation> reservations = new ArrayList<>(batch.size());
+            for (Pending p : batch) {
+                reservations.add(p.reservation);
+            }
+            SQLException failure = insertAll(reservations);
+            if (failure != null && batch.size() > 1) {
+                // Find the rows at fault: the others go in on their own
+                for (Pending p : batch) {
+                    p.failure = insertAll(Collections.singletonList(p.reservation));
+                }
+            } else {
+                for (Pending p : batch) {
+                    p.failure = failure;
+                }
+            }
+            synchronized (lock) {
+                for (Pending p : batch) {
+                    p.done = true;
+                }
+                if (mine.done) {
+                    inserting = false;
+                }
+                lock.notifyAll();
+            }
+        }
+        if (mine.failure != null) {
+            throw mine.failure;
+        }
+    }
+
+    // null if the rows were stored
+    private SQLException insertAll(List<Reservation> reservations) {
+        try {
+            store.insertAll(reservations);
+            return null;
+        } catch (SQLException e) {
+            return e;
+        } catch (RuntimeException e) {
+            return new SQLException("Insert failed", e);
+        }
+    }
+
+    private static void validate(Reservation r) {
+        if (r.getOrderNumber() <= 0) {
+            throw new IllegalArgumentException("No order number");
+        }
+        if (r.getOrderDate() == null || r.getDateOfPlacingOrder() == null) {
+            throw new IllegalArgumentException("Missing date");
+        }
+        if (r.getNumberOfGuests() < 1) {
+            throw new IllegalArgumentException("Bad number of guests: " + r.getNumberOfGuests());
+        }
+        if (r.getSubscriberId() != Reservation.NO_SUBSCRIBER && r.getSubscriberId() <= 0) {
+            throw new IllegalArgumentException("Bad subscriber id: " + r.getSubscriberId());
+        }
+    }
+}
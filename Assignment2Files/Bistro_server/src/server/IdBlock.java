@@ -0,0 +1,58 @@
+package server;
+
+import java.sql.SQLException;
+
+import DBController.ReservationStore;
+
+/**
+ * Ids of one sequence (order numbers or confirmation codes) handed out from
+ * memory. A block of ids is reserved in the store at a time (see
+ * {@link ReservationStore#reserveIds}), so only one creation in
+ * {@code blockSize} waits for the database to get its ids.
+ *
+ * Ids left in a block when the server stops are never used: the sequence
+ * has gaps, but no id is given twice.
+ */
+public class IdBlock {
+
+    private final ReservationStore store;
+    private final String sequence;
+    private final int blockSize;
+
+    // Ids [next, end) are reserved and not yet handed out
+    private int next;
+    private int end;
+
+    /**
+     * @param sequence  {@link ReservationStore#ORDER_NUMBERS} or
+     *                  {@link ReservationStore#CONFIRMATION_CODES}
+     * @param blockSize ids reserved at a time
+     */
+    public IdBlock(ReservationStore store, String sequence, int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+        }
+        this.store = store;
+        this.sequence = sequence;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * @return an id no one else got
+     * @throws SQLException if the block is used up and a new one cannot be reserved
+     */
+    public synchronized int next() throws SQLException {
+        if (next == end) {
+            next = store.reserveIds(sequence, blockSize);
+            end = next + blockSize;
+        }
+        return next++;
+    }
+
+    /**
+     * @return ids still to hand out before the next reservation of a block
+     */
+    public synchronized int remaining() {
+        return end - next;
+    }
+}
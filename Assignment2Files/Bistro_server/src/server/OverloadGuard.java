@@ -0,0 +1,208 @@
+package server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Admission layer in front of the database-bound commands.
+ *
+ * Requests run on a worker pool whose size follows an adaptive concurrency
+ * limit (AIMD): while requests complete within the target latency and the
+ * limit is actually used, it grows by about one per limit's worth of
+ * requests; when latency goes over the target it is cut by 10%.
+ * Waiting work is bounded twice: by the queue capacity, and by the wait a
+ * new request would see according to Little's law
+ * (queued requests / throughput, with throughput = limit / average latency).
+ * A request that cannot be admitted is not queued at all; the caller gets a
+ * retry-after delay to send back as BUSY.
+ */
+public class OverloadGuard {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetLatencyNanos;
+    private final int queueCapacity;
+    private final long maxQueueDelayMs;
+
+    private final ThreadPoolExecutor executor;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+
+    // Guarded by "this"
+    private double limit;
+    private double avgLatencyNanos;
+    private long lastDecrease;
+
+    /**
+     * @param minLimit        lowest number of concurrent requests
+     * @param maxLimit        highest number of concurrent requests
+     * @param targetLatencyMs handler latency above which the limit is reduced
+     * @param queueCapacity   maximum number of requests waiting for a worker
+     * @param maxQueueDelayMs maximum expected wait before a request is shed
+     * @param threadFactory   creates the worker threads
+     */
+    public OverloadGuard(int minLimit, int maxLimit, long targetLatencyMs,
+                         int queueCapacity, long maxQueueDelayMs, ThreadFactory threadFactory) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMs);
+        this.queueCapacity = queueCapacity;
+        this.maxQueueDelayMs = maxQueueDelayMs;
+        this.limit = minLimit;
+        this.avgLatencyNanos = targetLatencyNanos / 2.0;
+
+        this.executor = new ThreadPoolExecutor(minLimit, minLimit, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory);
+    }
+
+    /**
+     * Run a request on the worker pool if the server can take it.
+     *
+     * @return 0 if the request was admitted, otherwise the number of ms after
+     *         which the client should retry
+     */
+    public long submit(Runnable request) {
+        int queued = executor.getQueue().size();
+        long expectedWaitMs = 0;
+
+        // A request that would start right away is always admitted
+        if (queued > 0 || inFlight.get() >= getLimit()) {
+            expectedWaitMs = expectedWaitMs(queued + 1);
+            if (queued >= queueCapacity || expectedWaitMs > maxQueueDelayMs) {
+                shed.increment();
+                return retryAfterMs(expectedWaitMs);
+            }
+        }
+
+        try {
+            executor.execute(() -> run(request));
+        } catch (RejectedExecutionException e) {
+            // Queue filled up between the check and the submit
+            shed.increment();
+            return retryAfterMs(expectedWaitMs);
+        }
+        admitted.increment();
+        return 0;
+    }
+
+    private void run(Runnable request) {
+        int running = inFlight.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            request.run();
+        } finally {
+            inFlight.decrementAndGet();
+            onComplete(System.nanoTime() - start, running);
+        }
+    }
+
+    /**
+     * AIMD update of the limit after each request.
+     *
+     * @param latencyNanos time the request spent in its handler
+     * @param running      concurrent requests when it started, itself included
+     */
+    private synchronized void onComplete(long latencyNanos, int running) {
+        avgLatencyNanos += (latencyNanos - avgLatencyNanos) * 0.1;
+
+        double newLimit = limit;
+        if (latencyNanos > targetLatencyNanos) {
+            // Decrease at most once per target latency, so a single slow
+            // burst does not collapse the limit
+            long now = System.nanoTime();
+            if (now - lastDecrease >= targetLatencyNanos) {
+                newLimit = Math.max(minLimit, limit * 0.9);
+                lastDecrease = now;
+            }
+        } else if (running >= limit / 2) {
+            // Only grow a limit that is being used
+            newLimit = Math.min(maxLimit, limit + 1.0 / limit);
+        }
+
+        int oldSize = (int) limit;
+        int newSize = (int) newLimit;
+        limit = newLimit;
+        if (newSize > oldSize) {
+            executor.setMaximumPoolSize(newSize);
+            executor.setCorePoolSize(newSize);
+        } else if (newSize < oldSize) {
+            executor.setCorePoolSize(newSize);
+            executor.setMaximumPoolSize(newSize);
+        }
+    }
+
+    /**
+     * Little's law: a request behind {@code queued} others waits about
+     * queued / throughput, where throughput = limit / average latency.
+     */
+    private synchronized long expectedWaitMs(int queued) {
+        return (long) (queued * avgLatencyNanos / limit / 1_000_000);
+    }
+
+    private long retryAfterMs(long expectedWaitMs) {
+        return Math.max(100, Math.min(expectedWaitMs, 10 * maxQueueDelayMs));
+    }
+
+    /**
+     * Wait for the admitted requests to finish, without stopping the pool
+     * (e.g. when the server stops listening but may be started again).
+     *
+     * @return false if some were still queued or running after the timeout
+     */
+    public boolean awaitIdle(long timeoutMs) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (executor.getActiveCount() > 0 || !executor.getQueue().isEmpty()) {
+            if (System.nanoTime() >= deadline) {
+                return false;
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stop taking requests for good and wait for the admitted ones to finish.
+     *
+     * @return false if some were still running after the timeout
+     */
+    public boolean shutdown(long timeoutMs) {
+        executor.shutdown();
+        try {
+            return executor.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public int getQueued() {
+        return executor.getQueue().size();
+    }
+
+    public long getAdmittedCount() {
+        return admitted.sum();
+    }
+
+    public long getShedCount() {
+        return shed.sum();
+    }
+}
@@ -0,0 +1,341 @@
+package server;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import DBController.Reservation;
+
+/**
+ * Monthly report figures, kept up to date as reservations change so that
+ * #REPORT never scans the reservation table.
+ *
+ * Per month: reservations and covers (guests), covers per day, how many
+ * parties of each size, and the subscriber / walk-in split. Each insert or
+ * update applies its delta ({@link #add}, {@link #change}).
+ *
+ * {@link #rebuild} and {@link #verify} recompute everything from a copy of
+ * all reservations with a fork/join task: the list is split in halves until
+ * the pieces are small, each piece is counted into its own months, and the
+ * partial months are summed on the way back up.
+ *
+ * The copy is taken while writes go on: {@link #trackChanges} is called
+ * before it, and from then on the latest state of every reservation added
+ * or changed is noted. Each noted reservation's version in the copy (if it
+ * has one) is taken out of the recomputed figures and its latest state put
+ * in: the bulk right after the count, the rest once writes are stopped, so
+ * the result is what a copy taken at that moment would have given.
+ */
+public class ReportAggregates {
+
+    /** Largest party size counted on its own; bigger parties count as this. */
+    public static final int MAX_PARTY = 12;
+
+    // Reservations counted by one fork/join leaf
+    private static final int LEAF_SIZE = 16_384;
+
+    /**
+     * Figures of one month.
+     */
+    static final class Month {
+        final int[] coversPerDay = new int[31];
+        // Index: party size - 1
+        final int[] partySizes = new int[MAX_PARTY];
+        int reservations;
+        long covers;
+        int subscriberReservations;
+        long subscriberCovers;
+
+        void add(Reservation r, int sign) {
+            int guests = r.getNumberOfGuests();
+            coversPerDay[r.getOrderDate().getDayOfMonth() - 1] += sign * guests;
+            partySizes[Math.max(1, Math.min(guests, MAX_PARTY)) - 1] += sign;
+            reservations += sign;
+            covers += sign * guests;
+            if (r.hasSubscriber()) {
+                subscriberReservations += sign;
+                subscriberCovers += sign * guests;
+            }
+        }
+
+        void addAll(Month other) {
+            for (int i = 0; i < coversPerDay.length; i++) {
+                coversPerDay[i] += other.coversPerDay[i];
+            }
+            for (int i = 0; i < partySizes.length; i++) {
+                partySizes[i] += other.partySizes[i];
+            }
+            reservations += other.reservations;
+            covers += other.covers;
+            subscriberReservations += other.subscriberReservations;
+            subscriberCovers += other.subscriberCovers;
+        }
+
+        boolean sameAs(Month other) {
+            return reservations == other.reservations && covers == other.covers
+                    && subscriberReservations == other.subscriberReservations
+                    && subscriberCovers == other.subscriberCovers
+                    && Arrays.equals(coversPerDay, other.coversPerDay)
+                    && Arrays.equals(partySizes, other.partySizes);
+        }
+    }
+
+    /**
+     * Figures recomputed from a copy, waiting to be reconciled with the
+     * changes made since {@link #trackChanges}.
+     */
+    public static final class Recount {
+        private final List<Reservation> all;
+        private final Map<YearMonth, Month> months;
+        // (order number << 32 | position in all), sorted: finds a reservation
+        // of the copy without a pass over it
+        private final long[] byOrderNumber;
+        // Version of each changed reservation the figures count, null for none
+        private final Map<Integer, Reservation> counted = new HashMap<>();
+
+        Recount(List<Reservation> all, Map<YearMonth, Month> months) {
+            this.all = all;
+            this.months = months;
+            byOrderNumber = new long[all.size()];
+            for (int i = 0; i < byOrderNumber.length; i++) {
+                byOrderNumber[i] = (long) all.get(i).getOrderNumber() << 32 | i;
+            }
+            Arrays.parallelSort(byOrderNumber);
+        }
+
+        /**
+         * @return the number of reservations in the copy
+         */
+        public int size() {
+            return all.size();
+        }
+
+        // Count the latest state of changed reservations instead of the one counted so far
+        void catchUp(Map<Integer, Reservation> latest) {
+            for (Map.Entry<Integer, Reservation> e : latest.entrySet()) {
+                Reservation was = counted.containsKey(e.getKey()) ? counted.get(e.getKey()) : find(e.getKey());
+                if (was != null) {
+                    apply(months, was, -1);
+                }
+                apply(months, e.getValue(), 1);
+                counted.put(e.getKey(), e.getValue());
+            }
+        }
+
+        private Reservation find(int orderNumber) {
+            int at = Arrays.binarySearch(byOrderNumber, (long) orderNumber << 32);
+            if (at < 0) {
+                at = -at - 1;
+            }
+            return at < byOrderNumber.length && (int) (byOrderNumber[at] >> 32) == orderNumber
+                    ? all.get((int) byOrderNumber[at])
+                    : null;
+        }
+    }
+
+    private Map<YearMonth, Month> months = new HashMap<>();
+    // Latest state of the reservations changed since trackChanges, or null
+    private Map<Integer, Reservation> changed;
+
+    /**
+     * A reservation was added.
+     */
+    public synchronized void add(Reservation r) {
+        apply(months, r, 1);
+        noteChanged(r);
+    }
+
+    /**
+     * A reservation changed (size, day, or both).
+     */
+    public synchronized void change(Reservation before, Reservation after) {
+        apply(months, before, -1);
+        apply(months, after, 1);
+        noteChanged(after);
+    }
+
+    private void noteChanged(Reservation now) {
+        if (changed != null) {
+            changed.put(now.getOrderNumber(), now);
+        }
+    }
+
+    // Reservations without a date are in no month
+    private static void apply(Map<YearMonth, Month> months, Reservation r, int sign) {
+        LocalDate day = r.getOrderDate();
+        if (day == null) {
+            return;
+        }
+        YearMonth key = YearMonth.from(day);
+        Month month = months.computeIfAbsent(key, k -> new Month());
+        month.add(r, sign);
+        if (month.reservations == 0) {
+            months.remove(key);
+        }
+    }
+
+    /**
+     * Start noting the reservations added or changed, for a {@link #recount}
+     * of a copy of all reservations taken after this call.
+     */
+    public synchronized void trackChanges() {
+        changed = new HashMap<>();
+    }
+
+    /**
+     * Stop noting changes, e.g. when the copy could not be taken.
+     */
+    public synchronized void stopTracking() {
+        changed = null;
+    }
+
+    /**
+     * Recompute the figures from a copy of all reservations taken after
+     * {@link #trackChanges}. Runs while writes go on.
+     */
+    public Recount recount(List<Reservation> all) {
+        Recount recount = new Recount(all, compute(all));
+        // The bulk of the changes, so that few are left for when writes stop
+        recount.catchUp(takeChanged(true));
+        return recount;
+    }
+
+    // The changes noted since the last call, continuing to note or not
+    private synchronized Map<Integer, Reservation> takeChanged(boolean keepTracking) {
+        Map<Integer, Reservation> taken = changed;
+        changed = keepTracking ? new HashMap<>() : null;
+        return taken;
+    }
+
+    /**
+     * Replace the figures with a recount, brought up to date with the
+     * changes made since the copy. Writes must be stopped meanwhile.
+     */
+    public void rebuild(Recount recount) {
+        Map<YearMonth, Month> computed = reconcile(recount);
+        synchronized (this) {
+            months = computed;
+        }
+    }
+
+    /**
+     * Compare a recount, brought up to date with the changes made since the
+     * copy, with the incremental figures, without changing them. Writes must
+     * be stopped meanwhile.
+     *
+     * @return the months whose figures differ (empty if all match)
+     */
+    public List<YearMonth> verify(Recount recount) {
+        Map<YearMonth, Month> computed = reconcile(recount);
+        List<YearMonth> differing = new ArrayList<>();
+        synchronized (this) {
+            for (Map.Entry<YearMonth, Month> e : computed.entrySet()) {
+                Month kept = months.get(e.getKey());
+                if (kept == null || !kept.sameAs(e.getValue())) {
+                    differing.add(e.getKey());
+                }
+            }
+            for (YearMonth key : months.keySet()) {
+                if (!computed.containsKey(key)) {
+                    differing.add(key);
+                }
+            }
+        }
+        differing.sort(null);
+        return differing;
+    }
+
+    /**
+     * Figures of a month, as
+     * REPORT|yyyy-MM|reservations|covers|subscriberReservations|walkInReservations|subscriberCovers|walkInCovers|parties|days
+     * where parties is the number of parties of 1, 2, ... MAX_PARTY or more
+     * guests and days the covers of each day of the month, both
+     * comma-separated.
+     */
+    public synchronized String report(YearMonth key) {
+        Month month = months.getOrDefault(key, new Month());
+        StringBuilder sb = new StringBuilder(256).append("REPORT|").append(key)
+                .append('|').append(month.reservations)
+                .append('|').append(month.covers)
+                .append('|').append(month.subscriberReservations)
+                .append('|').append(month.reservations - month.subscriberReservations)
+                .append('|').append(month.subscriberCovers)
+                .append('|').append(month.covers - month.subscriberCovers)
+                .append('|');
+        for (int i = 0; i < month.partySizes.length; i++) {
+            sb.append(i == 0 ? "" : ",").append(month.partySizes[i]);
+        }
+        sb.append('|');
+        for (int day = 0; day < key.lengthOfMonth(); day++) {
+            sb.append(day == 0 ? "" : ",").append(month.coversPerDay[day]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the number of months with reservations
+     */
+    public synchronized int size() {
+        return months.size();
+    }
+
+    // Bring a recount up to date with the changes made since recount()
+    private Map<YearMonth, Month> reconcile(Recount recount) {
+        recount.catchUp(takeChanged(false));
+        return recount.months;
+    }
+
+    static Map<YearMonth, Month> compute(List<Reservation> all) {
+        return ForkJoinPool.commonPool().invoke(new Count(all, 0, all.size()));
+    }
+
+    /**
+     * Months of all[from, to).
+     */
+    private static final class Count extends RecursiveTask<Map<YearMonth, Month>> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Reservation> all;
+        private final int from;
+        private final int to;
+
+        Count(List<Reservation> all, int from, int to) {
+            this.all = all;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Map<YearMonth, Month> compute() {
+            if (to - from <= LEAF_SIZE) {
+                Map<YearMonth, Month> counted = new HashMap<>();
+                for (int i = from; i < to; i++) {
+                    Reservation r = all.get(i);
+                    if (r.getOrderDate() != null) {
+                        counted.computeIfAbsent(YearMonth.from(r.getOrderDate()), k -> new Month()).add(r, 1);
+                    }
+                }
+                return counted;
+            }
+            int mid = (from + to) >>> 1;
+            Count left = new Count(all, from, mid);
+            left.fork();
+            Map<YearMonth, Month> counted = new Count(all, mid, to).compute();
+            for (Map.Entry<YearMonth, Month> e : left.join().entrySet()) {
+                Month month = counted.get(e.getKey());
+                if (month == null) {
+                    counted.put(e.getKey(), e.getValue());
+                } else {
+                    month.addAll(e.getValue());
+                }
+            }
+            return counted;
+        }
+    }
+}
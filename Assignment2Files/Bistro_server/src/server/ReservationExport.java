@@ -0,0 +1,138 @@
+package server;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import DBController.Reservation;
+import DBController.ReservationReads;
+import ocsf.server.ConnectionToClient;
+
+/**
+ * Export of the whole reservation table as a gzipped CSV file, sent to a
+ * client in chunks.
+ *
+ * {@link #write} reads the store in keyset pages (see
+ * {@link ReservationReads#list}) straight into the compressed file, so
+ * memory stays at one page however big the table is. The file only gets its
+ * final name once complete, and never changes afterwards, so a download can
+ * resume at any byte offset.
+ *
+ * {@link #send} reads the file with positional reads into one reused buffer
+ * and sends each chunk as {"EXPORT_CHUNK|id|offset|total", byte[]}. The
+ * connection is an object stream, so FileChannel.transferTo (file to socket
+ * without a copy through the heap) cannot be used: the bytes have to be
+ * serialized like any other message.
+ */
+public class ReservationExport {
+
+    public static final String CHUNK = "EXPORT_CHUNK";
+    public static final String END = "EXPORT_END";
+
+    private static final String HEADER =
+            "order_number,order_date,number_of_guests,confirmation_code,subscriber_id,date_of_placing_order\n";
+
+    // Reservations read from the store at a time
+    private static final int PAGE = 5_000;
+
+    // Bytes per chunk message
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private ReservationExport() {
+    }
+
+    /**
+     * @return the file of an export id, or null if the id is not one this
+     *         class would give (so a client cannot name other files)
+     */
+    public static File fileOf(File dir, String id) {
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (!(c >= '0' && c <= '9') && c != '-') {
+                return null;
+            }
+        }
+        return id.isEmpty() ? null : new File(dir, "reservations-" + id + ".csv.gz");
+    }
+
+    /**
+     * Write all reservations to the export file of an id.
+     *
+     * @return the number of reservations written
+     */
+    public static long write(ReservationReads store, File dir, String id) throws IOException, SQLException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create export directory " + dir);
+        }
+        File file = fileOf(dir, id);
+        File tmp = new File(dir, file.getName() + ".tmp");
+        long rows = 0;
+        try (Writer out = new OutputStreamWriter(new GZIPOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp), CHUNK_SIZE), CHUNK_SIZE), StandardCharsets.UTF_8)) {
+            out.write(HEADER);
+            StringBuilder line = new StringBuilder(64);
+            int after = 0;
+            List<Reservation> page;
+            do {
+                page = store.list(after, null, null, null, PAGE);
+                for (Reservation r : page) {
+                    line.setLength(0);
+                    line.append(r.getOrderNumber()).append(',')
+                            .append(r.getOrderDate() == null ? "" : r.getOrderDate().toString()).append(',')
+                            .append(r.getNumberOfGuests()).append(',')
+                            .append(r.getConfirmationCode()).append(',')
+                            .append(r.hasSubscriber() ? String.valueOf(r.getSubscriberId()) : "").append(',')
+                            .append(r.getDateOfPlacingOrder() == null ? "" : r.getDateOfPlacingOrder().toString())
+                            .append('\n');
+                    out.append(line);
+                }
+                rows += page.size();
+                if (!page.isEmpty()) {
+                    after = page.get(page.size() - 1).getOrderNumber();
+                }
+            } while (page.size() == PAGE);
+        } catch (IOException | SQLException | RuntimeException e) {
+            tmp.delete();
+            throw e;
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        return rows;
+    }
+
+    /**
+     * Send an export file from a byte offset to its end, then
+     * EXPORT_END|id|total. Blocks while the client is slow to read.
+     */
+    public static void send(File file, String id, long offset, ConnectionToClient client) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long total = channel.size();
+            byte[] chunk = new byte[CHUNK_SIZE];
+            ByteBuffer buffer = ByteBuffer.wrap(chunk);
+            long position = offset;
+            while (position < total) {
+                buffer.clear();
+                int n = channel.read(buffer, position);
+                if (n <= 0) {
+                    break;
+                }
+                byte[] data = n == CHUNK_SIZE ? chunk : Arrays.copyOf(chunk, n);
+                client.sendToClient(new Object[] { CHUNK + "|" + id + "|" + position + "|" + total, data });
+                position += n;
+            }
+            client.sendToClient(END + "|" + id + "|" + total);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package server;
+
+import java.util.List;
+
+import DBController.Reservation;
+
+/**
+ * Parsing of the text commands sent by the clients and formatting of the
+ * replies about reservations.
+ *
+ * Commands are "#COMMAND arg1 arg2 ..." separated by whitespace; replies are
+ * "TAG|field|field...". These run for every request, so they avoid regular
+ * expressions (String.split with a pattern compiles and allocates on every call).
+ */
+public final class ReservationProtocol {
+
+    public static final String RESERVATION = "RESERVATION";
+    public static final String NOT_FOUND = "RESERVATION_NOT_FOUND";
+    public static final String RESERVATIONS = "RESERVATIONS";
+
+    private ReservationProtocol() {
+    }
+
+    /**
+     * Split a command into its words, like {@code messageStr.trim().split("\\s+")}.
+     */
+    public static String[] words(String messageStr) {
+        int count = 0;
+        int len = messageStr.length();
+        for (int i = 0; i < len; ) {
+            while (i < len && Character.isWhitespace(messageStr.charAt(i))) i++;
+            if (i == len) break;
+            count++;
+            while (i < len && !Character.isWhitespace(messageStr.charAt(i))) i++;
+        }
+
+        String[] words = new String[count];
+        int w = 0;
+        for (int i = 0; i < len; ) {
+            while (i < len && Character.isWhitespace(messageStr.charAt(i))) i++;
+            if (i == len) break;
+            int start = i;
+            while (i < len && !Character.isWhitespace(messageStr.charAt(i))) i++;
+            words[w++] = messageStr.substring(start, i);
+        }
+        return words;
+    }
+
+    /**
+     * Split a reply into its fields, like {@code reply.split("\\|")}.
+     */
+    public static String[] fields(String reply) {
+        int count = 1;
+        for (int i = 0; i < reply.length(); i++) {
+            if (reply.charAt(i) == '|') count++;
+        }
+
+        String[] fields = new String[count];
+        int start = 0;
+        for (int f = 0; f < count - 1; f++) {
+            int end = reply.indexOf('|', start);
+            fields[f] = reply.substring(start, end);
+            start = end + 1;
+        }
+        fields[count - 1] = reply.substring(start);
+
+        // Same as split(): trailing empty fields are dropped
+        int n = count;
+        while (n > 1 && fields[n - 1].isEmpty()) n--;
+        if (n < count) {
+            String[] trimmed = new String[n];
+            System.arraycopy(fields, 0, trimmed, 0, n);
+            return trimmed;
+        }
+        return fields;
+    }
+
+    /**
+     * RESERVATION|orderNum|numGuests|orderDate|confCode|subscriberId|placingDate
+     */
+    public static String formatReservation(String orderNum, String numGuests, String orderDate,
+                                           String confCode, String subscriberId, String placingDate) {
+        return new StringBuilder(64 + orderNum.length())
+                .append(RESERVATION).append('|')
+                .append(orderNum).append('|')
+                .append(numGuests).append('|')
+                .append(orderDate).append('|')
+                .append(confCode).append('|')
+                .append(subscriberId).append('|')
+                .append(placingDate)
+                .toString();
+    }
+
+    /**
+     * Same format for a stored reservation. Missing values (no subscriber,
+     * no date) are written "null", as the MySQL driver returned them.
+     */
+    public static String formatReservation(Reservation r) {
+        return formatReservation(String.valueOf(r.getOrderNumber()),
+                String.valueOf(r.getNumberOfGuests()),
+                String.valueOf(r.getOrderDate()),
+                String.valueOf(r.getConfirmationCode()),
+                r.hasSubscriber() ? String.valueOf(r.getSubscriberId()) : "null",
+                String.valueOf(r.getDateOfPlacingOrder()));
+    }
+
+    /**
+     * RESERVATIONS|more|row|row|... where more is 1 if another page follows
+     * and each row is orderNum,numGuests,orderDate,confCode,subscriberId,placingDate
+     * (missing values written "null", as in {@link #formatReservation(Reservation)}).
+     */
+    public static String formatPage(List<Reservation> page, boolean more) {
+        StringBuilder sb = new StringBuilder(16 + 48 * page.size())
+                .append(RESERVATIONS).append('|').append(more ? '1' : '0');
+        for (Reservation r : page) {
+            sb.append('|').append(r.getOrderNumber())
+                    .append(',').append(r.getNumberOfGuests())
+                    .append(',').append(r.getOrderDate())
+                    .append(',').append(r.getConfirmationCode())
+                    .append(',').append(r.hasSubscriber() ? String.valueOf(r.getSubscriberId()) : "null")
+                    .append(',').append(r.getDateOfPlacingOrder());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Order number of a request, or null if the text is not a number.
+     */
+    public static Integer parseOrderNumber(String text) {
+        try {
+            return Integer.valueOf(text);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package server;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Which physical table each reservation sits at.
+ *
+ * Every table keeps its bookings as an interval tree: a red-black tree
+ * (TreeMap) of time slots keyed by start minute. A table's slots never
+ * overlap, so checking whether [start, end) is free only needs the slot
+ * starting just before (its end must be at or before start) and the slot
+ * starting just after (its start must be at or after end): O(log n).
+ *
+ * Tables are sorted by size, so the best fit for N guests (the smallest
+ * free table with at least N seats) is found by a binary search to the
+ * first table that is large enough, then checking tables from there up.
+ *
+ * Assignments are kept in memory only; the reservation table has no column
+ * for them.
+ */
+public class SeatingPlan {
+
+    /**
+     * A reservation seated at a table for a time slot.
+     */
+    public static final class Assignment {
+        public final int orderNumber;
+        public final int tableId;
+        public final int seats;
+        public final LocalDateTime start;
+        public final LocalDateTime end;
+
+        Assignment(int orderNumber, int tableId, int seats, LocalDateTime start, LocalDateTime end) {
+            this.orderNumber = orderNumber;
+            this.tableId = tableId;
+            this.seats = seats;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private static final class Table {
+        final int id;
+        final int seats;
+        // Start minute -> end minute of each booked slot
+        final TreeMap<Long, Long> slots = new TreeMap<>();
+
+        Table(int id, int seats) {
+            this.id = id;
+            this.seats = seats;
+        }
+
+        boolean isFree(long start, long end) {
+            Map.Entry<Long, Long> before = slots.floorEntry(start);
+            if (before != null && before.getValue() > start) {
+                return false;
+            }
+            Map.Entry<Long, Long> after = slots.ceilingEntry(start);
+            return after == null || after.getKey() >= end;
+        }
+    }
+
+    private final Table[] tables;
+    private final Map<Integer, Table> byId = new HashMap<>();
+    // Seats of tables[i], for the binary search
+    private final int[] seats;
+    private final long slotMinutes;
+    private final Map<Integer, Assignment> byOrder = new HashMap<>();
+
+    /**
+     * @param layout      tables as "id:seats,id:seats,..."
+     * @param slotMinutes how long a reservation keeps its table
+     * @throws IllegalArgumentException if the layout cannot be parsed
+     */
+    public SeatingPlan(String layout, long slotMinutes) {
+        String[] entries = layout.split(",");
+        tables = new Table[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            String[] idAndSeats = entries[i].trim().split(":");
+            if (idAndSeats.length != 2) {
+                throw new IllegalArgumentException("Bad table \"" + entries[i] + "\", expected id:seats");
+            }
+            tables[i] = new Table(Integer.parseInt(idAndSeats[0].trim()), Integer.parseInt(idAndSeats[1].trim()));
+            if (byId.put(tables[i].id, tables[i]) != null) {
+                throw new IllegalArgumentException("Table " + tables[i].id + " listed twice");
+            }
+        }
+        Arrays.sort(tables, Comparator.comparingInt((Table t) -> t.seats).thenComparingInt(t -> t.id));
+        seats = new int[tables.length];
+        for (int i = 0; i < tables.length; i++) {
+            seats[i] = tables[i].seats;
+        }
+        this.slotMinutes = slotMinutes;
+    }
+
+    /**
+     * Best fitting free table for a party, without booking it.
+     *
+     * @return the table as an assignment of order 0, or null if none is free
+     */
+    public synchronized Assignment find(int guests, LocalDateTime at) {
+        long start = minuteOf(at);
+        Table table = bestFit(guests, start, start + slotMinutes);
+        return table == null ? null : new Assignment(0, table.id, table.seats, at, at.plusMinutes(slotMinutes));
+    }
+
+    /**
+     * Seat a reservation at the best fitting free table, moving it if it
+     * already had one.
+     *
+     * @return the new assignment, or null if no table is free (the reservation
+     *         then keeps its previous table, if any)
+     */
+    public synchronized Assignment assign(int orderNumber, int guests, LocalDateTime at) {
+        long start = minuteOf(at);
+        long end = start + slotMinutes;
+
+        // Its own current slot must not stand in its way
+        Assignment previous = byOrder.get(orderNumber);
+        if (previous != null) {
+            unbook(previous);
+        }
+        Table table = bestFit(guests, start, end);
+        if (table == null) {
+            if (previous != null) {
+                book(previous);
+            }
+            return null;
+        }
+        Assignment assignment = new Assignment(orderNumber, table.id, table.seats, at, at.plusMinutes(slotMinutes));
+        book(assignment);
+        return assignment;
+    }
+
+    /**
+     * Free the table of a reservation.
+     *
+     * @return the assignment it had, or null
+     */
+    public synchronized Assignment release(int orderNumber) {
+        Assignment assignment = byOrder.get(orderNumber);
+        if (assignment != null) {
+            unbook(assignment);
+        }
+        return assignment;
+    }
+
+    /**
+     * @return the table of a reservation, or null
+     */
+    public synchronized Assignment assignmentOf(int orderNumber) {
+        return byOrder.get(orderNumber);
+    }
+
+    /**
+     * @return the number of seated reservations
+     */
+    public synchronized int size() {
+        return byOrder.size();
+    }
+
+    private Table bestFit(int guests, long start, long end) {
+        for (int i = firstWithSeats(guests); i < tables.length; i++) {
+            if (tables[i].isFree(start, end)) {
+                return tables[i];
+            }
+        }
+        return null;
+    }
+
+    // Index of the first table with at least this many seats
+    private int firstWithSeats(int guests) {
+        int lo = 0;
+        int hi = seats.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (seats[mid] < guests) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private void book(Assignment a) {
+        byId.get(a.tableId).slots.put(minuteOf(a.start), minuteOf(a.end));
+        byOrder.put(a.orderNumber, a);
+    }
+
+    private void unbook(Assignment a) {
+        byId.get(a.tableId).slots.remove(minuteOf(a.start));
+        byOrder.remove(a.orderNumber);
+    }
+
+    private static long minuteOf(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC) / 60;
+    }
+}
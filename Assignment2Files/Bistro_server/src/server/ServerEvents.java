@@ -0,0 +1,80 @@
+package server;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder events of EchoServer: one per command handled and
+ * one per database call. Together with the ocsf.* framework events they
+ * show where a request spends its time.
+ *
+ * Disabled by default (a disabled event costs nothing measurable); bistro.jfc
+ * at the root of the server project enables them. Events hold command names
+ * only, never reservation data.
+ */
+final class ServerEvents {
+
+    private ServerEvents() {
+    }
+
+    @Name("bistro.Command")
+    @Label("Command")
+    @Description("A command handled by EchoServer, from handler start to reply sent")
+    @Category({ "Bistro", "Server" })
+    @Enabled(false)
+    @StackTrace(false)
+    static class Command extends Event {
+        @Label("Connection Id")
+        long connectionId;
+
+        @Label("Command")
+        String command;
+
+        @Label("Dispatch Wait")
+        @Description("From the message being read off the socket to its handler starting")
+        @Timespan(Timespan.NANOSECONDS)
+        long dispatchWait;
+
+        @Label("Database Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long dbTime;
+
+        @Label("Outcome")
+        String outcome;
+    }
+
+    @Name("bistro.DbCall")
+    @Label("Database Call")
+    @Description("One database operation of a command")
+    @Category({ "Bistro", "Database" })
+    @Enabled(false)
+    @StackTrace(false)
+    static class DbCall extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Rows")
+        long rows;
+
+        @Label("Outcome")
+        String outcome;
+    }
+
+    /**
+     * End a database call event and commit it if it is recorded.
+     */
+    static void commitDbCall(DbCall event, String operation, long rows, Throwable failure) {
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.rows = rows;
+            event.outcome = failure == null ? "ok" : failure.getClass().getName();
+            event.commit();
+        }
+    }
+}
@@ -29,7 +29,7 @@ public class ServerUI extends Application {
         echoServer.setUIController(controller);
 
         // Create the scene
-        Scene scene = new Scene(root, 1000, 700);
+        Scene scene = new Scene(root, 1000, 900);
         
         // Set up the stage
         primaryStage.setTitle("Bistro Server");
@@ -1,14 +1,24 @@
 package server;
 
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
+import javafx.scene.chart.LineChart;
+import javafx.scene.chart.XYChart;
 import javafx.scene.control.*;
+import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
+import javafx.util.Duration;
 import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+
+import DBController.CachingReservationStore;
 
 /**
  * Controller class for the Server UI
@@ -64,8 +74,55 @@ public class ServerUIController {
     
     @FXML
     private TableColumn<GetClientInfo, String> connectionTimeColumn;
+    
+    @FXML
+    private TableColumn<GetClientInfo, Double> messagesInRateColumn;
+    
+    @FXML
+    private TableColumn<GetClientInfo, Double> messagesOutRateColumn;
+    
+    @FXML
+    private TableColumn<GetClientInfo, Double> kbInRateColumn;
+    
+    @FXML
+    private TableColumn<GetClientInfo, Double> kbOutRateColumn;
+    
+    @FXML
+    private TableColumn<GetClientInfo, Long> messageCountColumn;
+    
+    @FXML
+    private TableColumn<GetClientInfo, String> lastActivityColumn;
+    
+    @FXML
+    private Button disconnectClientButton;
+    
+    @FXML
+    private LineChart<Number, Number> requestRateChart;
+    
+    @FXML
+    private LineChart<Number, Number> latencyChart;
+    
+    @FXML
+    private Label metricsSummaryLabel;
+    
+    @FXML
+    private HBox warmUpBox;
+    
+    @FXML
+    private ProgressBar warmUpProgressBar;
+    
+    @FXML
+    private Label warmUpLabel;
 
     private EchoServer echoServer;
+    
+    // Live metrics: sampled once a second, never per request
+    private static final int METRICS_WINDOW_SECONDS = 60;
+    private Timeline metricsTimeline;
+    private Map<String, CommandMetrics.Snapshot> lastMetrics = new HashMap<>();
+    private final Map<String, XYChart.Series<Number, Number>> rateSeries = new HashMap<>();
+    private final Map<String, XYChart.Series<Number, Number>> latencySeries = new HashMap<>();
+    private long metricsTick = 0;
     private DateTimeFormatter dateTimeFormatter;
     private static final String SERVER_RUNNING = "Server Running";
     private static final String SERVER_STOPPED = "Server Stopped";
@@ -87,6 +144,14 @@ public class ServerUIController {
         }
         
         updateServerStatus(false);
+        
+        metricsTimeline = new Timeline(new KeyFrame(Duration.seconds(1), event -> {
+            sampleMetrics();
+            sampleClients();
+            sampleWarmUp();
+        }));
+        metricsTimeline.setCycleCount(Timeline.INDEFINITE);
+        metricsTimeline.play();
     }
 
     /**
@@ -114,6 +179,9 @@ public class ServerUIController {
         stopServerButton.setOnAction(event -> stopServer());
         clearLogsButton.setOnAction(event -> clearLogs());
         doneButton.setOnAction(event -> done());
+        disconnectClientButton.setOnAction(event -> disconnectSelectedClient());
+        clientsTableView.getSelectionModel().selectedItemProperty().addListener(
+                (obs, oldValue, newValue) -> disconnectClientButton.setDisable(newValue == null));
     }
 
     /**
@@ -123,6 +191,90 @@ public class ServerUIController {
         clientIPColumn.setCellValueFactory(new javafx.scene.control.cell.PropertyValueFactory<>("clientIP"));
         clientNameColumn.setCellValueFactory(new javafx.scene.control.cell.PropertyValueFactory<>("clientName"));
         connectionTimeColumn.setCellValueFactory(new javafx.scene.control.cell.PropertyValueFactory<>("connectionTime"));
+        messagesInRateColumn.setCellValueFactory(new javafx.scene.control.cell.PropertyValueFactory<>("messagesInRate"));
+        messagesOutRateColumn.setCellValueFactory(new javafx.scene.control.cell.PropertyValueFactory<>("messagesOutRate"));
+        kbInRateColumn.setCellValueFactory(new javafx.scene.control.cell.PropertyValueFactory<>("kbInRate"));
+        kbOutRateColumn.setCellValueFactory(new javafx.scene.control.cell.PropertyValueFactory<>("kbOutRate"));
+        messageCountColumn.setCellValueFactory(new javafx.scene.control.cell.PropertyValueFactory<>("messageCount"));
+        lastActivityColumn.setCellValueFactory(new javafx.scene.control.cell.PropertyValueFactory<>("lastActivity"));
+    }
+    
+    /**
+     * Refresh the per-client counters and rates in the table (once a second)
+     */
+    private void sampleClients() {
+        if (clientsTableView == null || clientsTableView.getItems().isEmpty()) {
+            return;
+        }
+        for (GetClientInfo info : clientsTableView.getItems()) {
+            info.sample();
+        }
+        // Re-apply the sort order so a flooding client climbs to the top
+        clientsTableView.sort();
+        clientsTableView.refresh();
+    }
+    
+    /**
+     * Disconnect the client selected in the table
+     */
+    private void disconnectSelectedClient() {
+        GetClientInfo selected = clientsTableView.getSelectionModel().getSelectedItem();
+        if (selected == null || selected.getConnection() == null || echoServer == null) {
+            return;
+        }
+        addLog("Disconnecting client " + selected.getClientIP() + " (" + selected.getMessagesInRate() + " msg/s)");
+        echoServer.disconnectClient(selected.getConnection());
+    }
+    
+    /**
+     * Take one sample of the per-command metrics and add it to the charts.
+     * Runs on the FX thread once a second; only reads lock-free counters.
+     */
+    private void sampleMetrics() {
+        if (echoServer == null || requestRateChart == null) {
+            return;
+        }
+        
+        Map<String, CommandMetrics.Snapshot> now = echoServer.getMetrics().snapshot();
+        long tick = ++metricsTick;
+        long requests = 0, errors = 0, shed = 0, maxWaitP99 = 0, maxDbP99 = 0;
+        
+        for (Map.Entry<String, CommandMetrics.Snapshot> e : now.entrySet()) {
+            String command = e.getKey();
+            CommandMetrics.Snapshot interval = e.getValue().minus(lastMetrics.get(command));
+            requests += interval.requests;
+            errors += interval.errors;
+            shed += interval.shed;
+            maxWaitP99 = Math.max(maxWaitP99, interval.dispatchWait.getValueAtPercentile(99));
+            maxDbP99 = Math.max(maxDbP99, interval.db.getValueAtPercentile(99));
+            
+            addPoint(requestRateChart, rateSeries, command, tick, interval.requests);
+            addPoint(latencyChart, latencySeries, command, tick,
+                    interval.handler.getValueAtPercentile(99) / 1000.0);
+        }
+        lastMetrics = now;
+        
+        OverloadGuard guard = echoServer.getOverloadGuard();
+        metricsSummaryLabel.setText(String.format(
+                "Last second: %d requests, %d errors, %d shed | max p99 dispatch wait %.1f ms, DB %.1f ms"
+                + " | DB workers: limit %d, in flight %d, queued %d",
+                requests, errors, shed, maxWaitP99 / 1000.0, maxDbP99 / 1000.0,
+                guard.getLimit(), guard.getInFlight(), guard.getQueued()));
+    }
+    
+    private static void addPoint(LineChart<Number, Number> chart, Map<String, XYChart.Series<Number, Number>> series,
+                                 String command, long tick, Number value) {
+        XYChart.Series<Number, Number> s = series.get(command);
+        if (s == null) {
+            s = new XYChart.Series<>();
+            s.setName(command);
+            series.put(command, s);
+            chart.getData().add(s);
+        }
+        s.getData().add(new XYChart.Data<>(tick, value));
+        if (s.getData().size() > METRICS_WINDOW_SECONDS) {
+            s.getData().remove(0);
+        }
     }
     
     /**
@@ -218,8 +370,8 @@ public class ServerUIController {
     private void done() {
         try {
             addLog("Shutting down server...");
-            if (echoServer != null && echoServer.isListening()) {
-                echoServer.close();
+            if (echoServer != null) {
+                echoServer.shutdown();
             }
             addLog("Server closed. Exiting application...");
         } catch (IOException e) {
@@ -237,6 +389,30 @@ public class ServerUIController {
         }).start();
     }
 
+    /**
+     * Show the cache warm-up progress while it runs (called once a second).
+     */
+    private void sampleWarmUp() {
+        boolean warming = echoServer != null
+                && echoServer.getReservationStore() instanceof CachingReservationStore
+                && ((CachingReservationStore) echoServer.getReservationStore()).isWarming();
+        warmUpBox.setVisible(warming);
+        warmUpBox.setManaged(warming);
+        if (!warming) {
+            return;
+        }
+        CachingReservationStore cache = (CachingReservationStore) echoServer.getReservationStore();
+        long loaded = cache.getWarmUpLoaded();
+        long total = cache.getWarmUpTotal();
+        if (total > 0) {
+            warmUpProgressBar.setProgress((double) loaded / total);
+            warmUpLabel.setText(String.format("Warming cache: %,d / %,d reservations", loaded, total));
+        } else {
+            warmUpProgressBar.setProgress(ProgressBar.INDETERMINATE_PROGRESS);
+            warmUpLabel.setText("Warming cache");
+        }
+    }
+
     /**
      * Add a message to the server log
      */
@@ -303,7 +479,7 @@ public class ServerUIController {
     public void shutdown() {
         if (echoServer != null) {
             try {
-                echoServer.close();
+                echoServer.shutdown();
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -0,0 +1,96 @@
+package server;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ocsf.server.ConnectionToClient;
+
+/**
+ * Keeps track of which connected clients want to be told about changes to
+ * a given order number or to the reservations of a given day.
+ * Lookups go by topic key ("ORDER:<orderNum>" / "DATE:<yyyy-MM-dd>"), and a
+ * reverse index per client allows removing all its subscriptions at once
+ * when it disconnects.
+ */
+public class SubscriptionIndex {
+
+    public static final String ORDER = "ORDER";
+    public static final String DATE = "DATE";
+
+    private final Map<String, Set<ConnectionToClient>> subscribersByTopic = new ConcurrentHashMap<>();
+    private final Map<ConnectionToClient, Set<String>> topicsByClient = new ConcurrentHashMap<>();
+
+    /**
+     * Subscribe a client to a topic.
+     * @param type ORDER or DATE
+     * @param key the order number or the day (yyyy-MM-dd)
+     */
+    public void subscribe(ConnectionToClient client, String type, String key) {
+        String topic = topic(type, key);
+        subscribersByTopic.computeIfAbsent(topic, t -> ConcurrentHashMap.newKeySet()).add(client);
+        topicsByClient.computeIfAbsent(client, c -> ConcurrentHashMap.newKeySet()).add(topic);
+    }
+
+    /**
+     * Remove a single subscription of a client.
+     */
+    public void unsubscribe(ConnectionToClient client, String type, String key) {
+        String topic = topic(type, key);
+        removeFromTopic(topic, client);
+        Set<String> topics = topicsByClient.get(client);
+        if (topics != null) {
+            topics.remove(topic);
+        }
+    }
+
+    /**
+     * Remove every subscription of a client (called when it disconnects).
+     */
+    public void removeClient(ConnectionToClient client) {
+        if (client == null) return;
+        Set<String> topics = topicsByClient.remove(client);
+        if (topics == null) return;
+        for (String topic : topics) {
+            removeFromTopic(topic, client);
+        }
+    }
+
+    /**
+     * Collect the clients subscribed to an order and/or to any of the given days.
+     * Each client appears once even if it matches several topics.
+     */
+    public Set<ConnectionToClient> subscribersFor(String orderNum, String... dates) {
+        Set<ConnectionToClient> result = new LinkedHashSet<>();
+        addAll(result, topic(ORDER, orderNum));
+        for (String date : dates) {
+            if (date != null) {
+                addAll(result, topic(DATE, date));
+            }
+        }
+        return result;
+    }
+
+    public static boolean isValidType(String type) {
+        return ORDER.equals(type) || DATE.equals(type);
+    }
+
+    private void addAll(Set<ConnectionToClient> result, String topic) {
+        Set<ConnectionToClient> subscribers = subscribersByTopic.get(topic);
+        if (subscribers != null) {
+            result.addAll(subscribers);
+        }
+    }
+
+    private void removeFromTopic(String topic, ConnectionToClient client) {
+        subscribersByTopic.computeIfPresent(topic, (t, subscribers) -> {
+            subscribers.remove(client);
+            return subscribers.isEmpty() ? null : subscribers;
+        });
+    }
+
+    private static String topic(String type, String key) {
+        return type + ":" + key;
+    }
+}
@@ -0,0 +1,346 @@
+package DBController;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * MySQL reservations with an {@link InMemoryReservationStore} in front:
+ * lookups that hit the cache never reach the database, misses are read
+ * through, and updates and inserts are written through.
+ *
+ * {@link #warmUp()} fills the cache with the reservations of today and the
+ * next days, so the first lookups after a start do not all go to MySQL at
+ * once. It streams rows with a forward-only cursor (fetch size rows per round
+ * trip, never the whole result in memory), in order-number chunks read in
+ * parallel on separate connections. Requests are served normally meanwhile.
+ *
+ * A row read from MySQL only enters the cache if no write could have made it
+ * stale in between: warm-up skips the orders written while it runs, and a
+ * read-through miss is dropped if any write happened during its query.
+ *
+ * Settings (system properties), enabled with -Dbistro.cache=true (refused
+ * together with -Dbistro.writeBehind=true, as writes go straight to MySQL):
+ * - bistro.warmupDays: days from today to load, 0 for no warm-up (default 7)
+ * - bistro.warmupThreads: parallel connections (default 4)
+ * - bistro.warmupFetchSize: rows per round trip (default 1000)
+ */
+public class CachingReservationStore implements ReservationStore {
+
+	public static final int WARMUP_DAYS = Integer.getInteger("bistro.warmupDays", 7);
+	public static final int WARMUP_THREADS = Integer.getInteger("bistro.warmupThreads", 4);
+	public static final int WARMUP_FETCH_SIZE = Integer.getInteger("bistro.warmupFetchSize", 1000);
+
+	private static final String RANGE_SQL = "SELECT COUNT(*), MIN(order_number), MAX(order_number) "
+			+ "FROM reservation WHERE order_date BETWEEN ? AND ?";
+
+	private static final String CHUNK_SQL = "SELECT order_number, number_of_guests, order_date, "
+			+ "confirmation_code, subscriber_id, date_of_placing_order "
+			+ "FROM reservation WHERE order_date BETWEEN ? AND ? AND order_number BETWEEN ? AND ?";
+
+	// Chunks per thread, so that threads with quick chunks take more
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	private final MySqlReservationStore database;
+	private final InMemoryReservationStore cache = new InMemoryReservationStore();
+
+	// Orders cache fills against writes
+	private final Object cacheLock = new Object();
+	private long writes;
+	private Set<Integer> writtenWhileWarming;
+
+	private volatile ExecutorService warmUpPool;
+	private volatile boolean warming;
+	private volatile long warmUpTotal;
+	private final AtomicLong warmUpLoaded = new AtomicLong();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	public CachingReservationStore(MySqlReservationStore database) {
+		this.database = database;
+	}
+
+	@Override
+	public Reservation find(int orderNumber) throws SQLException {
+		Reservation r = cache.find(orderNumber);
+		if (r != null) {
+			hits.increment();
+			return r;
+		}
+		misses.increment();
+
+		long seen;
+		synchronized (cacheLock) {
+			seen = writes;
+		}
+		r = database.find(orderNumber);
+		if (r != null) {
+			synchronized (cacheLock) {
+				if (writes == seen) {
+					cache.put(r);
+				}
+			}
+		}
+		return r;
+	}
+
+	@Override
+	public boolean update(int orderNumber, int numberOfGuests, LocalDate orderDate) throws SQLException {
+		if (!database.update(orderNumber, numberOfGuests, orderDate)) {
+			return false;
+		}
+		synchronized (cacheLock) {
+			written(orderNumber);
+			cache.update(orderNumber, numberOfGuests, orderDate);
+		}
+		return true;
+	}
+
+	@Override
+	public int insert(Reservation reservation) throws SQLException {
+		int orderNumber = database.insert(reservation);
+		synchronized (cacheLock) {
+			written(orderNumber);
+			cache.put(reservation.withOrderNumber(orderNumber));
+		}
+		return orderNumber;
+	}
+
+	@Override
+	public int reserveIds(String sequence, int count) throws SQLException {
+		return database.reserveIds(sequence, count);
+	}
+
+	@Override
+	public void insertAll(List<Reservation> reservations) throws SQLException {
+		database.insertAll(reservations);
+		synchronized (cacheLock) {
+			for (Reservation r : reservations) {
+				written(r.getOrderNumber());
+				cache.put(r);
+			}
+		}
+	}
+
+	/**
+	 * From MySQL: the cache may hold only part of the reservations.
+	 */
+	@Override
+	public Map<LocalDate, Integer> bookedGuestsPerDay() throws SQLException {
+		return database.bookedGuestsPerDay();
+	}
+
+	/**
+	 * From MySQL, for the same reason.
+	 */
+	@Override
+	public List<Reservation> allReservations() throws SQLException {
+		return database.allReservations();
+	}
+
+	@Override
+	public List<Reservation> list(int afterOrderNumber, LocalDate from, LocalDate to, Integer subscriberId,
+			int limit) throws SQLException {
+		return database.list(afterOrderNumber, from, to, subscriberId, limit);
+	}
+
+	// Called with cacheLock held
+	private void written(int orderNumber) {
+		writes++;
+		if (writtenWhileWarming != null) {
+			writtenWhileWarming.add(orderNumber);
+		}
+	}
+
+	/**
+	 * Load the reservations from today to today + bistro.warmupDays into the
+	 * cache, and return when done. Runs on the calling thread plus the
+	 * warm-up pool; call it from a background thread.
+	 *
+	 * @return the number of reservations loaded
+	 */
+	public long warmUp() throws SQLException {
+		LocalDate from = LocalDate.now();
+		LocalDate to = from.plusDays(WARMUP_DAYS);
+		synchronized (cacheLock) {
+			writtenWhileWarming = new HashSet<>();
+		}
+		warmUpLoaded.set(0);
+		warmUpTotal = 0;
+		warming = true;
+		try {
+			int lo;
+			int hi;
+			try (Connection conn = connect(); PreparedStatement ps = conn.prepareStatement(RANGE_SQL)) {
+				ps.setDate(1, Date.valueOf(from));
+				ps.setDate(2, Date.valueOf(to));
+				try (ResultSet rs = ps.executeQuery()) {
+					rs.next();
+					warmUpTotal = rs.getLong(1);
+					lo = rs.getInt(2);
+					hi = rs.getInt(3);
+				}
+			}
+			if (warmUpTotal == 0) {
+				return 0;
+			}
+
+			int chunks = WARMUP_THREADS * CHUNKS_PER_THREAD;
+			long span = (long) hi - lo + 1;
+			ExecutorService pool = Executors.newFixedThreadPool(WARMUP_THREADS, r -> {
+				Thread t = new Thread(r, "cache-warmup");
+				t.setDaemon(true);
+				return t;
+			});
+			warmUpPool = pool;
+			AtomicInteger failedChunks = new AtomicInteger();
+			for (int i = 0; i < chunks; i++) {
+				int chunkLo = (int) (lo + span * i / chunks);
+				int chunkHi = (int) (lo + span * (i + 1) / chunks - 1);
+				if (chunkHi < chunkLo) {
+					continue;
+				}
+				pool.execute(() -> {
+					try {
+						loadChunk(from, to, chunkLo, chunkHi);
+					} catch (SQLException e) {
+						failedChunks.incrementAndGet();
+						System.err.println("Cache warm-up of orders " + chunkLo + "-" + chunkHi + " failed: "
+								+ e.getMessage());
+					}
+				});
+			}
+			pool.shutdown();
+			try {
+				pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				pool.shutdownNow();
+				Thread.currentThread().interrupt();
+			}
+			if (failedChunks.get() > 0) {
+				throw new SQLException(failedChunks.get() + " of " + chunks + " warm-up chunks failed");
+			}
+			return warmUpLoaded.get();
+		} finally {
+			warming = false;
+			warmUpPool = null;
+			synchronized (cacheLock) {
+				writtenWhileWarming = null;
+			}
+		}
+	}
+
+	/**
+	 * Stream one order-number range into the cache, a fetch's worth at a time.
+	 */
+	private void loadChunk(LocalDate from, LocalDate to, int lo, int hi) throws SQLException {
+		try (Connection conn = connect();
+				PreparedStatement ps = conn.prepareStatement(CHUNK_SQL, ResultSet.TYPE_FORWARD_ONLY,
+						ResultSet.CONCUR_READ_ONLY)) {
+			ps.setFetchSize(WARMUP_FETCH_SIZE);
+			ps.setDate(1, Date.valueOf(from));
+			ps.setDate(2, Date.valueOf(to));
+			ps.setInt(3, lo);
+			ps.setInt(4, hi);
+			List<Reservation> rows = new ArrayList<>(WARMUP_FETCH_SIZE);
+			try (ResultSet rs = ps.executeQuery()) {
+				while (rs.next()) {
+					rows.add(MySqlReservationStore.toReservation(rs));
+					if (rows.size() == WARMUP_FETCH_SIZE) {
+						fill(rows);
+					}
+					if (Thread.currentThread().isInterrupted()) {
+						return;
+					}
+				}
+			}
+			fill(rows);
+		}
+	}
+
+	// Rows the cache already has came from a later read or write, so they win
+	private void fill(List<Reservation> rows) {
+		synchronized (cacheLock) {
+			for (Reservation r : rows) {
+				if (!writtenWhileWarming.contains(r.getOrderNumber()) && cache.find(r.getOrderNumber()) == null) {
+					cache.put(r);
+				}
+			}
+		}
+		warmUpLoaded.addAndGet(rows.size());
+		rows.clear();
+	}
+
+	private static Connection connect() throws SQLException {
+		Connection conn = mysqlConnection1.getDBConnection(mysqlConnection1.PRIMARY_DATABASE,
+				mysqlConnection1.cursorFetch());
+		if (conn == null) {
+			throw new SQLException("Database connection failed - MySQL server may not be running");
+		}
+		return conn;
+	}
+
+	/**
+	 * @return true while {@link #warmUp()} runs
+	 */
+	public boolean isWarming() {
+		return warming;
+	}
+
+	/**
+	 * @return rows loaded so far by the current or last warm-up
+	 */
+	public long getWarmUpLoaded() {
+		return warmUpLoaded.get();
+	}
+
+	/**
+	 * @return rows to load by the current or last warm-up
+	 */
+	public long getWarmUpTotal() {
+		return warmUpTotal;
+	}
+
+	/**
+	 * @return the number of reservations in the cache
+	 */
+	public int size() {
+		return cache.size();
+	}
+
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	@Override
+	public void threadFinished() {
+		database.threadFinished();
+	}
+
+	@Override
+	public void close() {
+		ExecutorService pool = warmUpPool;
+		if (pool != null) {
+			pool.shutdownNow();
+		}
+		database.close();
+	}
+}
@@ -0,0 +1,457 @@
+package DBController;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Reservations kept in the server's memory, for benchmarks and for running a
+ * branch on a single box without MySQL. Lookups never leave the process.
+ *
+ * Storage is columnar: one int array per column, one entry (slot) per
+ * reservation, with dates as epoch days. An open-addressing hash table maps
+ * order numbers to slots, and an array of the slots sorted by order number
+ * serves listings. A million reservations take about 40 MB in a dozen
+ * arrays, so the garbage collector has almost nothing to trace.
+ *
+ * Reads use optimistic StampedLock stamps and so never block each other;
+ * writes take the write lock.
+ */
+public class InMemoryReservationStore implements ReservationStore {
+
+	private static final int INITIAL_CAPACITY = 1024;
+	/** Epoch day standing for a NULL date. */
+	private static final int NO_DATE = Integer.MIN_VALUE;
+
+	private final StampedLock lock = new StampedLock();
+
+	// Columns, indexed by slot
+	private int[] orderNumbers = new int[INITIAL_CAPACITY];
+	private int[] guests = new int[INITIAL_CAPACITY];
+	private int[] orderDays = new int[INITIAL_CAPACITY];
+	private int[] confirmationCodes = new int[INITIAL_CAPACITY];
+	private int[] subscriberIds = new int[INITIAL_CAPACITY];
+	private int[] placingDays = new int[INITIAL_CAPACITY];
+	private int size;
+
+	// Order number -> slot + 1 (0 = free), linear probing, at most half full
+	private int[] indexKeys = new int[2 * INITIAL_CAPACITY];
+	private int[] indexSlots = new int[2 * INITIAL_CAPACITY];
+
+	// Slots in order-number order, the first size entries used. New order
+	// numbers are mostly the highest yet, so an insert moves few entries.
+	private int[] sortedSlots = new int[INITIAL_CAPACITY];
+
+	// Highest id in use or reserved, see reserveIds
+	private int maxOrderNumber;
+	private int maxConfirmationCode;
+
+	@Override
+	public Reservation find(int orderNumber) {
+		long stamp = lock.tryOptimisticRead();
+		Reservation r = read(orderNumber);
+		if (lock.validate(stamp)) {
+			return r;
+		}
+		// A write happened meanwhile: read again under the lock
+		stamp = lock.readLock();
+		try {
+			return read(orderNumber);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Look up a reservation. Under an optimistic stamp the arrays may change
+	 * underneath, so every index is checked and a torn result is possible;
+	 * the caller validates the stamp before using it.
+	 */
+	private Reservation read(int orderNumber) {
+		int[] keys = indexKeys;
+		int[] slots = indexSlots;
+		int slot = slotOf(keys, slots, orderNumber);
+		int[] numbers = orderNumbers;
+		if (slot < 0 || slot >= numbers.length) {
+			return null;
+		}
+		int[] g = guests;
+		int[] od = orderDays;
+		int[] cc = confirmationCodes;
+		int[] sub = subscriberIds;
+		int[] pd = placingDays;
+		if (slot >= g.length || slot >= od.length || slot >= cc.length || slot >= sub.length
+				|| slot >= pd.length) {
+			return null;
+		}
+		return new Reservation(numbers[slot], g[slot], toDate(od[slot]), cc[slot], sub[slot], toDate(pd[slot]));
+	}
+
+	@Override
+	public boolean update(int orderNumber, int numberOfGuests, LocalDate orderDate) {
+		return updateDays(orderNumber, numberOfGuests, toDay(orderDate));
+	}
+
+	/**
+	 * Same as update, with the date as an epoch day (journal replay).
+	 */
+	boolean updateDays(int orderNumber, int numberOfGuests, int orderDay) {
+		long stamp = lock.writeLock();
+		try {
+			int slot = slotOf(indexKeys, indexSlots, orderNumber);
+			if (slot < 0) {
+				return false;
+			}
+			guests[slot] = numberOfGuests;
+			orderDays[slot] = orderDay;
+			return true;
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	@Override
+	public int insert(Reservation reservation) {
+		long stamp = lock.writeLock();
+		try {
+			int orderNumber = maxOrderNumber + 1;
+			putLocked(reservation.withOrderNumber(orderNumber));
+			return orderNumber;
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	@Override
+	public int reserveIds(String sequence, int count) {
+		long stamp = lock.writeLock();
+		try {
+			if (ORDER_NUMBERS.equals(sequence)) {
+				maxOrderNumber += count;
+				return maxOrderNumber - count + 1;
+			}
+			if (CONFIRMATION_CODES.equals(sequence)) {
+				maxConfirmationCode += count;
+				return maxConfirmationCode - count + 1;
+			}
+			throw new IllegalArgumentException("Unknown id sequence " + sequence);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	@Override
+	public void insertAll(List<Reservation> reservations) {
+		long stamp = lock.writeLock();
+		try {
+			for (Reservation r : reservations) {
+				putLocked(r);
+			}
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Add a reservation with its own order number, or replace the one with
+	 * the same number (e.g. when loading existing data).
+	 */
+	public void put(Reservation reservation) {
+		long stamp = lock.writeLock();
+		try {
+			putLocked(reservation);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Same as put, with the dates as epoch days (journal replay).
+	 */
+	void putDays(int orderNumber, int numberOfGuests, int orderDay, int confirmationCode, int subscriberId,
+			int placingDay) {
+		long stamp = lock.writeLock();
+		try {
+			putLocked(orderNumber, numberOfGuests, orderDay, confirmationCode, subscriberId, placingDay);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Copy of the columns, in the order of {@link #load}, trimmed to the
+	 * number of reservations (for snapshots).
+	 */
+	int[][] copyColumns() {
+		long stamp = lock.readLock();
+		try {
+			return new int[][] { Arrays.copyOf(orderNumbers, size), Arrays.copyOf(guests, size),
+					Arrays.copyOf(orderDays, size), Arrays.copyOf(confirmationCodes, size),
+					Arrays.copyOf(subscriberIds, size), Arrays.copyOf(placingDays, size) };
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Replace the whole content with these columns (from a snapshot): order
+	 * numbers, guests, order days, confirmation codes, subscriber ids and
+	 * placing days, all of the same length.
+	 */
+	void load(int[][] columns) {
+		int n = columns[0].length;
+		int capacity = INITIAL_CAPACITY;
+		while (capacity < n) {
+			capacity *= 2;
+		}
+		long stamp = lock.writeLock();
+		try {
+			orderNumbers = Arrays.copyOf(columns[0], capacity);
+			guests = Arrays.copyOf(columns[1], capacity);
+			orderDays = Arrays.copyOf(columns[2], capacity);
+			confirmationCodes = Arrays.copyOf(columns[3], capacity);
+			subscriberIds = Arrays.copyOf(columns[4], capacity);
+			placingDays = Arrays.copyOf(columns[5], capacity);
+			size = n;
+			maxOrderNumber = 0;
+			maxConfirmationCode = 0;
+			for (int i = 0; i < n; i++) {
+				maxOrderNumber = Math.max(maxOrderNumber, orderNumbers[i]);
+				maxConfirmationCode = Math.max(maxConfirmationCode, confirmationCodes[i]);
+			}
+			rehash(2 * capacity);
+			sortSlots();
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	@Override
+	public Map<LocalDate, Integer> bookedGuestsPerDay() {
+		Map<Integer, Integer> byDay = new HashMap<>();
+		long stamp = lock.readLock();
+		try {
+			for (int slot = 0; slot < size; slot++) {
+				if (orderDays[slot] != NO_DATE) {
+					byDay.merge(orderDays[slot], guests[slot], Integer::sum);
+				}
+			}
+		} finally {
+			lock.unlockRead(stamp);
+		}
+		Map<LocalDate, Integer> guestsPerDay = new HashMap<>();
+		byDay.forEach((day, total) -> guestsPerDay.put(LocalDate.ofEpochDay(day), total));
+		return guestsPerDay;
+	}
+
+	@Override
+	public List<Reservation> allReservations() {
+		long stamp = lock.readLock();
+		try {
+			List<Reservation> all = new ArrayList<>(size);
+			for (int slot = 0; slot < size; slot++) {
+				all.add(new Reservation(orderNumbers[slot], guests[slot], toDate(orderDays[slot]),
+						confirmationCodes[slot], subscriberIds[slot], toDate(placingDays[slot])));
+			}
+			return all;
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Binary search in the sorted slots for the first order number after
+	 * afterOrderNumber, then a walk up from there, so a page costs the rows
+	 * it looks at, as a primary key range scan would, however sparse the
+	 * order numbers are (reserved id blocks leave gaps).
+	 */
+	@Override
+	public List<Reservation> list(int afterOrderNumber, LocalDate from, LocalDate to, Integer subscriberId,
+			int limit) {
+		int fromDay = from == null ? Integer.MIN_VALUE : toDay(from);
+		int toDay = to == null ? Integer.MAX_VALUE : toDay(to);
+		List<Reservation> page = new ArrayList<>(limit);
+		long stamp = lock.readLock();
+		try {
+			for (int i = firstAfter(afterOrderNumber); i < size && page.size() < limit; i++) {
+				int slot = sortedSlots[i];
+				int n = orderNumbers[slot];
+				int day = orderDays[slot];
+				if ((from != null || to != null) && (day == NO_DATE || day < fromDay || day > toDay)) {
+					continue;
+				}
+				if (subscriberId != null && subscriberIds[slot] != subscriberId) {
+					continue;
+				}
+				page.add(new Reservation(n, guests[slot], toDate(day), confirmationCodes[slot], subscriberIds[slot],
+						toDate(placingDays[slot])));
+			}
+		} finally {
+			lock.unlockRead(stamp);
+		}
+		return page;
+	}
+
+	/**
+	 * @return the number of reservations
+	 */
+	public int size() {
+		long stamp = lock.tryOptimisticRead();
+		int n = size;
+		if (lock.validate(stamp)) {
+			return n;
+		}
+		stamp = lock.readLock();
+		try {
+			return size;
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	@Override
+	public boolean isBlocking() {
+		return false;
+	}
+
+	@Override
+	public void close() {
+	}
+
+	private void putLocked(Reservation r) {
+		putLocked(r.getOrderNumber(), r.getNumberOfGuests(), toDay(r.getOrderDate()), r.getConfirmationCode(),
+				r.getSubscriberId(), toDay(r.getDateOfPlacingOrder()));
+	}
+
+	private void putLocked(int orderNumber, int numberOfGuests, int orderDay, int confirmationCode,
+			int subscriberId, int placingDay) {
+		int slot = slotOf(indexKeys, indexSlots, orderNumber);
+		if (slot < 0) {
+			if (size == orderNumbers.length) {
+				growColumns();
+			}
+			if (2 * (size + 1) > indexKeys.length) {
+				rehash(2 * indexKeys.length);
+			}
+			slot = size;
+			orderNumbers[slot] = orderNumber;
+			insertSorted(slot);
+			size++;
+			indexInsert(indexKeys, indexSlots, orderNumber, slot);
+		}
+		orderNumbers[slot] = orderNumber;
+		guests[slot] = numberOfGuests;
+		orderDays[slot] = orderDay;
+		confirmationCodes[slot] = confirmationCode;
+		subscriberIds[slot] = subscriberId;
+		placingDays[slot] = placingDay;
+		maxOrderNumber = Math.max(maxOrderNumber, orderNumber);
+		maxConfirmationCode = Math.max(maxConfirmationCode, confirmationCode);
+	}
+
+	private void growColumns() {
+		int capacity = orderNumbers.length * 2;
+		orderNumbers = Arrays.copyOf(orderNumbers, capacity);
+		guests = Arrays.copyOf(guests, capacity);
+		orderDays = Arrays.copyOf(orderDays, capacity);
+		confirmationCodes = Arrays.copyOf(confirmationCodes, capacity);
+		subscriberIds = Arrays.copyOf(subscriberIds, capacity);
+		placingDays = Arrays.copyOf(placingDays, capacity);
+		sortedSlots = Arrays.copyOf(sortedSlots, capacity);
+	}
+
+	/**
+	 * @return the position in sortedSlots of the first order number above
+	 *         the given one (size if there is none)
+	 */
+	private int firstAfter(int orderNumber) {
+		int lo = 0;
+		int hi = size;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (orderNumbers[sortedSlots[mid]] <= orderNumber) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	// Add a new slot (its order number already set) to the size sorted ones
+	private void insertSorted(int slot) {
+		int at = firstAfter(orderNumbers[slot]);
+		System.arraycopy(sortedSlots, at, sortedSlots, at + 1, size - at);
+		sortedSlots[at] = slot;
+	}
+
+	private void sortSlots() {
+		sortedSlots = new int[orderNumbers.length];
+		long[] keyed = new long[size];
+		for (int slot = 0; slot < size; slot++) {
+			keyed[slot] = (long) orderNumbers[slot] << 32 | slot;
+		}
+		Arrays.sort(keyed);
+		for (int i = 0; i < size; i++) {
+			sortedSlots[i] = (int) keyed[i];
+		}
+	}
+
+	private void rehash(int capacity) {
+		int[] keys = new int[capacity];
+		int[] slots = new int[capacity];
+		for (int slot = 0; slot < size; slot++) {
+			indexInsert(keys, slots, orderNumbers[slot], slot);
+		}
+		indexKeys = keys;
+		indexSlots = slots;
+	}
+
+	private static int hash(int key, int mask) {
+		int h = key * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	/**
+	 * @return the slot of the order number, or -1 if absent
+	 */
+	private static int slotOf(int[] keys, int[] slots, int orderNumber) {
+		int length = Math.min(keys.length, slots.length);
+		int mask = length - 1;
+		int i = hash(orderNumber, mask);
+		// Bounded so that a torn optimistic read cannot loop forever
+		for (int probes = 0; probes < length; probes++) {
+			int slot = slots[i];
+			if (slot == 0) {
+				return -1;
+			}
+			if (keys[i] == orderNumber) {
+				return slot - 1;
+			}
+			i = (i + 1) & mask;
+		}
+		return -1;
+	}
+
+	private static void indexInsert(int[] keys, int[] slots, int orderNumber, int slot) {
+		int mask = keys.length - 1;
+		int i = hash(orderNumber, mask);
+		while (slots[i] != 0) {
+			i = (i + 1) & mask;
+		}
+		keys[i] = orderNumber;
+		slots[i] = slot + 1;
+	}
+
+	static int toDay(LocalDate date) {
+		return date == null ? NO_DATE : (int) date.toEpochDay();
+	}
+
+	static LocalDate toDate(int day) {
+		return day == NO_DATE ? null : LocalDate.ofEpochDay(day);
+	}
+}
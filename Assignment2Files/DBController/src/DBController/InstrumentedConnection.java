@@ -0,0 +1,251 @@
+package DBController;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * Wraps a JDBC Connection so that the statements it creates report to
+ * {@link JdbcStats}: time to prepare, time to execute, and time spent reading
+ * the result set (until it is exhausted or closed), with the number of rows
+ * and of bind parameters.
+ *
+ * The wrappers are dynamic proxies, so they keep working whatever the driver
+ * or JDBC version. Statements and result sets are used by one thread at a
+ * time, so their handlers need no locking.
+ */
+public final class InstrumentedConnection {
+
+	private InstrumentedConnection() {
+	}
+
+	/**
+	 * @return a Connection that records into the given stats, or null if conn is null
+	 */
+	public static Connection wrap(Connection conn, JdbcStats stats) {
+		if (conn == null) {
+			return null;
+		}
+		return (Connection) Proxy.newProxyInstance(InstrumentedConnection.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, new ConnectionHandler(conn, stats));
+	}
+
+	private static Object call(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * equals/hashCode/toString of a proxy, or null if method is not one of them.
+	 */
+	private static Object objectMethod(Object proxy, Object target, Method method, Object[] args) {
+		switch (method.getName()) {
+		case "equals":
+			return args != null && args.length == 1 && proxy == args[0];
+		case "hashCode":
+			return method.getParameterCount() == 0 ? System.identityHashCode(proxy) : null;
+		case "toString":
+			return method.getParameterCount() == 0 ? "Instrumented " + target : null;
+		default:
+			return null;
+		}
+	}
+
+	private static class ConnectionHandler implements InvocationHandler {
+		private final Connection target;
+		private final JdbcStats stats;
+
+		ConnectionHandler(Connection target, JdbcStats stats) {
+			this.target = target;
+			this.stats = stats;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			Object result = objectMethod(proxy, target, method, args);
+			if (result != null) {
+				return result;
+			}
+
+			String name = method.getName();
+			if ((name.equals("prepareStatement") || name.equals("prepareCall")) && args[0] instanceof String) {
+				StatementStats statementStats = stats.statsFor((String) args[0]);
+				long start = System.nanoTime();
+				Object statement = call(target, method, args);
+				stats.recordPrepare(statementStats, System.nanoTime() - start);
+				return wrapStatement(proxy, method.getReturnType(), (Statement) statement, statementStats);
+			}
+			if (name.equals("createStatement")) {
+				// SQL comes with each execute call
+				return wrapStatement(proxy, Statement.class, (Statement) call(target, method, args), null);
+			}
+			return call(target, method, args);
+		}
+
+		private Object wrapStatement(Object connection, Class<?> type, Statement statement,
+				StatementStats statementStats) {
+			return Proxy.newProxyInstance(InstrumentedConnection.class.getClassLoader(), new Class<?>[] { type },
+					new StatementHandler(statement, (Connection) connection, stats, statementStats));
+		}
+	}
+
+	private static class StatementHandler implements InvocationHandler {
+		private final Statement target;
+		private final Connection connection;
+		private final JdbcStats stats;
+		// Null for plain statements: looked up from the SQL of each execute call
+		private final StatementStats preparedStats;
+		// Highest bind parameter index set since the last execution
+		private int parameters;
+		private ResultSetHandler openResultSet;
+
+		StatementHandler(Statement target, Connection connection, JdbcStats stats, StatementStats preparedStats) {
+			this.target = target;
+			this.connection = connection;
+			this.stats = stats;
+			this.preparedStats = preparedStats;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			Object result = objectMethod(proxy, target, method, args);
+			if (result != null) {
+				return result;
+			}
+
+			String name = method.getName();
+			if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer
+					&& target instanceof PreparedStatement) {
+				parameters = Math.max(parameters, (Integer) args[0]);
+			} else if (name.equals("clearParameters")) {
+				parameters = 0;
+			} else if (name.startsWith("execute")) {
+				return execute(method, args);
+			} else if (name.equals("getConnection")) {
+				return connection;
+			} else if (name.equals("close")) {
+				finishResultSet();
+			}
+			return call(target, method, args);
+		}
+
+		private Object execute(Method method, Object[] args) throws Throwable {
+			finishResultSet();
+			StatementStats statementStats = preparedStats;
+			if (args != null && args.length > 0 && args[0] instanceof String) {
+				statementStats = stats.statsFor((String) args[0]);
+			}
+			if (statementStats == null) {
+				return call(target, method, args);
+			}
+
+			int boundParameters = parameters;
+			parameters = 0;
+			long start = System.nanoTime();
+			Object result;
+			try {
+				result = call(target, method, args);
+			} catch (Throwable e) {
+				stats.recordExecution(statementStats, System.nanoTime() - start, 0, 0, boundParameters, true);
+				throw e;
+			}
+			long executeNanos = System.nanoTime() - start;
+
+			if (result instanceof ResultSet) {
+				// Recorded once the results have been read
+				openResultSet = new ResultSetHandler((ResultSet) result, stats, statementStats, executeNanos,
+						boundParameters);
+				return Proxy.newProxyInstance(InstrumentedConnection.class.getClassLoader(),
+						new Class<?>[] { ResultSet.class }, openResultSet);
+			}
+			stats.recordExecution(statementStats, executeNanos, 0, rowsOf(result), boundParameters, false);
+			return result;
+		}
+
+		private void finishResultSet() {
+			if (openResultSet != null) {
+				openResultSet.finish();
+				openResultSet = null;
+			}
+		}
+
+		private static long rowsOf(Object result) {
+			if (result instanceof Number) {
+				return ((Number) result).longValue();
+			}
+			long rows = 0;
+			if (result instanceof int[]) {
+				for (int count : (int[]) result) rows += Math.max(count, 0);
+			} else if (result instanceof long[]) {
+				for (long count : (long[]) result) rows += Math.max(count, 0);
+			}
+			return rows;
+		}
+	}
+
+	private static class ResultSetHandler implements InvocationHandler {
+		private final ResultSet target;
+		private final JdbcStats stats;
+		private final StatementStats statementStats;
+		private final long executeNanos;
+		private final int parameters;
+		private long fetchNanos;
+		private long rows;
+		private boolean finished;
+
+		ResultSetHandler(ResultSet target, JdbcStats stats, StatementStats statementStats, long executeNanos,
+				int parameters) {
+			this.target = target;
+			this.stats = stats;
+			this.statementStats = statementStats;
+			this.executeNanos = executeNanos;
+			this.parameters = parameters;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			Object result = objectMethod(proxy, target, method, args);
+			if (result != null) {
+				return result;
+			}
+			if (finished) {
+				return call(target, method, args);
+			}
+			if (method.getName().equals("close")) {
+				finish();
+				return call(target, method, args);
+			}
+
+			// Everything done with the result set until it is closed counts as fetching
+			long start = System.nanoTime();
+			try {
+				result = call(target, method, args);
+			} finally {
+				fetchNanos += System.nanoTime() - start;
+			}
+			if (method.getName().equals("next")) {
+				if (Boolean.TRUE.equals(result)) {
+					rows++;
+				} else {
+					finish();
+				}
+			}
+			return result;
+		}
+
+		void finish() {
+			if (!finished) {
+				finished = true;
+				stats.recordExecution(statementStats, executeNanos, fetchNanos, rows, parameters, false);
+			}
+		}
+	}
+}
@@ -0,0 +1,229 @@
+package DBController;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-statement timings of every connection opened through
+ * {@link mysqlConnection1#getDBConnection()}, and the slow-query log.
+ *
+ * Statements are grouped by shape: the SQL text with its whitespace collapsed
+ * and its literals replaced by '?', so "WHERE id = 5" and "WHERE id = 7" count
+ * as the same statement.
+ *
+ * Configuration (system properties):
+ * - bistro.jdbcStats=false turns the instrumentation off
+ * - bistro.slowQueryMs: executions slower than this (execute + reading the
+ *   results) are logged, default 200, negative to disable
+ * - bistro.slowQueryLog: file the slow queries are appended to, default
+ *   standard error
+ */
+public class JdbcStats {
+
+	public static final boolean ENABLED = !"false".equals(System.getProperty("bistro.jdbcStats"));
+	public static final long SLOW_QUERY_MS = Long.getLong("bistro.slowQueryMs", 200);
+	public static final String SLOW_QUERY_LOG = System.getProperty("bistro.slowQueryLog");
+
+	// Shapes are bounded in case some code builds SQL with unusual literals
+	private static final int MAX_SHAPES = 256;
+	private static final int MAX_SHAPE_LENGTH = 300;
+	private static final int MAX_CACHED_SQL = 1024;
+	private static final String OTHER = "OTHER";
+
+	private static final JdbcStats INSTANCE = new JdbcStats();
+
+	/**
+	 * Told about each statement executed by one thread, e.g. to add it to the
+	 * trace of the request the thread is working on.
+	 */
+	public interface ExecutionListener {
+		/**
+		 * Called when an execution is recorded, right after the results were
+		 * read (or the update completed).
+		 */
+		void executed(String shape, long executeNanos, long fetchNanos, long rows);
+	}
+
+	private static final ThreadLocal<ExecutionListener> LISTENER = new ThreadLocal<>();
+
+	private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+
+	private final Map<String, StatementStats> byShape = new ConcurrentHashMap<>();
+	private final Map<String, StatementStats> bySql = new ConcurrentHashMap<>();
+	private final long slowThresholdNanos = SLOW_QUERY_MS < 0 ? Long.MAX_VALUE : SLOW_QUERY_MS * 1_000_000L;
+	private PrintWriter slowLog;
+
+	public static JdbcStats getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Set the listener of the statements executed by the current thread.
+	 * @param listener the listener, or null to remove it
+	 */
+	public static void setExecutionListener(ExecutionListener listener) {
+		if (listener == null) {
+			LISTENER.remove();
+		} else {
+			LISTENER.set(listener);
+		}
+	}
+
+	/**
+	 * Stats of the given SQL text, created on first use.
+	 */
+	public StatementStats statsFor(String sql) {
+		// Prepared statements reuse the same text: skip normalizing it again
+		StatementStats stats = bySql.get(sql);
+		if (stats != null) {
+			return stats;
+		}
+		String shape = shapeOf(sql);
+		stats = byShape.get(shape);
+		if (stats == null) {
+			stats = byShape.computeIfAbsent(byShape.size() >= MAX_SHAPES ? OTHER : shape, StatementStats::new);
+		}
+		if (bySql.size() < MAX_CACHED_SQL) {
+			bySql.put(sql, stats);
+		}
+		return stats;
+	}
+
+	/**
+	 * Record one execution, and log it if it was slow.
+	 *
+	 * @param executeNanos time in execute*()
+	 * @param fetchNanos   time spent reading the result set, 0 for updates
+	 * @param rows         rows read or updated
+	 * @param parameters   number of bind parameters set
+	 * @param error        true if the execution failed
+	 */
+	void recordExecution(StatementStats stats, long executeNanos, long fetchNanos, long rows, int parameters,
+			boolean error) {
+		stats.executions.increment();
+		if (error) stats.errors.increment();
+		stats.execute.record(executeNanos / 1000);
+		if (fetchNanos > 0) stats.fetch.record(fetchNanos / 1000);
+		stats.rows.add(rows);
+
+		ExecutionListener listener = LISTENER.get();
+		if (listener != null) {
+			listener.executed(stats.getShape(), executeNanos, fetchNanos, rows);
+		}
+
+		if (executeNanos + fetchNanos >= slowThresholdNanos) {
+			stats.slow.increment();
+			logSlowQuery(stats, executeNanos, fetchNanos, rows, parameters, error);
+		}
+	}
+
+	void recordPrepare(StatementStats stats, long nanos) {
+		stats.prepare.record(nanos / 1000);
+	}
+
+	/**
+	 * Stats of all statement shapes, sorted by SQL text.
+	 */
+	public Map<String, StatementStats> snapshot() {
+		return new TreeMap<>(byShape);
+	}
+
+	/**
+	 * Reply to #DB_STATS:
+	 * DB_STATS|executions:errors:slow:rows:prepareP99:executeP50:executeP99:fetchP50:fetchP99:sql|...
+	 * with latencies in microseconds. The SQL comes last as it may contain ':'.
+	 */
+	public String toStatsReply() {
+		StringBuilder sb = new StringBuilder("DB_STATS");
+		for (StatementStats s : snapshot().values()) {
+			sb.append('|').append(s.getExecutions())
+			  .append(':').append(s.getErrors())
+			  .append(':').append(s.getSlowCount())
+			  .append(':').append(s.getRows())
+			  .append(':').append(s.getPrepare().getValueAtPercentile(99))
+			  .append(':').append(s.getExecute().getValueAtPercentile(50))
+			  .append(':').append(s.getExecute().getValueAtPercentile(99))
+			  .append(':').append(s.getFetch().getValueAtPercentile(50))
+			  .append(':').append(s.getFetch().getValueAtPercentile(99))
+			  .append(':').append(s.getShape().replace('|', ' '));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * SQL text with whitespace collapsed and string/number literals replaced by
+	 * '?'. Identifiers containing digits (e.g. "table2") are kept.
+	 */
+	static String shapeOf(String sql) {
+		StringBuilder sb = new StringBuilder(Math.min(sql.length(), MAX_SHAPE_LENGTH));
+		int i = 0;
+		int n = sql.length();
+		while (i < n && sb.length() < MAX_SHAPE_LENGTH) {
+			char c = sql.charAt(i);
+			if (c == '\'' || c == '"') {
+				// Quoted literal: skip to the closing quote ('' and \' escapes included)
+				i++;
+				while (i < n) {
+					char d = sql.charAt(i);
+					if (d == '\\') {
+						i += 2;
+						continue;
+					}
+					i++;
+					if (d == c) {
+						if (i < n && sql.charAt(i) == c) {
+							i++;
+							continue;
+						}
+						break;
+					}
+				}
+				sb.append('?');
+			} else if (Character.isDigit(c) && (sb.length() == 0 || !isWordChar(sb.charAt(sb.length() - 1)))) {
+				while (i < n && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '.')) i++;
+				sb.append('?');
+			} else if (Character.isWhitespace(c)) {
+				while (i < n && Character.isWhitespace(sql.charAt(i))) i++;
+				if (sb.length() > 0) sb.append(' ');
+			} else {
+				sb.append(c);
+				i++;
+			}
+		}
+		int end = sb.length();
+		while (end > 0 && (sb.charAt(end - 1) == ' ' || sb.charAt(end - 1) == ';')) end--;
+		sb.setLength(end);
+		return sb.toString();
+	}
+
+	private static boolean isWordChar(char c) {
+		return Character.isLetterOrDigit(c) || c == '_';
+	}
+
+	private synchronized void logSlowQuery(StatementStats stats, long executeNanos, long fetchNanos, long rows,
+			int parameters, boolean error) {
+		String line = String.format("%s SLOW %.1f ms (execute %.1f, fetch %.1f) rows=%d params=%d%s: %s",
+				LocalDateTime.now().format(TIME_FORMAT),
+				(executeNanos + fetchNanos) / 1e6, executeNanos / 1e6, fetchNanos / 1e6,
+				rows, parameters, error ? " FAILED" : "", stats.getShape());
+		if (SLOW_QUERY_LOG == null) {
+			System.err.println(line);
+			return;
+		}
+		try {
+			if (slowLog == null) {
+				slowLog = new PrintWriter(new FileWriter(SLOW_QUERY_LOG, true), true);
+			}
+			slowLog.println(line);
+		} catch (IOException e) {
+			System.err.println("Could not write slow-query log " + SLOW_QUERY_LOG + ": " + e.getMessage());
+			System.err.println(line);
+		}
+	}
+}
@@ -0,0 +1,355 @@
+package DBController;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * An {@link InMemoryReservationStore} that survives restarts: every change
+ * is appended to a {@link ReservationJournal}, and a compact
+ * {@link ReservationSnapshot} of the whole store is written every so many
+ * changes and on close. Opening the store loads the latest snapshot and
+ * replays the journal written after it.
+ *
+ * Settings (system properties):
+ * - bistro.journalDir: directory of the journal and snapshots (default "journal")
+ * - bistro.journalSync: always, interval (default) or never, see {@link ReservationJournal.SyncPolicy}
+ * - bistro.journalSyncMs: interval of the "interval" policy (default 1000)
+ * - bistro.snapshotRecords: changes between two snapshots (default 1000000)
+ *
+ * Lookups go straight to memory. Changes are serialized and written ahead:
+ * each is journaled (and forced under the ALWAYS policy) before memory
+ * shows it, so the journal has them in the same order as the store and a
+ * change that could not be journaled is never seen. Snapshots are written
+ * by a background thread.
+ */
+public class JournaledReservationStore implements ReservationStore {
+
+	public static final String JOURNAL_DIR = System.getProperty("bistro.journalDir", "journal");
+	public static final String SYNC = System.getProperty("bistro.journalSync", "interval");
+	public static final long SYNC_MS = Long.getLong("bistro.journalSyncMs", 1000);
+	public static final long SNAPSHOT_RECORDS = Long.getLong("bistro.snapshotRecords", 1_000_000);
+
+	private static final int SEGMENT_SIZE = 64 << 20;
+
+	private final File dir;
+	private final ReservationJournal.SyncPolicy policy;
+	private final long snapshotRecords;
+	private final InMemoryReservationStore memory = new InMemoryReservationStore();
+	private final ReservationJournal journal;
+
+	private final Object snapshotLock = new Object();
+	private final ExecutorService snapshotter = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "snapshot-writer");
+		t.setDaemon(true);
+		return t;
+	});
+	private long changesSinceSnapshot;
+	private volatile boolean snapshotPending;
+
+	// What open() found, for the start-up log and the benchmark
+	private final int snapshotReservations;
+	private final long replayedRecords;
+	private final long recoveryMillis;
+
+	/**
+	 * Open the store with the settings of the system properties.
+	 */
+	public static JournaledReservationStore open() throws IOException {
+		return new JournaledReservationStore(new File(JOURNAL_DIR),
+				ReservationJournal.SyncPolicy.valueOf(SYNC.toUpperCase()), SYNC_MS, SNAPSHOT_RECORDS);
+	}
+
+	/**
+	 * Open (or create) the store kept in a directory, recovering its content.
+	 *
+	 * @param dir             journal and snapshot directory
+	 * @param policy          when journal records are forced to disk
+	 * @param syncMillis      sync interval for the INTERVAL policy
+	 * @param snapshotRecords changes between two snapshots
+	 * @throws IOException if the directory cannot be used or the latest snapshot is damaged
+	 */
+	public JournaledReservationStore(File dir, ReservationJournal.SyncPolicy policy, long syncMillis,
+			long snapshotRecords) throws IOException {
+		long start = System.nanoTime();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create journal directory " + dir);
+		}
+		this.dir = dir;
+		this.policy = policy;
+		this.snapshotRecords = snapshotRecords;
+
+		// Latest snapshot, if any; leftovers of an interrupted snapshot are dropped
+		long snapshot = -1;
+		for (File f : listFiles()) {
+			String name = f.getName();
+			if (name.endsWith(".tmp")) {
+				f.delete();
+			} else {
+				snapshot = Math.max(snapshot, ReservationSnapshot.number(name));
+			}
+		}
+
+		long replayFrom = 0;
+		if (snapshot >= 0) {
+			ReservationSnapshot image = ReservationSnapshot.read(ReservationSnapshot.file(dir, snapshot));
+			memory.load(image.columns);
+			replayFrom = image.replayFrom;
+		}
+		snapshotReservations = memory.size();
+
+		ReservationJournal.Target replay = new ReservationJournal.Target() {
+			@Override
+			public void put(int orderNumber, int numberOfGuests, int orderDay, int confirmationCode,
+					int subscriberId, int placingDay) {
+				memory.putDays(orderNumber, numberOfGuests, orderDay, confirmationCode, subscriberId, placingDay);
+			}
+
+			@Override
+			public void update(int orderNumber, int numberOfGuests, int orderDay) {
+				memory.updateDays(orderNumber, numberOfGuests, orderDay);
+			}
+		};
+		long replayed = 0;
+		long next = Math.max(replayFrom, 1);
+		for (long segment : ReservationJournal.segments(dir)) {
+			if (segment >= replayFrom) {
+				replayed += ReservationJournal.replay(ReservationJournal.segmentFile(dir, segment), replay);
+			}
+			next = Math.max(next, segment + 1);
+		}
+		replayedRecords = replayed;
+		changesSinceSnapshot = replayed;
+
+		// Write on in a fresh segment, so a torn tail is never appended to
+		journal = new ReservationJournal(dir, next, SEGMENT_SIZE, policy, syncMillis);
+		recoveryMillis = (System.nanoTime() - start) / 1_000_000;
+
+		System.out.println("Reservation store recovered from " + dir + ": " + memory.size() + " reservations ("
+				+ snapshotReservations + " from snapshot, " + replayedRecords + " journal records) in "
+				+ recoveryMillis + " ms");
+	}
+
+	@Override
+	public Reservation find(int orderNumber) {
+		return memory.find(orderNumber);
+	}
+
+	/**
+	 * Journaled first, then made visible: the order is checked under the
+	 * store lock, which every change holds, so it is still there once the
+	 * record is written.
+	 */
+	@Override
+	public synchronized boolean update(int orderNumber, int numberOfGuests, LocalDate orderDate)
+			throws SQLException {
+		if (memory.find(orderNumber) == null) {
+			return false;
+		}
+		int orderDay = InMemoryReservationStore.toDay(orderDate);
+		try {
+			journal.appendUpdate(orderNumber, numberOfGuests, orderDay);
+		} catch (IOException | UncheckedIOException e) {
+			throw new SQLException("Journal write failed", e);
+		}
+		memory.updateDays(orderNumber, numberOfGuests, orderDay);
+		changed();
+		return true;
+	}
+
+	/**
+	 * Numbered from the in-memory id sequence, journaled, then made
+	 * visible. The number of a reservation that cannot be journaled is not
+	 * used again.
+	 */
+	@Override
+	public synchronized int insert(Reservation reservation) throws SQLException {
+		Reservation numbered = reservation.withOrderNumber(memory.reserveIds(ORDER_NUMBERS, 1));
+		try {
+			journal.appendPut(numbered);
+		} catch (IOException | UncheckedIOException e) {
+			throw new SQLException("Journal write failed", e);
+		}
+		memory.put(numbered);
+		changed();
+		return numbered.getOrderNumber();
+	}
+
+	/**
+	 * Ids are only reserved in memory: the journal holds the ids in use, and
+	 * those are what the next start continues from.
+	 */
+	@Override
+	public int reserveIds(String sequence, int count) {
+		return memory.reserveIds(sequence, count);
+	}
+
+	/**
+	 * Journaled first, with one force for the whole batch under the ALWAYS
+	 * policy, then made visible: a batch that cannot be journaled is not
+	 * stored at all.
+	 */
+	@Override
+	public synchronized void insertAll(List<Reservation> reservations) throws SQLException {
+		try {
+			journal.appendPuts(reservations);
+		} catch (IOException | UncheckedIOException e) {
+			throw new SQLException("Journal write failed", e);
+		}
+		memory.insertAll(reservations);
+		changed(reservations.size());
+	}
+
+	/**
+	 * Add a reservation with its own order number, or replace the one with
+	 * the same number (e.g. when loading existing data).
+	 */
+	public synchronized void put(Reservation reservation) throws IOException {
+		try {
+			journal.appendPut(reservation);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		memory.put(reservation);
+		changed();
+	}
+
+	// Called with the store lock held, after each journaled change
+	private void changed() {
+		changed(1);
+	}
+
+	private void changed(int records) {
+		changesSinceSnapshot += records;
+		if (changesSinceSnapshot >= snapshotRecords && !snapshotPending) {
+			snapshotPending = true;
+			snapshotter.execute(() -> {
+				try {
+					snapshot();
+				} catch (IOException e) {
+					System.err.println("Snapshot of " + dir + " failed: " + e.getMessage());
+				} finally {
+					snapshotPending = false;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Write a snapshot of the current content, then delete the journal
+	 * segments and snapshots it makes obsolete. Changes are only held up
+	 * while the columns are copied, not while the file is written.
+	 */
+	public void snapshot() throws IOException {
+		synchronized (snapshotLock) {
+			int[][] columns;
+			long replayFrom;
+			synchronized (this) {
+				columns = memory.copyColumns();
+				replayFrom = journal.roll();
+				changesSinceSnapshot = 0;
+			}
+			ReservationSnapshot.write(dir, replayFrom, columns);
+
+			for (File f : listFiles()) {
+				long snapshot = ReservationSnapshot.number(f.getName());
+				if (snapshot >= 0 && snapshot < replayFrom) {
+					f.delete();
+				}
+			}
+			journal.deleteBefore(replayFrom);
+		}
+	}
+
+	private File[] listFiles() throws IOException {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			throw new IOException("Cannot list " + dir);
+		}
+		return files;
+	}
+
+	@Override
+	public Map<LocalDate, Integer> bookedGuestsPerDay() {
+		return memory.bookedGuestsPerDay();
+	}
+
+	@Override
+	public List<Reservation> allReservations() {
+		return memory.allReservations();
+	}
+
+	@Override
+	public List<Reservation> list(int afterOrderNumber, LocalDate from, LocalDate to, Integer subscriberId,
+			int limit) {
+		return memory.list(afterOrderNumber, from, to, subscriberId, limit);
+	}
+
+	/**
+	 * @return the number of reservations
+	 */
+	public int size() {
+		return memory.size();
+	}
+
+	/**
+	 * @return the number of reservations loaded from the snapshot on open
+	 */
+	public int getSnapshotReservations() {
+		return snapshotReservations;
+	}
+
+	/**
+	 * @return the number of journal records replayed on open
+	 */
+	public long getReplayedRecords() {
+		return replayedRecords;
+	}
+
+	/**
+	 * @return how long opening the store took, in milliseconds
+	 */
+	public long getRecoveryMillis() {
+		return recoveryMillis;
+	}
+
+	/**
+	 * Changes wait for the disk only when every record is synced.
+	 */
+	@Override
+	public boolean isBlocking() {
+		return policy == ReservationJournal.SyncPolicy.ALWAYS;
+	}
+
+	/**
+	 * Takes a snapshot now, so a restart replays nothing.
+	 */
+	@Override
+	public void checkpoint() {
+		try {
+			snapshot();
+		} catch (IOException e) {
+			System.err.println("Snapshot of " + dir + " failed: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Takes a last snapshot, so the next start does not replay anything.
+	 */
+	@Override
+	public void close() {
+		snapshotter.shutdown();
+		try {
+			snapshot();
+		} catch (IOException e) {
+			System.err.println("Snapshot of " + dir + " failed: " + e.getMessage());
+		}
+		journal.close();
+	}
+}
@@ -0,0 +1,176 @@
+package DBController;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with HDR-style log-linear buckets: values are grouped by
+ * power of two, and each power of two is split in 32 linear sub-buckets, so
+ * every recorded value is known within 1/32 (~3%) whatever its magnitude,
+ * with a fixed, small array. Values are in microseconds.
+ *
+ * Recording is lock-free and can be done from any number of threads. A
+ * histogram on a hot path can be split in stripes: each thread records into
+ * the stripe chosen from its id, so threads running on different cores
+ * rarely write to the same cache lines. Reading merges the stripes.
+ *
+ * Used by the server's per-command metrics, the JDBC statement timings and
+ * the bench tools alike.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 6;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int HALF = SUB_BUCKETS / 2;
+
+	/** Highest trackable value: 2^40 us, about 12 days. Larger values are clamped. */
+	private static final long MAX_VALUE = (1L << 40) - 1;
+	private static final int BUCKETS = indexOf(MAX_VALUE) + 1;
+
+	/** Stripes for a histogram many threads record into at once: twice the cores, at most 64. */
+	public static final int CORE_STRIPES = Math.min(64,
+			Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) * 2);
+
+	private final AtomicLongArray[] stripes;
+	private final LongAdder totalCount = new LongAdder();
+	private final LongAdder totalSum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	public LatencyHistogram() {
+		this(1);
+	}
+
+	/**
+	 * @param stripes number of stripes, a power of two (1 for no striping)
+	 */
+	public LatencyHistogram(int stripes) {
+		if (stripes < 1 || Integer.bitCount(stripes) != 1) {
+			throw new IllegalArgumentException("stripes must be a power of two: " + stripes);
+		}
+		this.stripes = new AtomicLongArray[stripes];
+		for (int i = 0; i < stripes; i++) {
+			this.stripes[i] = new AtomicLongArray(BUCKETS);
+		}
+	}
+
+	// Unstriped histogram holding the given counts
+	private LatencyHistogram(long[] counts, long sum, long maxValue) {
+		stripes = new AtomicLongArray[] { new AtomicLongArray(counts) };
+		long count = 0;
+		for (long c : counts) count += c;
+		totalCount.add(count);
+		totalSum.add(sum);
+		max.accumulate(maxValue);
+	}
+
+	/**
+	 * Record one latency.
+	 * @param micros the latency in microseconds
+	 */
+	public void record(long micros) {
+		long value = Math.min(Math.max(micros, 0), MAX_VALUE);
+		int stripe = stripes.length == 1 ? 0 : (int) (Thread.currentThread().getId() & (stripes.length - 1));
+		stripes[stripe].incrementAndGet(indexOf(value));
+		totalCount.increment();
+		totalSum.add(value);
+		max.accumulate(value);
+	}
+
+	/**
+	 * Add all the values of another histogram to this one.
+	 */
+	public void add(LatencyHistogram other) {
+		long[] counts = other.counts();
+		for (int i = 0; i < BUCKETS; i++) {
+			if (counts[i] != 0) stripes[0].addAndGet(i, counts[i]);
+		}
+		totalCount.add(other.totalCount.sum());
+		totalSum.add(other.totalSum.sum());
+		max.accumulate(other.max.get());
+	}
+
+	/**
+	 * Copy of the values recorded so far, unaffected by later records.
+	 */
+	public LatencyHistogram snapshot() {
+		return new LatencyHistogram(counts(), totalSum.sum(), max.get());
+	}
+
+	/**
+	 * Values recorded since an older snapshot of the same histogram. The
+	 * maximum is this histogram's, which bounds the interval's.
+	 */
+	public LatencyHistogram minus(LatencyHistogram older) {
+		long[] counts = counts();
+		if (older == null) {
+			return new LatencyHistogram(counts, totalSum.sum(), max.get());
+		}
+		long[] before = older.counts();
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] -= before[i];
+		}
+		return new LatencyHistogram(counts, totalSum.sum() - older.totalSum.sum(), max.get());
+	}
+
+	public long getCount() {
+		return totalCount.sum();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getMean() {
+		long n = totalCount.sum();
+		return n == 0 ? 0 : (double) totalSum.sum() / n;
+	}
+
+	/**
+	 * Value at a percentile, e.g. 99.9; 0 if empty. The result is the upper
+	 * bound of the bucket holding it, so it never under-reports.
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long[] counts = counts();
+		long n = 0;
+		for (long c : counts) n += c;
+		if (n == 0) return 0;
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(highestValueAt(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	// Counts of all stripes, merged
+	private long[] counts() {
+		long[] counts = new long[BUCKETS];
+		for (AtomicLongArray stripe : stripes) {
+			for (int i = 0; i < BUCKETS; i++) {
+				counts[i] += stripe.get(i);
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * Bucket of a value: values below SUB_BUCKETS map to themselves; above,
+	 * each power of two adds HALF buckets of width 2^shift.
+	 */
+	static int indexOf(long value) {
+		int msb = 63 - Long.numberOfLeadingZeros(value | 1);
+		int shift = Math.max(0, msb - SUB_BUCKET_BITS + 1);
+		return shift * HALF + (int) (value >>> shift);
+	}
+
+	static long highestValueAt(int index) {
+		if (index < SUB_BUCKETS) return index;
+		int shift = index / HALF - 1;
+		long sub = index - (long) shift * HALF;
+		return ((sub + 1) << shift) - 1;
+	}
+}
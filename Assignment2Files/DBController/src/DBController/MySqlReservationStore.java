@@ -0,0 +1,454 @@
+package DBController;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reservations in the MySQL reservation table.
+ *
+ * Each thread keeps its own connection (opened on first use, reopened if it
+ * was closed, e.g. MySQL restarted), so requests on different DB workers
+ * really run concurrently.
+ *
+ * Order numbers come from id blocks ({@link #reserveIds}), kept in a small
+ * table of their own, reservation_id_block, created on first use. Each row
+ * holds the next free id of a sequence and is read with SELECT ... FOR
+ * UPDATE, so servers sharing the database never get overlapping blocks.
+ * Every insert of this code takes its order number from there, {@link #insert}
+ * and the {@link ReservationImporter} included, never from AUTO_INCREMENT.
+ */
+public class MySqlReservationStore implements ReservationStore {
+
+	private static final String SELECT_SQL = "SELECT order_number, number_of_guests, order_date, "
+			+ "confirmation_code, subscriber_id, date_of_placing_order "
+			+ "FROM reservation WHERE order_number = ?";
+
+	private static final String UPDATE_SQL = "UPDATE reservation SET number_of_guests = ?, order_date = ? "
+			+ "WHERE order_number = ?";
+
+	private static final String INSERT_NUMBERED_SQL = "INSERT INTO reservation "
+			+ "(order_number, order_date, number_of_guests, confirmation_code, subscriber_id, date_of_placing_order) "
+			+ "VALUES (?, ?, ?, ?, ?, ?)";
+
+	private static final String CREATE_ID_BLOCK_SQL = "CREATE TABLE IF NOT EXISTS reservation_id_block "
+			+ "(name VARCHAR(32) NOT NULL PRIMARY KEY, next_value INT NOT NULL)";
+
+	private static final String ID_BLOCK_SQL = "SELECT next_value FROM reservation_id_block WHERE name = ? FOR UPDATE";
+
+	private static final String NEW_ID_BLOCK_SQL = "INSERT INTO reservation_id_block (name, next_value) VALUES (?, ?)";
+
+	private static final String NEXT_ID_BLOCK_SQL = "UPDATE reservation_id_block SET next_value = ? WHERE name = ?";
+
+	private static final String CREATE_HEARTBEAT_SQL = "CREATE TABLE IF NOT EXISTS reservation_heartbeat "
+			+ "(id INT NOT NULL PRIMARY KEY, beat BIGINT NOT NULL)";
+
+	private static final String BEAT_SQL = "REPLACE INTO reservation_heartbeat (id, beat) VALUES (1, ?)";
+
+	private static final String LAST_BEAT_SQL = "SELECT beat FROM reservation_heartbeat WHERE id = 1";
+
+	private static final String GUESTS_PER_DAY_SQL = "SELECT order_date, SUM(number_of_guests) FROM reservation "
+			+ "GROUP BY order_date";
+
+	private static final String ALL_SQL = "SELECT order_number, number_of_guests, order_date, "
+			+ "confirmation_code, subscriber_id, date_of_placing_order FROM reservation";
+
+	private static final String LIST_SQL = "SELECT order_number, number_of_guests, order_date, "
+			+ "confirmation_code, subscriber_id, date_of_placing_order FROM reservation WHERE order_number > ?";
+
+	// Rows per round trip when reading the whole table
+	private static final int FETCH_SIZE = 1000;
+
+	// Rows per multi-row INSERT of insertAll
+	private static final int INSERT_BATCH = 500;
+
+	private static volatile boolean idBlockTableCreated;
+	private volatile boolean heartbeatTableCreated;
+
+	// host:port/schema of the database
+	private final String database;
+
+	private final ThreadLocal<Connection> threadConnection = new ThreadLocal<>();
+
+	/**
+	 * Store on the primary database (-Dbistro.db).
+	 */
+	public MySqlReservationStore() {
+		this(mysqlConnection1.PRIMARY_DATABASE);
+	}
+
+	/**
+	 * Store on a database given as host:port/schema, e.g. a read replica.
+	 */
+	public MySqlReservationStore(String database) {
+		this.database = database;
+	}
+
+	/**
+	 * @return the database, as host:port/schema
+	 */
+	public String getDatabase() {
+		return database;
+	}
+
+	@Override
+	public Reservation find(int orderNumber) throws SQLException {
+		try (PreparedStatement ps = connection().prepareStatement(SELECT_SQL)) {
+			ps.setInt(1, orderNumber);
+			try (ResultSet rs = ps.executeQuery()) {
+				return rs.next() ? toReservation(rs) : null;
+			}
+		}
+	}
+
+	@Override
+	public boolean update(int orderNumber, int numberOfGuests, LocalDate orderDate) throws SQLException {
+		try (PreparedStatement ps = connection().prepareStatement(UPDATE_SQL)) {
+			ps.setInt(1, numberOfGuests);
+			ps.setDate(2, Date.valueOf(orderDate));
+			ps.setInt(3, orderNumber);
+			return ps.executeUpdate() > 0;
+		}
+	}
+
+	/**
+	 * Apply several guest/date changes in one transaction, sent as a single
+	 * JDBC batch (one multi-statement round trip and one commit).
+	 *
+	 * @param count number of entries of the arrays to apply
+	 */
+	public void updateAll(int[] orderNumbers, int[] guests, LocalDate[] orderDates, int count) throws SQLException {
+		Connection conn = connection();
+		conn.setAutoCommit(false);
+		try (PreparedStatement ps = conn.prepareStatement(UPDATE_SQL)) {
+			for (int i = 0; i < count; i++) {
+				ps.setInt(1, guests[i]);
+				ps.setDate(2, Date.valueOf(orderDates[i]));
+				ps.setInt(3, orderNumbers[i]);
+				ps.addBatch();
+			}
+			ps.executeBatch();
+			conn.commit();
+		} catch (SQLException e) {
+			try {
+				conn.rollback();
+			} catch (SQLException ignored) {
+			}
+			throw e;
+		} finally {
+			try {
+				conn.setAutoCommit(true);
+			} catch (SQLException ignored) {
+			}
+		}
+	}
+
+	/**
+	 * Takes a block of one order number, so it never collides with the
+	 * blocks handed out for {@link #insertAll}.
+	 */
+	@Override
+	public int insert(Reservation r) throws SQLException {
+		int orderNumber = reserveIds(ORDER_NUMBERS, 1);
+		try (PreparedStatement ps = connection().prepareStatement(INSERT_NUMBERED_SQL)) {
+			bindNumbered(ps, r.withOrderNumber(orderNumber));
+			ps.executeUpdate();
+		}
+		return orderNumber;
+	}
+
+	@Override
+	public int reserveIds(String sequence, int count) throws SQLException {
+		return reserveIds(connection(), sequence, count);
+	}
+
+	/**
+	 * Reserve a block of ids on a given connection (also used by the
+	 * importer, which has a connection of its own).
+	 *
+	 * A sequence starts after the highest id of its column. Order numbers
+	 * also never go below MAX(order_number) + 1 (an indexed lookup), so rows
+	 * added by other tools through AUTO_INCREMENT are skipped.
+	 */
+	static int reserveIds(Connection conn, String sequence, int count) throws SQLException {
+		if (!ORDER_NUMBERS.equals(sequence) && !CONFIRMATION_CODES.equals(sequence)) {
+			throw new IllegalArgumentException("Unknown id sequence " + sequence);
+		}
+		if (!idBlockTableCreated) {
+			try (Statement st = conn.createStatement()) {
+				st.execute(CREATE_ID_BLOCK_SQL);
+			}
+			idBlockTableCreated = true;
+		}
+		int first;
+		conn.setAutoCommit(false);
+		try {
+			Integer next = null;
+			try (PreparedStatement ps = conn.prepareStatement(ID_BLOCK_SQL)) {
+				ps.setString(1, sequence);
+				try (ResultSet rs = ps.executeQuery()) {
+					if (rs.next()) {
+						next = rs.getInt(1);
+					}
+				}
+			}
+			first = next == null ? 1 : next;
+			if (next == null || ORDER_NUMBERS.equals(sequence)) {
+				first = Math.max(first, maxId(conn, sequence) + 1);
+			}
+			try (PreparedStatement ps = conn.prepareStatement(next == null ? NEW_ID_BLOCK_SQL : NEXT_ID_BLOCK_SQL)) {
+				if (next == null) {
+					ps.setString(1, sequence);
+					ps.setInt(2, first + count);
+				} else {
+					ps.setInt(1, first + count);
+					ps.setString(2, sequence);
+				}
+				ps.executeUpdate();
+			}
+			conn.commit();
+		} catch (SQLException e) {
+			try {
+				conn.rollback();
+			} catch (SQLException ignored) {
+			}
+			throw e;
+		} finally {
+			try {
+				conn.setAutoCommit(true);
+			} catch (SQLException ignored) {
+			}
+		}
+		return first;
+	}
+
+	// Highest id of a sequence's column (0 for an empty table)
+	private static int maxId(Connection conn, String sequence) throws SQLException {
+		try (Statement st = conn.createStatement();
+				ResultSet rs = st.executeQuery("SELECT COALESCE(MAX(" + sequence + "), 0) FROM reservation")) {
+			rs.next();
+			return rs.getInt(1);
+		}
+	}
+
+	/**
+	 * One transaction, sent as JDBC batches of {@value #INSERT_BATCH} rows,
+	 * which the driver rewrites into multi-row INSERTs
+	 * (rewriteBatchedStatements=true in the connection URL).
+	 */
+	@Override
+	public void insertAll(List<Reservation> reservations) throws SQLException {
+		Connection conn = connection();
+		conn.setAutoCommit(false);
+		try (PreparedStatement ps = conn.prepareStatement(INSERT_NUMBERED_SQL)) {
+			int batched = 0;
+			for (Reservation r : reservations) {
+				bindNumbered(ps, r);
+				ps.addBatch();
+				if (++batched == INSERT_BATCH) {
+					ps.executeBatch();
+					batched = 0;
+				}
+			}
+			if (batched > 0) {
+				ps.executeBatch();
+			}
+			conn.commit();
+		} catch (SQLException e) {
+			try {
+				conn.rollback();
+			} catch (SQLException ignored) {
+			}
+			throw e;
+		} finally {
+			try {
+				conn.setAutoCommit(true);
+			} catch (SQLException ignored) {
+			}
+		}
+	}
+
+	private static void bindNumbered(PreparedStatement ps, Reservation r) throws SQLException {
+		ps.setInt(1, r.getOrderNumber());
+		ps.setDate(2, Date.valueOf(r.getOrderDate()));
+		ps.setInt(3, r.getNumberOfGuests());
+		ps.setInt(4, r.getConfirmationCode());
+		if (r.hasSubscriber()) {
+			ps.setInt(5, r.getSubscriberId());
+		} else {
+			ps.setNull(5, Types.INTEGER);
+		}
+		ps.setDate(6, Date.valueOf(r.getDateOfPlacingOrder()));
+	}
+
+	@Override
+	public Map<LocalDate, Integer> bookedGuestsPerDay() throws SQLException {
+		Map<LocalDate, Integer> guestsPerDay = new HashMap<>();
+		try (PreparedStatement ps = connection().prepareStatement(GUESTS_PER_DAY_SQL);
+				ResultSet rs = ps.executeQuery()) {
+			while (rs.next()) {
+				Date day = rs.getDate(1);
+				if (day != null) {
+					guestsPerDay.put(day.toLocalDate(), rs.getInt(2));
+				}
+			}
+		}
+		return guestsPerDay;
+	}
+
+	/**
+	 * Streams the table with a forward-only cursor, a fetch's worth of rows
+	 * per round trip, on a connection of its own: cursor fetch is a setting
+	 * of the connection, and the worker's connection goes without it.
+	 */
+	@Override
+	public List<Reservation> allReservations() throws SQLException {
+		List<Reservation> all = new ArrayList<>();
+		Connection conn = mysqlConnection1.getDBConnection(database, mysqlConnection1.cursorFetch());
+		if (conn == null) {
+			throw new SQLException("Database connection failed - MySQL server may not be running");
+		}
+		try (Connection streaming = conn;
+				PreparedStatement ps = streaming.prepareStatement(ALL_SQL, ResultSet.TYPE_FORWARD_ONLY,
+						ResultSet.CONCUR_READ_ONLY)) {
+			ps.setFetchSize(FETCH_SIZE);
+			try (ResultSet rs = ps.executeQuery()) {
+				while (rs.next()) {
+					all.add(toReservation(rs));
+				}
+			}
+		}
+		return all;
+	}
+
+	/**
+	 * Seeks on the primary key (WHERE order_number > ? ORDER BY order_number
+	 * LIMIT n), so every page costs the same however deep the listing goes,
+	 * unlike OFFSET, which reads and drops all the rows before the page.
+	 */
+	@Override
+	public List<Reservation> list(int afterOrderNumber, LocalDate from, LocalDate to, Integer subscriberId,
+			int limit) throws SQLException {
+		StringBuilder sql = new StringBuilder(LIST_SQL);
+		if (from != null) {
+			sql.append(" AND order_date >= ?");
+		}
+		if (to != null) {
+			sql.append(" AND order_date <= ?");
+		}
+		if (subscriberId != null) {
+			sql.append(" AND subscriber_id = ?");
+		}
+		sql.append(" ORDER BY order_number LIMIT ?");
+
+		List<Reservation> page = new ArrayList<>(limit);
+		try (PreparedStatement ps = connection().prepareStatement(sql.toString())) {
+			int i = 1;
+			ps.setInt(i++, afterOrderNumber);
+			if (from != null) {
+				ps.setDate(i++, Date.valueOf(from));
+			}
+			if (to != null) {
+				ps.setDate(i++, Date.valueOf(to));
+			}
+			if (subscriberId != null) {
+				ps.setInt(i++, subscriberId);
+			}
+			ps.setInt(i, limit);
+			try (ResultSet rs = ps.executeQuery()) {
+				while (rs.next()) {
+					page.add(toReservation(rs));
+				}
+			}
+		}
+		return page;
+	}
+
+	/**
+	 * Write the current time to the heartbeat row (on the primary), for
+	 * replicas to measure their lag by.
+	 */
+	void beat(long millis) throws SQLException {
+		Connection conn = connection();
+		if (!heartbeatTableCreated) {
+			try (Statement st = conn.createStatement()) {
+				st.execute(CREATE_HEARTBEAT_SQL);
+			}
+			heartbeatTableCreated = true;
+		}
+		try (PreparedStatement ps = conn.prepareStatement(BEAT_SQL)) {
+			ps.setLong(1, millis);
+			ps.executeUpdate();
+		}
+	}
+
+	/**
+	 * @return the time in the heartbeat row (on a replica: the last beat
+	 *         replicated so far), or -1 if there is none
+	 */
+	long lastBeat() throws SQLException {
+		try (PreparedStatement ps = connection().prepareStatement(LAST_BEAT_SQL);
+				ResultSet rs = ps.executeQuery()) {
+			return rs.next() ? rs.getLong(1) : -1;
+		}
+	}
+
+	/**
+	 * Map the current row of a SELECT of all reservation columns.
+	 */
+	static Reservation toReservation(ResultSet rs) throws SQLException {
+		int subscriberId = rs.getInt("subscriber_id");
+		if (rs.wasNull()) {
+			subscriberId = Reservation.NO_SUBSCRIBER;
+		}
+		return new Reservation(rs.getInt("order_number"), rs.getInt("number_of_guests"),
+				toLocalDate(rs.getDate("order_date")), rs.getInt("confirmation_code"), subscriberId,
+				toLocalDate(rs.getDate("date_of_placing_order")));
+	}
+
+	private static LocalDate toLocalDate(Date date) {
+		return date == null ? null : date.toLocalDate();
+	}
+
+	/**
+	 * Connection of the current thread.
+	 * @throws SQLException if MySQL cannot be reached
+	 */
+	private Connection connection() throws SQLException {
+		Connection conn = threadConnection.get();
+		if (conn == null || conn.isClosed()) {
+			conn = mysqlConnection1.getDBConnection(database);
+			if (conn == null) {
+				throw new SQLException("Database connection to " + database + " failed - MySQL server may not be running");
+			}
+			threadConnection.set(conn);
+		}
+		return conn;
+	}
+
+	@Override
+	public void threadFinished() {
+		Connection conn = threadConnection.get();
+		threadConnection.remove();
+		if (conn != null) {
+			try {
+				conn.close();
+			} catch (SQLException ignored) {
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		// Connections belong to the worker threads, see threadFinished()
+	}
+}
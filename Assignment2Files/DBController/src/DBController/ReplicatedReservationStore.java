@@ -0,0 +1,278 @@
+package DBController;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * MySQL with read replicas. Writes, and the reads they depend on, go to the
+ * primary; lookups and listings shown to users go to a replica, through
+ * {@link #reads()}.
+ *
+ * Settings (system properties):
+ * - bistro.db: the primary, host:port/schema (default localhost:3306/bistro)
+ * - bistro.replicas: the replicas, comma-separated host:port/schema
+ * - bistro.replicaMaxLagMs: most a replica may be behind and still be read (default 2000)
+ * - bistro.replicaCheckMs: pause between two lag checks (default 1000)
+ * Replicas cannot be combined with bistro.cache or bistro.writeBehind: the
+ * store refuses to start rather than ignore them.
+ *
+ * Each database is a {@link MySqlReservationStore}, so every DB worker keeps
+ * one connection to each: the pool of a database is the connections of the
+ * workers that used it.
+ *
+ * Lag is measured with a heartbeat: a monitor thread writes the time to a
+ * row of the primary (reservation_heartbeat), then reads the row back from
+ * each replica. A replica is as far behind as the beat it returns is old.
+ * Reads take turns over the replicas in time; a replica too far behind, not
+ * reachable, or failing a read is skipped until a check finds it in time
+ * again, and while none is in time, reads go to the primary. A second
+ * schema standing in for a replica in tests has no replication: it only
+ * counts as in time while something copies the heartbeat row to it.
+ */
+public class ReplicatedReservationStore implements ReservationStore {
+
+	public static final String REPLICAS = System.getProperty("bistro.replicas", "");
+	public static final long MAX_LAG_MS = Long.getLong("bistro.replicaMaxLagMs", 2000);
+	public static final long CHECK_MS = Long.getLong("bistro.replicaCheckMs", 1000);
+
+	/**
+	 * One replica and what the last check found.
+	 */
+	private static final class Replica {
+		final MySqlReservationStore database;
+		// Long.MAX_VALUE: unknown or not reachable
+		volatile long lagMillis = Long.MAX_VALUE;
+		final LongAdder reads = new LongAdder();
+
+		Replica(MySqlReservationStore database) {
+			this.database = database;
+		}
+	}
+
+	/**
+	 * One read, to run on whichever database is picked.
+	 */
+	private interface Read<T> {
+		T from(MySqlReservationStore database) throws SQLException;
+	}
+
+	private final MySqlReservationStore primary;
+	private final Replica[] replicas;
+	private final long maxLagMillis;
+	private final long checkNanos;
+	private final AtomicInteger nextReplica = new AtomicInteger();
+	private final LongAdder primaryReads = new LongAdder();
+	private final ReservationReads reads = new Reads();
+	private final Thread monitor;
+	private volatile boolean closed;
+
+	/**
+	 * Open the store with the settings of the system properties.
+	 */
+	public static ReplicatedReservationStore open() {
+		List<MySqlReservationStore> replicas = new ArrayList<>();
+		for (String database : REPLICAS.split(",")) {
+			if (!database.trim().isEmpty()) {
+				replicas.add(new MySqlReservationStore(database.trim()));
+			}
+		}
+		return new ReplicatedReservationStore(new MySqlReservationStore(), replicas, MAX_LAG_MS, CHECK_MS);
+	}
+
+	/**
+	 * @param primary      where writes go
+	 * @param replicas     copies of the primary to read from
+	 * @param maxLagMillis most a replica may be behind and still be read
+	 * @param checkMillis  pause between two lag checks
+	 */
+	public ReplicatedReservationStore(MySqlReservationStore primary, List<MySqlReservationStore> replicas,
+			long maxLagMillis, long checkMillis) {
+		this.primary = primary;
+		this.replicas = new Replica[replicas.size()];
+		for (int i = 0; i < this.replicas.length; i++) {
+			this.replicas[i] = new Replica(replicas.get(i));
+		}
+		this.maxLagMillis = maxLagMillis;
+		this.checkNanos = TimeUnit.MILLISECONDS.toNanos(checkMillis);
+		monitor = new Thread(this::monitorLoop, "replica-monitor");
+		monitor.setDaemon(true);
+		monitor.start();
+	}
+
+	@Override
+	public Reservation find(int orderNumber) throws SQLException {
+		return primary.find(orderNumber);
+	}
+
+	@Override
+	public boolean update(int orderNumber, int numberOfGuests, LocalDate orderDate) throws SQLException {
+		return primary.update(orderNumber, numberOfGuests, orderDate);
+	}
+
+	@Override
+	public int insert(Reservation reservation) throws SQLException {
+		return primary.insert(reservation);
+	}
+
+	@Override
+	public int reserveIds(String sequence, int count) throws SQLException {
+		return primary.reserveIds(sequence, count);
+	}
+
+	@Override
+	public void insertAll(List<Reservation> reservations) throws SQLException {
+		primary.insertAll(reservations);
+	}
+
+	/**
+	 * From the primary: used to load the capacity index, which must match
+	 * the writes exactly.
+	 */
+	@Override
+	public Map<LocalDate, Integer> bookedGuestsPerDay() throws SQLException {
+		return primary.bookedGuestsPerDay();
+	}
+
+	/**
+	 * From the primary, for the same reason (report figures).
+	 */
+	@Override
+	public List<Reservation> allReservations() throws SQLException {
+		return primary.allReservations();
+	}
+
+	@Override
+	public List<Reservation> list(int afterOrderNumber, LocalDate from, LocalDate to, Integer subscriberId,
+			int limit) throws SQLException {
+		return primary.list(afterOrderNumber, from, to, subscriberId, limit);
+	}
+
+	/**
+	 * The reads of this store, on a replica in time, or on the primary if
+	 * there is none.
+	 */
+	@Override
+	public ReservationReads reads() {
+		return reads;
+	}
+
+	// Run a read on the next replica in time; the primary if none is, or the read fails there
+	private <T> T read(Read<T> read) throws SQLException {
+		int n = replicas.length;
+		int start = nextReplica.getAndIncrement();
+		for (int i = 0; i < n; i++) {
+			Replica replica = replicas[Math.floorMod(start + i, n)];
+			if (replica.lagMillis > maxLagMillis) {
+				continue;
+			}
+			try {
+				T result = read.from(replica.database);
+				replica.reads.increment();
+				return result;
+			} catch (SQLException e) {
+				// Skipped until the next check reaches it
+				replica.lagMillis = Long.MAX_VALUE;
+				System.err.println("Read from replica " + replica.database.getDatabase()
+						+ " failed, reading from the primary: " + e.getMessage());
+				break;
+			}
+		}
+		primaryReads.increment();
+		return read.from(primary);
+	}
+
+	private void monitorLoop() {
+		try {
+			while (!closed) {
+				check();
+				LockSupport.parkNanos(checkNanos);
+			}
+		} finally {
+			threadFinished();
+		}
+	}
+
+	/**
+	 * Write a heartbeat to the primary, then measure each replica's lag by
+	 * the beat it has.
+	 */
+	void check() {
+		try {
+			primary.beat(System.currentTimeMillis());
+		} catch (SQLException e) {
+			// No new beat: the replicas' lag grows with the age of the last one
+			System.err.println("Heartbeat to the primary failed: " + e.getMessage());
+		}
+		for (Replica replica : replicas) {
+			try {
+				long beat = replica.database.lastBeat();
+				replica.lagMillis = beat < 0 ? Long.MAX_VALUE : Math.max(0, System.currentTimeMillis() - beat);
+			} catch (SQLException e) {
+				replica.lagMillis = Long.MAX_VALUE;
+			}
+		}
+	}
+
+	/**
+	 * Replication counters, as
+	 * STORE_STATS|replicated|primaryReads|database,lagMs,reads|...
+	 * with one field per replica, lagMs being "-" when it is not reachable.
+	 */
+	public String toStatsReply() {
+		StringBuilder sb = new StringBuilder("STORE_STATS|replicated|").append(primaryReads.sum());
+		for (Replica replica : replicas) {
+			long lag = replica.lagMillis;
+			sb.append('|').append(replica.database.getDatabase())
+					.append(',').append(lag == Long.MAX_VALUE ? "-" : String.valueOf(lag))
+					.append(',').append(replica.reads.sum());
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public void threadFinished() {
+		primary.threadFinished();
+		for (Replica replica : replicas) {
+			replica.database.threadFinished();
+		}
+	}
+
+	/**
+	 * Stops the monitor. Connections belong to the worker threads, see
+	 * threadFinished().
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		LockSupport.unpark(monitor);
+	}
+
+	/**
+	 * The reads of {@link #reads()}.
+	 */
+	private final class Reads implements ReservationReads {
+
+		@Override
+		public Reservation find(int orderNumber) throws SQLException {
+			return read(database -> database.find(orderNumber));
+		}
+
+		@Override
+		public List<Reservation> allReservations() throws SQLException {
+			return read(MySqlReservationStore::allReservations);
+		}
+
+		@Override
+		public List<Reservation> list(int afterOrderNumber, LocalDate from, LocalDate to, Integer subscriberId,
+				int limit) throws SQLException {
+			return read(database -> database.list(afterOrderNumber, from, to, subscriberId, limit));
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package DBController;
+
+import java.time.LocalDate;
+
+/**
+ * One row of the reservation table.
+ */
+public final class Reservation {
+
+	/** Subscriber id of a reservation made by a casual customer (NULL in the table). */
+	public static final int NO_SUBSCRIBER = -1;
+
+	private final int orderNumber;
+	private final int numberOfGuests;
+	private final LocalDate orderDate;
+	private final int confirmationCode;
+	private final int subscriberId;
+	private final LocalDate dateOfPlacingOrder;
+
+	public Reservation(int orderNumber, int numberOfGuests, LocalDate orderDate, int confirmationCode,
+			int subscriberId, LocalDate dateOfPlacingOrder) {
+		this.orderNumber = orderNumber;
+		this.numberOfGuests = numberOfGuests;
+		this.orderDate = orderDate;
+		this.confirmationCode = confirmationCode;
+		this.subscriberId = subscriberId;
+		this.dateOfPlacingOrder = dateOfPlacingOrder;
+	}
+
+	public int getOrderNumber() {
+		return orderNumber;
+	}
+
+	public int getNumberOfGuests() {
+		return numberOfGuests;
+	}
+
+	public LocalDate getOrderDate() {
+		return orderDate;
+	}
+
+	public int getConfirmationCode() {
+		return confirmationCode;
+	}
+
+	public int getSubscriberId() {
+		return subscriberId;
+	}
+
+	public boolean hasSubscriber() {
+		return subscriberId != NO_SUBSCRIBER;
+	}
+
+	public LocalDate getDateOfPlacingOrder() {
+		return dateOfPlacingOrder;
+	}
+
+	/**
+	 * Copy with another order number (e.g. the one given by the store on insert).
+	 */
+	public Reservation withOrderNumber(int newOrderNumber) {
+		return new Reservation(newOrderNumber, numberOfGuests, orderDate, confirmationCode, subscriberId,
+				dateOfPlacingOrder);
+	}
+
+	/**
+	 * Copy with another number of guests and date (e.g. after an update).
+	 */
+	public Reservation withGuestsAndDate(int newNumberOfGuests, LocalDate newOrderDate) {
+		return new Reservation(orderNumber, newNumberOfGuests, newOrderDate, confirmationCode, subscriberId,
+				dateOfPlacingOrder);
+	}
+
+	@Override
+	public String toString() {
+		return "Reservation " + orderNumber + " (" + numberOfGuests + " guests on " + orderDate + ")";
+	}
+}
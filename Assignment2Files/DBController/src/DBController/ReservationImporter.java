@@ -0,0 +1,374 @@
+package DBController;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Bulk import of reservations from a CSV file into the reservation table,
+ * e.g. when a branch moves to this system.
+ *
+ * Expected columns, with an optional header line:
+ * order_date,number_of_guests,confirmation_code,subscriber_id,date_of_placing_order
+ * (dates as yyyy-MM-dd, subscriber_id empty or "null" for walk-ins). Order
+ * numbers and confirmation codes are reserved a chunk at a time from the
+ * same id blocks as the server's ({@link MySqlReservationStore#reserveIds}),
+ * so an import can run while servers are taking reservations. The
+ * confirmation_code column is therefore not used: a code from the file could
+ * be one a server already holds in its current block, and the codes handed
+ * out must be unique without a lookup.
+ *
+ * The file is streamed: rows are validated one by one and collected in
+ * chunks of {@link #CHUNK_ROWS}; only one chunk is in memory at a time. A
+ * chunk is committed with LOAD DATA LOCAL INFILE (the valid rows written to
+ * a temporary file first), or, where MySQL refuses local infile
+ * (local_infile=OFF) or with -Dbistro.importMode=insert, with multi-row
+ * INSERTs of {@link #INSERT_ROWS} rows each. Each chunk is one transaction.
+ *
+ * Rejected rows are written with their line number and reason to
+ * &lt;file&gt;.errors.csv, and do not stop the import.
+ *
+ * Usage: ReservationImporter &lt;file.csv&gt;
+ */
+public class ReservationImporter {
+
+	/** auto (LOAD DATA, falling back to INSERT), load or insert. */
+	public static final String MODE = System.getProperty("bistro.importMode", "auto");
+
+	public static final int CHUNK_ROWS = 50_000;
+	public static final int INSERT_ROWS = 500;
+	public static final int MAX_GUESTS = 100;
+
+	private static final String INSERT_SQL = "INSERT INTO reservation "
+			+ "(order_number, order_date, number_of_guests, confirmation_code, subscriber_id, date_of_placing_order) "
+			+ "VALUES ";
+
+	private static final String LOAD_SQL = "LOAD DATA LOCAL INFILE '%s' INTO TABLE reservation "
+			+ "FIELDS TERMINATED BY ',' LINES TERMINATED BY '\\n' "
+			+ "(order_number, order_date, number_of_guests, confirmation_code, @subscriber, date_of_placing_order) "
+			+ "SET subscriber_id = NULLIF(@subscriber, '')";
+
+	// MySQL errors meaning "local infile is not allowed here"
+	private static final int ER_NOT_ALLOWED_COMMAND = 1148;
+	private static final int ER_CLIENT_LOCAL_FILES_DISABLED = 3948;
+	private static final int CR_LOAD_DATA_LOCAL_INFILE_REJECTED = 2068;
+
+	/**
+	 * Told after every committed chunk.
+	 */
+	public interface Progress {
+		void chunkDone(Result soFar);
+	}
+
+	/**
+	 * Counters of an import, final once {@link #importFile} returns.
+	 */
+	public static final class Result {
+		long rowsRead;
+		long rowsImported;
+		long rowsRejected;
+		long millis;
+		boolean usedLoadData;
+		File errorFile;
+
+		public long getRowsRead() {
+			return rowsRead;
+		}
+
+		public long getRowsImported() {
+			return rowsImported;
+		}
+
+		public long getRowsRejected() {
+			return rowsRejected;
+		}
+
+		public long getMillis() {
+			return millis;
+		}
+
+		public long getRowsPerSecond() {
+			return millis == 0 ? rowsImported : rowsImported * 1000 / millis;
+		}
+
+		/**
+		 * @return true if rows went in with LOAD DATA, false if with INSERTs
+		 */
+		public boolean usedLoadData() {
+			return usedLoadData;
+		}
+
+		/**
+		 * @return the file listing the rejected rows, or null if none was rejected
+		 */
+		public File getErrorFile() {
+			return errorFile;
+		}
+
+		@Override
+		public String toString() {
+			return rowsImported + " of " + rowsRead + " rows imported (" + rowsRejected + " rejected) in " + millis
+					+ " ms, " + getRowsPerSecond() + " rows/s, " + (usedLoadData ? "LOAD DATA" : "INSERT");
+		}
+	}
+
+	// Valid rows of the current chunk, as columns
+	private final LocalDate[] orderDates = new LocalDate[CHUNK_ROWS];
+	private final int[] guests = new int[CHUNK_ROWS];
+	private final int[] subscriberIds = new int[CHUNK_ROWS];
+	private final LocalDate[] placingDates = new LocalDate[CHUNK_ROWS];
+	private int chunkSize;
+	// Order number and confirmation code of the chunk's first row, the others following it
+	private int firstOrderNumber;
+	private int firstConfirmationCode;
+
+	private boolean loadData = !"insert".equals(MODE);
+	private File loadFile;
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("Usage: ReservationImporter <file.csv>");
+			System.exit(2);
+		}
+		Result result = new ReservationImporter().importFile(new File(args[0]),
+				soFar -> System.out.println(soFar.rowsImported + " rows imported, " + soFar.getRowsPerSecond()
+						+ " rows/s"));
+		System.out.println(result);
+		if (result.errorFile != null) {
+			System.out.println("Rejected rows: " + result.errorFile);
+		}
+	}
+
+	/**
+	 * Import a CSV file on a connection of its own.
+	 *
+	 * @param progress told after every chunk, may be null
+	 * @throws IOException  if the file cannot be read
+	 * @throws SQLException if MySQL cannot be reached or a chunk fails (the
+	 *                      chunks committed before it stay imported)
+	 */
+	public Result importFile(File csv, Progress progress) throws IOException, SQLException {
+		Connection conn = mysqlConnection1.getDBConnection();
+		if (conn == null) {
+			throw new SQLException("Database connection failed - MySQL server may not be running");
+		}
+		Result result = new Result();
+		long start = System.nanoTime();
+		File errorFile = new File(csv.getPath() + ".errors.csv");
+		Writer errors = null;
+		try (BufferedReader in = Files.newBufferedReader(csv.toPath(), StandardCharsets.UTF_8)) {
+			String line;
+			long lineNumber = 0;
+			while ((line = in.readLine()) != null) {
+				lineNumber++;
+				if (line.isBlank() || (lineNumber == 1 && line.startsWith("order_date"))) {
+					continue;
+				}
+				result.rowsRead++;
+				String error = parse(line);
+				if (error != null) {
+					if (errors == null) {
+						errors = new BufferedWriter(Files.newBufferedWriter(errorFile.toPath(), StandardCharsets.UTF_8));
+						errors.write("line,reason,row\n");
+					}
+					errors.write(lineNumber + "," + error + ",\"" + line.replace("\"", "\"\"") + "\"\n");
+					result.rowsRejected++;
+					continue;
+				}
+				if (chunkSize == CHUNK_ROWS) {
+					commitChunk(conn, result, start, progress);
+				}
+			}
+			commitChunk(conn, result, start, progress);
+		} finally {
+			if (errors != null) {
+				errors.close();
+				result.errorFile = errorFile;
+			}
+			if (loadFile != null) {
+				loadFile.delete();
+			}
+			try {
+				conn.close();
+			} catch (SQLException ignored) {
+			}
+			result.millis = (System.nanoTime() - start) / 1_000_000;
+		}
+		return result;
+	}
+
+	/**
+	 * Validate one CSV line and add it to the chunk.
+	 *
+	 * @return why the row is rejected, or null if it was added
+	 */
+	private String parse(String line) {
+		String[] f = line.split(",", -1);
+		if (f.length != 5) {
+			return "found " + f.length + " columns (expected 5)";
+		}
+		LocalDate orderDate;
+		LocalDate placingDate;
+		try {
+			orderDate = LocalDate.parse(f[0].trim());
+			placingDate = LocalDate.parse(f[4].trim());
+		} catch (DateTimeParseException e) {
+			return "bad date";
+		}
+		int numberOfGuests;
+		int subscriberId;
+		try {
+			numberOfGuests = Integer.parseInt(f[1].trim());
+			String subscriber = f[3].trim();
+			subscriberId = subscriber.isEmpty() || subscriber.equalsIgnoreCase("null") ? Reservation.NO_SUBSCRIBER
+					: Integer.parseInt(subscriber);
+		} catch (NumberFormatException e) {
+			return "not a number";
+		}
+		if (numberOfGuests < 1 || numberOfGuests > MAX_GUESTS) {
+			return "number_of_guests out of range 1-" + MAX_GUESTS;
+		}
+		if (subscriberId != Reservation.NO_SUBSCRIBER && subscriberId <= 0) {
+			return "bad subscriber_id";
+		}
+		if (placingDate.isAfter(orderDate)) {
+			return "placed after its order_date";
+		}
+		orderDates[chunkSize] = orderDate;
+		guests[chunkSize] = numberOfGuests;
+		subscriberIds[chunkSize] = subscriberId;
+		placingDates[chunkSize] = placingDate;
+		chunkSize++;
+		return null;
+	}
+
+	private void commitChunk(Connection conn, Result result, long start, Progress progress)
+			throws IOException, SQLException {
+		if (chunkSize == 0) {
+			return;
+		}
+		firstOrderNumber = MySqlReservationStore.reserveIds(conn, ReservationStore.ORDER_NUMBERS, chunkSize);
+		firstConfirmationCode = MySqlReservationStore.reserveIds(conn, ReservationStore.CONFIRMATION_CODES, chunkSize);
+		if (loadData) {
+			try {
+				loadChunk(conn);
+				result.usedLoadData = true;
+			} catch (SQLException e) {
+				if (!"auto".equals(MODE) || !isLocalInfileRefused(e)) {
+					throw e;
+				}
+				System.out.println("LOAD DATA LOCAL INFILE refused (" + e.getMessage() + "), importing with INSERTs");
+				loadData = false;
+				insertChunk(conn);
+			}
+		} else {
+			insertChunk(conn);
+		}
+		result.rowsImported += chunkSize;
+		chunkSize = 0;
+		result.millis = (System.nanoTime() - start) / 1_000_000;
+		if (progress != null) {
+			progress.chunkDone(result);
+		}
+	}
+
+	// The chunk's rows, already validated, so no quoting or escaping is needed
+	private void loadChunk(Connection conn) throws IOException, SQLException {
+		if (loadFile == null) {
+			loadFile = File.createTempFile("bistro-import", ".csv");
+			loadFile.deleteOnExit();
+		}
+		try (Writer out = Files.newBufferedWriter(loadFile.toPath(), StandardCharsets.UTF_8)) {
+			for (int i = 0; i < chunkSize; i++) {
+				out.write((firstOrderNumber + i) + "," + orderDates[i] + "," + guests[i] + "," + (firstConfirmationCode + i) + ","
+						+ (subscriberIds[i] == Reservation.NO_SUBSCRIBER ? "" : String.valueOf(subscriberIds[i]))
+						+ "," + placingDates[i] + "\n");
+			}
+		}
+		String path = loadFile.getAbsolutePath().replace("\\", "\\\\").replace("'", "\\'");
+		try (Statement st = conn.createStatement()) {
+			st.execute(String.format(LOAD_SQL, path));
+		}
+	}
+
+	// Multi-row INSERTs of up to INSERT_ROWS rows, the chunk in one transaction
+	private void insertChunk(Connection conn) throws SQLException {
+		conn.setAutoCommit(false);
+		PreparedStatement full = null;
+		try {
+			for (int from = 0; from < chunkSize; from += INSERT_ROWS) {
+				int n = Math.min(INSERT_ROWS, chunkSize - from);
+				if (n == INSERT_ROWS) {
+					if (full == null) {
+						full = conn.prepareStatement(insertSql(INSERT_ROWS));
+					}
+					bind(full, from, n);
+					full.executeUpdate();
+				} else {
+					try (PreparedStatement last = conn.prepareStatement(insertSql(n))) {
+						bind(last, from, n);
+						last.executeUpdate();
+					}
+				}
+			}
+			conn.commit();
+		} catch (SQLException e) {
+			try {
+				conn.rollback();
+			} catch (SQLException ignored) {
+			}
+			throw e;
+		} finally {
+			if (full != null) {
+				full.close();
+			}
+			conn.setAutoCommit(true);
+		}
+	}
+
+	private static String insertSql(int rows) {
+		StringBuilder sql = new StringBuilder(INSERT_SQL.length() + 14 * rows).append(INSERT_SQL);
+		for (int i = 0; i < rows; i++) {
+			sql.append(i == 0 ? "(?,?,?,?,?,?)" : ",(?,?,?,?,?,?)");
+		}
+		return sql.toString();
+	}
+
+	private void bind(PreparedStatement ps, int from, int n) throws SQLException {
+		int p = 1;
+		for (int i = from; i < from + n; i++) {
+			ps.setInt(p++, firstOrderNumber + i);
+			ps.setDate(p++, Date.valueOf(orderDates[i]));
+			ps.setInt(p++, guests[i]);
+			ps.setInt(p++, firstConfirmationCode + i);
+			if (subscriberIds[i] == Reservation.NO_SUBSCRIBER) {
+				ps.setNull(p++, Types.INTEGER);
+			} else {
+				ps.setInt(p++, subscriberIds[i]);
+			}
+			ps.setDate(p++, Date.valueOf(placingDates[i]));
+		}
+	}
+
+	private static boolean isLocalInfileRefused(SQLException e) {
+		int code = e.getErrorCode();
+		if (code == ER_NOT_ALLOWED_COMMAND || code == ER_CLIENT_LOCAL_FILES_DISABLED
+				|| code == CR_LOAD_DATA_LOCAL_INFILE_REJECTED) {
+			return true;
+		}
+		String message = String.valueOf(e.getMessage()).toLowerCase();
+		return message.contains("local infile") || message.contains("local data");
+	}
+}
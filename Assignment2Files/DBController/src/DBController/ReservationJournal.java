@@ -0,0 +1,334 @@
+package DBController;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of reservation changes, written to memory-mapped segment
+ * files journal-00000001.log, journal-00000002.log, ...
+ *
+ * A record is 8 ints (32 bytes): type, order number, guests, order day,
+ * confirmation code, subscriber id, placing day (dates as epoch days) and a
+ * CRC32C of the first 28 bytes. Segments are created at their full size, so
+ * a zero type marks the end of what was written, and a bad CRC marks a
+ * record torn by a crash; replay stops at either.
+ *
+ * When a write reaches the disk depends on the {@link SyncPolicy}. Once a
+ * record is in the mapping it survives a crash of the server process (the
+ * pages belong to the OS); only a power loss or OS crash can lose what was
+ * not synced yet.
+ *
+ * Appends are not thread safe: the caller serializes them.
+ */
+public class ReservationJournal implements AutoCloseable {
+
+	/**
+	 * When appended records are forced to disk.
+	 */
+	public enum SyncPolicy {
+		/** After every record: nothing is lost, but each change waits for the disk. */
+		ALWAYS,
+		/** Every few milliseconds from a background thread: loses at most that interval. */
+		INTERVAL,
+		/** When the OS decides (and when a segment is full or the journal closed). */
+		NEVER
+	}
+
+	/**
+	 * Receives the records of a replayed segment (dates as epoch days).
+	 */
+	interface Target {
+		void put(int orderNumber, int numberOfGuests, int orderDay, int confirmationCode, int subscriberId,
+				int placingDay);
+
+		void update(int orderNumber, int numberOfGuests, int orderDay);
+	}
+
+	static final int PUT = 1;
+	static final int UPDATE = 2;
+
+	static final int RECORD_SIZE = 32;
+	private static final int CRC_OFFSET = RECORD_SIZE - 4;
+
+	private final File dir;
+	private final int segmentSize;
+	private final SyncPolicy policy;
+	private final ScheduledExecutorService syncer;
+
+	private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+	private final CRC32C crc = new CRC32C();
+
+	private long segment;
+	private volatile MappedByteBuffer map;
+	private int position;
+
+	/**
+	 * Start writing a new segment.
+	 *
+	 * @param dir         journal directory
+	 * @param segment     number of the first segment to write
+	 * @param segmentSize bytes per segment (rounded down to whole records)
+	 * @param policy      when to force records to disk
+	 * @param syncMillis  sync interval for {@link SyncPolicy#INTERVAL}
+	 */
+	public ReservationJournal(File dir, long segment, int segmentSize, SyncPolicy policy, long syncMillis)
+			throws IOException {
+		this.dir = dir;
+		this.segmentSize = segmentSize - segmentSize % RECORD_SIZE;
+		this.policy = policy;
+		openSegment(segment);
+
+		if (policy == SyncPolicy.INTERVAL) {
+			syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "journal-sync");
+				t.setDaemon(true);
+				return t;
+			});
+			syncer.scheduleWithFixedDelay(this::sync, syncMillis, syncMillis, TimeUnit.MILLISECONDS);
+		} else {
+			syncer = null;
+		}
+	}
+
+	/**
+	 * Record a new or replaced reservation. Erased again if it cannot be
+	 * forced, like a batch of {@link #appendPuts}.
+	 */
+	public void appendPut(Reservation r) throws IOException {
+		appendPuts(Collections.singletonList(r));
+	}
+
+	/**
+	 * Record several new reservations, forced to disk once for all of them
+	 * under {@link SyncPolicy#ALWAYS}. They go in one segment when they fit
+	 * in one, and are erased again if they cannot be forced, so the batch is
+	 * journaled whole or not at all.
+	 */
+	public void appendPuts(List<Reservation> reservations) throws IOException {
+		int bytes = reservations.size() * RECORD_SIZE;
+		if (bytes <= segmentSize && position + bytes > segmentSize) {
+			roll();
+		}
+		long firstSegment = segment;
+		int first = position;
+		try {
+			for (Reservation r : reservations) {
+				writePut(r);
+			}
+			// A roll in between forced the records before it
+			forceLast(segment == firstSegment ? position - first : position);
+		} catch (IOException | RuntimeException e) {
+			if (segment == firstSegment) {
+				erase(first);
+			}
+			throw e;
+		}
+	}
+
+	private void writePut(Reservation r) throws IOException {
+		write(PUT, r.getOrderNumber(), r.getNumberOfGuests(), InMemoryReservationStore.toDay(r.getOrderDate()),
+				r.getConfirmationCode(), r.getSubscriberId(),
+				InMemoryReservationStore.toDay(r.getDateOfPlacingOrder()));
+	}
+
+	/**
+	 * Record a change of guests and date.
+	 */
+	public void appendUpdate(int orderNumber, int numberOfGuests, int orderDay) throws IOException {
+		write(UPDATE, orderNumber, numberOfGuests, orderDay, 0, 0, 0);
+		try {
+			forceLast(RECORD_SIZE);
+		} catch (RuntimeException e) {
+			erase(position - RECORD_SIZE);
+			throw e;
+		}
+	}
+
+	private void write(int type, int a, int b, int c, int d, int e, int f) throws IOException {
+		if (position + RECORD_SIZE > segmentSize) {
+			roll();
+		}
+		record.clear();
+		record.putInt(type).putInt(a).putInt(b).putInt(c).putInt(d).putInt(e).putInt(f);
+		crc.reset();
+		crc.update(record.array(), 0, CRC_OFFSET);
+		record.putInt((int) crc.getValue());
+
+		MappedByteBuffer m = map;
+		m.position(position);
+		m.put(record.array());
+		position += RECORD_SIZE;
+	}
+
+	// Zero what was written to the current segment from a position on, and write from there again
+	private void erase(int from) {
+		MappedByteBuffer m = map;
+		m.position(from);
+		m.put(new byte[position - from]);
+		position = from;
+	}
+
+	// Under ALWAYS, force the last bytes written to the current segment
+	private void forceLast(int bytes) {
+		if (policy == SyncPolicy.ALWAYS && bytes > 0) {
+			map.force(position - bytes, bytes);
+		}
+	}
+
+	/**
+	 * Close the current segment and continue in the next one.
+	 *
+	 * @return the number of the new segment: a snapshot taken now only needs
+	 *         the journal from this segment on
+	 */
+	public long roll() throws IOException {
+		map.force();
+		openSegment(segment + 1);
+		return segment;
+	}
+
+	private void openSegment(long number) throws IOException {
+		File file = segmentFile(dir, number);
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(segmentSize);
+			map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+		}
+		segment = number;
+		position = 0;
+	}
+
+	/**
+	 * Write the current segment again from its start, once everything in it
+	 * is stored elsewhere (the database). Cheaper than a {@link #roll} when
+	 * little was written: no file is created or mapped. The erased records
+	 * are forced to disk, so none of them is replayed after the new ones.
+	 */
+	public void reset() {
+		int written = position;
+		if (written > 0) {
+			erase(0);
+			map.force(0, written);
+		}
+	}
+
+	/**
+	 * Force what was appended so far to disk.
+	 */
+	public void sync() {
+		map.force();
+	}
+
+	/**
+	 * Delete the segments before the given one, once their changes are
+	 * stored elsewhere (a snapshot, the database).
+	 */
+	public void deleteBefore(long segment) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File f : files) {
+			long number = segmentNumber(f.getName());
+			if (number >= 0 && number < segment) {
+				f.delete();
+			}
+		}
+	}
+
+	/**
+	 * @return the numbers of the segments in a directory, in order
+	 */
+	static List<Long> segments(File dir) throws IOException {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			throw new IOException("Cannot list " + dir);
+		}
+		List<Long> segments = new ArrayList<>();
+		for (File f : files) {
+			long number = segmentNumber(f.getName());
+			if (number >= 0) {
+				segments.add(number);
+			}
+		}
+		Collections.sort(segments);
+		return segments;
+	}
+
+	/**
+	 * @return the number of the segment being written
+	 */
+	public long getSegment() {
+		return segment;
+	}
+
+	@Override
+	public void close() {
+		if (syncer != null) {
+			syncer.shutdownNow();
+		}
+		sync();
+	}
+
+	static File segmentFile(File dir, long number) {
+		return new File(dir, String.format("journal-%08d.log", number));
+	}
+
+	/**
+	 * @return the segment number of a journal-N.log file name, or -1
+	 */
+	static long segmentNumber(String fileName) {
+		if (!fileName.startsWith("journal-") || !fileName.endsWith(".log")) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(fileName.substring("journal-".length(), fileName.length() - ".log".length()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Pass the records of one segment to a target, up to the first empty or
+	 * torn record.
+	 *
+	 * @return the number of records applied
+	 */
+	static long replay(File file, Target target) throws IOException {
+		MappedByteBuffer in;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			in = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		}
+		CRC32C check = new CRC32C();
+		long applied = 0;
+		for (int pos = 0; pos + RECORD_SIZE <= in.limit(); pos += RECORD_SIZE) {
+			int type = in.getInt(pos);
+			if (type != PUT && type != UPDATE) {
+				break;
+			}
+			check.reset();
+			check.update(in.slice(pos, CRC_OFFSET));
+			if ((int) check.getValue() != in.getInt(pos + CRC_OFFSET)) {
+				break;
+			}
+			if (type == PUT) {
+				target.put(in.getInt(pos + 4), in.getInt(pos + 8), in.getInt(pos + 12), in.getInt(pos + 16),
+						in.getInt(pos + 20), in.getInt(pos + 24));
+			} else {
+				target.update(in.getInt(pos + 4), in.getInt(pos + 8), in.getInt(pos + 12));
+			}
+			applied++;
+		}
+		return applied;
+	}
+}
@@ -0,0 +1,37 @@
+package DBController;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * The reads of a {@link ReservationStore}: all that
+ * {@link ReservationStore#reads()} offers, so code given a view that may be
+ * a read replica has no writes to call by mistake.
+ */
+public interface ReservationReads {
+
+	/**
+	 * @return the reservation, or null if there is none with this number
+	 */
+	Reservation find(int orderNumber) throws SQLException;
+
+	/**
+	 * One page of a listing, by ascending order number (keyset pagination:
+	 * the next page starts after the last order number of this one).
+	 *
+	 * @param afterOrderNumber only orders with a greater number (0 for the first page)
+	 * @param from             first order date, or null for no lower bound
+	 * @param to               last order date, or null for no upper bound
+	 * @param subscriberId     only this subscriber's orders, or null for all
+	 * @param limit            most reservations to return
+	 */
+	List<Reservation> list(int afterOrderNumber, LocalDate from, LocalDate to, Integer subscriberId, int limit)
+			throws SQLException;
+
+	/**
+	 * Copy of every reservation, for rebuilding derived data (reports).
+	 * On MySQL this reads the whole table: not for the request path.
+	 */
+	List<Reservation> allReservations() throws SQLException;
+}
@@ -0,0 +1,133 @@
+package DBController;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Compact image of an {@link InMemoryReservationStore}, written to
+ * snapshot-N.bin, where N is the first journal segment to replay on top of it.
+ *
+ * Layout: magic, version, N (long), number of reservations, then each of the
+ * six int columns in turn, then a CRC32C of everything before it. A snapshot
+ * is written to a .tmp file, forced to disk and renamed, so a crash while
+ * writing leaves the previous snapshot in place.
+ */
+final class ReservationSnapshot {
+
+	private static final int MAGIC = 0x42534E50; // "BSNP"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 4;
+	private static final int COLUMNS = 6;
+
+	private static final int CHUNK = 1 << 20;
+
+	/** First journal segment to replay on top of the snapshot. */
+	final long replayFrom;
+	/** Columns as taken by {@link InMemoryReservationStore#copyColumns()}. */
+	final int[][] columns;
+
+	private ReservationSnapshot(long replayFrom, int[][] columns) {
+		this.replayFrom = replayFrom;
+		this.columns = columns;
+	}
+
+	static File file(File dir, long replayFrom) {
+		return new File(dir, String.format("snapshot-%08d.bin", replayFrom));
+	}
+
+	/**
+	 * @return the N of a snapshot-N.bin file name, or -1
+	 */
+	static long number(String fileName) {
+		if (!fileName.startsWith("snapshot-") || !fileName.endsWith(".bin")) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(fileName.substring("snapshot-".length(), fileName.length() - ".bin".length()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	static void write(File dir, long replayFrom, int[][] columns) throws IOException {
+		File target = file(dir, replayFrom);
+		File tmp = new File(dir, target.getName() + ".tmp");
+		CRC32C crc = new CRC32C();
+		ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK);
+
+		try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			buffer.putInt(MAGIC).putInt(VERSION).putLong(replayFrom).putInt(columns[0].length);
+			for (int[] column : columns) {
+				for (int i = 0; i < column.length; ) {
+					if (buffer.remaining() < 4) {
+						drain(buffer, out, crc);
+					}
+					int n = Math.min(buffer.remaining() / 4, column.length - i);
+					IntBuffer ints = buffer.asIntBuffer();
+					ints.put(column, i, n);
+					buffer.position(buffer.position() + 4 * n);
+					i += n;
+				}
+			}
+			drain(buffer, out, crc);
+			buffer.putInt((int) crc.getValue());
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				out.write(buffer);
+			}
+			out.force(true);
+		}
+		Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static void drain(ByteBuffer buffer, FileChannel out, CRC32C crc) throws IOException {
+		buffer.flip();
+		crc.update(buffer.duplicate());
+		while (buffer.hasRemaining()) {
+			out.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * @throws IOException if the file is not a complete, intact snapshot
+	 */
+	static ReservationSnapshot read(File file) throws IOException {
+		MappedByteBuffer in;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (in.limit() < HEADER_SIZE + 4 || in.getInt(0) != MAGIC || in.getInt(4) != VERSION) {
+			throw new IOException(file + " is not a reservation snapshot");
+		}
+		long replayFrom = in.getLong(8);
+		int count = in.getInt(16);
+		long expected = HEADER_SIZE + 4L * COLUMNS * count + 4;
+		if (count < 0 || in.limit() != expected) {
+			throw new IOException(file + " is truncated");
+		}
+
+		CRC32C crc = new CRC32C();
+		crc.update(in.slice(0, in.limit() - 4));
+		if ((int) crc.getValue() != in.getInt(in.limit() - 4)) {
+			throw new IOException(file + " is corrupt (bad checksum)");
+		}
+
+		int[][] columns = new int[COLUMNS][count];
+		IntBuffer ints = in.slice(HEADER_SIZE, in.limit() - HEADER_SIZE - 4).asIntBuffer();
+		for (int[] column : columns) {
+			ints.get(column);
+		}
+		return new ReservationSnapshot(replayFrom, columns);
+	}
+}
@@ -0,0 +1,156 @@
+package DBController;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Where the server keeps its reservations.
+ *
+ * Implementations:
+ * - "mysql": {@link MySqlReservationStore}, the reservation table in MySQL;
+ *   with -Dbistro.writeBehind=true, {@link WriteBehindReservationStore};
+ *   with -Dbistro.cache=true, {@link CachingReservationStore} (not with
+ *   write-behind); with
+ *   -Dbistro.replicas, {@link ReplicatedReservationStore} (reads on replicas;
+ *   not with the cache or write-behind)
+ * - "memory": {@link InMemoryReservationStore}, primitive arrays in the
+ *   server's heap, for benchmarks and single-box setups without MySQL
+ * - "journal": {@link JournaledReservationStore}, the in-memory store kept
+ *   across restarts by a journal and snapshots on local disk
+ *
+ * The server picks one at start-up with -Dbistro.store=mysql|memory|journal.
+ * Implementations are safe to use from several threads. The reads are
+ * declared in {@link ReservationReads}.
+ */
+public interface ReservationStore extends ReservationReads, AutoCloseable {
+
+	/** Sequence of order numbers, see {@link #reserveIds}. */
+	String ORDER_NUMBERS = "order_number";
+
+	/** Sequence of confirmation codes, see {@link #reserveIds}. */
+	String CONFIRMATION_CODES = "confirmation_code";
+
+	/**
+	 * Change the number of guests and the date of a reservation.
+	 * @return false if there is no reservation with this number
+	 */
+	boolean update(int orderNumber, int numberOfGuests, LocalDate orderDate) throws SQLException;
+
+	/**
+	 * Add a reservation. Its order number is ignored: the store gives one.
+	 * @return the order number of the new reservation
+	 */
+	int insert(Reservation reservation) throws SQLException;
+
+	/**
+	 * Reserve a block of consecutive ids of a sequence. No later block, and
+	 * no order number given by {@link #insert}, overlaps it, so the caller
+	 * can hand the ids out from memory.
+	 *
+	 * @param sequence {@link #ORDER_NUMBERS} or {@link #CONFIRMATION_CODES}
+	 * @param count    ids in the block
+	 * @return the first id of the block
+	 */
+	int reserveIds(String sequence, int count) throws SQLException;
+
+	/**
+	 * Add reservations under the order numbers they carry (reserved with
+	 * {@link #reserveIds}), all or none.
+	 */
+	void insertAll(List<Reservation> reservations) throws SQLException;
+
+	/**
+	 * Total number of guests booked per order date (for availability).
+	 */
+	Map<LocalDate, Integer> bookedGuestsPerDay() throws SQLException;
+
+	/**
+	 * The store to read from when the answer may be slightly behind the
+	 * latest writes: lookups and listings shown to users, exports. On a
+	 * replicated store these go to a read replica; elsewhere this is the
+	 * store itself. Reads that decide a write (the old values of an update)
+	 * stay on the store itself.
+	 */
+	default ReservationReads reads() {
+		return this;
+	}
+
+	/**
+	 * True if calls may wait on I/O (a database round trip), so the server
+	 * runs them on its DB workers rather than inline.
+	 */
+	default boolean isBlocking() {
+		return true;
+	}
+
+	/**
+	 * Make durable what the store holds back (write-behind updates not yet
+	 * in MySQL, journal records since the last snapshot). Called when the
+	 * server stops; unlike {@link #close}, the store stays usable, as the
+	 * server may be started again.
+	 */
+	default void checkpoint() {
+	}
+
+	/**
+	 * Called by a worker thread before it ends, to release what the store
+	 * keeps per thread (e.g. a connection).
+	 */
+	default void threadFinished() {
+	}
+
+	@Override
+	void close();
+
+	/**
+	 * Create a store by name ("mysql", "memory" or "journal").
+	 * @throws IllegalArgumentException for any other name, for read
+	 *         replicas together with the cache or write-behind, or for the
+	 *         cache together with write-behind
+	 * @throws UncheckedIOException if the journal cannot be recovered
+	 */
+	static ReservationStore create(String kind) {
+		switch (kind) {
+		case "mysql":
+			boolean replicas = !ReplicatedReservationStore.REPLICAS.trim().isEmpty();
+			if (replicas && (Boolean.getBoolean("bistro.cache") || Boolean.getBoolean("bistro.writeBehind"))) {
+				// Both answer reads from what they hold: a replica would only serve stale misses
+				throw new IllegalArgumentException(
+						"bistro.replicas cannot be combined with bistro.cache or bistro.writeBehind");
+			}
+			if (Boolean.getBoolean("bistro.cache")) {
+				if (Boolean.getBoolean("bistro.writeBehind")) {
+					// The cache writes through to MySQL: write-behind would be dropped without a word
+					throw new IllegalArgumentException("bistro.cache cannot be combined with bistro.writeBehind");
+				}
+				return new CachingReservationStore(new MySqlReservationStore());
+			}
+			if (!Boolean.getBoolean("bistro.writeBehind")) {
+				if (replicas) {
+					return ReplicatedReservationStore.open();
+				}
+				return new MySqlReservationStore();
+			}
+			try {
+				return WriteBehindReservationStore.open();
+			} catch (IOException e) {
+				throw new UncheckedIOException("Cannot open the write-behind log", e);
+			}
+		case "memory":
+			return new InMemoryReservationStore();
+		case "journal":
+			try {
+				return JournaledReservationStore.open();
+			} catch (IOException e) {
+				throw new UncheckedIOException("Cannot open the reservation journal", e);
+			}
+		default:
+			throw new IllegalArgumentException(
+					"Unknown bistro.store " + kind + " (expected mysql, memory or journal)");
+		}
+	}
+}
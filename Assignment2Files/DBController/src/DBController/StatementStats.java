@@ -0,0 +1,61 @@
+package DBController;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timings of one SQL statement shape: how long preparing, executing and
+ * reading the results took, as latency histograms in microseconds.
+ *
+ * Recording only increments counters, so it is cheap enough to leave on.
+ */
+public class StatementStats {
+
+	private final String shape;
+
+	final LongAdder executions = new LongAdder();
+	final LongAdder errors = new LongAdder();
+	final LongAdder rows = new LongAdder();
+	final LongAdder slow = new LongAdder();
+	final LatencyHistogram prepare = new LatencyHistogram();
+	final LatencyHistogram execute = new LatencyHistogram();
+	final LatencyHistogram fetch = new LatencyHistogram();
+
+	StatementStats(String shape) {
+		this.shape = shape;
+	}
+
+	/**
+	 * The normalized SQL text (literals replaced by '?').
+	 */
+	public String getShape() {
+		return shape;
+	}
+
+	public long getExecutions() {
+		return executions.sum();
+	}
+
+	public long getErrors() {
+		return errors.sum();
+	}
+
+	public long getRows() {
+		return rows.sum();
+	}
+
+	public long getSlowCount() {
+		return slow.sum();
+	}
+
+	public LatencyHistogram getPrepare() {
+		return prepare;
+	}
+
+	public LatencyHistogram getExecute() {
+		return execute;
+	}
+
+	public LatencyHistogram getFetch() {
+		return fetch;
+	}
+}
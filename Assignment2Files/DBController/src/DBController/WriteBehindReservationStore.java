@@ -0,0 +1,389 @@
+package DBController;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * MySQL reservations with write-behind updates: an update is acknowledged
+ * once it is in a local {@link ReservationJournal}, and a background flusher
+ * writes the changes to MySQL later, a batch per transaction (group commit).
+ * Repeated updates of the same order before a flush are coalesced, so only
+ * the last one reaches the database.
+ *
+ * Lookups read MySQL and apply the pending change, if any, so clients see
+ * their update at once. Inserts go straight to MySQL (they need the order
+ * number it gives).
+ *
+ * Nothing acknowledged is lost: on close the pending changes are flushed,
+ * and whatever could not be written (MySQL down) stays in the log and is
+ * replayed into the pending changes on the next start. The log segment is
+ * written again from its start whenever a flush leaves nothing pending, and
+ * only rolled over when full; changes of it already in MySQL may be written
+ * again after a restart, which leaves the same values.
+ *
+ * Settings (system properties), enabled with -Dbistro.writeBehind=true:
+ * - bistro.writeBehindDir: directory of the log (default "write-behind")
+ * - bistro.writeBehindSync: sync policy of the log (default always, see {@link ReservationJournal.SyncPolicy})
+ * - bistro.writeBehindFlushMs: pause between two flushes (default 50)
+ * - bistro.writeBehindBatch: changes per transaction (default 500)
+ */
+public class WriteBehindReservationStore implements ReservationStore {
+
+	public static final String LOG_DIR = System.getProperty("bistro.writeBehindDir", "write-behind");
+	public static final String SYNC = System.getProperty("bistro.writeBehindSync", "always");
+	public static final long FLUSH_MS = Long.getLong("bistro.writeBehindFlushMs", 50);
+	public static final int BATCH = Integer.getInteger("bistro.writeBehindBatch", 500);
+
+	private static final int SEGMENT_SIZE = 4 << 20;
+	private static final long CLOSE_TIMEOUT_MS = 10_000;
+
+	/**
+	 * Latest change of one order not yet in MySQL.
+	 */
+	private static final class Pending {
+		final int guests;
+		final int orderDay;
+		/** When the oldest change it replaces was accepted (System.nanoTime). */
+		final long since;
+
+		Pending(int guests, int orderDay, long since) {
+			this.guests = guests;
+			this.orderDay = orderDay;
+			this.since = since;
+		}
+	}
+
+	private final MySqlReservationStore database;
+	private final int batchSize;
+	private final long flushNanos;
+	private final ConcurrentHashMap<Integer, Pending> pending = new ConcurrentHashMap<>();
+	private final ReservationJournal log;
+	private final Object flushLock = new Object();
+	private final Thread flusher;
+	private volatile boolean closing;
+
+	private final LongAdder accepted = new LongAdder();
+	private final LongAdder coalesced = new LongAdder();
+	private final LongAdder flushedRows = new LongAdder();
+	private final LongAdder batches = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private volatile long lastBatchMillis;
+
+	/**
+	 * Open the store with the settings of the system properties.
+	 */
+	public static WriteBehindReservationStore open() throws IOException {
+		return new WriteBehindReservationStore(new MySqlReservationStore(), new File(LOG_DIR),
+				ReservationJournal.SyncPolicy.valueOf(SYNC.toUpperCase()), FLUSH_MS, BATCH);
+	}
+
+	/**
+	 * @param database  where the changes end up
+	 * @param dir       directory of the local log
+	 * @param policy    when log records are forced to disk
+	 * @param flushMs   pause between two flushes
+	 * @param batchSize changes per transaction
+	 * @throws IOException if the log cannot be read or created
+	 */
+	public WriteBehindReservationStore(MySqlReservationStore database, File dir, ReservationJournal.SyncPolicy policy,
+			long flushMs, int batchSize) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create write-behind directory " + dir);
+		}
+		this.database = database;
+		this.batchSize = batchSize;
+		this.flushNanos = TimeUnit.MILLISECONDS.toNanos(flushMs);
+
+		// Changes acknowledged before the last stop but never written to MySQL
+		ReservationJournal.Target replay = new ReservationJournal.Target() {
+			@Override
+			public void put(int orderNumber, int numberOfGuests, int orderDay, int confirmationCode,
+					int subscriberId, int placingDay) {
+				// Inserts are not logged
+			}
+
+			@Override
+			public void update(int orderNumber, int numberOfGuests, int orderDay) {
+				pending.put(orderNumber, new Pending(numberOfGuests, orderDay, System.nanoTime()));
+			}
+		};
+		long next = 1;
+		for (long segment : ReservationJournal.segments(dir)) {
+			ReservationJournal.replay(ReservationJournal.segmentFile(dir, segment), replay);
+			next = segment + 1;
+		}
+		if (!pending.isEmpty()) {
+			System.out.println("Write-behind: " + pending.size() + " updates from " + dir + " still to write to MySQL");
+		}
+		log = new ReservationJournal(dir, next, SEGMENT_SIZE, policy, flushMs);
+
+		flusher = new Thread(this::flushLoop, "write-behind-flusher");
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	@Override
+	public Reservation find(int orderNumber) throws SQLException {
+		Reservation r = database.find(orderNumber);
+		Pending p = pending.get(orderNumber);
+		if (r == null || p == null) {
+			return r;
+		}
+		return r.withGuestsAndDate(p.guests, InMemoryReservationStore.toDate(p.orderDay));
+	}
+
+	/**
+	 * Checks that the order exists, logs the change and returns: MySQL is
+	 * updated by the flusher.
+	 */
+	@Override
+	public boolean update(int orderNumber, int numberOfGuests, LocalDate orderDate) throws SQLException {
+		if (!pending.containsKey(orderNumber) && database.find(orderNumber) == null) {
+			return false;
+		}
+		int orderDay = InMemoryReservationStore.toDay(orderDate);
+		synchronized (this) {
+			// Log and map change together, so a flush sees both or neither
+			try {
+				log.appendUpdate(orderNumber, numberOfGuests, orderDay);
+			} catch (IOException e) {
+				throw new SQLException("Write-behind log write failed", e);
+			}
+			Pending old = pending.get(orderNumber);
+			pending.put(orderNumber, new Pending(numberOfGuests, orderDay, old == null ? System.nanoTime() : old.since));
+			if (old != null) {
+				coalesced.increment();
+			}
+		}
+		accepted.increment();
+		if (pending.size() >= batchSize) {
+			LockSupport.unpark(flusher);
+		}
+		return true;
+	}
+
+	@Override
+	public int insert(Reservation reservation) throws SQLException {
+		return database.insert(reservation);
+	}
+
+	@Override
+	public int reserveIds(String sequence, int count) throws SQLException {
+		return database.reserveIds(sequence, count);
+	}
+
+	/**
+	 * Written straight through: only updates are held back.
+	 */
+	@Override
+	public void insertAll(List<Reservation> reservations) throws SQLException {
+		database.insertAll(reservations);
+	}
+
+	/**
+	 * MySQL's totals with the pending changes applied. No flush runs
+	 * meanwhile, so no change is counted twice.
+	 */
+	@Override
+	public Map<LocalDate, Integer> bookedGuestsPerDay() throws SQLException {
+		synchronized (flushLock) {
+			Map<LocalDate, Integer> guestsPerDay = database.bookedGuestsPerDay();
+			for (Map.Entry<Integer, Pending> e : pending.entrySet()) {
+				Reservation stored = database.find(e.getKey());
+				if (stored == null) {
+					continue;
+				}
+				if (stored.getOrderDate() != null) {
+					guestsPerDay.merge(stored.getOrderDate(), -stored.getNumberOfGuests(), Integer::sum);
+				}
+				guestsPerDay.merge(InMemoryReservationStore.toDate(e.getValue().orderDay), e.getValue().guests,
+						Integer::sum);
+			}
+			return guestsPerDay;
+		}
+	}
+
+	/**
+	 * MySQL's rows with the pending changes applied.
+	 */
+	@Override
+	public List<Reservation> allReservations() throws SQLException {
+		synchronized (flushLock) {
+			List<Reservation> all = database.allReservations();
+			for (int i = 0; i < all.size(); i++) {
+				Reservation r = all.get(i);
+				Pending p = pending.get(r.getOrderNumber());
+				if (p != null) {
+					all.set(i, r.withGuestsAndDate(p.guests, InMemoryReservationStore.toDate(p.orderDay)));
+				}
+			}
+			return all;
+		}
+	}
+
+	/**
+	 * Flushes the pending changes first: a change can move a reservation
+	 * into or out of the filtered range, so MySQL must have it for the page
+	 * boundaries to be right.
+	 */
+	@Override
+	public List<Reservation> list(int afterOrderNumber, LocalDate from, LocalDate to, Integer subscriberId,
+			int limit) throws SQLException {
+		if (!pending.isEmpty() && !flush()) {
+			throw new SQLException("Cannot list reservations: " + pending.size() + " updates not yet in MySQL");
+		}
+		return database.list(afterOrderNumber, from, to, subscriberId, limit);
+	}
+
+	private void flushLoop() {
+		try {
+			while (!closing) {
+				LockSupport.parkNanos(flushNanos);
+				flush();
+			}
+		} finally {
+			database.threadFinished();
+		}
+	}
+
+	/**
+	 * Write every pending change to MySQL, in transactions of at most the
+	 * batch size. Changes accepted meanwhile wait for the next flush.
+	 *
+	 * @return false if a transaction failed (its changes stay pending)
+	 */
+	public boolean flush() {
+		synchronized (flushLock) {
+			long keepFrom;
+			List<Map.Entry<Integer, Pending>> batch;
+			synchronized (this) {
+				if (pending.isEmpty()) {
+					return true;
+				}
+				// The segments before this one only hold changes in the batch
+				keepFrom = log.getSegment();
+				batch = new ArrayList<>(pending.size());
+				for (Map.Entry<Integer, Pending> e : pending.entrySet()) {
+					batch.add(Map.entry(e.getKey(), e.getValue()));
+				}
+			}
+
+			int[] orderNumbers = new int[batchSize];
+			int[] guests = new int[batchSize];
+			LocalDate[] dates = new LocalDate[batchSize];
+			for (int from = 0; from < batch.size(); from += batchSize) {
+				int n = Math.min(batchSize, batch.size() - from);
+				for (int i = 0; i < n; i++) {
+					Map.Entry<Integer, Pending> e = batch.get(from + i);
+					orderNumbers[i] = e.getKey();
+					guests[i] = e.getValue().guests;
+					dates[i] = InMemoryReservationStore.toDate(e.getValue().orderDay);
+				}
+				long start = System.nanoTime();
+				try {
+					database.updateAll(orderNumbers, guests, dates, n);
+				} catch (SQLException e) {
+					failures.increment();
+					System.err.println("Write-behind flush failed, " + pending.size() + " updates pending: "
+							+ e.getMessage());
+					return false;
+				}
+				lastBatchMillis = (System.nanoTime() - start) / 1_000_000;
+				batches.increment();
+				flushedRows.add(n);
+				for (int i = 0; i < n; i++) {
+					Map.Entry<Integer, Pending> e = batch.get(from + i);
+					// Unless it changed again meanwhile
+					pending.remove(e.getKey(), e.getValue());
+				}
+			}
+
+			// Everything logged before keepFrom is now in MySQL
+			log.deleteBefore(keepFrom);
+			synchronized (this) {
+				// Nothing accepted meanwhile: the segment only holds changes now in
+				// MySQL, so it is written again from its start instead of growing
+				if (pending.isEmpty()) {
+					log.reset();
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * @return the number of orders with changes not yet in MySQL
+	 */
+	public int getPendingCount() {
+		return pending.size();
+	}
+
+	/**
+	 * @return how long the oldest change not yet in MySQL has been waiting, in ms
+	 */
+	public long getLagMillis() {
+		long now = System.nanoTime();
+		long oldest = now;
+		for (Pending p : pending.values()) {
+			oldest = Math.min(oldest, p.since);
+		}
+		return (now - oldest) / 1_000_000;
+	}
+
+	/**
+	 * Write-behind counters, as
+	 * STORE_STATS|pending|lagMs|accepted|coalesced|flushedRows|batches|failures|lastBatchMs
+	 */
+	public String toStatsReply() {
+		return "STORE_STATS|" + getPendingCount() + '|' + getLagMillis() + '|' + accepted.sum() + '|'
+				+ coalesced.sum() + '|' + flushedRows.sum() + '|' + batches.sum() + '|' + failures.sum() + '|'
+				+ lastBatchMillis;
+	}
+
+	@Override
+	public void threadFinished() {
+		database.threadFinished();
+	}
+
+	/**
+	 * Writes what is pending now; the flusher keeps running.
+	 */
+	@Override
+	public void checkpoint() {
+		if (!flush()) {
+			System.err.println("Write-behind: " + pending.size() + " updates still pending after the checkpoint");
+		}
+		// The caller is not a DB worker: do not keep a connection for it
+		database.threadFinished();
+	}
+
+	/**
+	 * Stops the flusher and writes what is still pending. Changes MySQL does
+	 * not take stay in the log for the next start.
+	 */
+	@Override
+	public void close() {
+		closing = true;
+		LockSupport.unpark(flusher);
+		try {
+			flusher.join(CLOSE_TIMEOUT_MS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (!flush()) {
+			System.err.println("Write-behind: " + pending.size() + " updates kept in the log for the next start");
+		}
+		log.close();
+		database.threadFinished();
+		database.close();
+	}
+}
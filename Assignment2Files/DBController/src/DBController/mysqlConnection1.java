@@ -7,6 +7,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Properties;
 import java.util.Scanner;
 
 public class mysqlConnection1 {
@@ -78,15 +79,63 @@ public class mysqlConnection1 {
 	    }
 	}
 
+	/**
+	 * Database of the primary (all writes), as host:port/schema.
+	 * Set with -Dbistro.db.
+	 */
+	public static final String PRIMARY_DATABASE = System.getProperty("bistro.db", "localhost:3306/bistro");
+
+	// Connection settings shared by the primary and the replicas
+	private static final String URL_PARAMETERS = "allowLoadLocalInfile=true&rewriteBatchedStatements=true"
+			+ "&serverTimezone=Asia/Jerusalem&useSSL=false";
+
 	public static Connection getDBConnection() {
+		return getDBConnection(PRIMARY_DATABASE);
+	}
+
+	/**
+	 * Connection to a database given as host:port/schema (the primary or a
+	 * read replica), with the same user and settings.
+	 *
+	 * @return null if the connection failed
+	 */
+	public static Connection getDBConnection(String database) {
+		return getDBConnection(database, new Properties());
+	}
+
+	/**
+	 * Settings for a connection that streams a whole table: with
+	 * useCursorFetch, a forward-only statement with a fetch size reads that
+	 * many rows per round trip instead of the whole result at once. It makes
+	 * every statement a server-side prepare, so only such connections use it.
+	 */
+	public static Properties cursorFetch() {
+		Properties settings = new Properties();
+		settings.setProperty("useCursorFetch", "true");
+		return settings;
+	}
+
+	/**
+	 * Same, with driver settings of its own on top of the shared ones (e.g.
+	 * {@link #cursorFetch()}).
+	 *
+	 * @return null if the connection failed
+	 */
+	public static Connection getDBConnection(String database, Properties settings) {
 
 		Connection conn = null;
 		try {
-			conn = DriverManager.getConnection(
-					"jdbc:mysql://localhost:3306/bistro?allowLoadLocalInfile=true&serverTimezone=Asia/Jerusalem&useSSL=false",
-					"root", "Rootroot");
+			Properties info = new Properties();
+			info.putAll(settings);
+			info.setProperty("user", "root");
+			info.setProperty("password", "Rootroot");
+			conn = DriverManager.getConnection("jdbc:mysql://" + database + "?" + URL_PARAMETERS, info);
 			// Dy1908
-			System.out.println("Database connection established successfully");
+			System.out.println("Database connection established successfully (" + database + ")");
+			// Time every statement; see JdbcStats for the slow-query log settings
+			if (JdbcStats.ENABLED) {
+				conn = InstrumentedConnection.wrap(conn, JdbcStats.getInstance());
+			}
 		} catch (SQLException e) {
 			System.err.println("Failed to connect to database: " + e.getMessage());
 			e.printStackTrace();